@@ -0,0 +1,233 @@
+package com.scaleunlimited.cascading;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+
+import com.scaleunlimited.maps.HashUtils;
+
+/**
+ * Count-Min sketch for estimating the count of each item in a stream, using a fixed-size
+ * table of <depth> rows by <width> counters. Each item is hashed to one counter per row, and
+ * the estimate is the smallest of those counters.
+ *
+ * Estimates are never too low, and with probability 1 - delta they're at most epsilon * N too
+ * high (for N total counts), where width = e/epsilon and depth = ln(1/delta). Sketches with
+ * the same dimensions can be merged by adding their tables, so each map task can build one,
+ * and the reducer merges them.
+ *
+ * Since a sketch is often built by one flow and used by the next, there's support for saving
+ * it to a directory that can be passed to {@link BasePlatform#shareLocalDir(String)}, and then
+ * loading it from the result of {@link BasePlatform#copySharedDirToLocal(cascading.flow.FlowProcess, String)}.
+ *
+ * See "An Improved Data Stream Summary: The Count-Min Sketch and its Applications" by Cormode
+ * and Muthukrishnan.
+ */
+public class CountMinSketch implements Writable {
+
+    public static final double DEFAULT_EPSILON = 0.0001;
+    public static final double DEFAULT_DELTA = 0.001;
+
+    public static final String SKETCH_FILENAME = "count-min-sketch.bin";
+
+    private static final long HASH_SEED = 0x5BD1E995L;
+
+    private int _depth;
+    private int _width;
+    private long[] _counts;
+    private long _totalCount;
+
+    /**
+     * Create an empty sketch, typically for calling {@link #readFields(DataInput)}.
+     */
+    public CountMinSketch() {
+        this(1, 1);
+    }
+
+    /**
+     * @param depth number of rows (hash functions)
+     * @param width number of counters in each row
+     */
+    public CountMinSketch(int depth, int width) {
+        if ((depth < 1) || (width < 1)) {
+            throw new IllegalArgumentException(String.format("Depth (%d) and width (%d) must be > 0", depth, width));
+        }
+
+        _depth = depth;
+        _width = width;
+        _counts = new long[depth * width];
+        _totalCount = 0;
+    }
+
+    /**
+     * Create a sketch where estimates are at most <epsilon> * total count too high, with
+     * probability 1 - <delta>.
+     */
+    public static CountMinSketch create(double epsilon, double delta) {
+        if (!(epsilon > 0.0) || (epsilon >= 1.0)) {
+            throw new IllegalArgumentException("Epsilon must be between 0.0 and 1.0: " + epsilon);
+        }
+
+        if (!(delta > 0.0) || (delta >= 1.0)) {
+            throw new IllegalArgumentException("Delta must be between 0.0 and 1.0: " + delta);
+        }
+
+        int width = (int)Math.ceil(Math.E / epsilon);
+        int depth = (int)Math.ceil(Math.log(1.0 / delta));
+        return new CountMinSketch(depth, width);
+    }
+
+    public int getDepth() {
+        return _depth;
+    }
+
+    public int getWidth() {
+        return _width;
+    }
+
+    /**
+     * @return sum of the counts of all items that have been added (including via merges).
+     */
+    public long getTotalCount() {
+        return _totalCount;
+    }
+
+    public void clear() {
+        Arrays.fill(_counts, 0);
+        _totalCount = 0;
+    }
+
+    public void add(CharSequence item) {
+        add(item, 1);
+    }
+
+    /**
+     * Add <count> occurrences of <item>.
+     */
+    public void add(CharSequence item, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count can't be negative: " + count);
+        }
+
+        long hash = HashUtils.getMurmur3LongHash(item, HASH_SEED);
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for (int row = 0; row < _depth; row++) {
+            _counts[(row * _width) + getColumn(h1, h2, row)] += count;
+        }
+
+        _totalCount += count;
+    }
+
+    /**
+     * @return estimated count for <item>, which is never too low.
+     */
+    public long getCount(CharSequence item) {
+        long hash = HashUtils.getMurmur3LongHash(item, HASH_SEED);
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        long result = Long.MAX_VALUE;
+        for (int row = 0; row < _depth; row++) {
+            result = Math.min(result, _counts[(row * _width) + getColumn(h1, h2, row)]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Derive the hash for each row from two halves of a single 64-bit hash, as per
+     * "Less Hashing, Same Performance" by Kirsch and Mitzenmacher.
+     */
+    private int getColumn(int h1, int h2, int row) {
+        int hash = h1 + (row * h2);
+        return (hash & Integer.MAX_VALUE) % _width;
+    }
+
+    /**
+     * Merge <other> into this sketch. Both sketches must have the same dimensions.
+     */
+    public void merge(CountMinSketch other) {
+        if ((other._depth != _depth) || (other._width != _width)) {
+            throw new IllegalArgumentException(String.format("Can't merge %dx%d sketch with %dx%d sketch", _depth, _width, other._depth, other._width));
+        }
+
+        for (int i = 0; i < _counts.length; i++) {
+            _counts[i] += other._counts[i];
+        }
+
+        _totalCount += other._totalCount;
+    }
+
+    /**
+     * Write the sketch to a file in <dir>, creating the directory if needed. The directory
+     * can then be passed to {@link BasePlatform#shareLocalDir(String)}.
+     */
+    public void writeToDir(File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, SKETCH_FILENAME))));
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Load a sketch that was saved by {@link #writeToDir(File)}.
+     */
+    public static CountMinSketch readFromDir(File dir) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(dir, SKETCH_FILENAME))));
+        try {
+            CountMinSketch result = new CountMinSketch();
+            result.readFields(in);
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(_depth);
+        out.writeInt(_width);
+        out.writeLong(_totalCount);
+        for (long count : _counts) {
+            out.writeLong(count);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int depth = in.readInt();
+        int width = in.readInt();
+        if ((depth < 1) || (width < 1)) {
+            throw new IOException(String.format("Invalid depth (%d) or width (%d)", depth, width));
+        }
+
+        _depth = depth;
+        _width = width;
+        _totalCount = in.readLong();
+        _counts = new long[depth * width];
+        for (int i = 0; i < _counts.length; i++) {
+            _counts[i] = in.readLong();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CountMinSketch(depth=%d, width=%d, total=%d)", _depth, _width, _totalCount);
+    }
+}
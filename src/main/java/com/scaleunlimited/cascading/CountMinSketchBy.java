@@ -0,0 +1,207 @@
+package com.scaleunlimited.cascading;
+
+import java.beans.ConstructorProperties;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.Aggregator;
+import cascading.operation.AggregatorCall;
+import cascading.operation.BaseOperation;
+import cascading.operation.OperationCall;
+import cascading.pipe.Pipe;
+import cascading.pipe.assembly.AggregateBy;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+/**
+ * AggregateBy that builds a {@link CountMinSketch} of the items in <itemField> for each group,
+ * optionally weighted by the (long) value in <countField>. The map side adds items to a sketch
+ * for each group, and the reduce side merges the sketches, so only one fixed-size table per group
+ * per map task goes through the shuffle.
+ *
+ * The result is a single tuple per group, with the sketch in <sketchField>. Use Fields.NONE for the
+ * grouping fields to get one sketch for everything, e.g. corpus-wide term counts.
+ *
+ * Each sketch is depth * width longs (about 1.5MB with the default error bounds), so this is meant
+ * for a small number of groups. Use looser error bounds and a smaller threshold when that's not the case.
+ */
+@SuppressWarnings({"serial", "rawtypes"})
+public class CountMinSketchBy extends AggregateBy {
+
+    /**
+     * Map-side half of the calculation, which adds each item to a sketch for the group.
+     */
+    public static class CountMinSketchPartials implements Functor {
+
+        private Fields _declaredFields;
+        private int _depth;
+        private int _width;
+
+        /**
+         * @param sketchField result field, used to make a unique name for the partial sketch field.
+         * @param depth number of rows in the sketch
+         * @param width number of counters in each row
+         */
+        public CountMinSketchPartials(Fields sketchField, int depth, int width) {
+            _declaredFields = new Fields("__" + sketchField.get(0) + "_partial");
+            _depth = depth;
+            _width = width;
+        }
+
+        @Override
+        public Fields getDeclaredFields() {
+            return _declaredFields;
+        }
+
+        @Override
+        public Tuple aggregate(FlowProcess flowProcess, TupleEntry args, Tuple context) {
+            if (context == null) {
+                context = new Tuple(new CountMinSketch(_depth, _width));
+            }
+
+            // Null items (and null counts) are ignored.
+            String item = args.getString(0);
+            if (item != null) {
+                if (args.size() == 1) {
+                    ((CountMinSketch)context.getObject(0)).add(item);
+                } else if (args.getObject(1) != null) {
+                    ((CountMinSketch)context.getObject(0)).add(item, args.getLong(1));
+                }
+            }
+
+            return context;
+        }
+
+        @Override
+        public Tuple complete(FlowProcess flowProcess, Tuple context) {
+            return context;
+        }
+    }
+
+    /**
+     * Reduce-side half of the calculation, which merges the sketches for a group, and emits
+     * the result.
+     */
+    public static class MergeCountMinSketches extends BaseOperation<CountMinSketch> implements Aggregator<CountMinSketch> {
+
+        private int _depth;
+        private int _width;
+
+        private transient Tuple _result;
+
+        public MergeCountMinSketches(Fields sketchField, int depth, int width) {
+            super(1, sketchField);
+
+            _depth = depth;
+            _width = width;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<CountMinSketch> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _result = Tuple.size(1);
+        }
+
+        @Override
+        public void start(FlowProcess flowProcess, AggregatorCall<CountMinSketch> aggregatorCall) {
+            // We emit the context, so it can't be reused for the next group.
+            aggregatorCall.setContext(new CountMinSketch(_depth, _width));
+        }
+
+        @Override
+        public void aggregate(FlowProcess flowProcess, AggregatorCall<CountMinSketch> aggregatorCall) {
+            CountMinSketch partial = (CountMinSketch)aggregatorCall.getArguments().getObject(0);
+            aggregatorCall.getContext().merge(partial);
+        }
+
+        @Override
+        public void complete(FlowProcess flowProcess, AggregatorCall<CountMinSketch> aggregatorCall) {
+            _result.set(0, aggregatorCall.getContext());
+            aggregatorCall.getOutputCollector().add(_result);
+        }
+    }
+
+    /**
+     * Create an instance for use with the composite AggregateBy constructor.
+     *
+     * @param itemField
+     *            field with the items to count
+     * @param countField
+     *            field with the count for each item, or null to count each one as 1
+     * @param sketchField
+     *            result field for the sketch
+     * @param epsilon
+     *            max error in the estimated counts, as a fraction of the total count
+     * @param delta
+     *            probability that an estimate is off by more than epsilon
+     */
+    @ConstructorProperties({ "itemField", "countField", "sketchField", "epsilon", "delta" })
+    public CountMinSketchBy(Fields itemField, Fields countField, Fields sketchField, double epsilon, double delta) {
+        this(itemField, countField, sketchField, CountMinSketch.create(epsilon, delta));
+    }
+
+    private CountMinSketchBy(Fields itemField, Fields countField, Fields sketchField, CountMinSketch template) {
+        super(makeArgumentFields(itemField, countField), makePartials(sketchField, template), makeMerger(sketchField, template));
+    }
+
+    @ConstructorProperties({ "pipe", "groupingFields", "itemField", "countField", "sketchField" })
+    public CountMinSketchBy(Pipe pipe, Fields groupingFields, Fields itemField, Fields countField, Fields sketchField) {
+        this(null, Pipe.pipes(pipe), groupingFields, itemField, countField, sketchField, CountMinSketch.DEFAULT_EPSILON, CountMinSketch.DEFAULT_DELTA, CompositeFunction.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param name
+     *            of type String
+     * @param pipes
+     *            of type Pipe[]
+     * @param groupingFields
+     *            fields to group by, or Fields.NONE for a single sketch
+     * @param itemField
+     *            field with the items to count
+     * @param countField
+     *            field with the count for each item, or null to count each one as 1
+     * @param sketchField
+     *            result field for the sketch
+     * @param epsilon
+     *            max error in the estimated counts, as a fraction of the total count
+     * @param delta
+     *            probability that an estimate is off by more than epsilon
+     * @param threshold
+     *            number of groups to cache on the map side, before flushing their sketches
+     */
+    @ConstructorProperties({ "name", "pipes", "groupingFields", "itemField", "countField", "sketchField", "epsilon", "delta", "threshold" })
+    public CountMinSketchBy(String name, Pipe[] pipes, Fields groupingFields, Fields itemField, Fields countField, Fields sketchField, double epsilon, double delta, int threshold) {
+        this(name, pipes, groupingFields, itemField, countField, sketchField, CountMinSketch.create(epsilon, delta), threshold);
+    }
+
+    private CountMinSketchBy(String name, Pipe[] pipes, Fields groupingFields, Fields itemField, Fields countField, Fields sketchField, CountMinSketch template, int threshold) {
+        super(name, pipes, groupingFields, makeArgumentFields(itemField, countField), makePartials(sketchField, template), makeMerger(sketchField, template), threshold);
+    }
+
+    private static Fields makeArgumentFields(Fields itemField, Fields countField) {
+        if (itemField.size() != 1) {
+            throw new IllegalArgumentException("Item field must be a single field: " + itemField);
+        }
+
+        if (countField == null) {
+            return itemField;
+        } else if (countField.size() != 1) {
+            throw new IllegalArgumentException("Count field must be a single field: " + countField);
+        } else {
+            return itemField.append(countField);
+        }
+    }
+
+    private static CountMinSketchPartials makePartials(Fields sketchField, CountMinSketch template) {
+        if (sketchField.size() != 1) {
+            throw new IllegalArgumentException("Sketch field must be a single field: " + sketchField);
+        }
+
+        return new CountMinSketchPartials(sketchField, template.getDepth(), template.getWidth());
+    }
+
+    private static MergeCountMinSketches makeMerger(Fields sketchField, CountMinSketch template) {
+        return new MergeCountMinSketches(sketchField, template.getDepth(), template.getWidth());
+    }
+}
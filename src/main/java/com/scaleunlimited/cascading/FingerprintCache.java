@@ -0,0 +1,173 @@
+package com.scaleunlimited.cascading;
+
+import java.util.Arrays;
+
+/**
+ * A bounded set of 64-bit fingerprints, used to remove duplicate values (e.g. on the map side,
+ * before a GroupBy) without keeping the values themselves. Fingerprints are stored in a long[]
+ * using open addressing (linear probing), so each entry costs 16 bytes of table space plus one
+ * bit, versus a Tuple, a map entry and linked list nodes for a LinkedHashMap-based LRU cache.
+ *
+ * Once the cache holds <maxEntries> fingerprints, adding a new one evicts an old one using the
+ * CLOCK algorithm, which approximates LRU: each lookup hit sets a "referenced" bit, and the clock
+ * hand sweeps through the table clearing those bits, until it finds an entry that hasn't been
+ * referenced since the last sweep.
+ *
+ * Two different values with the same fingerprint are treated as the same value, so callers
+ * that can't tolerate (very rare) false duplicates need to use an exact cache.
+ */
+public class FingerprintCache {
+
+    // We never store a zero fingerprint, so that we can use zero to mean "empty slot".
+    private static final long EMPTY = 0;
+    private static final long ZERO_FINGERPRINT = 0x9E3779B97F4A7C15L;
+
+    private final int _maxEntries;
+    private final long[] _slots;
+    private final long[] _referenced;
+    private final int _mask;
+
+    private int _size;
+    private int _hand;
+
+    /**
+     * @param maxEntries number of fingerprints to keep before we start evicting.
+     */
+    public FingerprintCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be > 0: " + maxEntries);
+        }
+
+        // Keep the load factor at or below 0.5, so probe sequences stay short.
+        int numSlots = Integer.highestOneBit(Math.max(2, maxEntries) * 2 - 1) << 1;
+        _maxEntries = maxEntries;
+        _slots = new long[numSlots];
+        _referenced = new long[(numSlots + 63) >>> 6];
+        _mask = numSlots - 1;
+        clear();
+    }
+
+    public int getMaxEntries() {
+        return _maxEntries;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public void clear() {
+        Arrays.fill(_slots, EMPTY);
+        Arrays.fill(_referenced, 0);
+        _size = 0;
+        _hand = 0;
+    }
+
+    /**
+     * Add <fingerprint>, evicting an old entry if we're full.
+     *
+     * @return true if the fingerprint was added, or false if it was already in the cache.
+     */
+    public boolean add(long fingerprint) {
+        if (fingerprint == EMPTY) {
+            fingerprint = ZERO_FINGERPRINT;
+        }
+
+        int slot = findSlot(fingerprint);
+        if (_slots[slot] == fingerprint) {
+            setReferenced(slot);
+            return false;
+        }
+
+        if (_size == _maxEntries) {
+            evict();
+
+            // Evicting can shift entries around, so we need to find our (empty) slot again.
+            slot = findSlot(fingerprint);
+        }
+
+        _slots[slot] = fingerprint;
+        clearReferenced(slot);
+        _size += 1;
+        return true;
+    }
+
+    public boolean contains(long fingerprint) {
+        if (fingerprint == EMPTY) {
+            fingerprint = ZERO_FINGERPRINT;
+        }
+
+        return _slots[findSlot(fingerprint)] == fingerprint;
+    }
+
+    /**
+     * @return slot that contains <fingerprint>, or the empty slot where it would go.
+     */
+    private int findSlot(long fingerprint) {
+        int slot = (int)(fingerprint ^ (fingerprint >>> 32)) & _mask;
+        while ((_slots[slot] != EMPTY) && (_slots[slot] != fingerprint)) {
+            slot = (slot + 1) & _mask;
+        }
+
+        return slot;
+    }
+
+    private void evict() {
+        while (true) {
+            int slot = _hand;
+            _hand = (_hand + 1) & _mask;
+
+            if (_slots[slot] == EMPTY) {
+                continue;
+            } else if (isReferenced(slot)) {
+                clearReferenced(slot);
+            } else {
+                remove(slot);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the entry in <slot>, shifting back any following entries in the same probe
+     * sequence (so we don't need tombstones).
+     */
+    private void remove(int slot) {
+        int hole = slot;
+        int cur = (slot + 1) & _mask;
+        while (_slots[cur] != EMPTY) {
+            long fingerprint = _slots[cur];
+            int home = (int)(fingerprint ^ (fingerprint >>> 32)) & _mask;
+
+            // Can the entry at <cur> move back to the hole? Only if its home slot isn't
+            // (cyclically) between the hole and its current position.
+            if (((cur - home) & _mask) >= ((cur - hole) & _mask)) {
+                _slots[hole] = fingerprint;
+                if (isReferenced(cur)) {
+                    setReferenced(hole);
+                } else {
+                    clearReferenced(hole);
+                }
+
+                hole = cur;
+            }
+
+            cur = (cur + 1) & _mask;
+        }
+
+        _slots[hole] = EMPTY;
+        clearReferenced(hole);
+        _size -= 1;
+    }
+
+    private boolean isReferenced(int slot) {
+        return (_referenced[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    private void setReferenced(int slot) {
+        _referenced[slot >>> 6] |= (1L << slot);
+    }
+
+    private void clearReferenced(int slot) {
+        _referenced[slot >>> 6] &= ~(1L << slot);
+    }
+}
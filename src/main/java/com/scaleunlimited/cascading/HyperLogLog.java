@@ -0,0 +1,269 @@
+package com.scaleunlimited.cascading;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * HyperLogLog sketch for estimating the number of distinct values, given a 64-bit hash
+ * of each value. The relative standard error is about 1.04/sqrt(2^precision), so the default
+ * precision of 14 (16K registers) gives roughly 0.8%.
+ *
+ * Small sketches use a sparse list of (register, rank) pairs, which switches to the full
+ * byte-per-register array once that would be smaller. This matters when there are lots of
+ * groups with only a few values each (e.g. unique URLs per domain), since every sketch gets
+ * cached on the map side and sent through the shuffle.
+ *
+ * Since we use a 64-bit hash, no large-range correction is needed. For small cardinalities
+ * we use linear counting, as per the original paper.
+ *
+ * See "HyperLogLog: the analysis of a near-optimal cardinality estimation algorithm" by
+ * Flajolet, Fusy, Gandouet and Meunier.
+ */
+public class HyperLogLog implements Writable {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    public static final int DEFAULT_PRECISION = 14;
+
+    // Each sparse entry is (register << 8) | rank, sorted by register.
+    private static final int RANK_BITS = 8;
+    private static final int RANK_MASK = (1 << RANK_BITS) - 1;
+
+    private int _precision;
+    private byte[] _registers;
+    private int[] _sparse;
+    private int _numSparse;
+
+    /**
+     * Create an empty sketch with the default precision, typically for calling
+     * {@link #readFields(DataInput)}.
+     */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision log2 of the number of registers, from MIN_PRECISION to MAX_PRECISION.
+     */
+    public HyperLogLog(int precision) {
+        if ((precision < MIN_PRECISION) || (precision > MAX_PRECISION)) {
+            throw new IllegalArgumentException(String.format("Precision must be between %d and %d: %d", MIN_PRECISION, MAX_PRECISION, precision));
+        }
+
+        _precision = precision;
+        clear();
+    }
+
+    public int getPrecision() {
+        return _precision;
+    }
+
+    public void clear() {
+        _registers = null;
+        _sparse = new int[4];
+        _numSparse = 0;
+    }
+
+    /**
+     * Add a value, given a well-mixed 64-bit hash of it.
+     */
+    public void add(long hash) {
+        int register = (int)(hash >>> (64 - _precision));
+
+        // Rank is the position of the first 1 bit in the remaining bits. We set a bit at the
+        // end, so that a hash of all zeros doesn't run past our bits.
+        long w = (hash << _precision) | (1L << (_precision - 1));
+        int rank = Long.numberOfLeadingZeros(w) + 1;
+        setMax(register, rank);
+    }
+
+    private void setMax(int register, int rank) {
+        if (_registers != null) {
+            if (_registers[register] < rank) {
+                _registers[register] = (byte)rank;
+            }
+
+            return;
+        }
+
+        int index = findSparse(register);
+        if (index >= 0) {
+            if ((_sparse[index] & RANK_MASK) < rank) {
+                _sparse[index] = (register << RANK_BITS) | rank;
+            }
+
+            return;
+        }
+
+        // Switch to the dense form once the sparse list would use as much memory.
+        if ((_numSparse + 1) * 4 > getNumRegisters()) {
+            toDense();
+            _registers[register] = (byte)rank;
+            return;
+        }
+
+        index = -(index + 1);
+        if (_numSparse == _sparse.length) {
+            _sparse = Arrays.copyOf(_sparse, _sparse.length * 2);
+        }
+
+        System.arraycopy(_sparse, index, _sparse, index + 1, _numSparse - index);
+        _sparse[index] = (register << RANK_BITS) | rank;
+        _numSparse += 1;
+    }
+
+    /**
+     * @return index of <register> in the sparse list, or -(insertion point + 1).
+     */
+    private int findSparse(int register) {
+        int lo = 0;
+        int hi = _numSparse - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midRegister = _sparse[mid] >>> RANK_BITS;
+            if (midRegister < register) {
+                lo = mid + 1;
+            } else if (midRegister > register) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -(lo + 1);
+    }
+
+    private void toDense() {
+        _registers = new byte[getNumRegisters()];
+        for (int i = 0; i < _numSparse; i++) {
+            _registers[_sparse[i] >>> RANK_BITS] = (byte)(_sparse[i] & RANK_MASK);
+        }
+
+        _sparse = null;
+        _numSparse = 0;
+    }
+
+    private int getNumRegisters() {
+        return 1 << _precision;
+    }
+
+    /**
+     * Merge <other> into this sketch, so we estimate the number of distinct values in the
+     * union of the two. The precisions have to be the same.
+     */
+    public void merge(HyperLogLog other) {
+        if (other._precision != _precision) {
+            throw new IllegalArgumentException(String.format("Can't merge sketches with different precisions (%d and %d)", _precision, other._precision));
+        }
+
+        if (other._registers == null) {
+            for (int i = 0; i < other._numSparse; i++) {
+                setMax(other._sparse[i] >>> RANK_BITS, other._sparse[i] & RANK_MASK);
+            }
+        } else {
+            if (_registers == null) {
+                toDense();
+            }
+
+            for (int i = 0; i < _registers.length; i++) {
+                if (_registers[i] < other._registers[i]) {
+                    _registers[i] = other._registers[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return estimated number of distinct values that have been added.
+     */
+    public long getEstimate() {
+        int m = getNumRegisters();
+        double sum = 0.0;
+        int numZeros = 0;
+
+        if (_registers == null) {
+            for (int i = 0; i < _numSparse; i++) {
+                sum += 1.0 / (1L << (_sparse[i] & RANK_MASK));
+            }
+
+            numZeros = m - _numSparse;
+            sum += numZeros;
+        } else {
+            for (int i = 0; i < m; i++) {
+                int rank = _registers[i];
+                sum += 1.0 / (1L << rank);
+                if (rank == 0) {
+                    numZeros += 1;
+                }
+            }
+        }
+
+        double estimate = getAlpha(m) * m * m / sum;
+        if ((estimate <= 2.5 * m) && (numZeros > 0)) {
+            // Linear counting is more accurate for small cardinalities.
+            estimate = m * Math.log((double)m / numZeros);
+        }
+
+        return Math.round(estimate);
+    }
+
+    private static double getAlpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1.0 + 1.079 / m);
+        }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(_precision);
+        if (_registers == null) {
+            out.writeBoolean(true);
+            out.writeInt(_numSparse);
+            for (int i = 0; i < _numSparse; i++) {
+                out.writeInt(_sparse[i]);
+            }
+        } else {
+            out.writeBoolean(false);
+            out.write(_registers);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int precision = in.readByte();
+        if ((precision < MIN_PRECISION) || (precision > MAX_PRECISION)) {
+            throw new IOException("Invalid precision: " + precision);
+        }
+
+        _precision = precision;
+        if (in.readBoolean()) {
+            _registers = null;
+            _numSparse = in.readInt();
+            _sparse = new int[Math.max(4, _numSparse)];
+            for (int i = 0; i < _numSparse; i++) {
+                _sparse[i] = in.readInt();
+            }
+        } else {
+            _sparse = null;
+            _numSparse = 0;
+            _registers = new byte[getNumRegisters()];
+            in.readFully(_registers);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HyperLogLog(precision=%d, estimate=%d)", _precision, getEstimate());
+    }
+}
@@ -0,0 +1,116 @@
+package com.scaleunlimited.cascading;
+
+import java.util.Arrays;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.Aggregator;
+import cascading.operation.AggregatorCall;
+import cascading.operation.BaseOperation;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Calculates the (population) standard deviation of several numeric fields at once, e.g. for
+ * 20 different metrics, versus using 20 Every pipes, each with its own {@link StdDeviation}
+ * and Context per group.
+ * 
+ * The state is kept as parallel arrays (count, mean and M2 for each field), and each tuple is
+ * handled by one loop over the fields, using Welford's method. Null values are ignored, so each
+ * field has its own count. A field without any values gets a standard deviation of 0.
+ * 
+ * There's one result field for each argument field, in the same order, e.g.
+ * 
+ * <pre>
+ * new Every(pipe, new Fields("latency", "size"), new MultiFieldStdDeviation(new Fields("latency_sd", "size_sd")));
+ * </pre>
+ * 
+ * Note that unlike {@link StdDeviation}, this doesn't estimate quartiles.
+ */
+@SuppressWarnings("serial")
+public class MultiFieldStdDeviation extends BaseOperation<MultiFieldStdDeviation.Context> implements Aggregator<MultiFieldStdDeviation.Context> {
+
+    /** Class Context is used to hold intermediate values for all of the fields. */
+    protected static class Context {
+        private final long[] counts;
+        private final double[] means;
+        private final double[] m2s;
+        
+        public Context(int numFields) {
+            counts = new long[numFields];
+            means = new double[numFields];
+            m2s = new double[numFields];
+        }
+        
+        public Context reset() {
+            Arrays.fill(counts, 0);
+            Arrays.fill(means, 0.0);
+            Arrays.fill(m2s, 0.0);
+            return this;
+        }
+        
+        public void add(Tuple values) {
+            for (int i = 0; i < counts.length; i++) {
+                Object value = values.getObject(i);
+                if (value == null) {
+                    continue;
+                }
+                
+                double sample = (value instanceof Number) ? ((Number)value).doubleValue() : values.getDouble(i);
+                long count = ++counts[i];
+                double delta = sample - means[i];
+                means[i] += delta / count;
+                m2s[i] += delta * (sample - means[i]);
+            }
+        }
+        
+        public double getSD(int field) {
+            return counts[field] == 0 ? 0.0 : Math.sqrt(m2s[field] / counts[field]);
+        }
+    }
+    
+    private transient Tuple _result;
+    
+    /**
+     * @param fieldDeclaration
+     *            one result field for each argument field
+     */
+    public MultiFieldStdDeviation(Fields fieldDeclaration) {
+        super(fieldDeclaration.size(), fieldDeclaration);
+        
+        if (fieldDeclaration.size() == 0) {
+            throw new IllegalArgumentException("fieldDeclaration must declare at least one field");
+        }
+    }
+
+    @Override
+    public void prepare(FlowProcess flowProcess, OperationCall<Context> operationCall) {
+        super.prepare(flowProcess, operationCall);
+        
+        _result = Tuple.size(getFieldDeclaration().size());
+    }
+    
+    @Override
+    public void start(FlowProcess flowProcess, AggregatorCall<Context> aggregatorCall) {
+        if (aggregatorCall.getContext() != null) {
+            aggregatorCall.getContext().reset();
+        } else {
+            aggregatorCall.setContext(new Context(getFieldDeclaration().size()));
+        }
+    }
+
+    @Override
+    public void aggregate(FlowProcess flowProcess, AggregatorCall<Context> aggregatorCall) {
+        aggregatorCall.getContext().add(aggregatorCall.getArguments().getTuple());
+    }
+
+    @Override
+    public void complete(FlowProcess flowProcess, AggregatorCall<Context> aggregatorCall) {
+        Context context = aggregatorCall.getContext();
+        for (int i = 0; i < _result.size(); i++) {
+            _result.set(i, context.getSD(i));
+        }
+        
+        aggregatorCall.getOutputCollector().add(_result);
+    }
+}
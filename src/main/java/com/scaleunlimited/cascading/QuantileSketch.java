@@ -0,0 +1,366 @@
+package com.scaleunlimited.cascading;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * KLL sketch for estimating quantiles (e.g. the median, or the 99th percentile) of a stream of
+ * values, using a fixed amount of memory. Sketches can be merged, so each map task can build a
+ * sketch per group, and the reducer merges them.
+ *
+ * Values are kept in a stack of "compactors". Each value in level h stands for 2^h of the original
+ * values. When a level is full, it gets sorted, and every other value (starting at a random offset)
+ * is promoted to the next level, while the rest are discarded. Lower levels have smaller
+ * capacities, so the sketch never holds more than about 3*k values. The rank error is roughly
+ * 1.7/k, e.g. about 1% for the default k of 200, regardless of the number of values or their
+ * distribution.
+ *
+ * See "Optimal Quantile Approximation in Streams" by Karnin, Lang and Liberty.
+ */
+public class QuantileSketch implements Writable {
+
+    public static final int MIN_K = 8;
+    public static final int DEFAULT_K = 200;
+
+    private static final int MIN_LEVEL_CAPACITY = 2;
+
+    private int _k;
+    private double[][] _levels;
+    private int[] _levelSizes;
+    private int _numLevels;
+    private int _bottomCapacity;
+    private long _count;
+    private double _min;
+    private double _max;
+
+    // xorshift state, for picking which half of a compactor gets promoted.
+    private long _random;
+
+    /**
+     * Create an empty sketch with the default k, typically for calling
+     * {@link #readFields(DataInput)}.
+     */
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k size of the largest compactor, which controls the accuracy.
+     */
+    public QuantileSketch(int k) {
+        if (k < MIN_K) {
+            throw new IllegalArgumentException(String.format("k must be at least %d: %d", MIN_K, k));
+        }
+
+        _k = k;
+        _random = 0x2545F4914F6CDD1DL;
+        clear();
+    }
+
+    public int getK() {
+        return _k;
+    }
+
+    public void clear() {
+        _levels = new double[1][];
+        _levels[0] = new double[getCapacity(0, 1)];
+        _levelSizes = new int[1];
+        _numLevels = 1;
+        _bottomCapacity = getCapacity(0, 1);
+        _count = 0;
+        _min = Double.NaN;
+        _max = Double.NaN;
+    }
+
+    /**
+     * @return number of values that have been added (including via merges).
+     */
+    public long getCount() {
+        return _count;
+    }
+
+    public double getMin() {
+        return _min;
+    }
+
+    public double getMax() {
+        return _max;
+    }
+
+    /**
+     * Add <value> to the sketch. NaN values are ignored.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        updateMinMax(value, value);
+        _count += 1;
+        append(0, value);
+
+        if (_levelSizes[0] >= _bottomCapacity) {
+            compress();
+        }
+    }
+
+    /**
+     * Merge <other> into this sketch. The sketches don't need to have the same k, but the
+     * merged sketch keeps our k.
+     */
+    public void merge(QuantileSketch other) {
+        if (other._count == 0) {
+            return;
+        }
+
+        updateMinMax(other._min, other._max);
+        _count += other._count;
+
+        for (int level = 0; level < other._numLevels; level++) {
+            while (level >= _numLevels) {
+                addLevel();
+            }
+
+            for (int i = 0; i < other._levelSizes[level]; i++) {
+                append(level, other._levels[level][i]);
+            }
+        }
+
+        compress();
+    }
+
+    /**
+     * @param fraction quantile to estimate, from 0.0 (the minimum) to 1.0 (the maximum).
+     * @return estimated value at that quantile, or NaN if the sketch is empty.
+     */
+    public double getQuantile(double fraction) {
+        return getQuantiles(new double[] { fraction })[0];
+    }
+
+    /**
+     * Estimate several quantiles at once, which is faster than calling {@link #getQuantile(double)}
+     * for each one.
+     */
+    public double[] getQuantiles(double[] fractions) {
+        for (double fraction : fractions) {
+            checkFraction(fraction);
+        }
+
+        double[] result = new double[fractions.length];
+        if (_count == 0) {
+            Arrays.fill(result, Double.NaN);
+            return result;
+        }
+
+        // Build a sorted list of the retained values, with the cumulative weight at each one.
+        int numValues = 0;
+        for (int level = 0; level < _numLevels; level++) {
+            numValues += _levelSizes[level];
+        }
+
+        double[] values = new double[numValues];
+        long[] weights = new long[numValues];
+        int numMerged = 0;
+        for (int level = 0; level < _numLevels; level++) {
+            int size = _levelSizes[level];
+            Arrays.sort(_levels[level], 0, size);
+            numMerged = mergeSorted(values, weights, numMerged, _levels[level], size, 1L << level);
+        }
+
+        for (int i = 1; i < numValues; i++) {
+            weights[i] += weights[i - 1];
+        }
+
+        for (int i = 0; i < fractions.length; i++) {
+            double fraction = fractions[i];
+            if (fraction == 0.0) {
+                result[i] = _min;
+            } else if (fraction == 1.0) {
+                result[i] = _max;
+            } else {
+                // Find the first value where the cumulative weight is >= the target rank.
+                long rank = (long)Math.ceil(fraction * _count);
+                int index = Arrays.binarySearch(weights, rank);
+                if (index < 0) {
+                    index = -(index + 1);
+                }
+
+                result[i] = values[Math.min(index, numValues - 1)];
+            }
+        }
+
+        return result;
+    }
+
+    private static void checkFraction(double fraction) {
+        if (!(fraction >= 0.0) || (fraction > 1.0)) {
+            throw new IllegalArgumentException("Quantile must be between 0.0 and 1.0: " + fraction);
+        }
+    }
+
+    /**
+     * Merge the sorted <levelValues> (each with weight <weight>) into the first <numMerged> entries
+     * of <values>/<weights>, which are also sorted.
+     *
+     * @return new number of merged entries.
+     */
+    private static int mergeSorted(double[] values, long[] weights, int numMerged, double[] levelValues, int levelSize, long weight) {
+        int src = numMerged - 1;
+        int add = levelSize - 1;
+        int dest = numMerged + levelSize - 1;
+
+        // Work backwards, so we can merge in place.
+        while (add >= 0) {
+            if ((src >= 0) && (values[src] > levelValues[add])) {
+                values[dest] = values[src];
+                weights[dest] = weights[src];
+                src -= 1;
+            } else {
+                values[dest] = levelValues[add];
+                weights[dest] = weight;
+                add -= 1;
+            }
+
+            dest -= 1;
+        }
+
+        return numMerged + levelSize;
+    }
+
+    private void updateMinMax(double min, double max) {
+        if (_count == 0) {
+            _min = min;
+            _max = max;
+        } else {
+            _min = Math.min(_min, min);
+            _max = Math.max(_max, max);
+        }
+    }
+
+    /**
+     * Capacity of <level>, when there are <numLevels> levels. The top level has capacity k,
+     * and each lower level has 2/3 of the capacity of the one above it.
+     */
+    private int getCapacity(int level, int numLevels) {
+        int depth = numLevels - level - 1;
+        return Math.max(MIN_LEVEL_CAPACITY, (int)Math.ceil(_k * Math.pow(2.0 / 3.0, depth)));
+    }
+
+    private void append(int level, double value) {
+        if (_levelSizes[level] == _levels[level].length) {
+            _levels[level] = Arrays.copyOf(_levels[level], Math.max(MIN_LEVEL_CAPACITY, _levels[level].length * 2));
+        }
+
+        _levels[level][_levelSizes[level]++] = value;
+    }
+
+    private void addLevel() {
+        if (_numLevels == _levels.length) {
+            _levels = Arrays.copyOf(_levels, _numLevels * 2);
+            _levelSizes = Arrays.copyOf(_levelSizes, _numLevels * 2);
+        }
+
+        _levels[_numLevels] = new double[MIN_LEVEL_CAPACITY];
+        _levelSizes[_numLevels] = 0;
+        _numLevels += 1;
+        _bottomCapacity = getCapacity(0, _numLevels);
+    }
+
+    /**
+     * Compact any level that's at or over its capacity, working up from the bottom, since
+     * compacting one level adds values to the next one.
+     */
+    private void compress() {
+        for (int level = 0; level < _numLevels; level++) {
+            if (_levelSizes[level] >= getCapacity(level, _numLevels)) {
+                if (level + 1 == _numLevels) {
+                    addLevel();
+                }
+
+                compact(level);
+            }
+        }
+    }
+
+    /**
+     * Sort the values in <level>, and promote every other one to the next level. If there's
+     * an odd number of values, the largest one stays behind, so the total weight doesn't change.
+     */
+    private void compact(int level) {
+        double[] values = _levels[level];
+        int size = _levelSizes[level];
+        int numPaired = size & ~1;
+        Arrays.sort(values, 0, size);
+
+        int offset = nextRandomBit();
+        for (int i = offset; i < numPaired; i += 2) {
+            append(level + 1, values[i]);
+        }
+
+        if (numPaired < size) {
+            values[0] = values[size - 1];
+        }
+
+        _levelSizes[level] = size - numPaired;
+    }
+
+    private int nextRandomBit() {
+        _random ^= _random << 13;
+        _random ^= _random >>> 7;
+        _random ^= _random << 17;
+        return (int)(_random >>> 63);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(_k);
+        out.writeLong(_count);
+        out.writeDouble(_min);
+        out.writeDouble(_max);
+        out.writeInt(_numLevels);
+        for (int level = 0; level < _numLevels; level++) {
+            out.writeInt(_levelSizes[level]);
+            for (int i = 0; i < _levelSizes[level]; i++) {
+                out.writeDouble(_levels[level][i]);
+            }
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int k = in.readInt();
+        if (k < MIN_K) {
+            throw new IOException("Invalid k: " + k);
+        }
+
+        _k = k;
+        _count = in.readLong();
+        _min = in.readDouble();
+        _max = in.readDouble();
+        _numLevels = in.readInt();
+        if (_numLevels < 1) {
+            throw new IOException("Invalid number of levels: " + _numLevels);
+        }
+
+        _bottomCapacity = getCapacity(0, _numLevels);
+        _levels = new double[_numLevels][];
+        _levelSizes = new int[_numLevels];
+        for (int level = 0; level < _numLevels; level++) {
+            int size = in.readInt();
+            _levels[level] = new double[Math.max(MIN_LEVEL_CAPACITY, size)];
+            _levelSizes[level] = size;
+            for (int i = 0; i < size; i++) {
+                _levels[level][i] = in.readDouble();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QuantileSketch(k=%d, count=%d, median=%f)", _k, _count, getQuantile(0.5));
+    }
+}
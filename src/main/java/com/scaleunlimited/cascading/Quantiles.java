@@ -0,0 +1,113 @@
+package com.scaleunlimited.cascading;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.Aggregator;
+import cascading.operation.AggregatorCall;
+import cascading.operation.BaseOperation;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Aggregator that estimates quantiles (e.g. the median and the 95th and 99th percentiles) of
+ * the values in a field, using a {@link QuantileSketch}. Unlike the quartiles estimated by
+ * {@link StdDeviation}, this works well for skewed data (such as latencies), and uses a fixed
+ * amount of memory per group.
+ * 
+ * There's one result field per quantile, e.g.
+ * 
+ * <pre>
+ * new Every(pipe, new Fields("latency"), new Quantiles(new Fields("p50", "p95", "p99"), new double[] {0.5, 0.95, 0.99}));
+ * </pre>
+ * 
+ * To do most of the work on the map side, use {@link QuantilesBy} instead. Null values are ignored,
+ * and a group without any values gets NaN for each quantile.
+ */
+@SuppressWarnings("serial")
+public class Quantiles extends BaseOperation<QuantileSketch> implements Aggregator<QuantileSketch> {
+
+    private double[] _quantiles;
+    private int _k;
+
+    private transient Tuple _result;
+    
+    public Quantiles(Fields fieldDeclaration, double[] quantiles) {
+        this(fieldDeclaration, quantiles, QuantileSketch.DEFAULT_K);
+    }
+    
+    /**
+     * @param fieldDeclaration
+     *            one result field for each quantile
+     * @param quantiles
+     *            quantiles to estimate, from 0.0 to 1.0 (e.g. 0.5 for the median)
+     * @param k
+     *            accuracy of the sketch (see {@link QuantileSketch})
+     */
+    public Quantiles(Fields fieldDeclaration, double[] quantiles, int k) {
+        super(1, fieldDeclaration);
+        
+        checkQuantiles(fieldDeclaration, quantiles, k);
+        _quantiles = quantiles;
+        _k = k;
+    }
+    
+    /**
+     * Fail fast if the quantiles or k are invalid, versus when the flow is running.
+     */
+    static void checkQuantiles(Fields fieldDeclaration, double[] quantiles, int k) {
+        if (fieldDeclaration.size() != quantiles.length) {
+            throw new IllegalArgumentException(String.format("Got %d result fields for %d quantiles", fieldDeclaration.size(), quantiles.length));
+        }
+        
+        checkQuantiles(quantiles, k);
+    }
+    
+    static void checkQuantiles(double[] quantiles, int k) {
+        for (double quantile : quantiles) {
+            if (!(quantile >= 0.0) || (quantile > 1.0)) {
+                throw new IllegalArgumentException("Quantile must be between 0.0 and 1.0: " + quantile);
+            }
+        }
+        
+        if (k < QuantileSketch.MIN_K) {
+            throw new IllegalArgumentException("Invalid QuantileSketch k: " + k);
+        }
+    }
+    
+    @Override
+    public void prepare(FlowProcess flowProcess, OperationCall<QuantileSketch> operationCall) {
+        super.prepare(flowProcess, operationCall);
+        
+        _result = Tuple.size(_quantiles.length);
+    }
+    
+    @Override
+    public void start(FlowProcess flowProcess, AggregatorCall<QuantileSketch> aggregatorCall) {
+        if (aggregatorCall.getContext() == null) {
+            aggregatorCall.setContext(new QuantileSketch(_k));
+        } else {
+            aggregatorCall.getContext().clear();
+        }
+    }
+
+    @Override
+    public void aggregate(FlowProcess flowProcess, AggregatorCall<QuantileSketch> aggregatorCall) {
+        if (aggregatorCall.getArguments().getObject(0) != null) {
+            aggregatorCall.getContext().add(aggregatorCall.getArguments().getDouble(0));
+        }
+    }
+
+    @Override
+    public void complete(FlowProcess flowProcess, AggregatorCall<QuantileSketch> aggregatorCall) {
+        emitQuantiles(aggregatorCall, _quantiles, _result);
+    }
+    
+    static void emitQuantiles(AggregatorCall<QuantileSketch> aggregatorCall, double[] quantiles, Tuple result) {
+        double[] values = aggregatorCall.getContext().getQuantiles(quantiles);
+        for (int i = 0; i < values.length; i++) {
+            result.set(i, values[i]);
+        }
+        
+        aggregatorCall.getOutputCollector().add(result);
+    }
+}
@@ -0,0 +1,160 @@
+package com.scaleunlimited.cascading;
+
+import java.beans.ConstructorProperties;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.Aggregator;
+import cascading.operation.AggregatorCall;
+import cascading.operation.BaseOperation;
+import cascading.operation.OperationCall;
+import cascading.pipe.Pipe;
+import cascading.pipe.assembly.AggregateBy;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+/**
+ * AggregateBy version of {@link Quantiles}. The map side builds a {@link QuantileSketch} for each
+ * group, and the reduce side merges the sketches, so only one sketch (at most about 3*k values) per
+ * group per map task goes through the shuffle, versus every value.
+ */
+@SuppressWarnings({"serial", "rawtypes"})
+public class QuantilesBy extends AggregateBy {
+
+    /**
+     * Map-side half of the calculation, which adds each value to a sketch for the group.
+     */
+    public static class QuantilePartials implements Functor {
+
+        private Fields _declaredFields;
+        private int _k;
+
+        /**
+         * @param quantileFields result fields, used to make a unique name for the sketch field.
+         * @param k accuracy of the sketch
+         */
+        public QuantilePartials(Fields quantileFields, int k) {
+            _declaredFields = new Fields("__" + quantileFields.get(0) + "_sketch");
+            _k = k;
+        }
+
+        @Override
+        public Fields getDeclaredFields() {
+            return _declaredFields;
+        }
+
+        @Override
+        public Tuple aggregate(FlowProcess flowProcess, TupleEntry args, Tuple context) {
+            if (context == null) {
+                context = new Tuple(new QuantileSketch(_k));
+            }
+
+            if (args.getObject(0) != null) {
+                ((QuantileSketch)context.getObject(0)).add(args.getDouble(0));
+            }
+            
+            return context;
+        }
+
+        @Override
+        public Tuple complete(FlowProcess flowProcess, Tuple context) {
+            return context;
+        }
+    }
+
+    /**
+     * Reduce-side half of the calculation, which merges the sketches for a group, and emits
+     * the estimated quantiles.
+     */
+    public static class MergeQuantiles extends BaseOperation<QuantileSketch> implements Aggregator<QuantileSketch> {
+
+        private double[] _quantiles;
+        private int _k;
+
+        private transient Tuple _result;
+
+        public MergeQuantiles(Fields quantileFields, double[] quantiles, int k) {
+            super(1, quantileFields);
+
+            _quantiles = quantiles;
+            _k = k;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<QuantileSketch> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _result = Tuple.size(_quantiles.length);
+        }
+
+        @Override
+        public void start(FlowProcess flowProcess, AggregatorCall<QuantileSketch> aggregatorCall) {
+            if (aggregatorCall.getContext() == null) {
+                aggregatorCall.setContext(new QuantileSketch(_k));
+            } else {
+                aggregatorCall.getContext().clear();
+            }
+        }
+
+        @Override
+        public void aggregate(FlowProcess flowProcess, AggregatorCall<QuantileSketch> aggregatorCall) {
+            QuantileSketch partial = (QuantileSketch)aggregatorCall.getArguments().getObject(0);
+            aggregatorCall.getContext().merge(partial);
+        }
+
+        @Override
+        public void complete(FlowProcess flowProcess, AggregatorCall<QuantileSketch> aggregatorCall) {
+            Quantiles.emitQuantiles(aggregatorCall, _quantiles, _result);
+        }
+    }
+
+    /**
+     * Create an instance for use with the composite AggregateBy constructor.
+     *
+     * @param valueField
+     *            field with the values
+     * @param quantileFields
+     *            one result field for each quantile
+     * @param quantiles
+     *            quantiles to estimate, from 0.0 to 1.0 (e.g. 0.5 for the median)
+     * @param k
+     *            accuracy of the sketch (see {@link QuantileSketch})
+     */
+    @ConstructorProperties({ "valueField", "quantileFields", "quantiles", "k" })
+    public QuantilesBy(Fields valueField, Fields quantileFields, double[] quantiles, int k) {
+        super(valueField, makePartials(quantileFields, quantiles, k), new MergeQuantiles(quantileFields, quantiles, k));
+    }
+
+    @ConstructorProperties({ "pipe", "groupingFields", "valueField", "quantileFields", "quantiles" })
+    public QuantilesBy(Pipe pipe, Fields groupingFields, Fields valueField, Fields quantileFields, double[] quantiles) {
+        this(null, Pipe.pipes(pipe), groupingFields, valueField, quantileFields, quantiles, QuantileSketch.DEFAULT_K, CompositeFunction.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param name
+     *            of type String
+     * @param pipes
+     *            of type Pipe[]
+     * @param groupingFields
+     *            fields to group by
+     * @param valueField
+     *            field with the values
+     * @param quantileFields
+     *            one result field for each quantile
+     * @param quantiles
+     *            quantiles to estimate, from 0.0 to 1.0 (e.g. 0.5 for the median)
+     * @param k
+     *            accuracy of the sketch (see {@link QuantileSketch})
+     * @param threshold
+     *            number of groups to cache on the map side, before flushing their sketches
+     */
+    @ConstructorProperties({ "name", "pipes", "groupingFields", "valueField", "quantileFields", "quantiles", "k", "threshold" })
+    public QuantilesBy(String name, Pipe[] pipes, Fields groupingFields, Fields valueField, Fields quantileFields, double[] quantiles, int k, int threshold) {
+        super(name, pipes, groupingFields, valueField, makePartials(quantileFields, quantiles, k), new MergeQuantiles(quantileFields, quantiles, k), threshold);
+    }
+    
+    private static QuantilePartials makePartials(Fields quantileFields, double[] quantiles, int k) {
+        Quantiles.checkQuantiles(quantileFields, quantiles, k);
+        return new QuantilePartials(quantileFields, k);
+    }
+}
@@ -0,0 +1,405 @@
+package com.scaleunlimited.cascading;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Buffer;
+import cascading.operation.BufferCall;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.pipe.SubAssembly;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+
+/**
+ * Take a uniform random sample of up to <sampleSize> tuples from each group, without sorting
+ * the full input.
+ *
+ * On the map side we keep a reservoir of tuples for each group (in an LRU cache of <numGroups>
+ * groups), using Li's "Algorithm L", which only needs a random number for the tuples that
+ * actually go into the reservoir. Each reservoir gets emitted along with the number of tuples that
+ * it saw. On the reduce side we merge the reservoirs for a group, two at a time, picking how many
+ * tuples come from each one based on their counts, so that the result is still a uniform sample.
+ * Memory use on both sides is bounded by the sample size, not the group size.
+ *
+ * In global mode (no grouping fields) everything goes to a single reducer, which only has to merge
+ * one reservoir per map task.
+ *
+ * See "Reservoir-Sampling Algorithms of Time Complexity O(n(1 + log(N/n)))" by Kim-Hung Li.
+ */
+@SuppressWarnings({"serial", "rawtypes"})
+public class Sample extends SubAssembly {
+
+    public static final int DEFAULT_NUM_GROUPS = 1000;
+
+    // Internal fields, for the id of each reservoir and the number of tuples that it saw.
+    private static final String RESERVOIR_ID_FN = "Sample-reservoir-id";
+    private static final Fields RESERVOIR_ID_FIELD = new Fields(RESERVOIR_ID_FN);
+    private static final String RESERVOIR_COUNT_FN = "Sample-reservoir-count";
+    private static final Fields RESERVOIR_COUNT_FIELD = new Fields(RESERVOIR_COUNT_FN);
+
+    private static class Reservoir {
+        private Tuple[] _samples;
+        private int _size;
+        private long _count;
+
+        // Algorithm L state - the weight W, and the index of the next tuple to keep.
+        private double _w;
+        private long _next;
+
+        public Reservoir(int sampleSize) {
+            _samples = new Tuple[sampleSize];
+        }
+
+        /**
+         * Add the next tuple, which only gets copied if it's kept.
+         */
+        public void add(TupleEntry args, Fields valueFields, Random rand) {
+            long index = _count++;
+            int sampleSize = _samples.length;
+            if (_size < sampleSize) {
+                _samples[_size++] = args.selectTupleCopy(valueFields);
+                if (_size == sampleSize) {
+                    _w = Math.exp(Math.log(nextDouble(rand)) / sampleSize);
+                    _next = sampleSize + skip(rand);
+                }
+            } else if (index == _next) {
+                _samples[rand.nextInt(sampleSize)] = args.selectTupleCopy(valueFields);
+                _w *= Math.exp(Math.log(nextDouble(rand)) / sampleSize);
+                _next += skip(rand) + 1;
+            }
+        }
+
+        private long skip(Random rand) {
+            double skip = Math.floor(Math.log(nextDouble(rand)) / Math.log(1.0 - _w));
+            return (long)Math.min(skip, Long.MAX_VALUE / 2);
+        }
+
+        /**
+         * @return random value in (0, 1], so that we can safely take the log of it.
+         */
+        private static double nextDouble(Random rand) {
+            return 1.0 - rand.nextDouble();
+        }
+    }
+
+    /**
+     * Map-side half of the sampling, which keeps a reservoir for each group.
+     */
+    private static class SampleReservoirs extends BaseOperation<SampleReservoirs.Context> implements Function<SampleReservoirs.Context> {
+
+        private Fields _groupFields;
+        private Fields _valueFields;
+        private int _sampleSize;
+        private int _numGroups;
+        private long _seed;
+        private int _pipeIndex;
+        private int _numPipes;
+
+        private static class Context extends LinkedHashMap<Tuple, Reservoir> {
+
+            private transient SampleReservoirs _operation;
+            private transient TupleEntryCollector _collector;
+            private transient Random _rand;
+            private transient Tuple _result;
+
+            // Reservoir ids are unique within the flow, since they include the slice number. Each input
+            // pipe gets its own SampleReservoirs, and they can run in the same slice (e.g. in local mode),
+            // so ids are interleaved by pipe index.
+            private transient long _nextId;
+
+            public Context(SampleReservoirs operation, FlowProcess flowProcess) {
+                super(operation._numGroups, 0.75f, true);
+
+                _operation = operation;
+                _rand = makeRandom(operation._seed, flowProcess);
+                _result = Tuple.size(operation._groupFields.size() + operation._valueFields.size() + 2);
+                _nextId = ((long)flowProcess.getCurrentSliceNum() << 32) + operation._pipeIndex;
+            }
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Tuple, Reservoir> eldest) {
+                if (size() <= _operation._numGroups) {
+                    return false;
+                }
+
+                // If the group shows up again, we start a new reservoir, and the reducer merges them.
+                _operation.emitReservoir(this, eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        }
+
+        public SampleReservoirs(Fields groupFields, Fields valueFields, int sampleSize, int numGroups, long seed, int pipeIndex, int numPipes) {
+            super(appendFields(groupFields, valueFields).append(RESERVOIR_ID_FIELD).append(RESERVOIR_COUNT_FIELD));
+
+            _groupFields = groupFields;
+            _valueFields = valueFields;
+            _sampleSize = sampleSize;
+            _numGroups = numGroups;
+            _seed = seed + pipeIndex;
+            _pipeIndex = pipeIndex;
+            _numPipes = numPipes;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<Context> operationCall) {
+            operationCall.setContext(new Context(this, flowProcess));
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, FunctionCall<Context> functionCall) {
+            Context context = functionCall.getContext();
+            context._collector = functionCall.getOutputCollector();
+
+            TupleEntry args = functionCall.getArguments();
+            Tuple group = args.selectTupleCopy(_groupFields);
+
+            Reservoir reservoir = context.get(group);
+            if (reservoir == null) {
+                reservoir = new Reservoir(_sampleSize);
+                context.put(group, reservoir);
+            }
+
+            reservoir.add(args, _valueFields, context._rand);
+        }
+
+        @Override
+        public void flush(FlowProcess flowProcess, OperationCall<Context> operationCall) {
+            Context context = operationCall.getContext();
+
+            // If we never got a collector, then we never got any tuples.
+            if (context._collector == null) {
+                return;
+            }
+
+            for (Map.Entry<Tuple, Reservoir> entry : context.entrySet()) {
+                emitReservoir(context, entry.getKey(), entry.getValue());
+            }
+
+            context.clear();
+        }
+
+        @Override
+        public void cleanup(FlowProcess flowProcess, OperationCall<Context> operationCall) {
+            operationCall.setContext(null);
+        }
+
+        private void emitReservoir(Context context, Tuple group, Reservoir reservoir) {
+            Tuple result = context._result;
+            int numGroupFields = _groupFields.size();
+            int numValueFields = _valueFields.size();
+            for (int i = 0; i < numGroupFields; i++) {
+                result.set(i, group.getObject(i));
+            }
+
+            result.set(numGroupFields + numValueFields, context._nextId);
+            context._nextId += _numPipes;
+            result.set(numGroupFields + numValueFields + 1, reservoir._count);
+
+            for (int i = 0; i < reservoir._size; i++) {
+                Tuple values = reservoir._samples[i];
+                for (int j = 0; j < numValueFields; j++) {
+                    result.set(numGroupFields + j, values.getObject(j));
+                }
+
+                context._collector.add(result);
+            }
+        }
+    }
+
+    /**
+     * Reduce-side half of the sampling, which merges all of the reservoirs for a group.
+     * These arrive sorted by id, so we only need to hold two of them at a time.
+     */
+    private static class MergeReservoirs extends BaseOperation<NullContext> implements Buffer<NullContext> {
+
+        private Fields _valueFields;
+        private int _sampleSize;
+        private long _seed;
+
+        private transient Random _rand;
+        private transient List<Tuple> _merged;
+        private transient List<Tuple> _reservoir;
+        private transient List<Tuple> _scratch;
+        private transient Tuple _result;
+
+        public MergeReservoirs(Fields groupFields, Fields valueFields, int sampleSize, long seed) {
+            super(appendFields(groupFields, valueFields));
+
+            _valueFields = valueFields;
+            _sampleSize = sampleSize;
+            _seed = seed;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _rand = makeRandom(_seed, flowProcess);
+            _merged = new ArrayList<Tuple>(_sampleSize);
+            _reservoir = new ArrayList<Tuple>(_sampleSize);
+            _scratch = new ArrayList<Tuple>(_sampleSize);
+            _result = new Tuple();
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+            _merged.clear();
+            _reservoir.clear();
+            long mergedCount = 0;
+            long reservoirCount = 0;
+            long reservoirId = 0;
+
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry te = iter.next();
+                long id = te.getLong(RESERVOIR_ID_FN);
+                if (_reservoir.isEmpty()) {
+                    reservoirId = id;
+                    reservoirCount = te.getLong(RESERVOIR_COUNT_FN);
+                } else if (id != reservoirId) {
+                    mergedCount = merge(mergedCount, reservoirCount);
+                    reservoirId = id;
+                    reservoirCount = te.getLong(RESERVOIR_COUNT_FN);
+                }
+
+                _reservoir.add(te.selectTupleCopy(_valueFields));
+            }
+
+            if (!_reservoir.isEmpty()) {
+                merge(mergedCount, reservoirCount);
+            }
+
+            Tuple group = bufferCall.getGroup().getTuple();
+            for (Tuple values : _merged) {
+                _result.clear();
+                _result.addAll(group);
+                _result.addAll(values);
+                bufferCall.getOutputCollector().add(_result);
+            }
+        }
+
+        /**
+         * Merge _reservoir (a sample of <reservoirCount> tuples) into _merged (a sample of
+         * <mergedCount> tuples). Each pick comes from one side or the other in proportion to
+         * the number of tuples that it has left, so the number that comes from each side has
+         * the same (hypergeometric) distribution as if we'd sampled from all of the tuples.
+         *
+         * @return number of tuples that the merged sample represents.
+         */
+        private long merge(long mergedCount, long reservoirCount) {
+            int numToPick = (int)Math.min(_sampleSize, mergedCount + reservoirCount);
+            long mergedLeft = mergedCount;
+            long reservoirLeft = reservoirCount;
+            int numMerged = _merged.size();
+            int numReservoir = _reservoir.size();
+
+            _scratch.clear();
+            for (int i = 0; i < numToPick; i++) {
+                if ((_rand.nextDouble() * (mergedLeft + reservoirLeft)) < mergedLeft) {
+                    _scratch.add(pick(_merged, numMerged--));
+                    mergedLeft -= 1;
+                } else {
+                    _scratch.add(pick(_reservoir, numReservoir--));
+                    reservoirLeft -= 1;
+                }
+            }
+
+            List<Tuple> merged = _merged;
+            _merged = _scratch;
+            _scratch = merged;
+            _reservoir.clear();
+            return mergedCount + reservoirCount;
+        }
+
+        /**
+         * Remove a random tuple from the first <size> tuples in <tuples>, by swapping
+         * it with the last one.
+         */
+        private Tuple pick(List<Tuple> tuples, int size) {
+            int index = _rand.nextInt(size);
+            Tuple result = tuples.get(index);
+            tuples.set(index, tuples.get(size - 1));
+            return result;
+        }
+    }
+
+    /**
+     * Global sample, of up to <sampleSize> tuples in total.
+     */
+    public Sample(Pipe pipe, Fields valueFields, int sampleSize) {
+        this(pipe, Fields.NONE, valueFields, sampleSize);
+    }
+
+    public Sample(Pipe pipe, Fields groupFields, Fields valueFields, int sampleSize) {
+        this(null, Pipe.pipes(pipe), groupFields, valueFields, sampleSize, DEFAULT_NUM_GROUPS, System.nanoTime());
+    }
+
+    /**
+     * @param name
+     *            of the GroupBy
+     * @param pipes
+     *            of type Pipe[]
+     * @param groupFields
+     *            fields to group by, or Fields.NONE for a global sample
+     * @param valueFields
+     *            fields to keep in the sample
+     * @param sampleSize
+     *            max number of tuples to keep per group
+     * @param numGroups
+     *            number of groups to cache on the map side, before flushing their reservoirs
+     * @param seed
+     *            for the random numbers (combined with the slice number and pipe index), so results are
+     *            repeatable given the same splits
+     */
+    public Sample(String name, Pipe[] pipes, Fields groupFields, Fields valueFields, int sampleSize, int numGroups, long seed) {
+        super(pipes);
+
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("sampleSize must be > 0: " + sampleSize);
+        }
+
+        if (numGroups < 1) {
+            throw new IllegalArgumentException("numGroups must be > 0: " + numGroups);
+        }
+
+        // For global sampling we only have one group to cache.
+        if (groupFields.isNone()) {
+            numGroups = 1;
+        }
+
+        Fields argumentFields = appendFields(groupFields, valueFields);
+        Fields internalFields = RESERVOIR_ID_FIELD.append(RESERVOIR_COUNT_FIELD);
+        Pipe[] reservoirs = new Pipe[pipes.length];
+        for (int i = 0; i < pipes.length; i++) {
+            SampleReservoirs function = new SampleReservoirs(groupFields, valueFields, sampleSize, numGroups, seed, i, pipes.length);
+            reservoirs[i] = new Each(pipes[i], argumentFields, function, Fields.RESULTS);
+        }
+
+        Pipe pipe = new GroupBy(name, reservoirs, groupFields, RESERVOIR_ID_FIELD);
+        pipe = new Every(pipe, valueFields.append(internalFields), new MergeReservoirs(groupFields, valueFields, sampleSize, seed), Fields.RESULTS);
+
+        setTails(pipe);
+    }
+
+    private static Fields appendFields(Fields groupFields, Fields valueFields) {
+        return groupFields.isNone() ? valueFields : groupFields.append(valueFields);
+    }
+
+    private static Random makeRandom(long seed, FlowProcess flowProcess) {
+        return new Random(seed ^ (flowProcess.getCurrentSliceNum() * 0x9E3779B97F4A7C15L));
+    }
+}
@@ -0,0 +1,335 @@
+package com.scaleunlimited.cascading;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Space-Saving sketch for finding the most frequent items (heavy hitters) in a stream, using a
+ * fixed number of counters. When a new item arrives and all counters are in use, the item with
+ * the smallest count is replaced, and the new item inherits that count (which is recorded as its
+ * maximum possible overcount, or "error").
+ *
+ * Every item whose true count is more than N/capacity (for N total counts) is guaranteed to be
+ * in the sketch, and each count is an upper bound that's at most N/capacity too high. Sketches
+ * can be merged, so each map task can build one per group, and the reducer merges them.
+ *
+ * The counters are kept in a min-heap (by count), so updates are O(log capacity).
+ *
+ * See "Efficient Computation of Frequent and Top-k Elements in Data Streams" by Metwally, Agrawal
+ * and El Abbadi, and "Mergeable Summaries" by Agarwal et al for merging.
+ */
+public class SpaceSaving implements Writable {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    // Arrays start out this size, and grow as needed up to the capacity, since a sketch is
+    // often kept for each group on the map side, and most groups only see a few items.
+    private static final int INITIAL_SIZE = 8;
+
+    private int _capacity;
+    private int _size;
+    private String[] _items;
+    private long[] _counts;
+    private long[] _errors;
+
+    // Min-heap of slots, ordered by count, and the heap position of each slot.
+    private int[] _heap;
+    private int[] _heapPos;
+
+    private Map<String, Integer> _itemToSlot;
+
+    /**
+     * Create an empty sketch with the default capacity, typically for calling
+     * {@link #readFields(DataInput)}.
+     */
+    public SpaceSaving() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of counters, which should be a good bit bigger than the number
+     * of top items that you need (e.g. 10x).
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be > 0: " + capacity);
+        }
+
+        reset(capacity);
+    }
+
+    private void reset(int capacity) {
+        int size = Math.min(capacity, INITIAL_SIZE);
+        _capacity = capacity;
+        _items = new String[size];
+        _counts = new long[size];
+        _errors = new long[size];
+        _heap = new int[size];
+        _heapPos = new int[size];
+        _itemToSlot = new HashMap<String, Integer>();
+        _size = 0;
+    }
+
+    /**
+     * Double the size of the arrays (up to the capacity), once they're full.
+     */
+    private void grow() {
+        int size = (int)Math.min(_capacity, _items.length * 2L);
+        _items = Arrays.copyOf(_items, size);
+        _counts = Arrays.copyOf(_counts, size);
+        _errors = Arrays.copyOf(_errors, size);
+        _heap = Arrays.copyOf(_heap, size);
+        _heapPos = Arrays.copyOf(_heapPos, size);
+    }
+
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * @return number of items being tracked.
+     */
+    public int size() {
+        return _size;
+    }
+
+    public void clear() {
+        _itemToSlot.clear();
+        for (int i = 0; i < _size; i++) {
+            _items[i] = null;
+        }
+
+        _size = 0;
+    }
+
+    public void add(String item) {
+        add(item, 1);
+    }
+
+    /**
+     * Add <weight> occurrences of <item>.
+     */
+    public void add(String item, long weight) {
+        add(item, weight, 0);
+    }
+
+    private void add(String item, long weight, long error) {
+        Integer slot = _itemToSlot.get(item);
+        if (slot != null) {
+            _counts[slot] += weight;
+            _errors[slot] += error;
+            siftDown(_heapPos[slot]);
+        } else if (_size < _capacity) {
+            if (_size == _items.length) {
+                grow();
+            }
+
+            int newSlot = _size++;
+            _items[newSlot] = item;
+            _counts[newSlot] = weight;
+            _errors[newSlot] = error;
+            _heap[newSlot] = newSlot;
+            _heapPos[newSlot] = newSlot;
+            _itemToSlot.put(item, newSlot);
+            siftUp(newSlot);
+        } else {
+            // Replace the item with the smallest count.
+            int minSlot = _heap[0];
+            _itemToSlot.remove(_items[minSlot]);
+            _items[minSlot] = item;
+            _errors[minSlot] = _counts[minSlot] + error;
+            _counts[minSlot] += weight;
+            _itemToSlot.put(item, minSlot);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return estimated count for <item> (which might be too high), or 0 if it's not
+     * being tracked.
+     */
+    public long getCount(String item) {
+        Integer slot = _itemToSlot.get(item);
+        return slot == null ? 0 : _counts[slot];
+    }
+
+    /**
+     * @return max amount that the count for <item> might be too high.
+     */
+    public long getError(String item) {
+        Integer slot = _itemToSlot.get(item);
+        return slot == null ? 0 : _errors[slot];
+    }
+
+    /**
+     * @return smallest count, which is an upper bound on the count of any item that's not
+     * being tracked (if we're full), or 0.
+     */
+    public long getMinCount() {
+        return _size < _capacity ? 0 : _counts[_heap[0]];
+    }
+
+    /**
+     * Merge <other> into this sketch. An item that's missing from a full sketch could have
+     * had a count of up to that sketch's min count, so that gets added to the item's count
+     * and error.
+     */
+    public void merge(SpaceSaving other) {
+        long minCount = getMinCount();
+        long otherMinCount = other.getMinCount();
+
+        // Collect the merged counts, then rebuild, keeping the items with the biggest counts.
+        Map<String, long[]> merged = new HashMap<String, long[]>();
+        for (int i = 0; i < _size; i++) {
+            long[] countAndError = new long[] {_counts[i], _errors[i]};
+            if (other._itemToSlot.get(_items[i]) == null) {
+                countAndError[0] += otherMinCount;
+                countAndError[1] += otherMinCount;
+            }
+
+            merged.put(_items[i], countAndError);
+        }
+
+        for (int i = 0; i < other._size; i++) {
+            long[] countAndError = merged.get(other._items[i]);
+            if (countAndError == null) {
+                merged.put(other._items[i], new long[] {other._counts[i] + minCount, other._errors[i] + minCount});
+            } else {
+                countAndError[0] += other._counts[i];
+                countAndError[1] += other._errors[i];
+            }
+        }
+
+        clear();
+        String[] items = merged.keySet().toArray(new String[merged.size()]);
+        for (String item : items) {
+            long[] countAndError = merged.get(item);
+            if (_size < _capacity) {
+                add(item, countAndError[0], countAndError[1]);
+            } else if (countAndError[0] > _counts[_heap[0]]) {
+                // Evict the current min entirely, versus inheriting its count.
+                int minSlot = _heap[0];
+                _itemToSlot.remove(_items[minSlot]);
+                _items[minSlot] = item;
+                _counts[minSlot] = countAndError[0];
+                _errors[minSlot] = countAndError[1];
+                _itemToSlot.put(item, minSlot);
+                siftDown(0);
+            }
+        }
+    }
+
+    /**
+     * @return up to <k> tracked items, in order of decreasing count.
+     */
+    public String[] getTopItems(int k) {
+        int numItems = Math.min(k, _size);
+        Integer[] slots = new Integer[_size];
+        for (int i = 0; i < _size; i++) {
+            slots[i] = i;
+        }
+
+        Arrays.sort(slots, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long c1 = _counts[o1];
+                long c2 = _counts[o2];
+                return c1 > c2 ? -1 : (c1 < c2 ? 1 : _items[o1].compareTo(_items[o2]));
+            }
+        });
+
+        String[] result = new String[numItems];
+        for (int i = 0; i < numItems; i++) {
+            result[i] = _items[slots[i]];
+        }
+
+        return result;
+    }
+
+    private void siftUp(int pos) {
+        int slot = _heap[pos];
+        long count = _counts[slot];
+        while (pos > 0) {
+            int parentPos = (pos - 1) >>> 1;
+            int parentSlot = _heap[parentPos];
+            if (_counts[parentSlot] <= count) {
+                break;
+            }
+
+            setHeap(pos, parentSlot);
+            pos = parentPos;
+        }
+
+        setHeap(pos, slot);
+    }
+
+    private void siftDown(int pos) {
+        int slot = _heap[pos];
+        long count = _counts[slot];
+        while (true) {
+            int childPos = (pos * 2) + 1;
+            if (childPos >= _size) {
+                break;
+            }
+
+            if ((childPos + 1 < _size) && (_counts[_heap[childPos + 1]] < _counts[_heap[childPos]])) {
+                childPos += 1;
+            }
+
+            if (count <= _counts[_heap[childPos]]) {
+                break;
+            }
+
+            setHeap(pos, _heap[childPos]);
+            pos = childPos;
+        }
+
+        setHeap(pos, slot);
+    }
+
+    private void setHeap(int pos, int slot) {
+        _heap[pos] = slot;
+        _heapPos[slot] = pos;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(_capacity);
+        out.writeInt(_size);
+        for (int i = 0; i < _size; i++) {
+            WritableUtils.writeString(out, _items[i]);
+            out.writeLong(_counts[i]);
+            out.writeLong(_errors[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int capacity = in.readInt();
+        int size = in.readInt();
+        if ((capacity < 1) || (size < 0) || (size > capacity)) {
+            throw new IOException(String.format("Invalid capacity (%d) or size (%d)", capacity, size));
+        }
+
+        reset(capacity);
+        for (int i = 0; i < size; i++) {
+            String item = WritableUtils.readString(in);
+            long count = in.readLong();
+            long error = in.readLong();
+            add(item, count, error);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SpaceSaving(capacity=%d, size=%d)", _capacity, _size);
+    }
+}
@@ -0,0 +1,203 @@
+package com.scaleunlimited.cascading;
+
+import java.beans.ConstructorProperties;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.Aggregator;
+import cascading.operation.AggregatorCall;
+import cascading.operation.BaseOperation;
+import cascading.operation.OperationCall;
+import cascading.pipe.Pipe;
+import cascading.pipe.assembly.AggregateBy;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+/**
+ * AggregateBy version of {@link StdDeviation}, which calculates the (population) standard
+ * deviation of the values in a field, for each group.
+ *
+ * The map side keeps a partial result per group, of (count, mean, M2), where M2 is the sum of
+ * squared differences from the mean, updated with Welford's method. The reduce side merges the
+ * partial results using the parallel algorithm from Chan, Golub and LeVeque, which is exact
+ * (other than for floating point rounding). So only one tuple per group per map task goes through
+ * the shuffle, versus every value.
+ *
+ * See http://en.wikipedia.org/wiki/Algorithms_for_calculating_variance#Parallel_algorithm
+ *
+ * Null values are ignored. A group with no (non-null) values gets a standard deviation of 0.
+ * Note that unlike {@link StdDeviation}, this doesn't estimate quartiles.
+ */
+@SuppressWarnings({"serial", "rawtypes"})
+public class StdDeviationBy extends AggregateBy {
+
+    /**
+     * Map-side half of the calculation, which keeps a (count, mean, M2) tuple for each group.
+     */
+    public static class StdDeviationPartials implements Functor {
+
+        private Fields _declaredFields;
+
+        /**
+         * @param stdDeviationField name of the result field, used to make unique names for the
+         * partial result fields.
+         */
+        public StdDeviationPartials(Fields stdDeviationField) {
+            String name = stdDeviationField.get(0).toString();
+            _declaredFields = new Fields("__" + name + "_count", "__" + name + "_mean", "__" + name + "_m2");
+        }
+
+        @Override
+        public Fields getDeclaredFields() {
+            return _declaredFields;
+        }
+
+        @Override
+        public Tuple aggregate(FlowProcess flowProcess, TupleEntry args, Tuple context) {
+            if (context == null) {
+                context = new Tuple(0L, 0.0, 0.0);
+            }
+
+            Object value = args.getObject(0);
+            if (value == null) {
+                return context;
+            }
+
+            double sample = args.getDouble(0);
+            long count = context.getLong(0) + 1;
+            double mean = context.getDouble(1);
+            double delta = sample - mean;
+            mean += delta / count;
+
+            context.setLong(0, count);
+            context.setDouble(1, mean);
+            context.setDouble(2, context.getDouble(2) + (delta * (sample - mean)));
+            return context;
+        }
+
+        @Override
+        public Tuple complete(FlowProcess flowProcess, Tuple context) {
+            return context;
+        }
+    }
+
+    /**
+     * Reduce-side half of the calculation, which merges the partial results for a group, and
+     * emits the standard deviation.
+     */
+    public static class MergeStdDeviations extends BaseOperation<MergeStdDeviations.Context> implements Aggregator<MergeStdDeviations.Context> {
+
+        protected static class Context {
+            private long _count;
+            private double _mean;
+            private double _m2;
+
+            public Context reset() {
+                _count = 0;
+                _mean = 0.0;
+                _m2 = 0.0;
+                return this;
+            }
+
+            /**
+             * Merge in the partial result for another set of values.
+             */
+            public void merge(long count, double mean, double m2) {
+                if (count == 0) {
+                    return;
+                }
+
+                long newCount = _count + count;
+                double delta = mean - _mean;
+                _mean += delta * count / newCount;
+                _m2 += m2 + (delta * delta * _count * count / newCount);
+                _count = newCount;
+            }
+
+            public double getSD() {
+                return _count == 0 ? 0.0 : Math.sqrt(_m2 / _count);
+            }
+        }
+
+        private transient Tuple _result;
+
+        public MergeStdDeviations(Fields stdDeviationField) {
+            super(3, stdDeviationField);
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<Context> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _result = new Tuple(0.0);
+        }
+
+        @Override
+        public void start(FlowProcess flowProcess, AggregatorCall<Context> aggregatorCall) {
+            if (aggregatorCall.getContext() != null) {
+                aggregatorCall.getContext().reset();
+            } else {
+                aggregatorCall.setContext(new Context());
+            }
+        }
+
+        @Override
+        public void aggregate(FlowProcess flowProcess, AggregatorCall<Context> aggregatorCall) {
+            TupleEntry args = aggregatorCall.getArguments();
+            aggregatorCall.getContext().merge(args.getLong(0), args.getDouble(1), args.getDouble(2));
+        }
+
+        @Override
+        public void complete(FlowProcess flowProcess, AggregatorCall<Context> aggregatorCall) {
+            _result.set(0, aggregatorCall.getContext().getSD());
+            aggregatorCall.getOutputCollector().add(_result);
+        }
+    }
+
+    /**
+     * Create an instance for use with the composite AggregateBy constructor.
+     *
+     * @param valueField
+     *            field with the values
+     * @param stdDeviationField
+     *            field for the resulting standard deviation
+     */
+    @ConstructorProperties({ "valueField", "stdDeviationField" })
+    public StdDeviationBy(Fields valueField, Fields stdDeviationField) {
+        super(valueField, new StdDeviationPartials(stdDeviationField), new MergeStdDeviations(stdDeviationField));
+    }
+
+    @ConstructorProperties({ "pipe", "groupingFields", "valueField", "stdDeviationField" })
+    public StdDeviationBy(Pipe pipe, Fields groupingFields, Fields valueField, Fields stdDeviationField) {
+        this(null, pipe, groupingFields, valueField, stdDeviationField, CompositeFunction.DEFAULT_THRESHOLD);
+    }
+
+    @ConstructorProperties({ "pipe", "groupingFields", "valueField", "stdDeviationField", "threshold" })
+    public StdDeviationBy(Pipe pipe, Fields groupingFields, Fields valueField, Fields stdDeviationField, int threshold) {
+        this(null, pipe, groupingFields, valueField, stdDeviationField, threshold);
+    }
+
+    @ConstructorProperties({ "name", "pipe", "groupingFields", "valueField", "stdDeviationField", "threshold" })
+    public StdDeviationBy(String name, Pipe pipe, Fields groupingFields, Fields valueField, Fields stdDeviationField, int threshold) {
+        this(name, Pipe.pipes(pipe), groupingFields, valueField, stdDeviationField, threshold);
+    }
+
+    /**
+     * @param name
+     *            of type String
+     * @param pipes
+     *            of type Pipe[]
+     * @param groupingFields
+     *            fields to group by
+     * @param valueField
+     *            field with the values
+     * @param stdDeviationField
+     *            field for the resulting standard deviation
+     * @param threshold
+     *            number of groups to cache on the map side, before flushing their partial results
+     */
+    @ConstructorProperties({ "name", "pipes", "groupingFields", "valueField", "stdDeviationField", "threshold" })
+    public StdDeviationBy(String name, Pipe[] pipes, Fields groupingFields, Fields valueField, Fields stdDeviationField, int threshold) {
+        super(name, pipes, groupingFields, valueField, new StdDeviationPartials(stdDeviationField), new MergeStdDeviations(stdDeviationField), threshold);
+    }
+}
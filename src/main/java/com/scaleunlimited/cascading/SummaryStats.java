@@ -0,0 +1,309 @@
+package com.scaleunlimited.cascading;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.Aggregator;
+import cascading.operation.AggregatorCall;
+import cascading.operation.BaseOperation;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Aggregator that calculates several statistics for the values in a field, in one pass. This
+ * replaces a chain of Every pipes (e.g. Count, Sum, Min, Max and {@link StdDeviation}), each of
+ * which iterates over the group and creates its own result tuple.
+ * 
+ * The result fields are the requested statistics, in order, followed by the requested quantiles
+ * (if any), e.g.
+ * 
+ * <pre>
+ * new Every(pipe, new Fields("size"), 
+ *           new SummaryStats(new Fields("count", "mean", "max", "p95"), 
+ *                            new Statistic[] {Statistic.COUNT, Statistic.MEAN, Statistic.MAX}, 
+ *                            new double[] {0.95}));
+ * </pre>
+ * 
+ * The count is a long, and everything else is a double. Variance (and the standard deviation) is
+ * for the population, the same as {@link StdDeviation}, and uses Welford's method. Null values are
+ * ignored. If a group has no values, then everything other than the count and the sum is NaN.
+ * 
+ * To do most of the work on the map side, use {@link SummaryStatsBy} instead.
+ */
+@SuppressWarnings("serial")
+public class SummaryStats extends BaseOperation<SummaryStats.Context> implements Aggregator<SummaryStats.Context> {
+
+    public enum Statistic {
+        COUNT,
+        SUM,
+        MIN,
+        MAX,
+        MEAN,
+        VARIANCE,
+        STD_DEVIATION
+    }
+    
+    /**
+     * Running statistics for one group. This is also the partial result for {@link SummaryStatsBy},
+     * since any two contexts can be merged.
+     */
+    public static class Context implements Writable {
+        private long _count;
+        private double _sum;
+        private double _min;
+        private double _max;
+        private double _mean;
+        private double _m2;
+        
+        // Only set if quantiles were requested.
+        private QuantileSketch _sketch;
+        
+        /**
+         * For deserialization.
+         */
+        public Context() {
+            this(0);
+        }
+        
+        /**
+         * @param k accuracy of the quantile sketch, or 0 if no quantiles are needed.
+         */
+        public Context(int k) {
+            _sketch = (k == 0) ? null : new QuantileSketch(k);
+            reset();
+        }
+        
+        public Context reset() {
+            _count = 0;
+            _sum = 0.0;
+            _min = Double.NaN;
+            _max = Double.NaN;
+            _mean = 0.0;
+            _m2 = 0.0;
+            
+            if (_sketch != null) {
+                _sketch.clear();
+            }
+            
+            return this;
+        }
+        
+        public void add(double value) {
+            if (_count == 0) {
+                _min = value;
+                _max = value;
+            } else if (value < _min) {
+                _min = value;
+            } else if (value > _max) {
+                _max = value;
+            }
+            
+            _count += 1;
+            _sum += value;
+            
+            double delta = value - _mean;
+            _mean += delta / _count;
+            _m2 += delta * (value - _mean);
+            
+            if (_sketch != null) {
+                _sketch.add(value);
+            }
+        }
+        
+        /**
+         * Merge in the statistics from <other>, using the parallel algorithm from Chan et al
+         * for the mean and variance.
+         */
+        public void merge(Context other) {
+            if (other._count == 0) {
+                return;
+            }
+            
+            if (_count == 0) {
+                _min = other._min;
+                _max = other._max;
+            } else {
+                _min = Math.min(_min, other._min);
+                _max = Math.max(_max, other._max);
+            }
+            
+            long newCount = _count + other._count;
+            double delta = other._mean - _mean;
+            _mean += delta * other._count / newCount;
+            _m2 += other._m2 + (delta * delta * _count * other._count / newCount);
+            _count = newCount;
+            _sum += other._sum;
+            
+            if ((_sketch != null) && (other._sketch != null)) {
+                _sketch.merge(other._sketch);
+            }
+        }
+        
+        public long getCount() {
+            return _count;
+        }
+        
+        public Object getStatistic(Statistic statistic) {
+            switch (statistic) {
+                case COUNT:
+                    return _count;
+                case SUM:
+                    return _sum;
+                case MIN:
+                    return _min;
+                case MAX:
+                    return _max;
+                case MEAN:
+                    return _count == 0 ? Double.NaN : _mean;
+                case VARIANCE:
+                    return getVariance();
+                case STD_DEVIATION:
+                    return Math.sqrt(getVariance());
+                default:
+                    throw new IllegalArgumentException("Unknown statistic: " + statistic);
+            }
+        }
+        
+        private double getVariance() {
+            return _count == 0 ? Double.NaN : _m2 / _count;
+        }
+        
+        public double[] getQuantiles(double[] quantiles) {
+            return _sketch.getQuantiles(quantiles);
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeLong(_count);
+            out.writeDouble(_sum);
+            out.writeDouble(_min);
+            out.writeDouble(_max);
+            out.writeDouble(_mean);
+            out.writeDouble(_m2);
+            
+            out.writeBoolean(_sketch != null);
+            if (_sketch != null) {
+                _sketch.write(out);
+            }
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            _count = in.readLong();
+            _sum = in.readDouble();
+            _min = in.readDouble();
+            _max = in.readDouble();
+            _mean = in.readDouble();
+            _m2 = in.readDouble();
+            
+            if (in.readBoolean()) {
+                _sketch = new QuantileSketch();
+                _sketch.readFields(in);
+            } else {
+                _sketch = null;
+            }
+        }
+    }
+    
+    private Statistic[] _statistics;
+    private double[] _quantiles;
+    private int _k;
+    
+    private transient Tuple _result;
+    
+    public SummaryStats(Fields fieldDeclaration, Statistic... statistics) {
+        this(fieldDeclaration, statistics, new double[0], QuantileSketch.DEFAULT_K);
+    }
+    
+    public SummaryStats(Fields fieldDeclaration, Statistic[] statistics, double[] quantiles) {
+        this(fieldDeclaration, statistics, quantiles, QuantileSketch.DEFAULT_K);
+    }
+    
+    /**
+     * @param fieldDeclaration
+     *            one result field for each statistic, and then one for each quantile
+     * @param statistics
+     *            statistics to calculate
+     * @param quantiles
+     *            quantiles to estimate, from 0.0 to 1.0 (e.g. 0.5 for the median)
+     * @param k
+     *            accuracy of the quantile sketch (see {@link QuantileSketch})
+     */
+    public SummaryStats(Fields fieldDeclaration, Statistic[] statistics, double[] quantiles, int k) {
+        super(1, fieldDeclaration);
+        
+        checkStatistics(fieldDeclaration, statistics, quantiles, k);
+        _statistics = statistics;
+        _quantiles = quantiles;
+        _k = k;
+    }
+    
+    /**
+     * Fail fast if the arguments are invalid, versus when the flow is running.
+     */
+    static void checkStatistics(Fields fieldDeclaration, Statistic[] statistics, double[] quantiles, int k) {
+        if (fieldDeclaration.size() != statistics.length + quantiles.length) {
+            throw new IllegalArgumentException(String.format("Got %d result fields for %d statistics and %d quantiles", fieldDeclaration.size(), statistics.length, quantiles.length));
+        }
+        
+        if (quantiles.length > 0) {
+            Quantiles.checkQuantiles(quantiles, k);
+        }
+    }
+    
+    /**
+     * @return context for a group, with a quantile sketch if any quantiles are needed.
+     */
+    static Context makeContext(double[] quantiles, int k) {
+        return new Context(quantiles.length == 0 ? 0 : k);
+    }
+    
+    static void emitResult(AggregatorCall<Context> aggregatorCall, Statistic[] statistics, double[] quantiles, Tuple result) {
+        Context context = aggregatorCall.getContext();
+        for (int i = 0; i < statistics.length; i++) {
+            result.set(i, context.getStatistic(statistics[i]));
+        }
+        
+        if (quantiles.length > 0) {
+            double[] values = context.getQuantiles(quantiles);
+            for (int i = 0; i < values.length; i++) {
+                result.set(statistics.length + i, values[i]);
+            }
+        }
+        
+        aggregatorCall.getOutputCollector().add(result);
+    }
+
+    @Override
+    public void prepare(FlowProcess flowProcess, OperationCall<Context> operationCall) {
+        super.prepare(flowProcess, operationCall);
+        
+        _result = Tuple.size(_statistics.length + _quantiles.length);
+    }
+    
+    @Override
+    public void start(FlowProcess flowProcess, AggregatorCall<Context> aggregatorCall) {
+        if (aggregatorCall.getContext() != null) {
+            aggregatorCall.getContext().reset();
+        } else {
+            aggregatorCall.setContext(makeContext(_quantiles, _k));
+        }
+    }
+
+    @Override
+    public void aggregate(FlowProcess flowProcess, AggregatorCall<Context> aggregatorCall) {
+        if (aggregatorCall.getArguments().getObject(0) != null) {
+            aggregatorCall.getContext().add(aggregatorCall.getArguments().getDouble(0));
+        }
+    }
+
+    @Override
+    public void complete(FlowProcess flowProcess, AggregatorCall<Context> aggregatorCall) {
+        emitResult(aggregatorCall, _statistics, _quantiles, _result);
+    }
+}
@@ -0,0 +1,166 @@
+package com.scaleunlimited.cascading;
+
+import java.beans.ConstructorProperties;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.Aggregator;
+import cascading.operation.AggregatorCall;
+import cascading.operation.BaseOperation;
+import cascading.operation.OperationCall;
+import cascading.pipe.Pipe;
+import cascading.pipe.assembly.AggregateBy;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+import com.scaleunlimited.cascading.SummaryStats.Context;
+import com.scaleunlimited.cascading.SummaryStats.Statistic;
+
+/**
+ * AggregateBy version of {@link SummaryStats}. The map side keeps a {@link SummaryStats.Context}
+ * for each group, and the reduce side merges them, so only one tuple per group per map task goes
+ * through the shuffle, versus every value.
+ */
+@SuppressWarnings({"serial", "rawtypes"})
+public class SummaryStatsBy extends AggregateBy {
+
+    /**
+     * Map-side half of the calculation, which adds each value to the context for the group.
+     */
+    public static class SummaryStatsPartials implements Functor {
+
+        private Fields _declaredFields;
+        private double[] _quantiles;
+        private int _k;
+
+        /**
+         * @param statsFields result fields, used to make a unique name for the partial result field.
+         */
+        public SummaryStatsPartials(Fields statsFields, double[] quantiles, int k) {
+            _declaredFields = new Fields("__" + statsFields.get(0) + "_stats");
+            _quantiles = quantiles;
+            _k = k;
+        }
+
+        @Override
+        public Fields getDeclaredFields() {
+            return _declaredFields;
+        }
+
+        @Override
+        public Tuple aggregate(FlowProcess flowProcess, TupleEntry args, Tuple context) {
+            if (context == null) {
+                context = new Tuple(SummaryStats.makeContext(_quantiles, _k));
+            }
+
+            if (args.getObject(0) != null) {
+                ((Context)context.getObject(0)).add(args.getDouble(0));
+            }
+
+            return context;
+        }
+
+        @Override
+        public Tuple complete(FlowProcess flowProcess, Tuple context) {
+            return context;
+        }
+    }
+
+    /**
+     * Reduce-side half of the calculation, which merges the partial results for a group, and
+     * emits the statistics.
+     */
+    public static class MergeSummaryStats extends BaseOperation<Context> implements Aggregator<Context> {
+
+        private Statistic[] _statistics;
+        private double[] _quantiles;
+        private int _k;
+
+        private transient Tuple _result;
+
+        public MergeSummaryStats(Fields statsFields, Statistic[] statistics, double[] quantiles, int k) {
+            super(1, statsFields);
+
+            _statistics = statistics;
+            _quantiles = quantiles;
+            _k = k;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<Context> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _result = Tuple.size(_statistics.length + _quantiles.length);
+        }
+
+        @Override
+        public void start(FlowProcess flowProcess, AggregatorCall<Context> aggregatorCall) {
+            if (aggregatorCall.getContext() != null) {
+                aggregatorCall.getContext().reset();
+            } else {
+                aggregatorCall.setContext(SummaryStats.makeContext(_quantiles, _k));
+            }
+        }
+
+        @Override
+        public void aggregate(FlowProcess flowProcess, AggregatorCall<Context> aggregatorCall) {
+            Context partial = (Context)aggregatorCall.getArguments().getObject(0);
+            aggregatorCall.getContext().merge(partial);
+        }
+
+        @Override
+        public void complete(FlowProcess flowProcess, AggregatorCall<Context> aggregatorCall) {
+            SummaryStats.emitResult(aggregatorCall, _statistics, _quantiles, _result);
+        }
+    }
+
+    /**
+     * Create an instance for use with the composite AggregateBy constructor.
+     *
+     * @param valueField
+     *            field with the values
+     * @param statsFields
+     *            one result field for each statistic, and then one for each quantile
+     * @param statistics
+     *            statistics to calculate
+     * @param quantiles
+     *            quantiles to estimate, from 0.0 to 1.0 (e.g. 0.5 for the median)
+     */
+    @ConstructorProperties({ "valueField", "statsFields", "statistics", "quantiles" })
+    public SummaryStatsBy(Fields valueField, Fields statsFields, Statistic[] statistics, double[] quantiles) {
+        super(valueField, makePartials(statsFields, statistics, quantiles, QuantileSketch.DEFAULT_K), new MergeSummaryStats(statsFields, statistics, quantiles, QuantileSketch.DEFAULT_K));
+    }
+
+    @ConstructorProperties({ "pipe", "groupingFields", "valueField", "statsFields", "statistics" })
+    public SummaryStatsBy(Pipe pipe, Fields groupingFields, Fields valueField, Fields statsFields, Statistic... statistics) {
+        this(null, Pipe.pipes(pipe), groupingFields, valueField, statsFields, statistics, new double[0], CompositeFunction.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param name
+     *            of type String
+     * @param pipes
+     *            of type Pipe[]
+     * @param groupingFields
+     *            fields to group by
+     * @param valueField
+     *            field with the values
+     * @param statsFields
+     *            one result field for each statistic, and then one for each quantile
+     * @param statistics
+     *            statistics to calculate
+     * @param quantiles
+     *            quantiles to estimate, from 0.0 to 1.0 (e.g. 0.5 for the median)
+     * @param threshold
+     *            number of groups to cache on the map side, before flushing their partial results
+     */
+    @ConstructorProperties({ "name", "pipes", "groupingFields", "valueField", "statsFields", "statistics", "quantiles", "threshold" })
+    public SummaryStatsBy(String name, Pipe[] pipes, Fields groupingFields, Fields valueField, Fields statsFields, Statistic[] statistics, double[] quantiles, int threshold) {
+        super(name, pipes, groupingFields, valueField, makePartials(statsFields, statistics, quantiles, QuantileSketch.DEFAULT_K), new MergeSummaryStats(statsFields, statistics, quantiles, QuantileSketch.DEFAULT_K), threshold);
+    }
+
+    private static SummaryStatsPartials makePartials(Fields statsFields, Statistic[] statistics, double[] quantiles, int k) {
+        SummaryStats.checkStatistics(statsFields, statistics, quantiles, k);
+        return new SummaryStatsPartials(statsFields, quantiles, k);
+    }
+}
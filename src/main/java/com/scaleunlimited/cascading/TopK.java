@@ -0,0 +1,164 @@
+package com.scaleunlimited.cascading;
+
+import java.beans.ConstructorProperties;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.Aggregator;
+import cascading.operation.AggregatorCall;
+import cascading.operation.BaseOperation;
+import cascading.operation.OperationCall;
+import cascading.pipe.Pipe;
+import cascading.pipe.assembly.AggregateBy;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+/**
+ * Sub-assembly that finds the (approximate) top K most frequent values of a field for each
+ * group, e.g. the top terms per document, or the top domains per user, without sorting the
+ * full tuple stream.
+ * 
+ * The map side keeps a {@link SpaceSaving} sketch for each group (the same way as AggregateBy),
+ * and only emits the sketches. The reduce side merges them, and emits up to K tuples per group,
+ * with the group fields, the item field and the (estimated) count field, in order of decreasing
+ * count. Counts are upper bounds, and any item that occurs more than N/capacity times in a group
+ * (for N values in the group) is guaranteed to be included, where the capacity defaults to 10x K.
+ * 
+ * Items are tracked by their string form, so the item field is always emitted as a String. Null
+ * items are ignored. Since it emits multiple tuples per group, this shouldn't be used with the
+ * composite AggregateBy constructor.
+ */
+@SuppressWarnings({"serial", "rawtypes"})
+public class TopK extends AggregateBy {
+
+    public static final int DEFAULT_CAPACITY_FACTOR = 10;
+    
+    /**
+     * Map-side half of the top K, which adds each item to a sketch for the group.
+     */
+    public static class TopKPartials implements Functor {
+
+        private Fields _declaredFields;
+        private int _capacity;
+
+        public TopKPartials(Fields itemField, int capacity) {
+            _declaredFields = new Fields("__" + itemField.get(0) + "_topk");
+            _capacity = capacity;
+        }
+
+        @Override
+        public Fields getDeclaredFields() {
+            return _declaredFields;
+        }
+
+        @Override
+        public Tuple aggregate(FlowProcess flowProcess, TupleEntry args, Tuple context) {
+            if (context == null) {
+                context = new Tuple(new SpaceSaving(_capacity));
+            }
+
+            Object item = args.getObject(0);
+            if (item != null) {
+                ((SpaceSaving)context.getObject(0)).add(item.toString());
+            }
+
+            return context;
+        }
+
+        @Override
+        public Tuple complete(FlowProcess flowProcess, Tuple context) {
+            return context;
+        }
+    }
+
+    /**
+     * Reduce-side half of the top K, which merges the sketches for a group, and emits the
+     * top items and their counts.
+     */
+    public static class MergeTopK extends BaseOperation<SpaceSaving> implements Aggregator<SpaceSaving> {
+
+        private int _k;
+        private int _capacity;
+
+        private transient Tuple _result;
+
+        public MergeTopK(Fields itemField, Fields countField, int k, int capacity) {
+            super(1, itemField.append(countField));
+
+            _k = k;
+            _capacity = capacity;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<SpaceSaving> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _result = Tuple.size(2);
+        }
+
+        @Override
+        public void start(FlowProcess flowProcess, AggregatorCall<SpaceSaving> aggregatorCall) {
+            if (aggregatorCall.getContext() == null) {
+                aggregatorCall.setContext(new SpaceSaving(_capacity));
+            } else {
+                aggregatorCall.getContext().clear();
+            }
+        }
+
+        @Override
+        public void aggregate(FlowProcess flowProcess, AggregatorCall<SpaceSaving> aggregatorCall) {
+            SpaceSaving partial = (SpaceSaving)aggregatorCall.getArguments().getObject(0);
+            aggregatorCall.getContext().merge(partial);
+        }
+
+        @Override
+        public void complete(FlowProcess flowProcess, AggregatorCall<SpaceSaving> aggregatorCall) {
+            SpaceSaving sketch = aggregatorCall.getContext();
+            for (String item : sketch.getTopItems(_k)) {
+                _result.set(0, item);
+                _result.set(1, sketch.getCount(item));
+                aggregatorCall.getOutputCollector().add(_result);
+            }
+        }
+    }
+
+    @ConstructorProperties({ "pipe", "groupingFields", "itemField", "countField", "k" })
+    public TopK(Pipe pipe, Fields groupingFields, Fields itemField, Fields countField, int k) {
+        this(null, Pipe.pipes(pipe), groupingFields, itemField, countField, k, k * DEFAULT_CAPACITY_FACTOR, CompositeFunction.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param name
+     *            of type String
+     * @param pipes
+     *            of type Pipe[]
+     * @param groupingFields
+     *            fields to group by
+     * @param itemField
+     *            field with the items to count
+     * @param countField
+     *            field for the resulting count of each item
+     * @param k
+     *            max number of items to emit per group
+     * @param capacity
+     *            number of counters in each group's sketch (must be >= k)
+     * @param threshold
+     *            number of groups to cache on the map side, before flushing their sketches
+     */
+    @ConstructorProperties({ "name", "pipes", "groupingFields", "itemField", "countField", "k", "capacity", "threshold" })
+    public TopK(String name, Pipe[] pipes, Fields groupingFields, Fields itemField, Fields countField, int k, int capacity, int threshold) {
+        super(name, pipes, groupingFields, itemField, makePartials(itemField, k, capacity), new MergeTopK(itemField, countField, k, capacity), threshold);
+    }
+
+    private static TopKPartials makePartials(Fields itemField, int k, int capacity) {
+        if (itemField.size() != 1) {
+            throw new IllegalArgumentException("itemField must be a single field: " + itemField);
+        }
+        
+        if ((k < 1) || (capacity < k)) {
+            throw new IllegalArgumentException(String.format("Invalid k (%d) or capacity (%d)", k, capacity));
+        }
+        
+        return new TopKPartials(itemField, capacity);
+    }
+}
@@ -6,25 +6,69 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 
 import cascading.flow.FlowProcess;
+import cascading.operation.Aggregator;
+import cascading.operation.AggregatorCall;
 import cascading.operation.BaseOperation;
 import cascading.operation.Buffer;
 import cascading.operation.BufferCall;
 import cascading.operation.Filter;
 import cascading.operation.FilterCall;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
 import cascading.operation.OperationCall;
 import cascading.pipe.Each;
 import cascading.pipe.Every;
 import cascading.pipe.GroupBy;
 import cascading.pipe.Pipe;
 import cascading.pipe.SubAssembly;
+import cascading.pipe.assembly.AggregateBy;
 import cascading.pipe.assembly.Unique;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+
+import com.scaleunlimited.maps.HashUtils;
+import com.scaleunlimited.maps.StringSet;
 
 @SuppressWarnings({"serial", "rawtypes"})
 public class UniqueCount extends SubAssembly {
 
+    /**
+     * Default number of values cached by {@link FilterPartialDuplicates}.
+     */
+    public static final int DEFAULT_THRESHOLD = 10000;
+    
+    /**
+     * Default number of values cached by {@link FilterPartialDuplicateFingerprints}, which
+     * uses about 2MB, or roughly the same as {@link FilterPartialDuplicates} with its default
+     * threshold.
+     */
+    public static final int DEFAULT_FINGERPRINT_THRESHOLD = 100000;
+    
+    /**
+     * Default number of groups cached by {@link HyperLogLogPartials}, for an approximate count.
+     */
+    public static final int DEFAULT_SKETCH_GROUPS = 1000;
+    
+    /**
+     * Default number of groups cached by {@link DistinctSetPartials}.
+     */
+    public static final int DEFAULT_SET_GROUPS = 1000;
+    
+    // Fields used internally by the distinct set count.
+    private static final String KIND_FIELD_NAME = "UniqueCount-kind";
+    private static final String SET_FIELD_NAME = "UniqueCount-set";
+    private static final Fields KIND_FIELD = new Fields(KIND_FIELD_NAME);
+    private static final Fields SET_FIELD = new Fields(SET_FIELD_NAME);
+    
+    // Values for the kind field. Sets need to sort first.
+    private static final int SET_KIND = 0;
+    private static final int VALUE_KIND = 1;
+    
+    private static final char KEY_ESCAPE = '\u0001';
+    private static final char STRING_CLASS_TAG = '\u0002';
+
     /**
      * Class FilterPartialDuplicates is a {@link cascading.operation.Filter}
      * that is used to remove observed duplicates from the tuple stream.
@@ -42,7 +86,7 @@ public class UniqueCount extends SubAssembly {
      * @see Unique
      */
     public static class FilterPartialDuplicates extends BaseOperation<LinkedHashMap<Tuple, Object>> implements Filter<LinkedHashMap<Tuple, Object>> {
-        private int threshold = 10000;
+        private int threshold = DEFAULT_THRESHOLD;
 
         /**
          * Constructor FilterPartialDuplicates creates a new
@@ -117,6 +161,112 @@ public class UniqueCount extends SubAssembly {
         }
     }
 
+    /**
+     * A {@link cascading.operation.Filter} that removes observed duplicates from the tuple
+     * stream, the same as {@link FilterPartialDuplicates}, but which only caches a 64-bit
+     * fingerprint of each value in a {@link FingerprintCache}. This avoids making a copy of
+     * every new Tuple, and a cache with the same amount of memory can hold roughly 100x as
+     * many values, so many more duplicates get removed before the GroupBy.
+     * <p/>
+     * Two different values with the same fingerprint will be treated as duplicates, which
+     * would cause the count to be too low. With a 64-bit fingerprint this is very unlikely for
+     * strings, numbers and booleans (see {@link #fingerprint(Tuple)} for other types), but callers
+     * who can't tolerate it should use {@link FilterPartialDuplicates}.
+     */
+    public static class FilterPartialDuplicateFingerprints extends BaseOperation<FingerprintCache> implements Filter<FingerprintCache> {
+        
+        // Seed for hashing a null value, so that it doesn't match an empty string.
+        private static final long NULL_SEED = 0x2545F4914F6CDD1DL;
+        
+        private int threshold = DEFAULT_FINGERPRINT_THRESHOLD;
+
+        public FilterPartialDuplicateFingerprints() {
+        }
+
+        @ConstructorProperties({ "threshold" })
+        public FilterPartialDuplicateFingerprints(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<FingerprintCache> operationCall) {
+            operationCall.setContext(new FingerprintCache(threshold));
+        }
+
+        @Override
+        public boolean isRemove(FlowProcess flowProcess, FilterCall<FingerprintCache> filterCall) {
+            return !filterCall.getContext().add(fingerprint(filterCall.getArguments().getTuple()));
+        }
+
+        @Override
+        public void cleanup(FlowProcess flowProcess, OperationCall<FingerprintCache> operationCall) {
+            operationCall.setContext(null);
+        }
+
+        /**
+         * Return a 64-bit fingerprint of the values. Each value is hashed mixed with the name of its
+         * class, so that (for example) the Integer 1 and the String "1" are still different values,
+         * the same as with Tuple.equals(). Strings (and other CharSequences) are hashed directly,
+         * and numbers and booleans are hashed from their primitive bits, so nothing gets allocated.
+         * 
+         * Any other type is hashed via its hashCode(), so two unequal values with the same hash code
+         * will be treated as duplicates. That's fine for types with a good hash code, but use
+         * {@link FilterPartialDuplicates} (the exactFilter option for UniqueCount) when that's not
+         * the case.
+         */
+        public static long fingerprint(Tuple values) {
+            long result = 0;
+            for (int i = 0; i < values.size(); i++) {
+                Object value = values.getObject(i);
+                if (value == null) {
+                    result = HashUtils.getMurmur3LongHash("", result ^ NULL_SEED);
+                    continue;
+                }
+                
+                long seed = result ^ value.getClass().getName().hashCode();
+                if (value instanceof CharSequence) {
+                    result = HashUtils.getMurmur3LongHash((CharSequence)value, seed);
+                } else if ((value instanceof Long) || (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+                    result = HashUtils.getMurmur3LongHash(((Number)value).longValue(), seed);
+                } else if (value instanceof Double) {
+                    result = HashUtils.getMurmur3LongHash(Double.doubleToLongBits((Double)value), seed);
+                } else if (value instanceof Float) {
+                    result = HashUtils.getMurmur3LongHash(Float.floatToIntBits((Float)value), seed);
+                } else if (value instanceof Boolean) {
+                    result = HashUtils.getMurmur3LongHash((Boolean)value ? 1 : 0, seed);
+                } else {
+                    result = HashUtils.getMurmur3LongHash(value.hashCode(), seed);
+                }
+            }
+            
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object)
+                return true;
+            if (!(object instanceof FilterPartialDuplicateFingerprints))
+                return false;
+            if (!super.equals(object))
+                return false;
+
+            FilterPartialDuplicateFingerprints that = (FilterPartialDuplicateFingerprints) object;
+
+            if (threshold != that.threshold)
+                return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = super.hashCode();
+            result = 31 * result + threshold;
+            return result;
+        }
+    }
+
     private static class CountUniques extends BaseOperation<NullContext> implements Buffer<NullContext> {
 
         private Fields _uniqueFields;
@@ -165,6 +315,367 @@ public class UniqueCount extends SubAssembly {
         }
     }
 
+    /**
+     * Map-side half of the approximate count, which adds a hash of each value of the
+     * unique fields to a {@link HyperLogLog} sketch for the group. The sketch is what
+     * gets emitted (in the count field) when AggregateBy flushes the group.
+     */
+    public static class HyperLogLogPartials implements AggregateBy.Functor {
+        
+        private Fields _declaredFields;
+        private int _precision;
+        
+        public HyperLogLogPartials(Fields declaredFields, int precision) {
+            _declaredFields = declaredFields;
+            _precision = precision;
+            
+            // Fail fast if the precision is invalid, versus when the flow is running.
+            if ((precision < HyperLogLog.MIN_PRECISION) || (precision > HyperLogLog.MAX_PRECISION)) {
+                throw new IllegalArgumentException("Invalid HyperLogLog precision: " + precision);
+            }
+        }
+        
+        @Override
+        public Fields getDeclaredFields() {
+            return _declaredFields;
+        }
+
+        @Override
+        public Tuple aggregate(FlowProcess flowProcess, TupleEntry args, Tuple context) {
+            if (context == null) {
+                context = new Tuple(new HyperLogLog(_precision));
+            }
+            
+            ((HyperLogLog)context.getObject(0)).add(hash(args.getTuple()));
+            return context;
+        }
+
+        @Override
+        public Tuple complete(FlowProcess flowProcess, Tuple context) {
+            return context;
+        }
+        
+        /**
+         * Return a 64-bit hash of the values, which is the same as the fingerprint used by
+         * {@link FilterPartialDuplicateFingerprints#fingerprint(Tuple)}. So values of different
+         * types (e.g. the Integer 1 and the String "1") are different unique values, the same
+         * as with an exact count, and nothing gets allocated.
+         */
+        public static long hash(Tuple values) {
+            return FilterPartialDuplicateFingerprints.fingerprint(values);
+        }
+    }
+    
+    /**
+     * Reduce-side half of the approximate count, which merges the sketches for a group
+     * and emits the estimated count (as an int, the same as the exact count).
+     */
+    public static class MergeHyperLogLogs extends BaseOperation<HyperLogLog> implements Aggregator<HyperLogLog> {
+        
+        private int _precision;
+        
+        private transient Tuple _result;
+
+        public MergeHyperLogLogs(Fields countField, int precision) {
+            super(1, countField);
+            
+            _precision = precision;
+        }
+        
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<HyperLogLog> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _result = new Tuple(0);
+        }
+        
+        @Override
+        public void start(FlowProcess flowProcess, AggregatorCall<HyperLogLog> aggregatorCall) {
+            if (aggregatorCall.getContext() == null) {
+                aggregatorCall.setContext(new HyperLogLog(_precision));
+            } else {
+                aggregatorCall.getContext().clear();
+            }
+        }
+
+        @Override
+        public void aggregate(FlowProcess flowProcess, AggregatorCall<HyperLogLog> aggregatorCall) {
+            HyperLogLog partial = (HyperLogLog)aggregatorCall.getArguments().getObject(0);
+            aggregatorCall.getContext().merge(partial);
+        }
+
+        @Override
+        public void complete(FlowProcess flowProcess, AggregatorCall<HyperLogLog> aggregatorCall) {
+            long estimate = aggregatorCall.getContext().getEstimate();
+            _result.set(0, (int)Math.min(estimate, Integer.MAX_VALUE));
+            aggregatorCall.getOutputCollector().add(_result);
+        }
+    }
+    
+    /**
+     * AggregateBy that generates an approximate count of unique values, using {@link HyperLogLog}
+     * sketches. This can also be combined with other AggregateBy sub-assemblies (e.g. SumBy) that
+     * use the same grouping fields, so they all share one GroupBy.
+     */
+    public static class ApproximateCountBy extends AggregateBy {
+        
+        /**
+         * Create an instance for use with the composite AggregateBy constructor.
+         */
+        public ApproximateCountBy(Fields uniqueFields, Fields countField, int precision) {
+            super(uniqueFields, new HyperLogLogPartials(countField, precision), new MergeHyperLogLogs(countField, precision));
+        }
+        
+        public ApproximateCountBy(String name, Pipe[] pipes, Fields groupFields, Fields uniqueFields, Fields countField, int precision, int threshold) {
+            super(name, pipes, groupFields, uniqueFields, new HyperLogLogPartials(countField, precision), new MergeHyperLogLogs(countField, precision), threshold);
+        }
+    }
+    
+    /**
+     * Map-side half of the distinct set count. For each group we keep a {@link StringSet} of
+     * the unique values, and emit it (as one tuple) when the group gets flushed from our LRU
+     * cache of groups, or at the end of the task. If a group's set gets bigger than maxSetSize,
+     * we emit what we've got, and from then on just pass the group's values through, so that
+     * they take the normal (sorted) path to the reducer.
+     * 
+     * Each output tuple has the group fields, the unique fields, and then the kind (SET_KIND
+     * or VALUE_KIND) and the set (which is null for a VALUE_KIND tuple).
+     */
+    public static class DistinctSetPartials extends BaseOperation<DistinctSetPartials.Context> implements Function<DistinctSetPartials.Context> {
+        
+        // Use small arena blocks and hash tables, since we could have lots of sets with only a few
+        // values. Both grow as needed.
+        private static final int SET_BLOCK_SIZE = 1024;
+        private static final int INITIAL_SET_SIZE = 16;
+        
+        private Fields _groupFields;
+        private Fields _uniqueFields;
+        private int _numGroups;
+        private int _maxSetSize;
+        
+        private static class Context extends LinkedHashMap<Tuple, StringSet> {
+            
+            private transient DistinctSetPartials _operation;
+            private transient TupleEntryCollector _collector;
+            private transient StringBuilder _buffer = new StringBuilder();
+            
+            public Context(DistinctSetPartials operation) {
+                super(operation._numGroups, 0.75f, true);
+                
+                _operation = operation;
+            }
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Tuple, StringSet> eldest) {
+                if (size() <= _operation._numGroups) {
+                    return false;
+                }
+                
+                // Overflowed groups have a null set, and we've already emitted their values.
+                if (eldest.getValue() != null) {
+                    _operation.emitSet(_collector, eldest.getKey(), eldest.getValue());
+                }
+                
+                return true;
+            }
+        }
+        
+        public DistinctSetPartials(Fields groupFields, Fields uniqueFields, int numGroups, int maxSetSize) {
+            super(groupFields.append(uniqueFields).append(KIND_FIELD).append(SET_FIELD));
+            
+            if (numGroups < 1) {
+                throw new IllegalArgumentException("numGroups must be > 0: " + numGroups);
+            }
+            
+            if (maxSetSize < 1) {
+                throw new IllegalArgumentException("maxSetSize must be > 0: " + maxSetSize);
+            }
+            
+            _groupFields = groupFields;
+            _uniqueFields = uniqueFields;
+            _numGroups = numGroups;
+            _maxSetSize = maxSetSize;
+        }
+        
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<Context> operationCall) {
+            operationCall.setContext(new Context(this));
+        }
+        
+        @Override
+        public void operate(FlowProcess flowProcess, FunctionCall<Context> functionCall) {
+            Context context = functionCall.getContext();
+            context._collector = functionCall.getOutputCollector();
+            
+            TupleEntry args = functionCall.getArguments();
+            Tuple group = args.selectTupleCopy(_groupFields);
+            Tuple values = args.selectTuple(_uniqueFields);
+            
+            StringSet set = context.get(group);
+            if ((set == null) && !context.containsKey(group)) {
+                set = new StringSet(false, SET_BLOCK_SIZE, Math.min(_maxSetSize + 1, INITIAL_SET_SIZE));
+                context.put(group, set);
+            }
+            
+            if (set == null) {
+                emitValues(context._collector, group, values);
+            } else if (set.add(makeSetKey(values, context._buffer)) && (set.size() > _maxSetSize)) {
+                emitSet(context._collector, group, set);
+                
+                // Keep the group in the cache, so we know that it has overflowed.
+                context.put(group, null);
+            }
+        }
+        
+        @Override
+        public void flush(FlowProcess flowProcess, OperationCall<Context> operationCall) {
+            Context context = operationCall.getContext();
+            
+            // If we never got a collector, then we never got any tuples.
+            if (context._collector == null) {
+                return;
+            }
+            
+            for (Map.Entry<Tuple, StringSet> entry : context.entrySet()) {
+                if (entry.getValue() != null) {
+                    emitSet(context._collector, entry.getKey(), entry.getValue());
+                }
+            }
+            
+            context.clear();
+        }
+        
+        @Override
+        public void cleanup(FlowProcess flowProcess, OperationCall<Context> operationCall) {
+            operationCall.setContext(null);
+        }
+        
+        private void emitSet(TupleEntryCollector collector, Tuple group, StringSet set) {
+            Tuple result = new Tuple(group);
+            for (int i = 0; i < _uniqueFields.size(); i++) {
+                result.add(null);
+            }
+            
+            result.add(SET_KIND);
+            result.add(set);
+            collector.add(result);
+        }
+        
+        private void emitValues(TupleEntryCollector collector, Tuple group, Tuple values) {
+            Tuple result = new Tuple(group);
+            result.addAll(values);
+            result.add(VALUE_KIND);
+            result.add(null);
+            collector.add(result);
+        }
+        
+        /**
+         * Return a string that's unique for the values, using the same definition of equality
+         * as Tuple.equals() (assuming that values of the same class are equal if their string
+         * forms are equal). Each value is encoded as its class name (or a single char for a String)
+         * and its escaped string form, with KEY_ESCAPE-prefixed markers in between. We escape
+         * null chars, since a {@link StringSet} can't contain them.
+         */
+        public static String makeSetKey(Tuple values, StringBuilder buffer) {
+            buffer.setLength(0);
+            for (int i = 0; i < values.size(); i++) {
+                Object value = values.getObject(i);
+                if (value == null) {
+                    buffer.append(KEY_ESCAPE).append('N');
+                } else {
+                    if (value instanceof String) {
+                        buffer.append(STRING_CLASS_TAG);
+                    } else {
+                        buffer.append(value.getClass().getName());
+                    }
+                    
+                    buffer.append(KEY_ESCAPE).append('V');
+                    
+                    String str = value.toString();
+                    for (int j = 0; j < str.length(); j++) {
+                        char c = str.charAt(j);
+                        if (c == KEY_ESCAPE) {
+                            buffer.append(KEY_ESCAPE).append('e');
+                        } else if (c == 0) {
+                            buffer.append(KEY_ESCAPE).append('z');
+                        } else {
+                            buffer.append(c);
+                        }
+                    }
+                }
+                
+                buffer.append(KEY_ESCAPE).append('E');
+            }
+            
+            return buffer.toString();
+        }
+    }
+    
+    /**
+     * Reduce-side half of the distinct set count. All of the sets for a group come first (since
+     * we secondary sort on the kind field), and get merged into one set. The remaining values,
+     * from groups that overflowed on the map side, are sorted, so we count each distinct value
+     * that isn't already in the merged set. Note that the merged set can get as big as the
+     * number of map tasks times maxSetSize.
+     */
+    private static class CountDistinctSets extends BaseOperation<StringSet> implements Buffer<StringSet> {
+
+        private Fields _uniqueFields;
+
+        private transient Tuple _result;
+        private transient StringBuilder _buffer;
+
+        public CountDistinctSets(Fields uniqueFields, Fields countField) {
+            super(countField);
+
+            _uniqueFields = uniqueFields;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<StringSet> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            operationCall.setContext(new StringSet());
+            _result = new Tuple(0);
+            _buffer = new StringBuilder();
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<StringSet> bufferCall) {
+            StringSet merged = bufferCall.getContext();
+            merged.clear();
+            
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            int count = 0;
+
+            Tuple oldValues = null;
+            while (iter.hasNext()) {
+                TupleEntry entry = iter.next();
+                if (entry.getInteger(KIND_FIELD_NAME) == SET_KIND) {
+                    merged.addAll((StringSet)entry.getObject(SET_FIELD_NAME));
+                    continue;
+                }
+                
+                Tuple curValues = entry.selectTuple(_uniqueFields);
+                if ((oldValues == null) || !oldValues.equals(curValues)) {
+                    if (!merged.contains(DistinctSetPartials.makeSetKey(curValues, _buffer))) {
+                        count += 1;
+                    }
+                    
+                    oldValues = curValues;
+                }
+            }
+            
+            _result.set(0, count + merged.size());
+            bufferCall.getOutputCollector().add(_result);
+        }
+
+        @Override
+        public void cleanup(FlowProcess flowProcess, OperationCall<StringSet> operationCall) {
+            operationCall.setContext(null);
+        }
+    }
+    
     /**
      * Constructor Unique creates a new Unique instance.
      * 
@@ -205,7 +716,7 @@ public class UniqueCount extends SubAssembly {
      */
     @ConstructorProperties({ "name", "pipe", "uniqueFields" })
     public UniqueCount(String name, Pipe pipe, Fields groupFields, Fields uniqueFields, Fields countField) {
-        this(name, pipe, groupFields, uniqueFields, countField, 10000);
+        this(name, pipe, groupFields, uniqueFields, countField, DEFAULT_FINGERPRINT_THRESHOLD);
     }
 
     /**
@@ -235,7 +746,7 @@ public class UniqueCount extends SubAssembly {
      */
     @ConstructorProperties({ "pipes", "uniqueFields" })
     public UniqueCount(Pipe[] pipes, Fields groupFields, Fields uniqueFields, Fields countField) {
-        this(null, pipes, groupFields, uniqueFields, countField, 10000);
+        this(null, pipes, groupFields, uniqueFields, countField, DEFAULT_FINGERPRINT_THRESHOLD);
     }
 
     /**
@@ -265,7 +776,7 @@ public class UniqueCount extends SubAssembly {
      */
     @ConstructorProperties({ "name", "pipes", "uniqueFields" })
     public UniqueCount(String name, Pipe[] pipes, Fields groupFields, Fields uniqueFields, Fields countField) {
-        this(name, pipes, groupFields, uniqueFields, countField, 10000);
+        this(name, pipes, groupFields, uniqueFields, countField, DEFAULT_FINGERPRINT_THRESHOLD);
     }
 
     /**
@@ -284,11 +795,38 @@ public class UniqueCount extends SubAssembly {
      */
     @ConstructorProperties({ "name", "pipes", "uniqueFields", "threshold" })
     public UniqueCount(String name, Pipe[] pipes, Fields groupFields, Fields uniqueFields, Fields countField, int threshold) {
+        this(name, pipes, groupFields, uniqueFields, countField, threshold, false);
+    }
+
+    /**
+     * Constructor UniqueCount creates a new UniqueCount instance. This will
+     * count the number of unique values found in uniqueFields, for each group
+     * defined by groupFields, and put the resulting count into countField.
+     * 
+     * By default duplicates are removed on the map side using a cache of value
+     * fingerprints (see {@link FilterPartialDuplicateFingerprints}). If exactFilter
+     * is true, then the values themselves are cached (see {@link FilterPartialDuplicates}),
+     * which avoids any chance of a fingerprint collision causing an undercount, but
+     * uses much more memory per cached value.
+     * 
+     * @param name
+     *            of type String
+     * @param pipes
+     *            of type Pipe[]
+     * @param uniqueFields
+     *            of type Fields
+     * @param threshold
+     *            number of values to cache on the map side
+     * @param exactFilter
+     *            true to cache values versus fingerprints
+     */
+    @ConstructorProperties({ "name", "pipes", "uniqueFields", "threshold", "exactFilter" })
+    public UniqueCount(String name, Pipe[] pipes, Fields groupFields, Fields uniqueFields, Fields countField, int threshold, boolean exactFilter) {
         super(pipes);
         Fields joinedFields = Fields.join(groupFields, uniqueFields);
         
         Pipe[] filters = new Pipe[pipes.length];
-        FilterPartialDuplicates partialDuplicates = new FilterPartialDuplicates(threshold);
+        Filter partialDuplicates = exactFilter ? new FilterPartialDuplicates(threshold) : new FilterPartialDuplicateFingerprints(threshold);
 
         for (int i = 0; i < filters.length; i++) {
             filters[i] = new Each(pipes[i], joinedFields, partialDuplicates);
@@ -305,6 +843,99 @@ public class UniqueCount extends SubAssembly {
         setTails(pipe);
     }
     
+    private UniqueCount(Pipe[] pipes) {
+        super(pipes);
+    }
+    
+    /**
+     * Create a UniqueCount that generates an exact count using map-side sets of unique
+     * values. See {@link #withDistinctSets(String, Pipe[], Fields, Fields, Fields, int, int)}.
+     * 
+     * @param maxSetSize
+     *            max number of unique values in a group's set, before it overflows
+     */
+    public static UniqueCount withDistinctSets(Pipe pipe, Fields groupFields, Fields uniqueFields, Fields countField, int maxSetSize) {
+        return withDistinctSets(null, Pipe.pipes(pipe), groupFields, uniqueFields, countField, DEFAULT_SET_GROUPS, maxSetSize);
+    }
+    
+    /**
+     * Create a UniqueCount that counts the number of unique values found in uniqueFields, for
+     * each group defined by groupFields, and puts the resulting count into countField.
+     * 
+     * This is a good fit when the number of unique values per group is bounded (e.g. unique hosts
+     * per IP address). The map side keeps a set of unique values for each group (see
+     * {@link DistinctSetPartials}), and emits one tuple with the set when the group gets flushed,
+     * so for most groups there's very little data to shuffle, and no values to sort. The reduce
+     * side merges the sets and counts the result. Any group whose set has more than maxSetSize
+     * values falls back to sending the rest of its values through the shuffle, the same as the
+     * regular (sort-based) UniqueCount.
+     * 
+     * @param name
+     *            of type String
+     * @param pipes
+     *            of type Pipe[]
+     * @param uniqueFields
+     *            of type Fields
+     * @param numGroups
+     *            number of groups to cache on the map side, before flushing their sets
+     * @param maxSetSize
+     *            max number of unique values in a group's set, before it overflows
+     */
+    public static UniqueCount withDistinctSets(String name, Pipe[] pipes, Fields groupFields, Fields uniqueFields, Fields countField, int numGroups, int maxSetSize) {
+        UniqueCount result = new UniqueCount(pipes);
+        Fields joinedFields = Fields.join(groupFields, uniqueFields);
+        
+        Pipe[] partials = new Pipe[pipes.length];
+        DistinctSetPartials function = new DistinctSetPartials(groupFields, uniqueFields, numGroups, maxSetSize);
+        
+        for (int i = 0; i < partials.length; i++) {
+            partials[i] = new Each(pipes[i], joinedFields, function, Fields.RESULTS);
+        }
+        
+        // Sets need to come before values for each group, and values need to be sorted.
+        Pipe pipe = new GroupBy(name, partials, groupFields, KIND_FIELD.append(uniqueFields));
+        pipe = new Every(pipe, KIND_FIELD.append(SET_FIELD).append(uniqueFields), new CountDistinctSets(uniqueFields, countField), Fields.SWAP);
+        
+        result.setTails(pipe);
+        return result;
+    }
+    
+    /**
+     * Create a UniqueCount that generates an approximate count using {@link HyperLogLog} sketches.
+     * See {@link #approximate(String, Pipe[], Fields, Fields, Fields, int, int)}.
+     * 
+     * @param precision
+     *            log2 of the number of HyperLogLog registers (e.g. {@link HyperLogLog#DEFAULT_PRECISION})
+     */
+    public static UniqueCount approximate(Pipe pipe, Fields groupFields, Fields uniqueFields, Fields countField, int precision) {
+        return approximate(null, Pipe.pipes(pipe), groupFields, uniqueFields, countField, DEFAULT_SKETCH_GROUPS, precision);
+    }
+    
+    /**
+     * Create a UniqueCount that generates an approximate count of the number of unique values found
+     * in uniqueFields, for each group defined by groupFields, and puts the resulting count into countField.
+     * 
+     * Instead of sending every unique value through the shuffle (and a secondary sort), the map
+     * side builds a {@link HyperLogLog} sketch per group, in the same way as AggregateBy, and the
+     * reduce side merges the sketches. The relative error is about 1.04/sqrt(2^precision).
+     * 
+     * @param name
+     *            of type String
+     * @param pipes
+     *            of type Pipe[]
+     * @param uniqueFields
+     *            of type Fields
+     * @param numGroups
+     *            number of groups to cache on the map side, before flushing their sketches
+     * @param precision
+     *            log2 of the number of HyperLogLog registers (e.g. {@link HyperLogLog#DEFAULT_PRECISION})
+     */
+    public static UniqueCount approximate(String name, Pipe[] pipes, Fields groupFields, Fields uniqueFields, Fields countField, int numGroups, int precision) {
+        UniqueCount result = new UniqueCount(pipes);
+        result.setTails(new ApproximateCountBy(name, pipes, groupFields, uniqueFields, countField, precision, numGroups));
+        return result;
+    }
+    
     public Pipe getTailPipe() {
         Pipe[] tails = getTails();
         return tails[0];
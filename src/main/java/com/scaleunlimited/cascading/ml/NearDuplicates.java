@@ -0,0 +1,303 @@
+package com.scaleunlimited.cascading.ml;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Buffer;
+import cascading.operation.BufferCall;
+import cascading.operation.Debug;
+import cascading.operation.DebugLevel;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.pipe.SubAssembly;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+import com.scaleunlimited.cascading.NullContext;
+
+/**
+ * Find all pairs of documents with 64-bit fingerprints (e.g. from {@link SimHashFingerprint}) that
+ * differ by at most <maxDistance> bits. We get passed Tuples with a document id and a fingerprint,
+ * and output (doc id, similar doc id, distance) for each pair, where the first doc id is the smaller one.
+ *
+ * The fingerprint is split into <numBlocks> blocks. If two fingerprints differ by at most k bits, then
+ * they must be the same in at least numBlocks - k of the blocks, so for every way of picking that
+ * many blocks (a "table"), we emit the fingerprint with the bits of those blocks as the key. Only
+ * fingerprints with the same key for the same table get compared, so we never have to compare all
+ * pairs of documents. More blocks means more tables (more map output), but fewer (and smaller) buckets.
+ *
+ * See "Detecting Near-Duplicates for Web Crawling" by Manku, Jain and Das Sarma.
+ */
+@SuppressWarnings("serial")
+public class NearDuplicates extends SubAssembly {
+
+    public static final String DISTANCE_FN = "NearDuplicates_distance";
+    public static final Fields DISTANCE_FIELD = new Fields(DISTANCE_FN);
+
+    public static final int DEFAULT_MAX_BUCKET_SIZE = 1000;
+
+    private static final Fields TABLE_FIELD = new Fields("NearDuplicates_table");
+    private static final Fields TABLE_KEY_FIELD = new Fields("NearDuplicates_tableKey");
+    private static final String FINGERPRINT_FN = "NearDuplicates_fingerprint";
+    private static final Fields FINGERPRINT_FIELD = new Fields(FINGERPRINT_FN);
+
+    /**
+     * The fraction of candidate pairs that are near-duplicates is a measure of how well the
+     * blocking works. Candidates that get skipped due to the bucket size cap are counted, as
+     * those might be missed near-duplicates.
+     */
+    public static enum NearDuplicatesCounters {
+        CANDIDATE_PAIRS,
+        DUPLICATE_PAIRS,
+        CAPPED_BUCKETS,
+        SKIPPED_BUCKET_DOCS
+    }
+
+    /**
+     * Emit (doc id, table, table key, fingerprint) for every table.
+     */
+    private static class EmitTableKeys extends BaseOperation<NullContext> implements Function<NullContext> {
+
+        private long[] _tableMasks;
+
+        private transient Tuple _result;
+
+        public EmitTableKeys(String docIdFieldname, long[] tableMasks) {
+            super(2, new Fields(docIdFieldname).append(TABLE_FIELD).append(TABLE_KEY_FIELD).append(FINGERPRINT_FIELD));
+
+            _tableMasks = tableMasks;
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _result = Tuple.size(4);
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void operate(FlowProcess flowProcess, FunctionCall<NullContext> functionCall) {
+            TupleEntry args = functionCall.getArguments();
+            if (args.getObject(1) == null) {
+                return;
+            }
+
+            long fingerprint = args.getLong(1);
+            _result.set(0, args.getObject(0));
+            _result.setLong(3, fingerprint);
+            for (int table = 0; table < _tableMasks.length; table++) {
+                _result.setInteger(1, table);
+                _result.setLong(2, fingerprint & _tableMasks[table]);
+                functionCall.getOutputCollector().add(_result);
+            }
+        }
+    }
+
+    /**
+     * We're grouped on table and table key, and sorted by doc id, so compare every pair of documents
+     * in the group. A pair of near-duplicates will be in the same bucket for every table where the
+     * bits that are different aren't part of the key, so we only emit it for the first such table.
+     */
+    private static class EmitDuplicatePairs extends BaseOperation<NullContext> implements Buffer<NullContext> {
+
+        private long[] _tableMasks;
+        private int _maxDistance;
+        private int _maxBucketSize;
+
+        private transient List<Object> _docIds;
+        private transient long[] _fingerprints;
+        private transient Tuple _result;
+
+        public EmitDuplicatePairs(String docIdFieldname, long[] tableMasks, int maxDistance, int maxBucketSize) {
+            super(new Fields(docIdFieldname).append(SimHash.SIMILAR_DOC_ID_FIELD).append(DISTANCE_FIELD));
+
+            _tableMasks = tableMasks;
+            _maxDistance = maxDistance;
+            _maxBucketSize = maxBucketSize;
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _docIds = new ArrayList<Object>();
+            _fingerprints = new long[_maxBucketSize];
+            _result = Tuple.size(3);
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+            int table = bufferCall.getGroup().getInteger(0);
+
+            _docIds.clear();
+            int numSkipped = 0;
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry te = iter.next();
+                if (_docIds.size() < _maxBucketSize) {
+                    _fingerprints[_docIds.size()] = te.getLong(FINGERPRINT_FN);
+                    _docIds.add(te.getObject(0));
+                } else {
+                    numSkipped += 1;
+                }
+            }
+
+            if (numSkipped > 0) {
+                flowProcess.increment(NearDuplicatesCounters.CAPPED_BUCKETS, 1);
+                flowProcess.increment(NearDuplicatesCounters.SKIPPED_BUCKET_DOCS, numSkipped);
+            }
+
+            int numDocs = _docIds.size();
+            int numCandidates = 0;
+            int numDuplicates = 0;
+            for (int i = 0; i < numDocs; i++) {
+                for (int j = i + 1; j < numDocs; j++) {
+                    long diffBits = _fingerprints[i] ^ _fingerprints[j];
+                    if (getFirstMatchingTable(diffBits) != table) {
+                        continue;
+                    }
+
+                    numCandidates += 1;
+                    int distance = Long.bitCount(diffBits);
+                    if (distance <= _maxDistance) {
+                        numDuplicates += 1;
+                        _result.set(0, _docIds.get(i));
+                        _result.set(1, _docIds.get(j));
+                        _result.setInteger(2, distance);
+                        bufferCall.getOutputCollector().add(_result);
+                    }
+                }
+            }
+
+            flowProcess.increment(NearDuplicatesCounters.CANDIDATE_PAIRS, numCandidates);
+            flowProcess.increment(NearDuplicatesCounters.DUPLICATE_PAIRS, numDuplicates);
+        }
+
+        private int getFirstMatchingTable(long diffBits) {
+            for (int table = 0; table < _tableMasks.length; table++) {
+                if ((diffBits & _tableMasks[table]) == 0) {
+                    return table;
+                }
+            }
+
+            return -1;
+        }
+    }
+
+    /**
+     * Use <maxDistance> + 3 blocks, which for a max distance of 3 is the 20 tables that Manku et al.
+     * use for 8B documents.
+     *
+     * @param sourcePipe
+     * @param docIdFieldname
+     * @param fingerprintFieldname
+     * @param maxDistance
+     */
+    public NearDuplicates(Pipe sourcePipe, String docIdFieldname, String fingerprintFieldname, int maxDistance) {
+        this(sourcePipe, docIdFieldname, fingerprintFieldname, maxDistance, Math.min(64, maxDistance + 3), DEFAULT_MAX_BUCKET_SIZE);
+    }
+
+    /**
+     * @param sourcePipe
+     * @param docIdFieldname
+     * @param fingerprintFieldname
+     * @param maxDistance - max number of bits that can be different
+     * @param numBlocks - number of blocks to split the fingerprint into, which must be > maxDistance.
+     * We emit (numBlocks choose maxDistance) tuples per document.
+     * @param maxBucketSize - max number of documents in one bucket that we'll compare. Any past
+     * this are skipped, and counted via {@link NearDuplicatesCounters#SKIPPED_BUCKET_DOCS}.
+     */
+    public NearDuplicates(Pipe sourcePipe, String docIdFieldname, String fingerprintFieldname, int maxDistance, int numBlocks, int maxBucketSize) {
+        super(sourcePipe);
+
+        if ((maxDistance < 0) || (maxDistance >= numBlocks) || (numBlocks > 64)) {
+            throw new IllegalArgumentException(String.format("maxDistance (%d) must be >= 0 and < numBlocks (%d), which must be <= 64", maxDistance, numBlocks));
+        }
+
+        if (maxBucketSize < 2) {
+            throw new IllegalArgumentException("maxBucketSize must be > 1: " + maxBucketSize);
+        }
+
+        long[] tableMasks = makeTableMasks(numBlocks, numBlocks - maxDistance);
+
+        sourcePipe = new Each(sourcePipe, new Fields(docIdFieldname, fingerprintFieldname), new EmitTableKeys(docIdFieldname, tableMasks), Fields.RESULTS);
+
+        // Group by table and key, sort by doc, and emit the near-duplicate pairs.
+        sourcePipe = new GroupBy("Emit duplicate pairs", sourcePipe, TABLE_FIELD.append(TABLE_KEY_FIELD), new Fields(docIdFieldname));
+        sourcePipe = new Every(sourcePipe, new EmitDuplicatePairs(docIdFieldname, tableMasks, maxDistance, maxBucketSize), Fields.RESULTS);
+        sourcePipe = new Each(sourcePipe, DebugLevel.VERBOSE, new Debug("NearDuplicates results", true));
+
+        setTails(sourcePipe);
+    }
+
+    /**
+     * @return the number of tuples that we emit per document, for <numBlocks> and <maxDistance>.
+     */
+    public static int getNumTables(int numBlocks, int maxDistance) {
+        // numBlocks choose maxDistance, which won't overflow for any sane values.
+        long result = 1;
+        for (int i = 1; i <= maxDistance; i++) {
+            result = (result * (numBlocks - maxDistance + i)) / i;
+        }
+
+        if (result > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Too many tables for %d blocks with max distance %d", numBlocks, maxDistance));
+        }
+
+        return (int)result;
+    }
+
+    /**
+     * Make a mask for every combination of <numKeyBlocks> blocks, out of <numBlocks>.
+     */
+    private static long[] makeTableMasks(int numBlocks, int numKeyBlocks) {
+        long[] blockMasks = new long[numBlocks];
+        for (int block = 0; block < numBlocks; block++) {
+            int startBit = (block * 64) / numBlocks;
+            int endBit = ((block + 1) * 64) / numBlocks;
+            for (int bit = startBit; bit < endBit; bit++) {
+                blockMasks[block] |= (1L << bit);
+            }
+        }
+
+        long[] result = new long[getNumTables(numBlocks, numBlocks - numKeyBlocks)];
+        int[] blocks = new int[numKeyBlocks];
+        for (int i = 0; i < numKeyBlocks; i++) {
+            blocks[i] = i;
+        }
+
+        // Step through the combinations in lexicographic order.
+        for (int table = 0; table < result.length; table++) {
+            for (int block : blocks) {
+                result[table] |= blockMasks[block];
+            }
+
+            int i = numKeyBlocks - 1;
+            while ((i >= 0) && (blocks[i] == numBlocks - numKeyBlocks + i)) {
+                i -= 1;
+            }
+
+            if (i >= 0) {
+                blocks[i] += 1;
+                for (int j = i + 1; j < numKeyBlocks; j++) {
+                    blocks[j] = blocks[j - 1] + 1;
+                }
+            }
+        }
+
+        return result;
+    }
+}
@@ -2,6 +2,7 @@ package com.scaleunlimited.cascading.ml;
 
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -26,11 +27,18 @@ import cascading.pipe.assembly.Unique;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
 
 /**
  * We get passed a Tuple that has two two fields in it - a document id, and a "terms" string.
  * We'll output the the top N similar documents (with similarity scores) for each unique doc ID.
  *
+ * Alternatively we can get one Tuple per document, with a document id and the document's text,
+ * plus an {@link ITermsParser}. Then the min-hashes are calculated on the map side, which is much
+ * more efficient than shuffling every (doc, term) pair.
+ *
+ * Note that this uses bottom-k min-hashes, not a Charikar simhash. For that (much smaller, but only
+ * good for finding near-duplicates) see {@link SimHashFingerprint} and {@link NearDuplicates}.
  */
 @SuppressWarnings("serial")
 public class SimHash extends SubAssembly {
@@ -46,6 +54,26 @@ public class SimHash extends SubAssembly {
     
     private static final Fields NUM_SIMILAR_DOCS_FIELD = new Fields("SimHash_numSimilarDocs");
     
+    private static final Fields BAND_FIELD = new Fields("SimHash_band");
+    private static final Fields BAND_SIGNATURE_FIELD = new Fields("SimHash_bandSignature");
+    private static final String MIN_HASHES_FN = "SimHash_minHashes";
+    private static final Fields MIN_HASHES_FIELD = new Fields(MIN_HASHES_FN);
+    
+    public static final int DEFAULT_MAX_BUCKET_SIZE = 1000;
+    
+    /**
+     * Counters for the banded LSH mode. The fraction of candidate pairs that are similar (at or above
+     * the (1/bands)^(1/rows) threshold) is a measure of precision. Candidates that get skipped due to
+     * the bucket size cap are lost recall, on top of pairs that never share a band.
+     */
+    public static enum SimHashCounters {
+        CANDIDATE_PAIRS,
+        SIMILAR_CANDIDATE_PAIRS,
+        DUPLICATE_CANDIDATE_PAIRS,
+        CAPPED_BUCKETS,
+        SKIPPED_BUCKET_DOCS
+    }
+    
     private static class EmitMatchingDocs extends BaseOperation<Void> implements Buffer<Void> {
         
         private String _docIdFieldname;
@@ -88,6 +116,414 @@ public class SimHash extends SubAssembly {
         }
     }
     
+    /**
+     * Take the bottom-k hashes for a document, and emit (doc id, band, band signature, hashes) for each
+     * band that has at least one hash in it.
+     */
+    private static class EmitBandSignatures extends BaseOperation<Void> implements Buffer<Void> {
+        
+        private int _numHashes;
+        private int _numBands;
+        private int _rowsPerBand;
+        
+        private transient long[] _hashes;
+        private transient long[] _signatures;
+        private transient int[] _rowCounts;
+        private transient Tuple _result;
+        
+        public EmitBandSignatures(String docIdFieldname, int numBands, int rowsPerBand) {
+            super(new Fields(docIdFieldname).append(BAND_FIELD).append(BAND_SIGNATURE_FIELD).append(MIN_HASHES_FIELD));
+            
+            _numHashes = numBands * rowsPerBand;
+            _numBands = numBands;
+            _rowsPerBand = rowsPerBand;
+        }
+        
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<Void> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _hashes = new long[_numHashes];
+            _signatures = new long[_numBands];
+            _rowCounts = new int[_numBands];
+            _result = Tuple.size(4);
+        }
+        
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<Void> bufferCall) {
+            // We're grouped on doc id, sorted by hash, so the first numHashes are the bottom-k.
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            int numHashes = 0;
+            while (iter.hasNext() && (numHashes < _numHashes)) {
+                _hashes[numHashes++] = iter.next().getLong(TERM_HASH_FN);
+            }
+            
+            emitBandSignatures(bufferCall.getOutputCollector(), _result, bufferCall.getGroup().getObject(0), _hashes, numHashes, _rowsPerBand, _signatures, _rowCounts);
+        }
+    }
+    
+    /**
+     * Emit (doc id, band, band signature, hashes) for each band that has at least one of the
+     * <numHashes> sorted <hashes> in it.
+     */
+    private static void emitBandSignatures(TupleEntryCollector collector, Tuple result, Object docId, long[] hashes, int numHashes, int rowsPerBand, long[] signatures, int[] rowCounts) {
+        // The hashes get emitted once per band, so they need their own tuple.
+        Tuple minHashes = new Tuple();
+        for (int i = 0; i < numHashes; i++) {
+            minHashes.add(hashes[i]);
+        }
+        
+        calcBandSignatures(hashes, numHashes, rowsPerBand, signatures, rowCounts);
+        
+        result.set(0, docId);
+        result.set(3, minHashes);
+        for (int band = 0; band < signatures.length; band++) {
+            if (rowCounts[band] > 0) {
+                result.setInteger(1, band);
+                result.setLong(2, signatures[band]);
+                collector.add(result);
+            }
+        }
+    }
+    
+    /**
+     * Bounded max-heap of the smallest distinct hashes seen so far, so we can find the bottom-k
+     * hashes for a document without sorting (or even keeping) all of its term hashes.
+     */
+    private static class MinHashHeap {
+        
+        private long[] _heap;
+        private int _size;
+        
+        public MinHashHeap(int maxSize) {
+            _heap = new long[maxSize];
+        }
+        
+        public void clear() {
+            _size = 0;
+        }
+        
+        public void add(long hash) {
+            if (_size < _heap.length) {
+                if (contains(hash)) {
+                    return;
+                }
+                
+                // Sift up from the end.
+                int pos = _size++;
+                while (pos > 0) {
+                    int parent = (pos - 1) >>> 1;
+                    if (_heap[parent] >= hash) {
+                        break;
+                    }
+                    
+                    _heap[pos] = _heap[parent];
+                    pos = parent;
+                }
+                
+                _heap[pos] = hash;
+            } else if ((hash < _heap[0]) && !contains(hash)) {
+                // Replace the largest, and sift down from the top.
+                int pos = 0;
+                while (true) {
+                    int child = (pos * 2) + 1;
+                    if (child >= _size) {
+                        break;
+                    }
+                    
+                    if ((child + 1 < _size) && (_heap[child + 1] > _heap[child])) {
+                        child += 1;
+                    }
+                    
+                    if (_heap[child] <= hash) {
+                        break;
+                    }
+                    
+                    _heap[pos] = _heap[child];
+                    pos = child;
+                }
+                
+                _heap[pos] = hash;
+            }
+        }
+        
+        /**
+         * Only called when a hash is small enough to get into the heap, which (after the heap
+         * fills up) is rare, so a linear scan is fine.
+         */
+        private boolean contains(long hash) {
+            for (int i = 0; i < _size; i++) {
+                if (_heap[i] == hash) {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+        /**
+         * Copy the hashes to <dest>, in ascending order.
+         * 
+         * @return number of hashes
+         */
+        public int getSortedHashes(long[] dest) {
+            System.arraycopy(_heap, 0, dest, 0, _size);
+            Arrays.sort(dest, 0, _size);
+            return _size;
+        }
+    }
+    
+    /**
+     * Parse the text for a document, and find the bottom-k hashes of its unique terms in one
+     * go. If we're banding, emit the band signatures, otherwise emit (doc id, hash) for each
+     * of the bottom-k hashes.
+     */
+    private static class CalcTextMinHashes extends BaseOperation<Void> implements Function<Void> {
+        
+        private ITermsParser _parser;
+        private int _numHashes;
+        private int _numBands;
+        private int _rowsPerBand;
+        
+        private transient MinHashHeap _heap;
+        private transient long[] _hashes;
+        private transient long[] _signatures;
+        private transient int[] _rowCounts;
+        private transient Tuple _result;
+        
+        /**
+         * @param docIdFieldname
+         * @param parser
+         * @param numHashes
+         * @param numBands number of LSH bands, or 0 to emit the min-hashes.
+         * @param rowsPerBand
+         */
+        public CalcTextMinHashes(String docIdFieldname, ITermsParser parser, int numHashes, int numBands, int rowsPerBand) {
+            super(2, numBands == 0 ? new Fields(docIdFieldname).append(TERM_HASH_FIELD) : new Fields(docIdFieldname).append(BAND_FIELD).append(BAND_SIGNATURE_FIELD).append(MIN_HASHES_FIELD));
+            
+            _parser = parser;
+            _numHashes = numHashes;
+            _numBands = numBands;
+            _rowsPerBand = rowsPerBand;
+        }
+        
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<Void> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _heap = new MinHashHeap(_numHashes);
+            _hashes = new long[_numHashes];
+            _signatures = new long[_numBands];
+            _rowCounts = new int[_numBands];
+            _result = Tuple.size(_numBands == 0 ? 2 : 4);
+        }
+        
+        @Override
+        public void operate(FlowProcess flowProcess, FunctionCall<Void> functionCall) {
+            TupleEntry args = functionCall.getArguments();
+            String text = args.getString(1);
+            if (text == null) {
+                return;
+            }
+            
+            _heap.clear();
+            _parser.reset(text);
+            for (String term : _parser) {
+                _heap.add(getLongHash(term));
+            }
+            
+            int numHashes = _heap.getSortedHashes(_hashes);
+            TupleEntryCollector collector = functionCall.getOutputCollector();
+            if (_numBands > 0) {
+                emitBandSignatures(collector, _result, args.getObject(0), _hashes, numHashes, _rowsPerBand, _signatures, _rowCounts);
+            } else {
+                _result.set(0, args.getObject(0));
+                for (int i = 0; i < numHashes; i++) {
+                    _result.setLong(1, _hashes[i]);
+                    collector.add(_result);
+                }
+            }
+        }
+    }
+    
+    /**
+     * We're grouped on band and band signature, so every document in the group is a candidate
+     * match for every other document. Calculate the same similarity as the non-banded mode
+     * (fraction of min-hashes in common) for each pair, and emit it. A pair can be in the same
+     * bucket for several bands, so we only emit it from the lowest of those bands.
+     */
+    private static class EmitCandidatePairs extends BaseOperation<Void> implements Buffer<Void> {
+        
+        private String _docIdFieldname;
+        private int _numHashes;
+        private int _numBands;
+        private int _rowsPerBand;
+        private int _maxBucketSize;
+        private float _threshold;
+        
+        private transient List<Object> _docIds;
+        private transient List<long[]> _docHashes;
+        private transient List<long[]> _docSignatures;
+        private transient List<int[]> _docRowCounts;
+        private transient Tuple _result;
+        
+        public EmitCandidatePairs(String docIdFieldname, int numBands, int rowsPerBand, int maxBucketSize) {
+            super(new Fields(docIdFieldname, SIMILAR_DOC_ID_FN, SIMILARITY_FN));
+            
+            _docIdFieldname = docIdFieldname;
+            _numHashes = numBands * rowsPerBand;
+            _numBands = numBands;
+            _rowsPerBand = rowsPerBand;
+            _maxBucketSize = maxBucketSize;
+            _threshold = getThreshold(numBands, rowsPerBand);
+        }
+        
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<Void> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _docIds = new ArrayList<Object>();
+            _docHashes = new ArrayList<long[]>();
+            _docSignatures = new ArrayList<long[]>();
+            _docRowCounts = new ArrayList<int[]>();
+            _result = Tuple.size(3);
+        }
+        
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<Void> bufferCall) {
+            int band = bufferCall.getGroup().getInteger(0);
+            
+            _docIds.clear();
+            _docHashes.clear();
+            _docSignatures.clear();
+            _docRowCounts.clear();
+            
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry te = iter.next();
+                if (_docIds.size() >= _maxBucketSize) {
+                    if (_docIds.size() == _maxBucketSize) {
+                        flowProcess.increment(SimHashCounters.CAPPED_BUCKETS, 1);
+                    }
+                    
+                    flowProcess.increment(SimHashCounters.SKIPPED_BUCKET_DOCS, 1);
+                    continue;
+                }
+                
+                Object docId = te.getObject(_docIdFieldname);
+                Tuple minHashes = (Tuple)te.getObject(MIN_HASHES_FN);
+                long[] hashes = new long[minHashes.size()];
+                for (int i = 0; i < hashes.length; i++) {
+                    hashes[i] = minHashes.getLong(i);
+                }
+                
+                long[] signatures = new long[_numBands];
+                int[] rowCounts = new int[_numBands];
+                calcBandSignatures(hashes, hashes.length, _rowsPerBand, signatures, rowCounts);
+                
+                _result.set(1, docId);
+                for (int i = 0; i < _docIds.size(); i++) {
+                    if (getFirstMatchingBand(_docSignatures.get(i), _docRowCounts.get(i), signatures, rowCounts) < band) {
+                        // We'll emit (or have emitted) this pair from a lower band.
+                        flowProcess.increment(SimHashCounters.DUPLICATE_CANDIDATE_PAIRS, 1);
+                        continue;
+                    }
+                    
+                    float similarity = (float)countCommonHashes(_docHashes.get(i), hashes) / (float)_numHashes;
+                    flowProcess.increment(SimHashCounters.CANDIDATE_PAIRS, 1);
+                    if (similarity >= _threshold) {
+                        flowProcess.increment(SimHashCounters.SIMILAR_CANDIDATE_PAIRS, 1);
+                    }
+                    
+                    _result.set(0, _docIds.get(i));
+                    _result.setFloat(2, similarity);
+                    bufferCall.getOutputCollector().add(_result);
+                }
+                
+                _docIds.add(docId);
+                _docHashes.add(hashes);
+                _docSignatures.add(signatures);
+                _docRowCounts.add(rowCounts);
+            }
+        }
+        
+        private int getFirstMatchingBand(long[] signatures1, int[] rowCounts1, long[] signatures2, int[] rowCounts2) {
+            for (int band = 0; band < _numBands; band++) {
+                if ((rowCounts1[band] > 0) && (rowCounts2[band] > 0) && (signatures1[band] == signatures2[band])) {
+                    return band;
+                }
+            }
+            
+            return _numBands;
+        }
+    }
+    
+    /**
+     * Split the (sorted) bottom-k hashes into bands by hash value, versus position, so that an
+     * extra or missing hash only changes the signature of the band that it's in. The signature of
+     * each band combines up to <rowsPerBand> of the smallest hashes in it. Bands with no hashes
+     * get a row count of zero, and shouldn't be used for matching.
+     */
+    private static void calcBandSignatures(long[] hashes, int numHashes, int rowsPerBand, long[] signatures, int[] rowCounts) {
+        int numBands = signatures.length;
+        for (int band = 0; band < numBands; band++) {
+            signatures[band] = band;
+            rowCounts[band] = 0;
+        }
+        
+        for (int i = 0; i < numHashes; i++) {
+            long hash = hashes[i];
+            int band = (int)((mix(hash) >>> 1) % numBands);
+            if (rowCounts[band] < rowsPerBand) {
+                signatures[band] = mix(signatures[band] * 31 + hash);
+                rowCounts[band] += 1;
+            }
+        }
+    }
+    
+    /**
+     * Murmur3 64-bit finalizer, since the JOAAT hashes (and especially the smallest ones) aren't
+     * well distributed in all of their bits.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+    
+    /**
+     * @return number of hashes that are in both of the sorted arrays.
+     */
+    private static int countCommonHashes(long[] hashes1, long[] hashes2) {
+        int result = 0;
+        int i = 0;
+        int j = 0;
+        while ((i < hashes1.length) && (j < hashes2.length)) {
+            if (hashes1[i] < hashes2[j]) {
+                i += 1;
+            } else if (hashes1[i] > hashes2[j]) {
+                j += 1;
+            } else {
+                result += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return similarity where a pair of documents has a 50% chance of sharing at least one band,
+     * roughly (1/bands)^(1/rows).
+     */
+    public static float getThreshold(int numBands, int rowsPerBand) {
+        return (float)Math.pow(1.0 / numBands, 1.0 / rowsPerBand);
+    }
+    
     private static byte[] getUTF8Bytes(String str) {
         try {
             return str.getBytes("UTF-8");
@@ -169,22 +605,100 @@ public class SimHash extends SubAssembly {
     public SimHash(Pipe sourcePipe, String docIdFieldname, String termFieldname, int numHashes, int numSimilarDocs) {
         super(sourcePipe);
         
-        // Calculate hash for each tuple. First leave one unique value per document.
-        // FUTURE we could defer this until a custom Buffer instead of First(numHashes), to avoid
-        // an extra job in the workflow.
-        sourcePipe = new Unique(sourcePipe, new Fields(docIdFieldname, termFieldname));
-
-        // sourcePipe = new Each(sourcePipe, new Fields(termFieldname), new ExpressionFunction(TERM_HASH_FIELD, "$0.hashCode()", String.class), Fields.SWAP);
-        sourcePipe = new Each(sourcePipe, DebugLevel.VERBOSE, new Debug("terms", true));
-        sourcePipe = new Each(sourcePipe, new Fields(termFieldname), new CalcHash(), Fields.SWAP);
-        sourcePipe = new Each(sourcePipe, DebugLevel.VERBOSE, new Debug("raw hashes", true));
-
+        sourcePipe = hashTerms(sourcePipe, docIdFieldname, termFieldname);
+        
         // Group by doc, sort by hash, pick the first numHashes
         sourcePipe = new GroupBy("Pick min hashes", sourcePipe, new Fields(docIdFieldname), TERM_HASH_FIELD);
         // TODO want to fail if we don't get at least numHashes per doc
         sourcePipe = new Every(sourcePipe, new First(numHashes), Fields.RESULTS);
         sourcePipe = new Each(sourcePipe, DebugLevel.VERBOSE, new Debug("min hashes", true));
         
+        setTails(limitMatches(matchMinHashes(sourcePipe, docIdFieldname, numHashes), docIdFieldname, numSimilarDocs));
+    }
+    
+    /**
+     * Version that takes one tuple per document, with the document's text in <textFieldname>. The
+     * text is parsed by <parser>, and the bottom-k hashes of the terms are found in the same function,
+     * which avoids the Unique and the GroupBy by document.
+     * 
+     * @param sourcePipe
+     * @param docIdFieldname
+     * @param textFieldname
+     * @param parser
+     * @param numHashes
+     * @param numSimilarDocs
+     */
+    public SimHash(Pipe sourcePipe, String docIdFieldname, String textFieldname, ITermsParser parser, int numHashes, int numSimilarDocs) {
+        super(sourcePipe);
+        
+        sourcePipe = new Each(sourcePipe, new Fields(docIdFieldname, textFieldname), new CalcTextMinHashes(docIdFieldname, parser, numHashes, 0, 0), Fields.RESULTS);
+        sourcePipe = new Each(sourcePipe, DebugLevel.VERBOSE, new Debug("min hashes", true));
+        
+        setTails(limitMatches(matchMinHashes(sourcePipe, docIdFieldname, numHashes), docIdFieldname, numSimilarDocs));
+    }
+    
+    /**
+     * Banded LSH version, which uses <numBands> * <rowsPerBand> min-hashes per document. Only documents
+     * that have the same signature for at least one band get compared, so common terms don't generate
+     * a quadratic number of pairs. The similarity is the same as for the non-banded version, but pairs
+     * with a similarity much below {@link #getThreshold(int, int)} will usually be missed.
+     * 
+     * @param sourcePipe
+     * @param docIdFieldname
+     * @param termFieldname
+     * @param numBands
+     * @param rowsPerBand
+     * @param maxBucketSize - max number of documents in one band bucket that we'll compare. Any
+     * past this are skipped, and counted via {@link SimHashCounters#SKIPPED_BUCKET_DOCS}.
+     * @param numSimilarDocs
+     */
+    public SimHash(Pipe sourcePipe, String docIdFieldname, String termFieldname, int numBands, int rowsPerBand, int maxBucketSize, int numSimilarDocs) {
+        super(sourcePipe);
+        
+        checkBands(numBands, rowsPerBand, maxBucketSize);
+        
+        sourcePipe = hashTerms(sourcePipe, docIdFieldname, termFieldname);
+        
+        // Group by doc, sort by hash, and emit the band signatures from the first numHashes.
+        sourcePipe = new GroupBy("Calc band signatures", sourcePipe, new Fields(docIdFieldname), TERM_HASH_FIELD);
+        sourcePipe = new Every(sourcePipe, new EmitBandSignatures(docIdFieldname, numBands, rowsPerBand), Fields.RESULTS);
+        sourcePipe = new Each(sourcePipe, DebugLevel.VERBOSE, new Debug("band signatures", true));
+        
+        setTails(limitMatches(matchBands(sourcePipe, docIdFieldname, numBands, rowsPerBand, maxBucketSize), docIdFieldname, numSimilarDocs));
+    }
+    
+    /**
+     * Banded LSH version that takes one tuple per document, with the document's text in <textFieldname>.
+     * 
+     * @see #SimHash(Pipe, String, String, ITermsParser, int, int)
+     * @see #SimHash(Pipe, String, String, int, int, int, int)
+     */
+    public SimHash(Pipe sourcePipe, String docIdFieldname, String textFieldname, ITermsParser parser, int numBands, int rowsPerBand, int maxBucketSize, int numSimilarDocs) {
+        super(sourcePipe);
+        
+        checkBands(numBands, rowsPerBand, maxBucketSize);
+        
+        sourcePipe = new Each(sourcePipe, new Fields(docIdFieldname, textFieldname), new CalcTextMinHashes(docIdFieldname, parser, numBands * rowsPerBand, numBands, rowsPerBand), Fields.RESULTS);
+        sourcePipe = new Each(sourcePipe, DebugLevel.VERBOSE, new Debug("band signatures", true));
+        
+        setTails(limitMatches(matchBands(sourcePipe, docIdFieldname, numBands, rowsPerBand, maxBucketSize), docIdFieldname, numSimilarDocs));
+    }
+    
+    private static void checkBands(int numBands, int rowsPerBand, int maxBucketSize) {
+        if ((numBands < 1) || (rowsPerBand < 1)) {
+            throw new IllegalArgumentException(String.format("numBands (%d) and rowsPerBand (%d) must be > 0", numBands, rowsPerBand));
+        }
+        
+        if (maxBucketSize < 2) {
+            throw new IllegalArgumentException("maxBucketSize must be > 1: " + maxBucketSize);
+        }
+    }
+    
+    /**
+     * Given (doc id, hash) tuples for the min-hashes of each doc, calculate the similarity of every pair of
+     * docs that share at least one min-hash.
+     */
+    private static Pipe matchMinHashes(Pipe sourcePipe, String docIdFieldname, int numHashes) {
         // Group by hash, sort by doc, emit matches
         sourcePipe = new GroupBy("Emit matching docs", sourcePipe, TERM_HASH_FIELD, new Fields(docIdFieldname));
         sourcePipe = new Every(sourcePipe, new EmitMatchingDocs(docIdFieldname), Fields.RESULTS);
@@ -197,12 +711,39 @@ public class SimHash extends SubAssembly {
         // Calculate similarity score.
         sourcePipe = new Each(sourcePipe, NUM_SIMILAR_DOCS_FIELD, new ExpressionFunction(SIMILARITY_FIELD, String.format("$0/%s", numHashes), Float.class), Fields.SWAP);
         sourcePipe = new Each(sourcePipe, DebugLevel.VERBOSE, new Debug("SimHash results", true));
+        return sourcePipe;
+    }
+    
+    /**
+     * Given (doc id, band, band signature, min-hashes) tuples, calculate the similarity of every pair of
+     * docs that have the same signature for at least one band.
+     */
+    private static Pipe matchBands(Pipe sourcePipe, String docIdFieldname, int numBands, int rowsPerBand, int maxBucketSize) {
+        // Group by band signature, sort by doc, and emit similarity for candidate pairs.
+        sourcePipe = new GroupBy("Emit candidate pairs", sourcePipe, BAND_FIELD.append(BAND_SIGNATURE_FIELD), new Fields(docIdFieldname));
+        sourcePipe = new Every(sourcePipe, new EmitCandidatePairs(docIdFieldname, numBands, rowsPerBand, maxBucketSize), Fields.RESULTS);
+        sourcePipe = new Each(sourcePipe, DebugLevel.VERBOSE, new Debug("SimHash results", true));
+        return sourcePipe;
+    }
+    
+    private static Pipe hashTerms(Pipe sourcePipe, String docIdFieldname, String termFieldname) {
+        // Calculate hash for each tuple. First leave one unique value per document.
+        // FUTURE we could defer this until a custom Buffer instead of First(numHashes), to avoid
+        // an extra job in the workflow.
+        sourcePipe = new Unique(sourcePipe, new Fields(docIdFieldname, termFieldname));
 
+        // sourcePipe = new Each(sourcePipe, new Fields(termFieldname), new ExpressionFunction(TERM_HASH_FIELD, "$0.hashCode()", String.class), Fields.SWAP);
+        sourcePipe = new Each(sourcePipe, DebugLevel.VERBOSE, new Debug("terms", true));
+        sourcePipe = new Each(sourcePipe, new Fields(termFieldname), new CalcHash(), Fields.SWAP);
+        sourcePipe = new Each(sourcePipe, DebugLevel.VERBOSE, new Debug("raw hashes", true));
+        return sourcePipe;
+    }
+    
+    private static Pipe limitMatches(Pipe sourcePipe, String docIdFieldname, int numSimilarDocs) {
         // Limit to top numSimilarDocs by score
         sourcePipe = new GroupBy("Emit top matches", sourcePipe, new Fields(docIdFieldname), SIMILARITY_FIELD, true);
         sourcePipe = new Every(sourcePipe, new First(numSimilarDocs), Fields.RESULTS);
         sourcePipe = new Each(sourcePipe, DebugLevel.VERBOSE, new Debug("SimHash top results", true));
-
-        setTails(sourcePipe);
+        return sourcePipe;
     }
 }
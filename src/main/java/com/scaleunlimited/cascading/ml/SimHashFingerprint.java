@@ -0,0 +1,127 @@
+package com.scaleunlimited.cascading.ml;
+
+import java.util.Arrays;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+import com.scaleunlimited.cascading.NullContext;
+import com.scaleunlimited.maps.ByteSlice;
+import com.scaleunlimited.maps.HashUtils;
+import com.scaleunlimited.maps.StringIntMap;
+
+/**
+ * Calculate a 64-bit Charikar simhash fingerprint for the text in the (single) argument field,
+ * using <parser> to extract terms. Each unique term is hashed to 64 bits, and contributes its
+ * count in the document to every bit position, positively if that bit of its hash is set and
+ * negatively if it's not. The fingerprint has a bit set wherever the total is positive.
+ *
+ * Similar documents wind up with fingerprints that differ in only a few bits, so near-duplicates
+ * can be found with {@link NearDuplicates}, using only 8 bytes per document.
+ *
+ * See "Similarity Estimation Techniques from Rounding Algorithms" by Charikar.
+ */
+@SuppressWarnings("serial")
+public class SimHashFingerprint extends BaseOperation<NullContext> implements Function<NullContext> {
+
+    public static final String FINGERPRINT_FN = "SimHash_fingerprint";
+    public static final Fields FINGERPRINT_FIELD = new Fields(FINGERPRINT_FN);
+
+    private static final long HASH_SEED = 0x2545F491L;
+
+    private ITermsParser _parser;
+
+    private transient StringIntMap _terms;
+    private transient long[] _bitWeights;
+    private transient Tuple _result;
+
+    public SimHashFingerprint(ITermsParser parser) {
+        this(parser, FINGERPRINT_FIELD);
+    }
+
+    public SimHashFingerprint(ITermsParser parser, Fields fingerprintField) {
+        super(1, fingerprintField);
+
+        if (fingerprintField.size() != 1) {
+            throw new IllegalArgumentException("Fingerprint field must be a single field: " + fingerprintField);
+        }
+
+        _parser = parser;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+        super.prepare(flowProcess, operationCall);
+
+        _terms = new StringIntMap();
+        _bitWeights = new long[64];
+        _result = Tuple.size(1);
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void operate(FlowProcess flowProcess, FunctionCall<NullContext> functionCall) {
+        String text = functionCall.getArguments().getString(0);
+        if (text == null) {
+            return;
+        }
+
+        _terms.clear();
+        _parser.reset(text);
+        for (String term : _parser) {
+            _terms.addTo(term, 1);
+        }
+
+        _result.setLong(0, calcFingerprint(_terms, _bitWeights));
+        functionCall.getOutputCollector().add(_result);
+    }
+
+    /**
+     * @return the fingerprint for <termWeights>, which maps from each term to its weight
+     * (e.g. count in the document).
+     */
+    public static long getFingerprint(StringIntMap termWeights) {
+        return calcFingerprint(termWeights, new long[64]);
+    }
+
+    /**
+     * @return number of bits that are different between the two fingerprints.
+     */
+    public static int getHammingDistance(long fingerprint1, long fingerprint2) {
+        return Long.bitCount(fingerprint1 ^ fingerprint2);
+    }
+
+    private static long calcFingerprint(StringIntMap termWeights, long[] bitWeights) {
+        Arrays.fill(bitWeights, 0);
+
+        StringIntMap.Cursor cursor = termWeights.cursor();
+        while (cursor.next()) {
+            // Hash the UTF-8 bytes of the key directly, so we don't have to make a string.
+            ByteSlice key = cursor.getKey();
+            long hash = HashUtils.getMurmur3LongHash(key.getBytes(), key.getOffset(), key.getLength(), HASH_SEED);
+            int weight = cursor.getValue();
+            for (int bit = 0; bit < 64; bit++) {
+                if ((hash & (1L << bit)) != 0) {
+                    bitWeights[bit] += weight;
+                } else {
+                    bitWeights[bit] -= weight;
+                }
+            }
+        }
+
+        long result = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (bitWeights[bit] > 0) {
+                result |= (1L << bit);
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,82 @@
+package com.scaleunlimited.cascading.ml;
+
+import java.io.File;
+
+import cascading.pipe.Each;
+import cascading.pipe.Pipe;
+import cascading.pipe.SubAssembly;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.TupleEntryIterator;
+
+import com.scaleunlimited.cascading.BasePlatform;
+import com.scaleunlimited.cascading.CountMinSketch;
+import com.scaleunlimited.cascading.CountMinSketchBy;
+
+/**
+ * Build a {@link CountMinSketch} of the corpus-wide count of every term in the documents, in one pass.
+ * The result is a single tuple, with the sketch in the "term_counts" field.
+ *
+ * Typically this gets written to a sink, then read back via {@link #readSketch(BasePlatform, Tap)}
+ * and shared via {@link #shareSketch(BasePlatform, CountMinSketch, File)}, so that the next flow can
+ * use {@link TopTermsByLLR} with a local lookup of term counts.
+ */
+@SuppressWarnings("serial")
+public class TermCountsSketch extends SubAssembly {
+
+    public static final String SKETCH_FN = "term_counts";
+    public static final Fields SKETCH_FIELD = new Fields(SKETCH_FN);
+
+    public TermCountsSketch(Pipe docsPipe, ITermsParser parser, Fields textField) {
+        this(docsPipe, parser, textField, CountMinSketch.DEFAULT_EPSILON, CountMinSketch.DEFAULT_DELTA);
+    }
+
+    /**
+     * @param docsPipe
+     * @param parser
+     * @param textField
+     * @param epsilon - max error in a term's count, as a fraction of the total number of terms.
+     * @param delta - probability that a term's count is off by more than epsilon.
+     */
+    public TermCountsSketch(Pipe docsPipe, ITermsParser parser, Fields textField, double epsilon, double delta) {
+        super(docsPipe);
+
+        Pipe termsPipe = new Pipe("term counts sketch", docsPipe);
+        termsPipe = new Each(termsPipe, textField, new TopTermsByLLR.ExtractTerms(parser), Fields.RESULTS);
+
+        // There's only one sketch, so we only need to cache one group on the map side. The null
+        // term (total terms in a doc) gets ignored, as the sketch keeps track of the total count.
+        termsPipe = new CountMinSketchBy(null, Pipe.pipes(termsPipe), Fields.NONE, new Fields("term"), new Fields("term_count"),
+                        SKETCH_FIELD, epsilon, delta, 1);
+
+        setTails(termsPipe);
+    }
+
+    /**
+     * Read the sketch from <tap>, which was the sink for a {@link TermCountsSketch}.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public static CountMinSketch readSketch(BasePlatform platform, Tap tap) throws Exception {
+        TupleEntryIterator iter = tap.openForRead(platform.makeFlowProcess());
+
+        try {
+            if (!iter.hasNext()) {
+                throw new IllegalStateException("No term counts sketch in " + tap.getIdentifier());
+            }
+
+            return (CountMinSketch)iter.next().getObject(SKETCH_FN);
+        } finally {
+            iter.close();
+        }
+    }
+
+    /**
+     * Save <sketch> in <localDir>, and make it available to tasks.
+     *
+     * @return the shared directory name, to pass to {@link TopTermsByLLR}
+     */
+    public static String shareSketch(BasePlatform platform, CountMinSketch sketch, File localDir) throws Exception {
+        sketch.writeToDir(localDir);
+        return platform.shareLocalDir(localDir.getAbsolutePath());
+    }
+}
@@ -0,0 +1,137 @@
+package com.scaleunlimited.cascading.ml;
+
+/**
+ * Bounded min-heap of (term, score) pairs, used to keep the top N scoring terms for a document
+ * without allocating anything per term. Scores and terms are kept in parallel arrays, and the
+ * lowest scoring term is at the top, so a new term only has to beat that one to get in.
+ *
+ * Ties are broken by term, so the results don't depend on the order that terms were added.
+ *
+ * Call {@link #sort()} to get the results (in order of decreasing score), and {@link #clear()}
+ * before starting on the next document.
+ */
+class TermScoreHeap {
+
+    private int _maxSize;
+    private int _size;
+    private double[] _scores;
+    private String[] _terms;
+
+    public TermScoreHeap(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Max size can't be negative: " + maxSize);
+        }
+
+        _maxSize = maxSize;
+        _scores = new double[maxSize];
+        _terms = new String[maxSize];
+    }
+
+    public int getMaxSize() {
+        return _maxSize;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public void clear() {
+        for (int i = 0; i < _size; i++) {
+            _terms[i] = null;
+        }
+
+        _size = 0;
+    }
+
+    /**
+     * Add <term> with <score>, if there's room or it beats the lowest scoring term.
+     *
+     * @return true if the term was added.
+     */
+    public boolean add(String term, double score) {
+        if (_size < _maxSize) {
+            siftUp(_size++, term, score);
+            return true;
+        } else if ((_maxSize > 0) && isLess(_scores[0], _terms[0], score, term)) {
+            siftDown(0, _size, term, score);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Sort the terms in place, in order of decreasing score. After this the heap is no longer
+     * valid, so only {@link #getTerm(int)}, {@link #getScore(int)} and {@link #clear()} can be called.
+     */
+    public void sort() {
+        // Repeatedly move the lowest scoring term to the end of the heap, and shrink it.
+        for (int end = _size - 1; end > 0; end--) {
+            String term = _terms[end];
+            double score = _scores[end];
+            _terms[end] = _terms[0];
+            _scores[end] = _scores[0];
+            siftDown(0, end, term, score);
+        }
+    }
+
+    public String getTerm(int index) {
+        return _terms[index];
+    }
+
+    public double getScore(int index) {
+        return _scores[index];
+    }
+
+    private void siftUp(int pos, String term, double score) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!isLess(score, term, _scores[parent], _terms[parent])) {
+                break;
+            }
+
+            _scores[pos] = _scores[parent];
+            _terms[pos] = _terms[parent];
+            pos = parent;
+        }
+
+        _scores[pos] = score;
+        _terms[pos] = term;
+    }
+
+    private void siftDown(int pos, int size, String term, double score) {
+        while (true) {
+            int child = (pos * 2) + 1;
+            if (child >= size) {
+                break;
+            }
+
+            if ((child + 1 < size) && isLess(_scores[child + 1], _terms[child + 1], _scores[child], _terms[child])) {
+                child += 1;
+            }
+
+            if (!isLess(_scores[child], _terms[child], score, term)) {
+                break;
+            }
+
+            _scores[pos] = _scores[child];
+            _terms[pos] = _terms[child];
+            pos = child;
+        }
+
+        _scores[pos] = score;
+        _terms[pos] = term;
+    }
+
+    /**
+     * @return true if (term1, score1) ranks lower than (term2, score2). For the same score,
+     * the term that sorts first ranks higher.
+     */
+    private static boolean isLess(double score1, String term1, double score2, String term2) {
+        if (score1 != score2) {
+            return score1 < score2;
+        } else {
+            return term1.compareTo(term2) > 0;
+        }
+    }
+}
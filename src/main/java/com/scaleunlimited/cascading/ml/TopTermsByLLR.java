@@ -1,11 +1,8 @@
 package com.scaleunlimited.cascading.ml;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +14,7 @@ import cascading.operation.BufferCall;
 import cascading.operation.Function;
 import cascading.operation.FunctionCall;
 import cascading.operation.Identity;
+import cascading.operation.OperationCall;
 import cascading.pipe.CoGroup;
 import cascading.pipe.Each;
 import cascading.pipe.Every;
@@ -30,68 +28,107 @@ import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
 
+import com.scaleunlimited.cascading.BasePlatform;
+import com.scaleunlimited.cascading.CountMinSketch;
 import com.scaleunlimited.cascading.NullContext;
+import com.scaleunlimited.maps.StringIntMap;
 
 @SuppressWarnings("serial")
 public class TopTermsByLLR extends SubAssembly {
     private static final Logger LOGGER = LoggerFactory.getLogger(TopTermsByLLR.class);
     
-    private static class ExtractTerms extends BaseOperation<NullContext> implements Function<NullContext> {
+    static class ExtractTerms extends BaseOperation<NullContext> implements Function<NullContext> {
         
         private ITermsParser _parser;
         
+        // Reused for every document, so we don't box the counts or allocate a new map.
+        private transient StringIntMap _terms;
+        
         public ExtractTerms(ITermsParser parser) {
             super(new Fields("term", "term_count"));
             _parser = parser;
         }
 
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _terms = new StringIntMap();
+        }
+        
         @SuppressWarnings("rawtypes")
         @Override
         public void operate(FlowProcess flowProcess, FunctionCall<NullContext> functionCall) {
             _parser.reset(functionCall.getArguments().getString(0));
             
-            // TODO use fastutils code, e.g. Object2IntOpenHashMap. Or get long hash from
-            // string, but then we'd need to re-join top terms (by hash) against the actual
-            // term at the end of the workflow
-            Map<String, Integer> terms = new HashMap<String, Integer>();
+            _terms.clear();
             
             int totalTerms = 0;
             for (String term : _parser) {
                 totalTerms += 1;
-                Integer termCount = terms.get(term);
-                if (termCount == null) {
-                    terms.put(term, 1);
-                } else {
-                    terms.put(term, termCount + 1);
-                }
+                _terms.addTo(term, 1);
             }
             
-            for (String term : terms.keySet()) {
-                functionCall.getOutputCollector().add(new Tuple(term, terms.get(term)));
+            StringIntMap.Cursor cursor = _terms.cursor();
+            while (cursor.next()) {
+                functionCall.getOutputCollector().add(new Tuple(cursor.getKeyAsString(), cursor.getValue()));
             }
             
             functionCall.getOutputCollector().add(new Tuple(null, totalTerms));
         }
     }
 
-    private static class TermAndScore implements Comparable<TermAndScore> {
-        String _term;
-        double _score;
+    /**
+     * Add the (estimated) total count for each term, using a {@link CountMinSketch} that was
+     * built by {@link TermCountsSketch} and shared via {@link BasePlatform#shareLocalDir(String)}.
+     * The null term gets the total count of all terms.
+     */
+    private static class LookupTotalCounts extends BaseOperation<NullContext> implements Function<NullContext> {
+        
+        private BasePlatform _platform;
+        private String _sharedSketchDir;
         
-        public TermAndScore(String term, double score) {
-            _term = term;
-            _score = score;
+        private transient CountMinSketch _sketch;
+        private transient Tuple _result;
+        
+        public LookupTotalCounts(BasePlatform platform, String sharedSketchDir) {
+            super(1, new Fields("total_count"));
+            
+            _platform = platform;
+            _sharedSketchDir = sharedSketchDir;
         }
 
+        @SuppressWarnings("rawtypes")
         @Override
-        public int compareTo(TermAndScore o) {
-            if (_score > o._score) {
-                return -1;
-            } else if (_score < o._score) {
-                return 1;
-            } else {
-                return 0;
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            String localDirName = _platform.copySharedDirToLocal(flowProcess, _sharedSketchDir);
+            try {
+                _sketch = CountMinSketch.readFromDir(new File(localDirName));
+            } catch (IOException e) {
+                throw new RuntimeException("Can't load term counts sketch from " + localDirName, e);
             }
+            
+            _result = Tuple.size(1);
+        }
+        
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void operate(FlowProcess flowProcess, FunctionCall<NullContext> functionCall) {
+            String term = functionCall.getArguments().getString(0);
+            long totalCount = (term == null) ? _sketch.getTotalCount() : _sketch.getCount(term);
+            _result.setInteger(0, (int)Math.min(Integer.MAX_VALUE, totalCount));
+            functionCall.getOutputCollector().add(_result);
+        }
+        
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void cleanup(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            _sketch = null;
+            
+            super.cleanup(flowProcess, operationCall);
         }
     }
 
@@ -107,6 +144,16 @@ public class TopTermsByLLR extends SubAssembly {
         public int nextDocTermCount;
         public int nextTotalTermCount;
         
+        public void reset() {
+            atEnd = false;
+            curTerm = null;
+            docTermCount = 0;
+            totalTermCount = 0;
+            nextTerm = null;
+            nextDocTermCount = 0;
+            nextTotalTermCount = 0;
+        }
+        
         @Override
         public String toString() {
             return String.format("\"%s\"=%d/%d, next \"%s\"=%d", curTerm, docTermCount, totalTermCount, nextTerm, nextDocTermCount);
@@ -118,6 +165,11 @@ public class TopTermsByLLR extends SubAssembly {
         private ITermsFilter _filter;
         private ITermsParser _parser;
         
+        // Reused for every document, so we don't allocate anything per term.
+        private transient TermAndCounts _termCounts;
+        private transient TermScoreHeap _topTerms;
+        private transient Tuple _result;
+        
         public CalcLLR(ITermsParser parser, ITermsFilter filter) {
             super(new Fields("terms", "scores"));
             
@@ -125,6 +177,16 @@ public class TopTermsByLLR extends SubAssembly {
             _filter = filter;
         }
 
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _termCounts = new TermAndCounts();
+            _topTerms = new TermScoreHeap(_filter.getMaxResults());
+            _result = Tuple.size(2);
+        }
+
         @SuppressWarnings("rawtypes")
         @Override
         public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
@@ -135,7 +197,8 @@ public class TopTermsByLLR extends SubAssembly {
                 throw new RuntimeException(String.format("Impossible situation - group for docid %s has no members", docid));
             }
             
-            TermAndCounts termCounts = new TermAndCounts();
+            TermAndCounts termCounts = _termCounts;
+            termCounts.reset();
             countTerms(iter, termCounts);
             
             if (termCounts.curTerm != null) {
@@ -149,8 +212,7 @@ public class TopTermsByLLR extends SubAssembly {
             // Now we can start iterating over the terms for this document, calculating their LLR score and keeping
             // the top N
             
-            int maxResults = _filter.getMaxResults();
-            List<TermAndScore> queue = new ArrayList<TermAndScore>(maxResults);
+            _topTerms.clear();
 
             while (countTerms(iter, termCounts)) {
                 // LOGGER.info(termCounts);
@@ -185,28 +247,23 @@ public class TopTermsByLLR extends SubAssembly {
                     continue;
                 }
                 
-                if (queue.size() < maxResults) {
-                    queue.add(new TermAndScore(termCounts.curTerm, score));
-                    if (queue.size() == maxResults) {
-                        // Set up for next call, where last score must be lowest
-                        Collections.sort(queue);
-                    }
-                } else if (queue.get(maxResults - 1)._score < score) {
-                    queue.set(maxResults - 1, new TermAndScore(termCounts.curTerm, score));
-                    Collections.sort(queue);
-                }
+                _topTerms.add(termCounts.curTerm, score);
             }
             
-            // At the end we'll have the top terms & scores
-            Tuple terms = new Tuple();
-            Tuple scores = new Tuple();
-            
-            for (TermAndScore tas : queue) {
-                terms.add(tas._term);
-                scores.add(tas._score);
+            // At the end we'll have the top terms & scores. The terms and scores tuples are field
+            // values that might be held onto downstream, so those can't be reused.
+            _topTerms.sort();
+            int numTerms = _topTerms.size();
+            Tuple terms = Tuple.size(numTerms);
+            Tuple scores = Tuple.size(numTerms);
+            for (int i = 0; i < numTerms; i++) {
+                terms.set(i, _topTerms.getTerm(i));
+                scores.setDouble(i, _topTerms.getScore(i));
             }
             
-            bufferCall.getOutputCollector().add(new Tuple(terms, scores));
+            _result.set(0, terms);
+            _result.set(1, scores);
+            bufferCall.getOutputCollector().add(_result);
         }
 
         private boolean countTerms(Iterator<TupleEntry> iter, TermAndCounts termCounts) {
@@ -303,13 +360,40 @@ public class TopTermsByLLR extends SubAssembly {
                                         docIdFields.append(new Fields("term", "term_count", "term_ignore", "total_count")),
                                         new LeftJoin());
         
+        setTails(scoreTerms(allTermData, parser, filter, docIdFields));
+    }
+
+    /**
+     * Like {@link #TopTermsByLLR(Pipe, ITermsParser, ITermsFilter, Fields, Fields, int)}, but the total
+     * count for each term comes from a {@link CountMinSketch} that was built by {@link TermCountsSketch},
+     * versus a SumBy and CoGroup. This avoids shuffling every (docid, term) tuple twice, at the cost of
+     * total counts that can be a bit too high.
+     * 
+     * @param docsPipe
+     * @param parser
+     * @param filter
+     * @param docIdFields
+     * @param textField
+     * @param platform - used to get a local copy of the sketch in each task.
+     * @param sharedSketchDir - result of {@link TermCountsSketch#shareSketch(BasePlatform, CountMinSketch, File)}
+     */
+    public TopTermsByLLR(Pipe docsPipe, ITermsParser parser, ITermsFilter filter, Fields docIdFields, Fields textField, BasePlatform platform, String sharedSketchDir) {
+        super(docsPipe);
+        
+        Pipe allTermData = new Pipe("terms", docsPipe);
+        allTermData = new Each(allTermData, textField, new ExtractTerms(parser), Fields.SWAP);
+        allTermData = new Each(allTermData, new Fields("term"), new LookupTotalCounts(platform, sharedSketchDir), Fields.ALL);
+        
+        setTails(scoreTerms(allTermData, parser, filter, docIdFields));
+    }
+    
+    private static Pipe scoreTerms(Pipe allTermData, ITermsParser parser, ITermsFilter filter, Fields docIdFields) {
         Fields termFields = new Fields("term", "term_count", "total_count");
         allTermData = new Each(allTermData, docIdFields.append(termFields), new Identity());
         // allTermData = new Each(allTermData, new Debug("grouped", true));
 
         allTermData = new GroupBy(allTermData, docIdFields, new Fields("term"));
         allTermData = new Every(allTermData, termFields, new CalcLLR(parser, filter), Fields.SWAP);
-        
-        setTails(allTermData);
+        return allTermData;
     }
-}
+}
\ No newline at end of file
@@ -1,10 +1,7 @@
 package com.scaleunlimited.cascading.ml;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 
 import cascading.flow.FlowProcess;
@@ -15,17 +12,13 @@ import cascading.operation.Function;
 import cascading.operation.FunctionCall;
 import cascading.operation.Identity;
 import cascading.operation.OperationCall;
-import cascading.operation.expression.ExpressionFilter;
 import cascading.pipe.CoGroup;
 import cascading.pipe.Each;
 import cascading.pipe.Every;
 import cascading.pipe.GroupBy;
-import cascading.pipe.HashJoin;
 import cascading.pipe.Pipe;
 import cascading.pipe.SubAssembly;
-import cascading.pipe.assembly.SumBy;
-import cascading.pipe.joiner.LeftJoin;
-import cascading.pipe.joiner.OuterJoin;
+import cascading.pipe.joiner.InnerJoin;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
@@ -44,7 +37,7 @@ public class TopTermsByTfIdf extends SubAssembly {
         private transient Tuple _emptyTerm;
         
         public ExtractTerms(ITermsParser parser) {
-            super(new Fields("term", "tf", "joiner"));
+            super(new Fields("term", "tf"));
             _parser = parser;
         }
 
@@ -52,8 +45,8 @@ public class TopTermsByTfIdf extends SubAssembly {
         public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
             super.prepare(flowProcess, operationCall);
             
-            _result = new Tuple("", 0.0f, "");
-            _emptyTerm = new Tuple("", 0.0f, "x");
+            _result = new Tuple("", 0.0f);
+            _emptyTerm = new Tuple("", 0.0f);
         }
         
         @Override
@@ -92,36 +85,32 @@ public class TopTermsByTfIdf extends SubAssembly {
         }
     }
 
-    private static class TermAndScore implements Comparable<TermAndScore> {
-        String _term;
-        double _score;
-        
-        public TermAndScore(String term, double score) {
-            _term = term;
-            _score = score;
-        }
-
-        @Override
-        public int compareTo(TermAndScore o) {
-            if (_score > o._score) {
-                return -1;
-            } else if (_score < o._score) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }
-    }
-
-    private static class CalcLLR extends BaseOperation<NullContext> implements Buffer<NullContext> {
+    /**
+     * We're grouped by docid and sorted by term, so the first tuple is for the special empty term,
+     * which has the total number of documents as its doc_count. Then we get every term in the
+     * document, with its term frequency and the number of documents it's in.
+     */
+    private static class CalcTfIdf extends BaseOperation<NullContext> implements Buffer<NullContext> {
         
         private int _numTerms;
         
-        public CalcLLR(int numTerms) {
+        // Reused for every document, so we don't allocate anything per term.
+        private transient TermScoreHeap _topTerms;
+        private transient Tuple _result;
+        
+        public CalcTfIdf(int numTerms) {
             super(new Fields("docid", "terms", "scores"));
             _numTerms = numTerms;
         }
 
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _topTerms = new TermScoreHeap(_numTerms);
+            _result = Tuple.size(3);
+        }
+        
         @Override
         public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
             String docid = bufferCall.getGroup().getString("docid");
@@ -137,53 +126,35 @@ public class TopTermsByTfIdf extends SubAssembly {
                 throw new RuntimeException(String.format("Impossible situation - first term for docid %s isn't empty", docid));
             }
             
-            int docTermCount = te.getInteger("term_count");
-            int globalTermCount = te.getInteger("total_count");
+            double totalDocs = te.getLong("doc_count");
             
-            // Now we can start iterating over the terms for this document, calculating their LLR score and keeping
+            // Now we can start iterating over the terms for this document, calculating their TF-IDF score and keeping
             // the top N
-            
-            List<TermAndScore> queue = new ArrayList<TermAndScore>(_numTerms);
-
+            _topTerms.clear();
             while (iter.hasNext()) {
                 te = iter.next();
-                int termCount = te.getInteger("term_count");
-                int termTotalCount = te.getInteger("total_terms");
-                
-                // k11 is the count of this term in this document
-                long k11 = termCount;
-                
-                // k12 is the count of all other terms in this document
-                long k12 = docTermCount - termCount;
-                
-                // k21 is the count of this term in all other documents.
-                long k21 = termTotalCount - termCount;
+                float tf = te.getFloat("tf");
+                long docCount = te.getLong("doc_count");
                 
-                // k22 is the count of all other terms in all other documents
-                // TODO KKr - should this then be subtracting k21 here, not docTermCount?
-                // And also k12?
-                long k22 = globalTermCount - docTermCount;
-                
-                double score = LogLikelihood.logLikelihoodRatio(k11, k12, k21, k22);
-                if (queue.size() < _numTerms) {
-                    queue.add(new TermAndScore(te.getString("term"), score));
-                    Collections.sort(queue);
-                } else if (queue.get(_numTerms - 1)._score < score) {
-                    queue.add(new TermAndScore(te.getString("term"), score));
-                    Collections.sort(queue);
-                }
+                double score = tf * Math.log(totalDocs / docCount);
+                _topTerms.add(te.getString("term"), score);
             }
             
-            // At the end we'll have the top terms & scores
-            Tuple terms = new Tuple();
-            Tuple scores = new Tuple();
-            
-            for (TermAndScore tas : queue) {
-                terms.add(tas._term);
-                scores.add(tas._score);
+            // At the end we'll have the top terms & scores. The terms and scores tuples are field
+            // values that might be held onto downstream, so those can't be reused.
+            _topTerms.sort();
+            int numTerms = _topTerms.size();
+            Tuple terms = Tuple.size(numTerms);
+            Tuple scores = Tuple.size(numTerms);
+            for (int i = 0; i < numTerms; i++) {
+                terms.set(i, _topTerms.getTerm(i));
+                scores.setDouble(i, _topTerms.getScore(i));
             }
             
-            bufferCall.getOutputCollector().add(new Tuple(docid, terms, scores));
+            _result.set(0, docid);
+            _result.set(1, terms);
+            _result.set(2, scores);
+            bufferCall.getOutputCollector().add(_result);
         }
     }
 
@@ -202,43 +173,28 @@ public class TopTermsByTfIdf extends SubAssembly {
         
         // We assume each document has a docid field, and a text field
         Pipe termsPipe = new Pipe("terms", docsPipe);
-        termsPipe = new Each(termsPipe, new Fields("text"), new ExtractTerms(parser), Fields.REPLACE);
+        termsPipe = new Each(termsPipe, new Fields("text"), new ExtractTerms(parser), Fields.SWAP);
         
-        // We've got (docid, term, tf, "") for regular tuples, and (docid, "", 0.0f, "x") for
+        // We've got (docid, term, tf) for regular tuples, and (docid, "", 0.0f) for
         // special tuples used to count the total number of documents.
 
-        // We need term, IDF score. To get that, we need to calculate doc count for each term, and total doc count,
-        // and do the division.
+        // We need term, IDF score. To get that, we need to calculate doc count for each term. The
+        // empty term "" is in every document, so its doc count is the total number of documents.
         Pipe docCountPipe = new Pipe("doc count", termsPipe);
         docCountPipe = new UniqueCount(docCountPipe, new Fields("term"), new Fields("docid"), new Fields("doc_count"));
         
-        // In the docCountPipe, we now have (term, doc_count). One of these tuples has ("", total doc count), so
-        // we want to do a filter & HashJoin against itself
-        Pipe totalDocCountPipe = new Pipe("total doc count", docCountPipe);
-        totalDocCountPipe = new Each(totalDocCountPipe, new Fields("term"), new ExpressionFilter("term.isEmpty()", String.class));
-        totalDocCountPipe = new Each(totalDocCountPipe, new Fields("doc_count"), new Identity());
-        
-        // Now we can do a cross join, so that the total doc count is joined to every one of our
-        // incoming tuples.
-        docCountPipe = new HashJoin(docCountPipe, Fields.NONE, totalDocCountPipe, Fields.NONE, new OuterJoin());
-        
-        // Generate term, total count. This will
-        // include the empty term "" which will be the total count of all terms.
-        Pipe termCountPipe = new Pipe("term count", termsPipe);
-        termCountPipe = new SumBy(termCountPipe, new Fields("term"), new Fields("count"), new Fields("total_count"), Integer.class);
-        
-        // Join termCountsPipe with our termsPipe by term, so we get
-        // docid, term, doc term count, total term count
-        // This will include docid, "", total terms in doc, global terms count
-        
+        // Join docCountPipe with our termsPipe by term, so we get
+        // docid, term, tf, doc count
+        // This will include docid, "", 0.0f, total doc count
         Pipe allTermData = new CoGroup( termsPipe,  new Fields("term"), 
-                                        termCountPipe, new Fields("term"),
-                                        new Fields("docid", "term", "term_count", "term_ignore", "total_count"),
-                                        new LeftJoin());
+                                        docCountPipe, new Fields("term"),
+                                        new Fields("docid", "term", "tf", "term_ignore", "doc_count"),
+                                        new InnerJoin());
         
-        allTermData = new Each(allTermData, new Fields("docid", "term", "term_count", "total_count"), new Identity());
+        // Group by docid, and sort by term so that the empty term (with the total doc count) comes first.
+        allTermData = new Each(allTermData, new Fields("docid", "term", "tf", "doc_count"), new Identity());
         allTermData = new GroupBy(allTermData, new Fields("docid"), new Fields("term"));
-        allTermData = new Every(allTermData, new CalcLLR(numTerms));
+        allTermData = new Every(allTermData, new CalcTfIdf(numTerms));
         
         setTails(allTermData);
     }
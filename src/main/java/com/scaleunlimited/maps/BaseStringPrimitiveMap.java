@@ -0,0 +1,268 @@
+package com.scaleunlimited.maps;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Shared code for maps from a string to a primitive value ({@link StringIntMap}, {@link StringLongMap}
+ * and {@link StringDoubleMap}).
+ *
+ * Keys are stored as null-terminated UTF-8 bytes in an {@link IByteArena}, the same as a {@link StringMap},
+ * but the hash index maps to an entry number versus an arena offset. The entry number is the index of
+ * the key's offset in _keyOffsets, and of its value in the subclass's parallel value array. Since entries
+ * can't be removed (other than via clear()), the keys in the arena are always in entry order, and there's
+ * no need to serialize the collision map - we just rebuild it along with the hash index.
+ */
+abstract class BaseStringPrimitiveMap implements Writable {
+
+    static final int MISSING_ENTRY = IOffsetIndex.MISSING_OFFSET;
+
+    private static final int DEFAULT_ENTRY_COUNT = 1000;
+
+    private IHashFunction _hashFunction;
+    private IOffsetIndex _hashToEntry;
+    private Map<String, Integer> _collisionMap;
+    private IByteArena _keyData;
+    private int[] _keyOffsets;
+    private int _size;
+    private byte[] _scratch;
+    private boolean _smallHash; // for testing
+
+    protected BaseStringPrimitiveMap(boolean smallHash, IByteArena keyData, IHashFunction hashFunction) {
+        _hashFunction = hashFunction;
+        _keyData = keyData;
+        _scratch = new byte[256];
+        reset(smallHash, DEFAULT_ENTRY_COUNT);
+    }
+
+    private void reset(boolean smallHash, int numEntries) {
+        _smallHash = smallHash;
+        if (_hashFunction.getNumBits() == 32) {
+            _hashToEntry = new IntOffsetIndex(numEntries);
+        } else {
+            _hashToEntry = new LongIntHashTable(numEntries);
+        }
+
+        _collisionMap = new HashMap<String, Integer>();
+        _keyOffsets = new int[Math.max(numEntries, 16)];
+        _size = 0;
+        ensureValueCapacity(_keyOffsets.length);
+    }
+
+    /**
+     * Make sure the value array has room for at least <numEntries> values. Note that this
+     * is first called by our constructor, before the subclass has been initialized.
+     */
+    protected abstract void ensureValueCapacity(int numEntries);
+
+    /**
+     * Set the value for a new entry to zero, since the value array might have been used before clear().
+     */
+    protected abstract void initValue(int entry);
+
+    protected abstract void writeValues(DataOutput out, int numEntries) throws IOException;
+
+    protected abstract void readValues(DataInput in, int numEntries) throws IOException;
+
+    public int size() {
+        return _size;
+    }
+
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    /**
+     * Remove all entries, but keep the allocated storage, so that it's cheap to reuse
+     * the map (e.g. for counting the terms in each document).
+     */
+    public void clear() {
+        _hashToEntry.clear();
+        _collisionMap.clear();
+        
+        // We don't need the arena to zero out the old keys, since we only ever look
+        // at the offsets of keys we've added.
+        _keyData.reset();
+        _size = 0;
+    }
+
+    /**
+     * Generate a hash from the UTF-8 bytes of <key>, using our hash function
+     */
+    public long hash(CharSequence key) {
+        long result = _hashFunction.hash(key);
+        return _smallHash ? result & 0x0FF : result;
+    }
+
+    private long hash(byte[] b, int offset, int length) {
+        long result = _hashFunction.hash(b, offset, length);
+        return _smallHash ? result & 0x0FF : result;
+    }
+
+    /**
+     * @return entry number for <key>, or MISSING_ENTRY. No memory is allocated, unless the
+     * key's hash has a collision.
+     */
+    protected int findEntry(CharSequence key) {
+        int entry = _hashToEntry.get(hash(key));
+        if ((entry == MISSING_ENTRY) || _keyData.matches(_keyOffsets[entry], key)) {
+            return entry;
+        }
+
+        return findCollisionEntry(key.toString());
+    }
+
+    protected int findEntry(byte[] b, int offset, int length) {
+        int entry = _hashToEntry.get(hash(b, offset, length));
+        if ((entry == MISSING_ENTRY) || _keyData.matches(_keyOffsets[entry], b, offset, length)) {
+            return entry;
+        }
+
+        return findCollisionEntry(HashUtils.getUTF8String(b, offset, length));
+    }
+
+    private int findCollisionEntry(String key) {
+        if (_collisionMap.isEmpty()) {
+            return MISSING_ENTRY;
+        }
+
+        Integer result = _collisionMap.get(key);
+        return result == null ? MISSING_ENTRY : result;
+    }
+
+    /**
+     * @return entry number for <key>, adding a new entry (with a zero value) if it doesn't exist.
+     */
+    protected int findOrAddEntry(CharSequence key) {
+        long hash = hash(key);
+        int entry = _hashToEntry.get(hash);
+        if (entry == MISSING_ENTRY) {
+            entry = addEntry(key);
+            _hashToEntry.put(hash, entry);
+            return entry;
+        } else if (_keyData.matches(_keyOffsets[entry], key)) {
+            return entry;
+        }
+
+        String keyAsString = key.toString();
+        entry = findCollisionEntry(keyAsString);
+        if (entry == MISSING_ENTRY) {
+            entry = addEntry(key);
+            _collisionMap.put(keyAsString, entry);
+        }
+
+        return entry;
+    }
+
+    protected int findOrAddEntry(byte[] b, int offset, int length) {
+        long hash = hash(b, offset, length);
+        int entry = _hashToEntry.get(hash);
+        if (entry == MISSING_ENTRY) {
+            entry = addEntry(b, offset, length);
+            _hashToEntry.put(hash, entry);
+            return entry;
+        } else if (_keyData.matches(_keyOffsets[entry], b, offset, length)) {
+            return entry;
+        }
+
+        String keyAsString = HashUtils.getUTF8String(b, offset, length);
+        entry = findCollisionEntry(keyAsString);
+        if (entry == MISSING_ENTRY) {
+            entry = addEntry(b, offset, length);
+            _collisionMap.put(keyAsString, entry);
+        }
+
+        return entry;
+    }
+
+    private int addEntry(CharSequence key) {
+        byte[] bytes = growScratch(key.length() * 3);
+        return addEntry(bytes, 0, UTF8Utils.encode(key, bytes));
+    }
+
+    private int addEntry(byte[] b, int offset, int length) {
+        int entry = _size;
+        if (entry == _keyOffsets.length) {
+            _keyOffsets = Arrays.copyOf(_keyOffsets, entry * 2);
+            ensureValueCapacity(_keyOffsets.length);
+        }
+
+        _keyOffsets[entry] = _keyData.appendString(b, offset, length);
+        initValue(entry);
+        _size += 1;
+        return entry;
+    }
+
+    /**
+     * Set <slice> to the UTF-8 bytes of the key for <entry>.
+     */
+    protected void getKey(int entry, ByteSlice slice) {
+        int offset = _keyOffsets[entry];
+        _keyData.getSlice(offset, _keyData.stringLength(offset), slice);
+    }
+
+    protected String getKey(int entry) {
+        int offset = _keyOffsets[entry];
+        return _keyData.getString(offset, _keyData.stringLength(offset));
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeBoolean(_smallHash);
+        out.writeInt(_size);
+        out.writeInt(_keyData.size());
+        _keyData.write(out);
+        writeValues(out, _size);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        boolean smallHash = in.readBoolean();
+        int numEntries = in.readInt();
+        int keyDataSize = in.readInt();
+
+        reset(smallHash, numEntries);
+        _keyData.readFields(in, keyDataSize);
+
+        // Rebuild the hash index and the collision map. The first key with a given hash
+        // was also the first one added, so it's the one that goes into the index.
+        int curOffset = 0;
+        for (int entry = 0; entry < numEntries; entry++) {
+            if (curOffset >= keyDataSize) {
+                throw new IOException("Data corruption - missing keys!");
+            }
+
+            int len = _keyData.stringLength(curOffset);
+            _keyOffsets[entry] = curOffset;
+
+            _keyData.copy(curOffset, growScratch(len), 0, len);
+            long hash = hash(_scratch, 0, len);
+            if (_hashToEntry.containsKey(hash)) {
+                if (_collisionMap.put(HashUtils.getUTF8String(_scratch, 0, len), entry) != null) {
+                    throw new IOException("Data corruption - duplicate key!");
+                }
+            } else {
+                _hashToEntry.put(hash, entry);
+            }
+
+            curOffset += len + 1;
+        }
+
+        _size = numEntries;
+        readValues(in, numEntries);
+    }
+
+    private byte[] growScratch(int length) {
+        if (_scratch.length < length) {
+            _scratch = new byte[Math.max(length, _scratch.length * 2)];
+        }
+
+        return _scratch;
+    }
+}
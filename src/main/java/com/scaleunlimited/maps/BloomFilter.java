@@ -0,0 +1,157 @@
+package com.scaleunlimited.maps;
+
+import java.util.Arrays;
+
+/**
+ * A blocked Bloom filter that works from a string's existing hash (see {@link IHashFunction}),
+ * versus hashing the string again. All of the bits for one hash are in the same 512-bit
+ * (64 byte) block, so a check touches a single cache line. The low bits of the (mixed) hash
+ * pick the block, and the high bits of a second multiplicative mix pick the bits in it.
+ * 
+ * The filter also keeps track of how often it rejected a value, and how often a value it
+ * didn't reject turned out to be missing (a false positive). These counters aren't
+ * synchronized, so they're approximate if several threads use the filter at once.
+ *
+ */
+public class BloomFilter {
+
+    private static final int BLOCK_SHIFT = 9;
+    private static final int BITS_PER_BLOCK = 1 << BLOCK_SHIFT;
+    private static final int LONGS_PER_BLOCK = BITS_PER_BLOCK / 64;
+    
+    // We get each bit position from 9 bits of one 64-bit value.
+    private static final int MAX_NUM_HASHES = 64 / BLOCK_SHIFT;
+    
+    private final double _targetFalsePositiveRate;
+    private final int _capacity;
+    private final int _numHashes;
+    private final long[] _bits;
+    private final int _blockMask;
+    
+    private long _numRejected;
+    private long _numFalsePositives;
+    
+    /**
+     * @param capacity expected number of values
+     * @param falsePositiveRate target false positive rate, once <capacity> values have been added.
+     */
+    public BloomFilter(int capacity, double falsePositiveRate) {
+        if ((falsePositiveRate <= 0.0) || (falsePositiveRate >= 1.0)) {
+            throw new IllegalArgumentException("False positive rate must be between 0.0 and 1.0: " + falsePositiveRate);
+        }
+        
+        _targetFalsePositiveRate = falsePositiveRate;
+        _capacity = Math.max(1, capacity);
+        
+        // Standard formulas for the optimal number of bits per value, and number of hashes.
+        double bitsPerValue = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        _numHashes = (int)Math.max(1, Math.min(MAX_NUM_HASHES, Math.round(bitsPerValue * Math.log(2))));
+        
+        long numBlocks = (long)Math.ceil(_capacity * bitsPerValue / BITS_PER_BLOCK);
+        int numBlocksPow2 = Integer.highestOneBit((int)Math.max(1, Math.min(1 << 24, numBlocks)));
+        if (numBlocksPow2 < numBlocks) {
+            numBlocksPow2 <<= 1;
+        }
+        
+        _bits = new long[numBlocksPow2 * LONGS_PER_BLOCK];
+        _blockMask = numBlocksPow2 - 1;
+    }
+    
+    public int getCapacity() {
+        return _capacity;
+    }
+    
+    public double getTargetFalsePositiveRate() {
+        return _targetFalsePositiveRate;
+    }
+    
+    public int getNumHashes() {
+        return _numHashes;
+    }
+    
+    /**
+     * @return size of the filter, in bytes
+     */
+    public int getSize() {
+        return _bits.length * 8;
+    }
+    
+    public void add(long hash) {
+        long h = mix(hash);
+        int blockStart = ((int)h & _blockMask) * LONGS_PER_BLOCK;
+        long positions = h * 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < _numHashes; i++) {
+            int bit = (int)(positions >>> (64 - ((i + 1) * BLOCK_SHIFT))) & (BITS_PER_BLOCK - 1);
+            // Java only uses the low 6 bits of the shift amount, which is what we want.
+            _bits[blockStart + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+    
+    /**
+     * @return false if we've definitely never added <hash>
+     */
+    public boolean mightContain(long hash) {
+        long h = mix(hash);
+        int blockStart = ((int)h & _blockMask) * LONGS_PER_BLOCK;
+        long positions = h * 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < _numHashes; i++) {
+            int bit = (int)(positions >>> (64 - ((i + 1) * BLOCK_SHIFT))) & (BITS_PER_BLOCK - 1);
+            if ((_bits[blockStart + (bit >>> 6)] & (1L << bit)) == 0) {
+                _numRejected += 1;
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Record that a value which passed {@link #mightContain(long)} wasn't actually present.
+     */
+    void recordFalsePositive() {
+        _numFalsePositives += 1;
+    }
+    
+    /**
+     * Add in the counts from <filter>, when it's being replaced by us.
+     */
+    void addStats(BloomFilter filter) {
+        _numRejected += filter._numRejected;
+        _numFalsePositives += filter._numFalsePositives;
+    }
+    
+    public long getNumRejected() {
+        return _numRejected;
+    }
+    
+    public long getNumFalsePositives() {
+        return _numFalsePositives;
+    }
+    
+    /**
+     * @return fraction of checks for missing values that weren't rejected by the filter.
+     */
+    public double getFalsePositiveRate() {
+        long numMissing = _numRejected + _numFalsePositives;
+        return numMissing == 0 ? 0.0 : (double)_numFalsePositives / numMissing;
+    }
+    
+    public void resetStats() {
+        _numRejected = 0;
+        _numFalsePositives = 0;
+    }
+    
+    public void clear() {
+        Arrays.fill(_bits, 0L);
+    }
+    
+    private static long mix(long hash) {
+        // The hash might only have 32 good bits, so spread them across all 64.
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
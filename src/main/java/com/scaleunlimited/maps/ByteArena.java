@@ -0,0 +1,345 @@
+package com.scaleunlimited.maps;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * An append-only store for bytes that's made up of fixed-size blocks, versus one big
+ * byte array. Data is addressed by a single int offset, where the upper bits select the
+ * block and the lower bits are the offset within that block.
+ *
+ * Appending never copies existing data - when the current block is full, we just allocate
+ * another one. Strings can span a block boundary, so callers should always go through the
+ * arena's methods versus assuming the bytes are contiguous.
+ *
+ */
+public class ByteArena implements IByteArena {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final int INITIAL_NUM_BLOCKS = 16;
+
+    private final int _blockShift;
+    private final int _blockMask;
+
+    private byte[][] _blocks;
+    private int _numBlocks;
+    private int _size;
+
+    public ByteArena() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize number of bytes in each block - must be a power of two.
+     */
+    public ByteArena(int blockSize) {
+        if ((blockSize <= 0) || (Integer.bitCount(blockSize) != 1)) {
+            throw new IllegalArgumentException("Block size must be a power of two: " + blockSize);
+        }
+
+        _blockShift = Integer.numberOfTrailingZeros(blockSize);
+        _blockMask = blockSize - 1;
+        _blocks = new byte[INITIAL_NUM_BLOCKS][];
+        _numBlocks = 0;
+        _size = 0;
+    }
+
+    public int getBlockSize() {
+        return _blockMask + 1;
+    }
+
+    /**
+     * @return number of bytes that have been appended.
+     */
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return number of bytes allocated for blocks, which is always >= size()
+     */
+    @Override
+    public long getAllocatedSize() {
+        return (long)_numBlocks * getBlockSize();
+    }
+
+    @Override
+    public byte get(int offset) {
+        return _blocks[offset >>> _blockShift][offset & _blockMask];
+    }
+
+    /**
+     * Append <len> bytes from <b>, followed by a null (0) byte.
+     *
+     * @param b bytes to append
+     * @param off offset of first byte in <b>
+     * @param len number of bytes to append
+     * @return arena offset of the first byte.
+     */
+    @Override
+    public int appendString(byte[] b, int off, int len) {
+        int result = _size;
+        append(b, off, len);
+        ensureCapacity(_size + 1);
+        _blocks[_size >>> _blockShift][_size & _blockMask] = 0;
+        _size += 1;
+        return result;
+    }
+
+    @Override
+    public int append(byte[] b, int off, int len) {
+        int result = _size;
+        ensureCapacity(_size + len);
+
+        while (len > 0) {
+            int blockOffset = _size & _blockMask;
+            int numToCopy = Math.min(len, getBlockSize() - blockOffset);
+            System.arraycopy(b, off, _blocks[_size >>> _blockShift], blockOffset, numToCopy);
+            off += numToCopy;
+            len -= numToCopy;
+            _size += numToCopy;
+        }
+
+        return result;
+    }
+
+    @Override
+    public void set(int offset, byte[] b, int off, int len) {
+        while (len > 0) {
+            int blockOffset = offset & _blockMask;
+            int numToCopy = Math.min(len, getBlockSize() - blockOffset);
+            System.arraycopy(b, off, _blocks[offset >>> _blockShift], blockOffset, numToCopy);
+            offset += numToCopy;
+            off += numToCopy;
+            len -= numToCopy;
+        }
+    }
+    
+    @Override
+    public void move(int from, int to, int len) {
+        while (len > 0) {
+            // Copy the largest chunk that doesn't cross a block boundary for either range. Since
+            // we're moving data down, each chunk's source has been read before we overwrite it.
+            int fromBlockOffset = from & _blockMask;
+            int toBlockOffset = to & _blockMask;
+            int numToCopy = Math.min(len, getBlockSize() - Math.max(fromBlockOffset, toBlockOffset));
+            System.arraycopy(_blocks[from >>> _blockShift], fromBlockOffset, _blocks[to >>> _blockShift], toBlockOffset, numToCopy);
+            from += numToCopy;
+            to += numToCopy;
+            len -= numToCopy;
+        }
+    }
+    
+    @Override
+    public void truncate(int newSize) {
+        if ((newSize < 0) || (newSize > _size)) {
+            throw new IllegalArgumentException("Invalid new size: " + newSize);
+        }
+        
+        // Keep at least one block around, the same as clear()
+        int numBlocksNeeded = Math.max(1, (newSize + _blockMask) >>> _blockShift);
+        for (int i = numBlocksNeeded; i < _numBlocks; i++) {
+            _blocks[i] = null;
+        }
+        
+        _numBlocks = Math.min(_numBlocks, numBlocksNeeded);
+        _size = newSize;
+    }
+    
+    /**
+     * Zero out bytes in the range [from, to).
+     */
+    @Override
+    public void clear(int from, int to) {
+        while (from < to) {
+            int blockOffset = from & _blockMask;
+            int numToClear = Math.min(to - from, getBlockSize() - blockOffset);
+            Arrays.fill(_blocks[from >>> _blockShift], blockOffset, blockOffset + numToClear, (byte)0);
+            from += numToClear;
+        }
+    }
+
+    /**
+     * Copy <len> bytes starting at <offset> into <dest>
+     */
+    @Override
+    public void copy(int offset, byte[] dest, int destOff, int len) {
+        while (len > 0) {
+            int blockOffset = offset & _blockMask;
+            int numToCopy = Math.min(len, getBlockSize() - blockOffset);
+            System.arraycopy(_blocks[offset >>> _blockShift], blockOffset, dest, destOff, numToCopy);
+            offset += numToCopy;
+            destOff += numToCopy;
+            len -= numToCopy;
+        }
+    }
+
+    /**
+     * @return number of bytes from <offset> up to (but not including) the next null byte.
+     */
+    @Override
+    public int stringLength(int offset) {
+        int curOffset = offset;
+        byte[] block = _blocks[curOffset >>> _blockShift];
+        int blockOffset = curOffset & _blockMask;
+
+        while (block[blockOffset] != 0) {
+            curOffset += 1;
+            blockOffset += 1;
+            if (blockOffset > _blockMask) {
+                block = _blocks[curOffset >>> _blockShift];
+                blockOffset = 0;
+            }
+        }
+
+        return curOffset - offset;
+    }
+
+    /**
+     * Return true if the <len> bytes in <b> match what's stored at <offset>, and the
+     * stored string is null-terminated right after that.
+     */
+    @Override
+    public boolean matches(int offset, byte[] b, int off, int len) {
+        int blockOffset = offset & _blockMask;
+        if (blockOffset + len < getBlockSize()) {
+            // Common case, where the string (and its null) are all in one block.
+            byte[] block = _blocks[offset >>> _blockShift];
+            for (int i = 0; i < len; i++) {
+                if (block[blockOffset + i] != b[off + i]) {
+                    return false;
+                }
+            }
+
+            return block[blockOffset + len] == 0;
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (get(offset + i) != b[off + i]) {
+                return false;
+            }
+        }
+
+        return get(offset + len) == 0;
+    }
+
+    @Override
+    public boolean matches(int offset, CharSequence s) {
+        // Fast path for leading ASCII chars that are in the same block, where each char
+        // is exactly one byte. Anything else is handled by the general UTF-8 comparison.
+        byte[] block = _blocks[offset >>> _blockShift];
+        int blockOffset = offset & _blockMask;
+        int maxChars = Math.min(s.length(), getBlockSize() - blockOffset);
+        int i = 0;
+        for (; i < maxChars; i++) {
+            char c = s.charAt(i);
+            if ((c >= 0x80) || (c == 0)) {
+                break;
+            } else if (block[blockOffset + i] != c) {
+                return false;
+            }
+        }
+
+        return UTF8Utils.matches(this, offset + i, s, i);
+    }
+
+    @Override
+    public String getString(int offset, int len) {
+        try {
+            int blockOffset = offset & _blockMask;
+            if (blockOffset + len <= getBlockSize()) {
+                return new String(_blocks[offset >>> _blockShift], blockOffset, len, "UTF-8");
+            } else {
+                byte[] bytes = new byte[len];
+                copy(offset, bytes, 0, len);
+                return new String(bytes, "UTF-8");
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Impossible missing charset exception", e);
+        }
+    }
+
+    @Override
+    public void getSlice(int offset, int len, ByteSlice slice) {
+        int blockOffset = offset & _blockMask;
+        if (blockOffset + len <= getBlockSize()) {
+            slice.set(_blocks[offset >>> _blockShift], blockOffset, len);
+        } else {
+            byte[] buffer = slice.getBuffer(len);
+            copy(offset, buffer, 0, len);
+            slice.set(buffer, 0, len);
+        }
+    }
+    
+    /**
+     * Release all but the first block, and reset the size to zero.
+     */
+    @Override
+    public void clear() {
+        for (int i = 1; i < _numBlocks; i++) {
+            _blocks[i] = null;
+        }
+
+        if (_numBlocks > 0) {
+            Arrays.fill(_blocks[0], (byte)0);
+            _numBlocks = 1;
+        }
+
+        _size = 0;
+    }
+
+    @Override
+    public void reset() {
+        _size = 0;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        int remaining = _size;
+        for (int i = 0; remaining > 0; i++) {
+            int numToWrite = Math.min(remaining, getBlockSize());
+            out.write(_blocks[i], 0, numToWrite);
+            remaining -= numToWrite;
+        }
+    }
+
+    /**
+     * Replace the current contents of the arena with <size> bytes read from <in>.
+     */
+    @Override
+    public void readFields(DataInput in, int size) throws IOException {
+        clear();
+        ensureCapacity(size);
+
+        int remaining = size;
+        for (int i = 0; remaining > 0; i++) {
+            int numToRead = Math.min(remaining, getBlockSize());
+            in.readFully(_blocks[i], 0, numToRead);
+            remaining -= numToRead;
+        }
+
+        _size = size;
+    }
+
+    @Override
+    public void ensureCapacity(int newSize) {
+        if (newSize < 0) {
+            throw new IllegalStateException("Arena can't hold more than 2GB of data");
+        }
+
+        int numBlocksNeeded = (newSize + _blockMask) >>> _blockShift;
+        if (numBlocksNeeded > _blocks.length) {
+            // We only copy the (small) array of block references, never the block data.
+            _blocks = Arrays.copyOf(_blocks, Math.max(numBlocksNeeded, _blocks.length * 2));
+        }
+
+        while (_numBlocks < numBlocksNeeded) {
+            _blocks[_numBlocks++] = new byte[getBlockSize()];
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.scaleunlimited.maps;
+
+import java.util.Arrays;
+
+/**
+ * A reusable reference to a range of bytes, typically the UTF-8 bytes of a string stored in
+ * an {@link IByteArena}. When the bytes are contiguous in a heap block, the slice refers to
+ * that block directly (no copy), otherwise they're copied into a buffer owned by the slice.
+ * 
+ * Callers must not modify the bytes, and a slice is only valid until the next time it's set,
+ * or the map/set that it came from is modified.
+ *
+ */
+public class ByteSlice {
+
+    private byte[] _bytes;
+    private int _offset;
+    private int _length;
+    private byte[] _buffer;
+    
+    public ByteSlice() {
+        _buffer = new byte[256];
+        _bytes = _buffer;
+        _offset = 0;
+        _length = 0;
+    }
+    
+    public byte[] getBytes() {
+        return _bytes;
+    }
+    
+    public int getOffset() {
+        return _offset;
+    }
+    
+    public int getLength() {
+        return _length;
+    }
+    
+    /**
+     * @return a copy of the bytes, which (unlike the slice) stays valid.
+     */
+    public byte[] copyBytes() {
+        return Arrays.copyOfRange(_bytes, _offset, _offset + _length);
+    }
+    
+    /**
+     * Refer to b[offset...offset + length), without copying.
+     */
+    void set(byte[] b, int offset, int length) {
+        _bytes = b;
+        _offset = offset;
+        _length = length;
+    }
+    
+    /**
+     * @return our own buffer, sized to hold at least <length> bytes, for when the
+     * bytes have to be copied.
+     */
+    byte[] getBuffer(int length) {
+        if (_buffer.length < length) {
+            _buffer = new byte[Math.max(length, _buffer.length * 2)];
+        }
+        
+        return _buffer;
+    }
+    
+    /**
+     * @return the bytes, decoded as UTF-8
+     */
+    @Override
+    public String toString() {
+        return HashUtils.getUTF8String(_bytes, _offset, _length);
+    }
+}
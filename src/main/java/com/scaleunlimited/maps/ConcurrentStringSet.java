@@ -0,0 +1,305 @@
+package com.scaleunlimited.maps;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe set of strings, for use by multi-threaded map runners (or thread pools
+ * inside of a Cascading operation) versus wrapping a {@link StringSet} in one global lock.
+ * 
+ * The set is split into N shards (a power of two), based on the high bits of each string's
+ * (mixed) hash. Each shard is a StringSet with its own arena and hash table, guarded by its
+ * own lock, which only writers (adds and removes) take.
+ * 
+ * Lookups don't lock, or write to any shared state. Each shard has a version (a seqlock) that
+ * is odd while a write is in progress, and that changes with every write. A lookup reads the
+ * version, checks the shard, and then re-reads the version - if a write was in progress or
+ * happened during the check, then the result might be wrong (or the check might have thrown
+ * an exception), so it's done again under the lock. This means any number of threads can check
+ * the same shard without contending on a lock's cache line.
+ * 
+ * Iterators are weakly consistent: each shard is copied (under its lock) when the iterator
+ * gets to it, so they never throw ConcurrentModificationException.
+ *
+ */
+public class ConcurrentStringSet extends AbstractSet<String> {
+
+    public static final int DEFAULT_NUM_SHARDS = 16;
+    
+    private static final int WRITE_IN_PROGRESS = -1;
+    
+    /**
+     * One shard's set, plus the lock and version that guard it.
+     */
+    private static class Shard {
+        private final StringSet _set;
+        private final Lock _lock;
+        private volatile int _version;
+        
+        public Shard(StringSet set) {
+            _set = set;
+            _lock = new ReentrantLock();
+            _version = 0;
+        }
+        
+        /**
+         * @return the current version, or WRITE_IN_PROGRESS if the version is odd.
+         */
+        public int startRead() {
+            int version = _version;
+            return (version & 1) == 0 ? version : WRITE_IN_PROGRESS;
+        }
+        
+        /**
+         * @return true if nothing has been written since startRead() returned <version>.
+         */
+        public boolean validate(int version) {
+            return _version == version;
+        }
+        
+        public void startWrite() {
+            _lock.lock();
+            _version += 1;
+        }
+        
+        public void endWrite() {
+            // Wrapping around is fine, since it doesn't change whether the version is odd.
+            _version += 1;
+            _lock.unlock();
+        }
+    }
+    
+    private final Shard[] _shards;
+    private final int _shardShift;
+    
+    public ConcurrentStringSet() {
+        this(DEFAULT_NUM_SHARDS);
+    }
+    
+    /**
+     * @param numShards number of shards, which must be a power of two. This should be at
+     * least as big as the number of threads, to keep contention low.
+     */
+    public ConcurrentStringSet(int numShards) {
+        this(numShards, new JoaatHashFunction());
+    }
+    
+    /**
+     * @param numShards number of shards, which must be a power of two.
+     * @param hashFunction how to hash strings
+     */
+    public ConcurrentStringSet(int numShards, IHashFunction hashFunction) {
+        if ((numShards <= 0) || (Integer.bitCount(numShards) != 1)) {
+            throw new IllegalArgumentException("Number of shards must be a power of two: " + numShards);
+        }
+        
+        _shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            _shards[i] = new Shard(new StringSet(hashFunction));
+        }
+        
+        // Shifting an int by 32 is a no-op, so for one shard we have to special-case it.
+        _shardShift = 32 - Integer.numberOfTrailingZeros(numShards);
+    }
+    
+    public int getNumShards() {
+        return _shards.length;
+    }
+    
+    private int getShard(long hash) {
+        if (_shards.length == 1) {
+            return 0;
+        }
+        
+        // Use the high bits of a mixed version of the hash, since each shard's hash table
+        // (mostly) depends on the low bits.
+        int h = (int)(hash ^ (hash >>> 32)) * 0x9E3779B9;
+        return h >>> _shardShift;
+    }
+    
+    @Override
+    public boolean contains(Object o) {
+        if (o instanceof String) {
+            return contains((CharSequence)o);
+        } else {
+            return false;
+        }
+    }
+    
+    /**
+     * Check if the set contains <s>, without allocating any memory (unless the
+     * string's hash has a collision).
+     * 
+     * @param s chars to check, e.g. a String or a tokenizer's reusable StringBuilder
+     * @return true if the set contains s.toString()
+     */
+    public boolean contains(CharSequence s) {
+        // All shards use the same hash function, so we can use any of them to calculate the hash.
+        long hash = _shards[0]._set.hash(s);
+        Shard shard = _shards[getShard(hash)];
+        
+        int version = shard.startRead();
+        if (version != WRITE_IN_PROGRESS) {
+            try {
+                boolean result = shard._set.contains(s, hash);
+                if (shard.validate(version)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // We saw a half-done write (e.g. a hash table being resized), so fall through
+                // to the locked check - which rethrows anything that isn't due to the race.
+            }
+        }
+        
+        shard._lock.lock();
+        try {
+            return shard._set.contains(s, hash);
+        } finally {
+            shard._lock.unlock();
+        }
+    }
+    
+    /**
+     * Check if the set contains the string with UTF-8 bytes b[offset...offset + length),
+     * without building a String.
+     */
+    public boolean contains(byte[] b, int offset, int length) {
+        long hash = _shards[0]._set.hash(b, offset, length);
+        Shard shard = _shards[getShard(hash)];
+        
+        int version = shard.startRead();
+        if (version != WRITE_IN_PROGRESS) {
+            try {
+                boolean result = shard._set.contains(b, offset, length, hash);
+                if (shard.validate(version)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // Same as contains(CharSequence) - retry under the lock.
+            }
+        }
+        
+        shard._lock.lock();
+        try {
+            return shard._set.contains(b, offset, length, hash);
+        } finally {
+            shard._lock.unlock();
+        }
+    }
+    
+    @Override
+    public boolean add(String e) {
+        long hash = _shards[0]._set.hash(e);
+        Shard shard = _shards[getShard(hash)];
+        
+        shard.startWrite();
+        try {
+            return shard._set.add(e, hash);
+        } finally {
+            shard.endWrite();
+        }
+    }
+    
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+        
+        String s = (String)o;
+        long hash = _shards[0]._set.hash(s);
+        Shard shard = _shards[getShard(hash)];
+        
+        shard.startWrite();
+        try {
+            return shard._set.remove(s, hash);
+        } finally {
+            shard.endWrite();
+        }
+    }
+    
+    /**
+     * @return the total size of all shards. If other threads are modifying the set, then
+     * this is only an estimate, since we lock each shard in turn.
+     */
+    @Override
+    public int size() {
+        int result = 0;
+        for (Shard shard : _shards) {
+            shard._lock.lock();
+            try {
+                result += shard._set.size();
+            } finally {
+                shard._lock.unlock();
+            }
+        }
+        
+        return result;
+    }
+    
+    @Override
+    public void clear() {
+        for (Shard shard : _shards) {
+            shard.startWrite();
+            try {
+                shard._set.clear();
+            } finally {
+                shard.endWrite();
+            }
+        }
+    }
+    
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int _nextShard = 0;
+            private Iterator<Object> _shardIter = Collections.emptyList().iterator();
+            private String _lastResult = null;
+            
+            @Override
+            public boolean hasNext() {
+                while (!_shardIter.hasNext() && (_nextShard < _shards.length)) {
+                    Object[] strings;
+                    Shard shard = _shards[_nextShard];
+                    shard._lock.lock();
+                    try {
+                        strings = shard._set.toArray();
+                    } finally {
+                        shard._lock.unlock();
+                    }
+                    
+                    _nextShard += 1;
+                    _shardIter = Arrays.asList(strings).iterator();
+                }
+                
+                return _shardIter.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                
+                _lastResult = (String)_shardIter.next();
+                return _lastResult;
+            }
+
+            @Override
+            public void remove() {
+                if (_lastResult == null) {
+                    throw new IllegalStateException();
+                }
+                
+                // We're iterating over a copy, so it's safe to remove from the set.
+                ConcurrentStringSet.this.remove(_lastResult);
+                _lastResult = null;
+            }
+        };
+    }
+}
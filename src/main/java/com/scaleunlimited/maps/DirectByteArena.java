@@ -0,0 +1,359 @@
+package com.scaleunlimited.maps;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+/**
+ * An {@link IByteArena} that keeps its blocks outside of the Java heap, either as direct
+ * ByteBuffers or as slices of a memory-mapped file.
+ *
+ * A mapped arena uses a read-only mapping, so removing entries or appending new ones never
+ * modifies the underlying file - the first write to a mapped block replaces it with a direct
+ * copy. Blocks that are only read are shared through the OS page cache, which means several
+ * tasks on the same node that map the same file only have one copy of the data in memory.
+ *
+ * Reads never change the state of a block (position, limit), so several threads can read from
+ * the same arena, as long as nothing is modifying it.
+ *
+ */
+public class DirectByteArena implements IByteArena {
+
+    private static final int INITIAL_NUM_BLOCKS = 16;
+    private static final int MAX_MOVE_BUFFER_SIZE = 4096;
+
+    private final int _blockShift;
+    private final int _blockMask;
+
+    private ByteBuffer[] _blocks;
+    private int _numBlocks;
+    private int _size;
+    private byte[] _moveBuffer;
+
+    public DirectByteArena() {
+        this(ByteArena.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize number of bytes in each block - must be a power of two.
+     */
+    public DirectByteArena(int blockSize) {
+        if ((blockSize <= 0) || (Integer.bitCount(blockSize) != 1)) {
+            throw new IllegalArgumentException("Block size must be a power of two: " + blockSize);
+        }
+
+        _blockShift = Integer.numberOfTrailingZeros(blockSize);
+        _blockMask = blockSize - 1;
+        _blocks = new ByteBuffer[INITIAL_NUM_BLOCKS];
+        _numBlocks = 0;
+        _size = 0;
+    }
+
+    /**
+     * Create an arena with <size> bytes of data that are mapped from <channel>, starting
+     * at <position>. The channel can be closed once this returns.
+     */
+    public static DirectByteArena map(FileChannel channel, long position, int size, int blockSize) throws IOException {
+        DirectByteArena result = new DirectByteArena(blockSize);
+        if (size == 0) {
+            return result;
+        }
+
+        MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, position, size);
+        int numBlocks = (size + result._blockMask) >>> result._blockShift;
+        result._blocks = new ByteBuffer[Math.max(INITIAL_NUM_BLOCKS, numBlocks)];
+        for (int i = 0; i < numBlocks; i++) {
+            int blockStart = i << result._blockShift;
+            mapped.limit(Math.min(size, blockStart + blockSize));
+            mapped.position(blockStart);
+            result._blocks[i] = mapped.slice();
+        }
+
+        result._numBlocks = numBlocks;
+        result._size = size;
+        return result;
+    }
+
+    public int getBlockSize() {
+        return _blockMask + 1;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public long getAllocatedSize() {
+        long result = 0;
+        for (int i = 0; i < _numBlocks; i++) {
+            result += _blocks[i].capacity();
+        }
+
+        return result;
+    }
+
+    @Override
+    public byte get(int offset) {
+        return _blocks[offset >>> _blockShift].get(offset & _blockMask);
+    }
+
+    @Override
+    public int appendString(byte[] b, int off, int len) {
+        int result = _size;
+        append(b, off, len);
+        ensureCapacity(_size + 1);
+        getWritableBlock(_size >>> _blockShift).put(_size & _blockMask, (byte)0);
+        _size += 1;
+        return result;
+    }
+
+    @Override
+    public int append(byte[] b, int off, int len) {
+        int result = _size;
+        ensureCapacity(_size + len);
+
+        while (len > 0) {
+            int blockOffset = _size & _blockMask;
+            int numToCopy = Math.min(len, getBlockSize() - blockOffset);
+            ByteBuffer block = getWritableBlock(_size >>> _blockShift);
+            block.position(blockOffset);
+            block.put(b, off, numToCopy);
+            off += numToCopy;
+            len -= numToCopy;
+            _size += numToCopy;
+        }
+
+        return result;
+    }
+
+    @Override
+    public void set(int offset, byte[] b, int off, int len) {
+        while (len > 0) {
+            int blockOffset = offset & _blockMask;
+            int numToCopy = Math.min(len, getBlockSize() - blockOffset);
+            ByteBuffer block = getWritableBlock(offset >>> _blockShift);
+            block.position(blockOffset);
+            block.put(b, off, numToCopy);
+            offset += numToCopy;
+            off += numToCopy;
+            len -= numToCopy;
+        }
+    }
+    
+    @Override
+    public void move(int from, int to, int len) {
+        // Since we're moving data down, each chunk's source has been read before we overwrite it.
+        if (_moveBuffer == null) {
+            _moveBuffer = new byte[Math.min(getBlockSize(), MAX_MOVE_BUFFER_SIZE)];
+        }
+        
+        byte[] buffer = _moveBuffer;
+        while (len > 0) {
+            int numToCopy = Math.min(len, buffer.length);
+            copy(from, buffer, 0, numToCopy);
+            set(to, buffer, 0, numToCopy);
+            from += numToCopy;
+            to += numToCopy;
+            len -= numToCopy;
+        }
+    }
+    
+    @Override
+    public void truncate(int newSize) {
+        if ((newSize < 0) || (newSize > _size)) {
+            throw new IllegalArgumentException("Invalid new size: " + newSize);
+        }
+        
+        int numBlocksNeeded = (newSize + _blockMask) >>> _blockShift;
+        for (int i = numBlocksNeeded; i < _numBlocks; i++) {
+            _blocks[i] = null;
+        }
+        
+        _numBlocks = Math.min(_numBlocks, numBlocksNeeded);
+        _size = newSize;
+    }
+    
+    @Override
+    public void clear(int from, int to) {
+        for (int i = from; i < to; i++) {
+            getWritableBlock(i >>> _blockShift).put(i & _blockMask, (byte)0);
+        }
+    }
+
+    @Override
+    public void copy(int offset, byte[] dest, int destOff, int len) {
+        while (len > 0) {
+            int blockOffset = offset & _blockMask;
+            int numToCopy = Math.min(len, getBlockSize() - blockOffset);
+            // Bulk gets are relative, so use our own view of the block. Readers never change
+            // the position of a shared block, which would corrupt concurrent reads.
+            ByteBuffer block = _blocks[offset >>> _blockShift].duplicate();
+            block.position(blockOffset);
+            block.get(dest, destOff, numToCopy);
+            offset += numToCopy;
+            destOff += numToCopy;
+            len -= numToCopy;
+        }
+    }
+
+    @Override
+    public int stringLength(int offset) {
+        int curOffset = offset;
+        while (get(curOffset) != 0) {
+            curOffset += 1;
+        }
+
+        return curOffset - offset;
+    }
+
+    @Override
+    public boolean matches(int offset, byte[] b, int off, int len) {
+        int blockOffset = offset & _blockMask;
+        if (blockOffset + len < getBlockSize()) {
+            // Common case, where the string (and its null) are all in one block.
+            ByteBuffer block = _blocks[offset >>> _blockShift];
+            for (int i = 0; i < len; i++) {
+                if (block.get(blockOffset + i) != b[off + i]) {
+                    return false;
+                }
+            }
+
+            return block.get(blockOffset + len) == 0;
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (get(offset + i) != b[off + i]) {
+                return false;
+            }
+        }
+
+        return get(offset + len) == 0;
+    }
+
+    @Override
+    public boolean matches(int offset, CharSequence s) {
+        // Fast path for leading ASCII chars that are in the same block, where each char
+        // is exactly one byte. Anything else is handled by the general UTF-8 comparison.
+        ByteBuffer block = _blocks[offset >>> _blockShift];
+        int blockOffset = offset & _blockMask;
+        int maxChars = Math.min(s.length(), getBlockSize() - blockOffset);
+        int i = 0;
+        for (; i < maxChars; i++) {
+            char c = s.charAt(i);
+            if ((c >= 0x80) || (c == 0)) {
+                break;
+            } else if (block.get(blockOffset + i) != c) {
+                return false;
+            }
+        }
+
+        return UTF8Utils.matches(this, offset + i, s, i);
+    }
+
+    @Override
+    public String getString(int offset, int len) {
+        byte[] bytes = new byte[len];
+        copy(offset, bytes, 0, len);
+
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Impossible missing charset exception", e);
+        }
+    }
+
+    @Override
+    public void getSlice(int offset, int len, ByteSlice slice) {
+        // Our blocks aren't byte arrays, so we always have to copy.
+        byte[] buffer = slice.getBuffer(len);
+        copy(offset, buffer, 0, len);
+        slice.set(buffer, 0, len);
+    }
+    
+    @Override
+    public void clear() {
+        // Release everything, including any mapping - the next append allocates a new block.
+        Arrays.fill(_blocks, null);
+        _numBlocks = 0;
+        _size = 0;
+    }
+
+    @Override
+    public void reset() {
+        // Keep our direct blocks, but release any mapped ones, since appending to them
+        // would copy their (old) data into new blocks.
+        int numBlocks = 0;
+        while ((numBlocks < _numBlocks) && !_blocks[numBlocks].isReadOnly()) {
+            numBlocks += 1;
+        }
+
+        Arrays.fill(_blocks, numBlocks, _numBlocks, null);
+        _numBlocks = numBlocks;
+        _size = 0;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        byte[] buffer = new byte[Math.min(getBlockSize(), Math.max(_size, 1))];
+        int offset = 0;
+        while (offset < _size) {
+            int numToWrite = Math.min(_size - offset, buffer.length);
+            copy(offset, buffer, 0, numToWrite);
+            out.write(buffer, 0, numToWrite);
+            offset += numToWrite;
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in, int size) throws IOException {
+        clear();
+
+        byte[] buffer = new byte[Math.min(getBlockSize(), Math.max(size, 1))];
+        int remaining = size;
+        while (remaining > 0) {
+            int numToRead = Math.min(remaining, buffer.length);
+            in.readFully(buffer, 0, numToRead);
+            append(buffer, 0, numToRead);
+            remaining -= numToRead;
+        }
+    }
+
+    @Override
+    public void ensureCapacity(int newSize) {
+        if (newSize < 0) {
+            throw new IllegalStateException("Arena can't hold more than 2GB of data");
+        }
+
+        int numBlocksNeeded = (newSize + _blockMask) >>> _blockShift;
+        if (numBlocksNeeded > _blocks.length) {
+            _blocks = Arrays.copyOf(_blocks, Math.max(numBlocksNeeded, _blocks.length * 2));
+        }
+
+        while (_numBlocks < numBlocksNeeded) {
+            _blocks[_numBlocks++] = ByteBuffer.allocateDirect(getBlockSize());
+        }
+    }
+
+    private ByteBuffer getWritableBlock(int index) {
+        ByteBuffer result = _blocks[index];
+        if (result.isReadOnly()) {
+            // Mapped block, so replace it with a full-sized direct copy. This also handles
+            // the (possibly partial) last mapped block when we start appending.
+            ByteBuffer newBlock = ByteBuffer.allocateDirect(getBlockSize());
+            ByteBuffer source = result.duplicate();
+            source.clear();
+            newBlock.put(source);
+            _blocks[index] = newBlock;
+            result = newBlock;
+        }
+
+        return result;
+    }
+}
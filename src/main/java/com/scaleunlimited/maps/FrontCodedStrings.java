@@ -0,0 +1,479 @@
+package com.scaleunlimited.maps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable, sorted storage for the UTF-8 bytes of strings (and optionally a value for each
+ * string), used by {@link FrozenStringSet} and {@link FrozenStringMap}.
+ *
+ * Strings are sorted by their UTF-8 bytes (which is the same as Unicode code point order), and
+ * grouped into blocks of ENTRIES_PER_BLOCK entries. The first string in each block is stored in
+ * full, and every other string is stored as the length of the prefix it shares with the previous
+ * string, plus the remaining suffix bytes. The sparse index is just the offset of each block, which
+ * lets us binary search on the first string of each block, and then scan at most one block.
+ *
+ * Everything (index and blocks) lives in one byte array, so deserializing is a single readFully().
+ * The layout of that array is:
+ *
+ * <pre>
+ * int[numBlocks] block offsets (big-endian)
+ * per block:
+ *     vint length, bytes      (first string)
+ *     vint shared, vint suffix length, suffix bytes    (each following string)
+ *     [vint length, bytes]    (after each string, if we have values)
+ * </pre>
+ */
+class FrontCodedStrings {
+
+    static final int ENTRIES_PER_BLOCK = 16;
+
+    private static final int NOT_FOUND = -1;
+
+    private static final Comparator<byte[]> UTF8_ORDER = new Comparator<byte[]>() {
+
+        @Override
+        public int compare(byte[] o1, byte[] o2) {
+            return FrontCodedStrings.compare(o1, 0, o1.length, o2, 0, o2.length);
+        }
+    };
+
+    private boolean _hasValues;
+    private int _numEntries;
+    private int _numBlocks;
+    private byte[] _data;
+    private byte[] _scratch;
+
+    FrontCodedStrings(boolean hasValues) {
+        _hasValues = hasValues;
+        _numEntries = 0;
+        _numBlocks = 0;
+        _data = new byte[0];
+        _scratch = new byte[256];
+    }
+
+    /**
+     * Build from the UTF-8 bytes of <keys> (which must be unique) and, if we have values,
+     * the corresponding <values>. The arrays are sorted in place.
+     */
+    static FrontCodedStrings build(byte[][] keys, byte[][] values) {
+        FrontCodedStrings result = new FrontCodedStrings(values != null);
+
+        if (values == null) {
+            Arrays.sort(keys, UTF8_ORDER);
+        } else {
+            // Sort the key/value pairs together, by key.
+            byte[][][] entries = new byte[keys.length][][];
+            for (int i = 0; i < keys.length; i++) {
+                entries[i] = new byte[][] {keys[i], values[i]};
+            }
+
+            Arrays.sort(entries, new Comparator<byte[][]>() {
+
+                @Override
+                public int compare(byte[][] o1, byte[][] o2) {
+                    return UTF8_ORDER.compare(o1[0], o2[0]);
+                }
+            });
+
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = entries[i][0];
+                values[i] = entries[i][1];
+            }
+        }
+
+        int numEntries = keys.length;
+        int numBlocks = (numEntries + ENTRIES_PER_BLOCK - 1) / ENTRIES_PER_BLOCK;
+        int[] blockOffsets = new int[numBlocks];
+        int indexSize = numBlocks * 4;
+
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        for (int i = 0; i < numEntries; i++) {
+            byte[] key = keys[i];
+            if ((i % ENTRIES_PER_BLOCK) == 0) {
+                blockOffsets[i / ENTRIES_PER_BLOCK] = indexSize + blocks.size();
+                writeVInt(blocks, key.length);
+                blocks.write(key, 0, key.length);
+            } else {
+                byte[] prevKey = keys[i - 1];
+                int shared = commonPrefixLength(prevKey, 0, prevKey.length, key, 0, key.length);
+                if (shared == key.length) {
+                    throw new IllegalArgumentException("Duplicate key: " + HashUtils.getUTF8String(key, 0, key.length));
+                }
+
+                writeVInt(blocks, shared);
+                writeVInt(blocks, key.length - shared);
+                blocks.write(key, shared, key.length - shared);
+            }
+
+            if (values != null) {
+                writeVInt(blocks, values[i].length);
+                blocks.write(values[i], 0, values[i].length);
+            }
+        }
+
+        byte[] data = new byte[indexSize + blocks.size()];
+        for (int i = 0; i < numBlocks; i++) {
+            setInt(data, i * 4, blockOffsets[i]);
+        }
+
+        System.arraycopy(blocks.toByteArray(), 0, data, indexSize, blocks.size());
+
+        result._numEntries = numEntries;
+        result._numBlocks = numBlocks;
+        result._data = data;
+        return result;
+    }
+
+    int size() {
+        return _numEntries;
+    }
+
+    /**
+     * @return number of bytes used by the index and blocks.
+     */
+    int getDataSize() {
+        return _data.length;
+    }
+
+    /**
+     * Find <key>, without decoding any strings (and thus without allocating anything).
+     *
+     * @return offset of the value that comes after the key (or of the next entry, if we don't have values),
+     * or NOT_FOUND.
+     */
+    int find(byte[] key, int offset, int length) {
+        int block = findBlock(key, offset, length);
+        if (block == NOT_FOUND) {
+            return NOT_FOUND;
+        }
+
+        byte[] data = _data;
+        int pos = getInt(data, block * 4);
+        int firstLen = readVInt(data, pos);
+        pos += vIntSize(firstLen);
+
+        // <matched> is the length of the prefix shared by <key> and the previous string, which is always
+        // less than <key>. The first string in the block is <= key, since that's how we picked the block.
+        int matched = commonPrefixLength(data, pos, firstLen, key, offset, length);
+        pos += firstLen;
+        if ((matched == firstLen) && (matched == length)) {
+            return pos;
+        }
+
+        int numInBlock = Math.min(ENTRIES_PER_BLOCK, _numEntries - (block * ENTRIES_PER_BLOCK));
+        for (int i = 1; i < numInBlock; i++) {
+            pos = skipValue(pos);
+            int shared = readVInt(data, pos);
+            pos += vIntSize(shared);
+            int suffixLen = readVInt(data, pos);
+            pos += vIntSize(suffixLen);
+            int suffixStart = pos;
+            pos += suffixLen;
+
+            if (shared > matched) {
+                // This string has the same byte at <matched> as the previous string, so it's still < key.
+                continue;
+            } else if (shared < matched) {
+                // This string has a bigger byte than the previous string at <shared>, where the previous
+                // string matched the key, so it's > key, and we're done.
+                return NOT_FOUND;
+            }
+
+            int n = commonPrefixLength(data, suffixStart, suffixLen, key, offset + matched, length - matched);
+            matched += n;
+            if (n == suffixLen) {
+                if (matched == length) {
+                    return pos;
+                }
+
+                // String is a prefix of the key, so it's < key.
+            } else if ((matched == length) || ((data[suffixStart + n] & 0xFF) > (key[offset + matched] & 0xFF))) {
+                return NOT_FOUND;
+            }
+        }
+
+        return NOT_FOUND;
+    }
+
+    /**
+     * Same as {@link #find(byte[], int, int)}, for the UTF-8 bytes of <key>. This uses a
+     * scratch buffer, so it's not thread-safe.
+     */
+    int find(CharSequence key) {
+        int len = encode(key);
+        return find(_scratch, 0, len);
+    }
+
+    /**
+     * Encode <s> into our scratch buffer.
+     *
+     * @return number of UTF-8 bytes
+     */
+    private int encode(CharSequence s) {
+        int maxLen = s.length() * 3;
+        if (_scratch.length < maxLen) {
+            _scratch = new byte[Math.max(maxLen, _scratch.length * 2)];
+        }
+
+        return UTF8Utils.encode(s, _scratch);
+    }
+
+    /**
+     * @return index of the last block whose first string is <= key, or NOT_FOUND.
+     */
+    private int findBlock(byte[] key, int offset, int length) {
+        byte[] data = _data;
+        int result = NOT_FOUND;
+        int lo = 0;
+        int hi = _numBlocks - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int pos = getInt(data, mid * 4);
+            int len = readVInt(data, pos);
+            int cmp = compare(data, pos + vIntSize(len), len, key, offset, length);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                result = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        return result;
+    }
+
+    private int skipValue(int pos) {
+        if (_hasValues) {
+            int len = readVInt(_data, pos);
+            pos += vIntSize(len) + len;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Set <slice> to the value that starts at <pos> (as returned by find()).
+     */
+    void getValue(int pos, ByteSlice slice) {
+        int len = readVInt(_data, pos);
+        slice.set(_data, pos + vIntSize(len), len);
+    }
+
+    String getValue(int pos) {
+        int len = readVInt(_data, pos);
+        return HashUtils.getUTF8String(_data, pos + vIntSize(len), len);
+    }
+
+    static boolean isFound(int pos) {
+        return pos != NOT_FOUND;
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Sequential decoder for the entries, which can be limited to a range of strings. The current
+     * string is rebuilt in a buffer owned by the cursor, so multiple cursors can be used at once.
+     */
+    class Cursor {
+        private int _entry = 0;
+        private int _pos = _numBlocks * 4;
+        private byte[] _key = new byte[256];
+        private int _keyLen = 0;
+        private int _valuePos = 0;
+        private boolean _pending = false;
+
+        private byte[] _end = null;
+        private boolean _endIsPrefix = false;
+
+        /**
+         * Position the cursor so that next() returns the first string >= <from>.
+         */
+        void seek(byte[] from) {
+            int block = findBlock(from, 0, from.length);
+            if (block == NOT_FOUND) {
+                block = 0;
+            }
+
+            _entry = block * ENTRIES_PER_BLOCK;
+            _pos = (_numBlocks == 0) ? 0 : getInt(_data, block * 4);
+            _pending = false;
+            while (decodeNext()) {
+                if (compare(_key, 0, _keyLen, from, 0, from.length) >= 0) {
+                    _pending = true;
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Stop before the first string >= <end> (or, if <isPrefix>, the first
+         * string that doesn't start with <end>).
+         */
+        void setEnd(byte[] end, boolean isPrefix) {
+            _end = end;
+            _endIsPrefix = isPrefix;
+        }
+
+        boolean next() {
+            if (_pending) {
+                _pending = false;
+            } else if (!decodeNext()) {
+                return false;
+            }
+
+            if (_end != null) {
+                boolean inRange;
+                if (_endIsPrefix) {
+                    inRange = (_keyLen >= _end.length) && (commonPrefixLength(_key, 0, _keyLen, _end, 0, _end.length) == _end.length);
+                } else {
+                    inRange = compare(_key, 0, _keyLen, _end, 0, _end.length) < 0;
+                }
+
+                if (!inRange) {
+                    _entry = _numEntries;
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        void getKey(ByteSlice slice) {
+            slice.set(_key, 0, _keyLen);
+        }
+
+        String getKey() {
+            return HashUtils.getUTF8String(_key, 0, _keyLen);
+        }
+
+        void getValue(ByteSlice slice) {
+            FrontCodedStrings.this.getValue(_valuePos, slice);
+        }
+
+        String getValue() {
+            return FrontCodedStrings.this.getValue(_valuePos);
+        }
+
+        private boolean decodeNext() {
+            if (_entry >= _numEntries) {
+                return false;
+            }
+
+            byte[] data = _data;
+            int shared = 0;
+            if ((_entry % ENTRIES_PER_BLOCK) != 0) {
+                shared = readVInt(data, _pos);
+                _pos += vIntSize(shared);
+            }
+
+            int suffixLen = readVInt(data, _pos);
+            _pos += vIntSize(suffixLen);
+            _keyLen = shared + suffixLen;
+            if (_key.length < _keyLen) {
+                _key = Arrays.copyOf(_key, Math.max(_keyLen, _key.length * 2));
+            }
+
+            System.arraycopy(data, _pos, _key, shared, suffixLen);
+            _pos += suffixLen;
+            _valuePos = _pos;
+            _pos = skipValue(_pos);
+            _entry += 1;
+            return true;
+        }
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(_numEntries);
+        out.writeInt(_numBlocks);
+        out.writeInt(_data.length);
+        out.write(_data);
+    }
+
+    void readFields(DataInput in) throws IOException {
+        int numEntries = in.readInt();
+        int numBlocks = in.readInt();
+        int dataSize = in.readInt();
+        if ((numEntries < 0) || (numBlocks != (numEntries + ENTRIES_PER_BLOCK - 1) / ENTRIES_PER_BLOCK) || (dataSize < numBlocks * 4)) {
+            throw new IOException("Data corruption - invalid header");
+        }
+
+        byte[] data = new byte[dataSize];
+        in.readFully(data);
+
+        _numEntries = numEntries;
+        _numBlocks = numBlocks;
+        _data = data;
+    }
+
+    /**
+     * Compare the two ranges as unsigned bytes.
+     */
+    static int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        int n = commonPrefixLength(a, aOffset, aLength, b, bOffset, bLength);
+        if (n < Math.min(aLength, bLength)) {
+            return (a[aOffset + n] & 0xFF) - (b[bOffset + n] & 0xFF);
+        } else {
+            return aLength - bLength;
+        }
+    }
+
+    private static int commonPrefixLength(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        int maxLen = Math.min(aLength, bLength);
+        int result = 0;
+        while ((result < maxLen) && (a[aOffset + result] == b[bOffset + result])) {
+            result += 1;
+        }
+
+        return result;
+    }
+
+    private static void writeVInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.write(value);
+    }
+
+    private static int readVInt(byte[] data, int pos) {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[pos++];
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+    private static int vIntSize(int value) {
+        int result = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            result += 1;
+        }
+
+        return result;
+    }
+
+    private static int getInt(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16) | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+    }
+
+    private static void setInt(byte[] data, int pos, int value) {
+        data[pos] = (byte)(value >>> 24);
+        data[pos + 1] = (byte)(value >>> 16);
+        data[pos + 2] = (byte)(value >>> 8);
+        data[pos + 3] = (byte)value;
+    }
+}
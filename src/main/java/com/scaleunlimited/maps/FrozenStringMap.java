@@ -0,0 +1,264 @@
+package com.scaleunlimited.maps;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * An immutable map from string to string, sorted by key, created via {@link StringMap#freeze()}.
+ * Keys are front-coded and looked up via binary search, the same as {@link FrozenStringSet},
+ * which also supports prefix and range queries over the keys.
+ *
+ * Deserializing via {@link #readFields(DataInput)} is a single readFully() of the data, with
+ * no rehashing. Lookups using a CharSequence use a scratch buffer, so (like StringMap) this
+ * isn't thread-safe, but lookups via {@link #get(byte[], int, int)} and cursors are.
+ */
+public class FrozenStringMap extends AbstractMap<String, String> implements Writable {
+
+    private FrontCodedStrings _entries;
+
+    /**
+     * Create an empty map, typically for calling {@link #readFields(DataInput)}.
+     */
+    public FrozenStringMap() {
+        this(new FrontCodedStrings(true));
+    }
+
+    FrozenStringMap(FrontCodedStrings entries) {
+        _entries = entries;
+    }
+
+    @Override
+    public int size() {
+        return _entries.size();
+    }
+
+    /**
+     * @return number of bytes used to store the keys, values and index.
+     */
+    public int getDataSize() {
+        return _entries.getDataSize();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (key instanceof String) {
+            return containsKey((CharSequence)key);
+        } else {
+            return false;
+        }
+    }
+
+    public boolean containsKey(CharSequence key) {
+        return FrontCodedStrings.isFound(_entries.find(key));
+    }
+
+    public boolean containsKey(byte[] b, int offset, int length) {
+        return FrontCodedStrings.isFound(_entries.find(b, offset, length));
+    }
+
+    @Override
+    public String get(Object key) {
+        if (key instanceof String) {
+            return get((CharSequence)key);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return value for key.toString(), or null if it doesn't exist.
+     */
+    public String get(CharSequence key) {
+        int pos = _entries.find(key);
+        return FrontCodedStrings.isFound(pos) ? _entries.getValue(pos) : null;
+    }
+
+    /**
+     * Get the value for the key with UTF-8 bytes b[offset...offset + length), without
+     * building a String for the key.
+     */
+    public String get(byte[] b, int offset, int length) {
+        int pos = _entries.find(b, offset, length);
+        return FrontCodedStrings.isFound(pos) ? _entries.getValue(pos) : null;
+    }
+
+    /**
+     * Set <value> to the UTF-8 bytes of the value for the key with UTF-8 bytes
+     * b[offset...offset + length), without allocating anything.
+     *
+     * @return false if the key doesn't exist.
+     */
+    public boolean get(byte[] b, int offset, int length, ByteSlice value) {
+        int pos = _entries.find(b, offset, length);
+        if (FrontCodedStrings.isFound(pos)) {
+            _entries.getValue(pos, value);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Cursor over the UTF-8 bytes of each entry, in key order, which doesn't create any Strings.
+     * Each cursor has its own buffer, so it's fine to use several at the same time.
+     */
+    public class Cursor {
+        private FrontCodedStrings.Cursor _cursor;
+        private ByteSlice _key = new ByteSlice();
+        private ByteSlice _value = new ByteSlice();
+
+        private Cursor(FrontCodedStrings.Cursor cursor) {
+            _cursor = cursor;
+        }
+
+        /**
+         * Advance to the next entry.
+         *
+         * @return false if there are no more entries.
+         */
+        public boolean next() {
+            if (_cursor.next()) {
+                _cursor.getKey(_key);
+                _cursor.getValue(_value);
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        /**
+         * @return UTF-8 bytes of the current key, which are only valid until the next
+         * call to next().
+         */
+        public ByteSlice getKey() {
+            return _key;
+        }
+
+        /**
+         * @return UTF-8 bytes of the current value.
+         */
+        public ByteSlice getValue() {
+            return _value;
+        }
+    }
+
+    public Cursor cursor() {
+        return new Cursor(_entries.cursor());
+    }
+
+    /**
+     * @return cursor over all of the entries where the key starts with <prefix>.
+     */
+    public Cursor prefixCursor(String prefix) {
+        return new Cursor(prefix(prefix));
+    }
+
+    /**
+     * @return cursor over all of the entries with a key >= <from> and < <to>. Either can be
+     * null, for an open-ended range.
+     */
+    public Cursor rangeCursor(String from, String to) {
+        return new Cursor(range(from, to));
+    }
+
+    /**
+     * @return iterator over all of the entries where the key starts with <prefix>, in key order.
+     */
+    public Iterator<Entry<String, String>> prefixIterator(String prefix) {
+        return new EntryIterator(prefix(prefix));
+    }
+
+    /**
+     * @return iterator over all of the entries with a key >= <from> and < <to>, in key order.
+     * Either can be null, for an open-ended range.
+     */
+    public Iterator<Entry<String, String>> rangeIterator(String from, String to) {
+        return new EntryIterator(range(from, to));
+    }
+
+    private FrontCodedStrings.Cursor prefix(String prefix) {
+        byte[] prefixBytes = HashUtils.getUTF8Bytes(prefix);
+        FrontCodedStrings.Cursor result = _entries.cursor();
+        result.seek(prefixBytes);
+        result.setEnd(prefixBytes, true);
+        return result;
+    }
+
+    private FrontCodedStrings.Cursor range(String from, String to) {
+        FrontCodedStrings.Cursor result = _entries.cursor();
+        if (from != null) {
+            result.seek(HashUtils.getUTF8Bytes(from));
+        }
+
+        if (to != null) {
+            result.setEnd(HashUtils.getUTF8Bytes(to), false);
+        }
+
+        return result;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new EntryIterator(_entries.cursor());
+            }
+
+            @Override
+            public int size() {
+                return _entries.size();
+            }
+        };
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        _entries.write(out);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        _entries.readFields(in);
+    }
+
+    private static class EntryIterator implements Iterator<Entry<String, String>> {
+        private FrontCodedStrings.Cursor _cursor;
+        private boolean _hasNext;
+
+        public EntryIterator(FrontCodedStrings.Cursor cursor) {
+            _cursor = cursor;
+            _hasNext = cursor.next();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return _hasNext;
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (!_hasNext) {
+                throw new NoSuchElementException();
+            }
+
+            Entry<String, String> result = new SimpleImmutableEntry<String, String>(_cursor.getKey(), _cursor.getValue());
+            _hasNext = _cursor.next();
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("FrozenStringMap is immutable");
+        }
+    }
+}
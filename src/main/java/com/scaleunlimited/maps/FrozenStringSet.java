@@ -0,0 +1,212 @@
+package com.scaleunlimited.maps;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * An immutable, sorted set of strings, created via {@link StringSet#freeze()}. This is meant
+ * for dictionaries that are built once and then shipped around read-only, e.g. via
+ * BasePlatform.shareLocalDir().
+ *
+ * Versus a {@link StringSet}, there's no hash table (so no wasted space due to the load factor,
+ * and no collision set), and strings are front-coded, which typically makes them a lot smaller.
+ * Lookups are a binary search plus a scan of up to {@link FrontCodedStrings#ENTRIES_PER_BLOCK}
+ * strings, so they're slower than a hash lookup, but the sorted order also supports prefix and
+ * range queries.
+ *
+ * Strings are sorted by their UTF-8 bytes, which is Unicode code point order. That's the same
+ * as String.compareTo() except for supplementary characters.
+ *
+ * Deserializing via {@link #readFields(DataInput)} is a single readFully() of the data, with
+ * no rehashing. Lookups using a CharSequence use a scratch buffer, so (like StringSet) this
+ * isn't thread-safe, but lookups via {@link #contains(byte[], int, int)} and cursors are.
+ */
+public class FrozenStringSet extends AbstractSet<String> implements Writable {
+
+    private FrontCodedStrings _strings;
+
+    /**
+     * Create an empty set, typically for calling {@link #readFields(DataInput)}.
+     */
+    public FrozenStringSet() {
+        this(new FrontCodedStrings(false));
+    }
+
+    FrozenStringSet(FrontCodedStrings strings) {
+        _strings = strings;
+    }
+
+    @Override
+    public int size() {
+        return _strings.size();
+    }
+
+    /**
+     * @return number of bytes used to store the strings (and their index).
+     */
+    public int getDataSize() {
+        return _strings.getDataSize();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o instanceof String) {
+            return contains((CharSequence)o);
+        } else {
+            return false;
+        }
+    }
+
+    public boolean contains(CharSequence s) {
+        return FrontCodedStrings.isFound(_strings.find(s));
+    }
+
+    /**
+     * Check if the set contains the string with UTF-8 bytes b[offset...offset + length),
+     * without decoding or allocating anything.
+     */
+    public boolean contains(byte[] b, int offset, int length) {
+        return FrontCodedStrings.isFound(_strings.find(b, offset, length));
+    }
+
+    /**
+     * @return iterator over all of the strings, in sorted order.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new CursorIterator(cursor());
+    }
+
+    /**
+     * @return iterator over all of the strings that start with <prefix>, in sorted order.
+     */
+    public Iterator<String> prefixIterator(String prefix) {
+        return new CursorIterator(prefixCursor(prefix));
+    }
+
+    /**
+     * @return iterator over all of the strings >= <from> and < <to>, in sorted order. Either
+     * can be null, for an open-ended range.
+     */
+    public Iterator<String> rangeIterator(String from, String to) {
+        return new CursorIterator(rangeCursor(from, to));
+    }
+
+    /**
+     * Cursor over the UTF-8 bytes of each string, in sorted order, which doesn't create a String.
+     * Each cursor has its own buffer, so it's fine to use several at the same time.
+     */
+    public class Cursor {
+        private FrontCodedStrings.Cursor _cursor;
+        private ByteSlice _slice = new ByteSlice();
+
+        private Cursor(FrontCodedStrings.Cursor cursor) {
+            _cursor = cursor;
+        }
+
+        /**
+         * Advance to the next string.
+         *
+         * @return false if there are no more strings.
+         */
+        public boolean next() {
+            if (_cursor.next()) {
+                _cursor.getKey(_slice);
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        /**
+         * @return UTF-8 bytes of the current string, which are only valid until the next
+         * call to next().
+         */
+        public ByteSlice getString() {
+            return _slice;
+        }
+
+        private String getStringAsString() {
+            return _cursor.getKey();
+        }
+    }
+
+    public Cursor cursor() {
+        return new Cursor(_strings.cursor());
+    }
+
+    /**
+     * @return cursor over all of the strings that start with <prefix>.
+     */
+    public Cursor prefixCursor(String prefix) {
+        byte[] prefixBytes = HashUtils.getUTF8Bytes(prefix);
+        FrontCodedStrings.Cursor cursor = _strings.cursor();
+        cursor.seek(prefixBytes);
+        cursor.setEnd(prefixBytes, true);
+        return new Cursor(cursor);
+    }
+
+    /**
+     * @return cursor over all of the strings >= <from> and < <to>. Either can be null, for
+     * an open-ended range.
+     */
+    public Cursor rangeCursor(String from, String to) {
+        FrontCodedStrings.Cursor cursor = _strings.cursor();
+        if (from != null) {
+            cursor.seek(HashUtils.getUTF8Bytes(from));
+        }
+
+        if (to != null) {
+            cursor.setEnd(HashUtils.getUTF8Bytes(to), false);
+        }
+
+        return new Cursor(cursor);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        _strings.write(out);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        _strings.readFields(in);
+    }
+
+    private static class CursorIterator implements Iterator<String> {
+        private Cursor _cursor;
+        private boolean _hasNext;
+
+        public CursorIterator(Cursor cursor) {
+            _cursor = cursor;
+            _hasNext = cursor.next();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return _hasNext;
+        }
+
+        @Override
+        public String next() {
+            if (!_hasNext) {
+                throw new NoSuchElementException();
+            }
+
+            String result = _cursor.getStringAsString();
+            _hasNext = _cursor.next();
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("FrozenStringSet is immutable");
+        }
+    }
+}
@@ -12,6 +12,14 @@ public class HashUtils {
         }
     }
     
+    public static String getUTF8String(byte[] b, int offset, int length) {
+        try {
+            return new String(b, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Impossible missing charset exception", e);
+        }
+    }
+    
     /**
      * Generate a 32-bit JOAAT hash from the bytes of <s>
      * 
@@ -19,8 +27,327 @@ public class HashUtils {
      * @return 32-bit hash
      */
     public static int getIntHash(String s) {
-        byte[] bytes = getUTF8Bytes(s);
-        return getIntHash(bytes, 0, bytes.length);
+        return getIntHash((CharSequence)s);
+    }
+
+    /**
+     * Generate a 32-bit JOAAT hash from the UTF-8 bytes of <s>, without allocating
+     * a byte array. The result is the same as hashing the UTF-8 bytes of s.toString().
+     * 
+     * @param s chars to hash
+     * @return 32-bit hash
+     */
+    public static int getIntHash(CharSequence s) {
+        int result = 0;
+        int len = s.length();
+        
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                result = joaatStep(result, c);
+            } else if (c < 0x800) {
+                result = joaatStep(result, 0xC0 | (c >> 6));
+                result = joaatStep(result, 0x80 | (c & 0x3F));
+            } else if (!isSurrogate(c)) {
+                result = joaatStep(result, 0xE0 | (c >> 12));
+                result = joaatStep(result, 0x80 | ((c >> 6) & 0x3F));
+                result = joaatStep(result, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && (i + 1 < len) && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                result = joaatStep(result, 0xF0 | (cp >> 18));
+                result = joaatStep(result, 0x80 | ((cp >> 12) & 0x3F));
+                result = joaatStep(result, 0x80 | ((cp >> 6) & 0x3F));
+                result = joaatStep(result, 0x80 | (cp & 0x3F));
+            } else {
+                // Unpaired surrogate, which the UTF-8 encoder replaces with '?'
+                result = joaatStep(result, '?');
+            }
+        }
+        
+        result += (result << 3);
+        result ^= (result >> 11);
+        result += (result << 15);
+
+        return result;
+    }
+    
+    private static int joaatStep(int hash, int b) {
+        hash += b & 0x0FF;
+        hash += (hash << 10);
+        hash ^= (hash >> 6);
+        return hash;
+    }
+    
+    static boolean isSurrogate(char c) {
+        return (c >= Character.MIN_SURROGATE) && (c <= Character.MAX_SURROGATE);
+    }
+
+    /**
+     * Generate a 32-bit Murmur3 (x86_32 variant) hash for the given byte array. This processes
+     * four bytes at a time, so it's faster than JOAAT for all but very short strings, and
+     * has much better avalanche behavior.
+     * 
+     * @param b Bytes to hash
+     * @param offset starting offset
+     * @param length number of bytes to hash
+     * @param seed initial hash value
+     * @return 32-bit hash
+     */
+    public static int getMurmur3IntHash(byte[] b, int offset, int length, int seed) {
+        int h1 = seed;
+        int end = offset + (length & ~3);
+        
+        for (int i = offset; i < end; i += 4) {
+            int k1 = (b[i] & 0x0FF) | ((b[i + 1] & 0x0FF) << 8) | ((b[i + 2] & 0x0FF) << 16) | (b[i + 3] << 24);
+            h1 = murmur3MixH1(h1, murmur3MixK1(k1));
+        }
+        
+        int k1 = 0;
+        switch (length & 3) {
+            case 3:
+                k1 ^= (b[end + 2] & 0x0FF) << 16;
+            case 2:
+                k1 ^= (b[end + 1] & 0x0FF) << 8;
+            case 1:
+                k1 ^= (b[end] & 0x0FF);
+                h1 ^= murmur3MixK1(k1);
+        }
+        
+        return murmur3Finish(h1, length);
+    }
+    
+    /**
+     * Generate a 32-bit Murmur3 hash from the UTF-8 bytes of <s>, without allocating
+     * a byte array. The result is the same as hashing the UTF-8 bytes of s.toString().
+     * 
+     * @param s chars to hash
+     * @param seed initial hash value
+     * @return 32-bit hash
+     */
+    public static int getMurmur3IntHash(CharSequence s, int seed) {
+        int h1 = seed;
+        int len = s.length();
+        int numBytes = 0;
+        
+        // Bytes that haven't been mixed in yet, starting at the low end of <pending>.
+        long pending = 0;
+        int numPendingBits = 0;
+        
+        for (int i = 0; i < len; ) {
+            int utf8 = UTF8Utils.encode(s, i);
+            int n = UTF8Utils.numBytes(utf8);
+            i += (n == 4 ? 2 : 1);
+            numBytes += n;
+            
+            pending |= (utf8 & 0x0FFFFFFFFL) << numPendingBits;
+            numPendingBits += (n << 3);
+            if (numPendingBits >= 32) {
+                h1 = murmur3MixH1(h1, murmur3MixK1((int)pending));
+                pending >>>= 32;
+                numPendingBits -= 32;
+            }
+        }
+        
+        if (numPendingBits > 0) {
+            h1 ^= murmur3MixK1((int)pending);
+        }
+        
+        return murmur3Finish(h1, numBytes);
+    }
+    
+    private static int murmur3MixK1(int k1) {
+        k1 *= 0xcc9e2d51;
+        k1 = Integer.rotateLeft(k1, 15);
+        k1 *= 0x1b873593;
+        return k1;
+    }
+    
+    private static int murmur3MixH1(int h1, int k1) {
+        h1 ^= k1;
+        h1 = Integer.rotateLeft(h1, 13);
+        h1 = h1 * 5 + 0xe6546b64;
+        return h1;
+    }
+    
+    private static int murmur3Finish(int h1, int length) {
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+    
+    /**
+     * Generate a 64-bit Murmur3 hash for the given byte array. This is the first half of
+     * the 128-bit x64 variant, which processes sixteen bytes at a time.
+     * 
+     * @param b Bytes to hash
+     * @param offset starting offset
+     * @param length number of bytes to hash
+     * @param seed initial hash value
+     * @return 64-bit hash
+     */
+    public static long getMurmur3LongHash(byte[] b, int offset, int length, long seed) {
+        long h1 = seed;
+        long h2 = seed;
+        int end = offset + (length & ~15);
+        
+        for (int i = offset; i < end; i += 16) {
+            long k1 = getLittleEndianLong(b, i);
+            long k2 = getLittleEndianLong(b, i + 8);
+            
+            h1 ^= murmur3MixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= murmur3MixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        
+        // Gather up the remaining 0...15 bytes.
+        long k1 = 0;
+        long k2 = 0;
+        int numRemaining = length & 15;
+        for (int i = 0; i < numRemaining; i++) {
+            long curByte = b[end + i] & 0x0FFL;
+            if (i < 8) {
+                k1 |= curByte << (i << 3);
+            } else {
+                k2 |= curByte << ((i - 8) << 3);
+            }
+        }
+        
+        if (numRemaining > 8) {
+            h2 ^= murmur3MixK2(k2);
+        }
+        
+        if (numRemaining > 0) {
+            h1 ^= murmur3MixK1(k1);
+        }
+        
+        return murmur3Finish(h1, h2, length);
+    }
+    
+    /**
+     * Generate a 64-bit Murmur3 hash from the UTF-8 bytes of <s>, without allocating
+     * a byte array. The result is the same as hashing the UTF-8 bytes of s.toString().
+     * 
+     * @param s chars to hash
+     * @param seed initial hash value
+     * @return 64-bit hash
+     */
+    public static long getMurmur3LongHash(CharSequence s, long seed) {
+        long h1 = seed;
+        long h2 = seed;
+        long k1 = 0;
+        long k2 = 0;
+        int numBytes = 0;
+        int len = s.length();
+        
+        for (int i = 0; i < len; ) {
+            int utf8 = UTF8Utils.encode(s, i);
+            int n = UTF8Utils.numBytes(utf8);
+            i += (n == 4 ? 2 : 1);
+            
+            for (int j = 0; j < n; j++) {
+                long curByte = (utf8 >>> (j << 3)) & 0x0FFL;
+                int blockOffset = numBytes & 15;
+                if (blockOffset < 8) {
+                    k1 |= curByte << (blockOffset << 3);
+                } else {
+                    k2 |= curByte << ((blockOffset - 8) << 3);
+                }
+                
+                numBytes += 1;
+                if ((numBytes & 15) == 0) {
+                    h1 ^= murmur3MixK1(k1);
+                    h1 = Long.rotateLeft(h1, 27);
+                    h1 += h2;
+                    h1 = h1 * 5 + 0x52dce729;
+
+                    h2 ^= murmur3MixK2(k2);
+                    h2 = Long.rotateLeft(h2, 31);
+                    h2 += h1;
+                    h2 = h2 * 5 + 0x38495ab5;
+                    
+                    k1 = 0;
+                    k2 = 0;
+                }
+            }
+        }
+        
+        int numRemaining = numBytes & 15;
+        if (numRemaining > 8) {
+            h2 ^= murmur3MixK2(k2);
+        }
+        
+        if (numRemaining > 0) {
+            h1 ^= murmur3MixK1(k1);
+        }
+        
+        return murmur3Finish(h1, h2, numBytes);
+    }
+    
+    /**
+     * Generate a 64-bit Murmur3 hash of <value>, without allocating a byte array. The result
+     * is the same as hashing the 8 little-endian bytes of value.
+     * 
+     * @param value long to hash
+     * @param seed initial hash value
+     * @return 64-bit hash
+     */
+    public static long getMurmur3LongHash(long value, long seed) {
+        long h1 = seed ^ murmur3MixK1(value);
+        return murmur3Finish(h1, seed, 8);
+    }
+    
+    private static long getLittleEndianLong(byte[] b, int offset) {
+        return (b[offset] & 0x0FFL)
+            | ((b[offset + 1] & 0x0FFL) << 8)
+            | ((b[offset + 2] & 0x0FFL) << 16)
+            | ((b[offset + 3] & 0x0FFL) << 24)
+            | ((b[offset + 4] & 0x0FFL) << 32)
+            | ((b[offset + 5] & 0x0FFL) << 40)
+            | ((b[offset + 6] & 0x0FFL) << 48)
+            | ((b[offset + 7] & 0x0FFL) << 56);
+    }
+    
+    private static long murmur3MixK1(long k1) {
+        k1 *= 0x87c37b91114253d5L;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= 0x4cf5ad432745937fL;
+        return k1;
+    }
+    
+    private static long murmur3MixK2(long k2) {
+        k2 *= 0x4cf5ad432745937fL;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= 0x87c37b91114253d5L;
+        return k2;
+    }
+    
+    private static long murmur3Finish(long h1, long h2, int length) {
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        return h1 + h2;
+    }
+    
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
     }
 
     /**
@@ -0,0 +1,116 @@
+package com.scaleunlimited.maps;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Append-only byte storage used by {@link StringMap} and {@link StringSet} for the
+ * null-terminated UTF-8 bytes of their strings. Data is addressed by an int offset.
+ *
+ * @see ByteArena
+ * @see DirectByteArena
+ */
+public interface IByteArena {
+
+    /**
+     * @return number of bytes that have been appended.
+     */
+    public int size();
+
+    /**
+     * @return number of bytes allocated (or mapped) for storage, which is always >= size()
+     */
+    public long getAllocatedSize();
+
+    public byte get(int offset);
+
+    /**
+     * Append <len> bytes from <b>, followed by a null (0) byte.
+     *
+     * @return arena offset of the first byte.
+     */
+    public int appendString(byte[] b, int off, int len);
+
+    /**
+     * Append <len> bytes from <b>
+     *
+     * @return arena offset of the first byte.
+     */
+    public int append(byte[] b, int off, int len);
+
+    /**
+     * Overwrite <len> bytes starting at <offset> with bytes from <b>. The range has
+     * to be inside of what's already been appended.
+     */
+    public void set(int offset, byte[] b, int off, int len);
+    
+    /**
+     * Move <len> bytes from <from> down to <to>, where to <= from. The ranges can overlap.
+     */
+    public void move(int from, int to, int len);
+    
+    /**
+     * Discard everything at or past <newSize>, releasing blocks that are no longer needed.
+     */
+    public void truncate(int newSize);
+    
+    /**
+     * Zero out bytes in the range [from, to).
+     */
+    public void clear(int from, int to);
+
+    /**
+     * Copy <len> bytes starting at <offset> into <dest>
+     */
+    public void copy(int offset, byte[] dest, int destOff, int len);
+
+    /**
+     * @return number of bytes from <offset> up to (but not including) the next null byte.
+     */
+    public int stringLength(int offset);
+
+    /**
+     * Return true if the <len> bytes in <b> match what's stored at <offset>, and the
+     * stored string is null-terminated right after that.
+     */
+    public boolean matches(int offset, byte[] b, int off, int len);
+
+    /**
+     * Return true if the UTF-8 encoding of <s> matches what's stored at <offset>, and the
+     * stored string is null-terminated right after that. No byte array is allocated.
+     */
+    public boolean matches(int offset, CharSequence s);
+
+    public String getString(int offset, int len);
+    
+    /**
+     * Set <slice> to the <len> bytes starting at <offset>, copying them only if they
+     * aren't contiguous in memory that we can reference as a byte array.
+     */
+    public void getSlice(int offset, int len, ByteSlice slice);
+    
+    /**
+     * Make sure we have storage for <newSize> bytes, so that appending up to that
+     * size won't need to allocate anything.
+     */
+    public void ensureCapacity(int newSize);
+
+    /**
+     * Release (most of) the storage, and reset the size to zero.
+     */
+    public void clear();
+
+    /**
+     * Reset the size to zero, but keep the allocated storage, so that appending up to
+     * getAllocatedSize() bytes won't allocate anything. The old bytes aren't zeroed.
+     */
+    public void reset();
+
+    public void write(DataOutput out) throws IOException;
+
+    /**
+     * Replace the current contents of the arena with <size> bytes read from <in>.
+     */
+    public void readFields(DataInput in, int size) throws IOException;
+}
@@ -0,0 +1,29 @@
+package com.scaleunlimited.maps;
+
+/**
+ * Strategy for hashing the UTF-8 bytes of strings in a {@link StringMap} or {@link StringSet}.
+ * 
+ * The hash of a CharSequence has to be the same as the hash of its UTF-8 bytes, since
+ * we hash chars for lookups and bytes when rebuilding the hash table from serialized data.
+ * 
+ * A map or set has to be read with the same hash function it was written with.
+ *
+ * @see JoaatHashFunction
+ * @see Murmur3HashFunction
+ */
+public interface IHashFunction {
+
+    /**
+     * @return number of bits in the hash values - either 32 (the hash is always in the int
+     * range), or 64.
+     */
+    public int getNumBits();
+    
+    public long hash(byte[] b, int offset, int length);
+    
+    /**
+     * Return the same value as hashing the UTF-8 bytes of s.toString(), but without
+     * allocating a byte array.
+     */
+    public long hash(CharSequence s);
+}
@@ -0,0 +1,64 @@
+package com.scaleunlimited.maps;
+
+/**
+ * Mapping from a string's hash to the offset of its bytes in an {@link IByteArena}.
+ *
+ */
+interface IOffsetIndex {
+
+    // Value returned when we request a hash that doesn't exist. Offsets are never negative.
+    public static final int MISSING_OFFSET = -1;
+    
+    /**
+     * @return offset for <hash>, or MISSING_OFFSET
+     */
+    public int get(long hash);
+    
+    /**
+     * @return previous offset for <hash>, or MISSING_OFFSET
+     */
+    public int put(long hash, int offset);
+    
+    /**
+     * @return offset that was removed, or MISSING_OFFSET
+     */
+    public int remove(long hash);
+    
+    public boolean containsKey(long hash);
+    
+    public int size();
+    
+    public boolean isEmpty();
+    
+    public void clear();
+    
+    /**
+     * Make sure we can hold <numEntries> without having to rehash.
+     */
+    public void ensureCapacity(int numEntries);
+    
+    /**
+     * Update every offset, after the data has been compacted.
+     */
+    public void shiftOffsets(OffsetShifts shifts);
+    
+    /**
+     * @return cursor over every (hash, offset) entry, in no particular order. The index
+     * must not be modified while the cursor is in use.
+     */
+    public Cursor cursor();
+    
+    public interface Cursor {
+        
+        /**
+         * Advance to the next entry.
+         * 
+         * @return false if there are no more entries.
+         */
+        public boolean next();
+        
+        public long getHash();
+        
+        public int getOffset();
+    }
+}
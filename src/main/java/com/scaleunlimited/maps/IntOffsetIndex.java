@@ -0,0 +1,114 @@
+package com.scaleunlimited.maps;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+/**
+ * Offset index for 32-bit hashes, using a fastutil int->int map.
+ *
+ */
+class IntOffsetIndex implements IOffsetIndex {
+
+    private Int2IntOpenHashMap _hashToOffset;
+    private int _expectedSize;
+    
+    public IntOffsetIndex(int expectedSize) {
+        _hashToOffset = new Int2IntOpenHashMap(expectedSize);
+        _hashToOffset.defaultReturnValue(MISSING_OFFSET);
+        _expectedSize = expectedSize;
+    }
+    
+    @Override
+    public int get(long hash) {
+        return _hashToOffset.get((int)hash);
+    }
+
+    @Override
+    public int put(long hash, int offset) {
+        return _hashToOffset.put((int)hash, offset);
+    }
+
+    @Override
+    public int remove(long hash) {
+        return _hashToOffset.remove((int)hash);
+    }
+
+    @Override
+    public boolean containsKey(long hash) {
+        return _hashToOffset.containsKey((int)hash);
+    }
+
+    @Override
+    public int size() {
+        return _hashToOffset.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return _hashToOffset.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        _hashToOffset.clear();
+    }
+
+    @Override
+    public void shiftOffsets(OffsetShifts shifts) {
+        // Replacing the value for an existing key doesn't change the table's structure,
+        // so it's safe to do while iterating.
+        IntIterator iter = _hashToOffset.keySet().iterator();
+        while (iter.hasNext()) {
+            int hash = iter.nextInt();
+            _hashToOffset.put(hash, shifts.apply(_hashToOffset.get(hash)));
+        }
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new Cursor() {
+            private IntIterator _iter = _hashToOffset.keySet().iterator();
+            private int _hash;
+            
+            @Override
+            public boolean next() {
+                if (!_iter.hasNext()) {
+                    return false;
+                }
+                
+                _hash = _iter.nextInt();
+                return true;
+            }
+
+            @Override
+            public long getHash() {
+                return _hash;
+            }
+
+            @Override
+            public int getOffset() {
+                return _hashToOffset.get(_hash);
+            }
+        };
+    }
+
+    @Override
+    public void ensureCapacity(int numEntries) {
+        if (numEntries <= Math.max(_expectedSize, _hashToOffset.size())) {
+            return;
+        }
+        
+        // fastutil doesn't let us grow the table directly, so copy everything into
+        // a new map that's big enough.
+        Int2IntOpenHashMap newMap = new Int2IntOpenHashMap(numEntries);
+        newMap.defaultReturnValue(MISSING_OFFSET);
+        IntIterator iter = _hashToOffset.keySet().iterator();
+        while (iter.hasNext()) {
+            int hash = iter.nextInt();
+            newMap.put(hash, _hashToOffset.get(hash));
+        }
+        
+        _hashToOffset = newMap;
+        _expectedSize = numEntries;
+    }
+}
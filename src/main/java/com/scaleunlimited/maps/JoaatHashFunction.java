@@ -0,0 +1,24 @@
+package com.scaleunlimited.maps;
+
+/**
+ * The original 32-bit Jenkins one-at-a-time hash. This is the default for {@link StringMap}
+ * and {@link StringSet}, since it's what all previously serialized data was written with.
+ *
+ */
+public class JoaatHashFunction implements IHashFunction {
+
+    @Override
+    public int getNumBits() {
+        return 32;
+    }
+
+    @Override
+    public long hash(byte[] b, int offset, int length) {
+        return HashUtils.getIntHash(b, offset, length);
+    }
+
+    @Override
+    public long hash(CharSequence s) {
+        return HashUtils.getIntHash(s);
+    }
+}
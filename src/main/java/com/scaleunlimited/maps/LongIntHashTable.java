@@ -0,0 +1,238 @@
+package com.scaleunlimited.maps;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing (linear probing) hash table that maps a 64-bit hash to a non-negative
+ * int offset. We use a MISSING_OFFSET value to mark empty slots, so there's no separate
+ * array of "used" flags - each slot is just 12 bytes.
+ * 
+ * Removal shifts later entries back into the hole, versus leaving a tombstone, so lookups
+ * never slow down after lots of churn.
+ *
+ */
+class LongIntHashTable implements IOffsetIndex {
+
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MIN_CAPACITY = 16;
+    
+    private long[] _keys;
+    private int[] _values;
+    private int _mask;
+    private int _maxFill;
+    private int _size;
+    
+    public LongIntHashTable(int expectedSize) {
+        allocate(getCapacity(expectedSize));
+    }
+    
+    /**
+     * @return power of two capacity for <expectedSize> entries, which is also what
+     * {@link SerializedOffsetIndex} uses.
+     */
+    static int getCapacity(int expectedSize) {
+        long minCapacity = Math.max(MIN_CAPACITY, (long)Math.ceil(expectedSize / LOAD_FACTOR));
+        if (minCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Too many entries for hash table: " + expectedSize);
+        }
+        
+        return Integer.highestOneBit((int)minCapacity - 1) << 1;
+    }
+    
+    private void allocate(int capacity) {
+        _keys = new long[capacity];
+        _values = new int[capacity];
+        Arrays.fill(_values, MISSING_OFFSET);
+        _mask = capacity - 1;
+        _maxFill = (int)(capacity * LOAD_FACTOR);
+    }
+    
+    private int slot(long hash) {
+        return slot(hash, _mask);
+    }
+    
+    static int slot(long hash, int mask) {
+        // The hash might only have good bits at the top (or bottom), so mix them all together.
+        int h = (int)(hash ^ (hash >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+    
+    @Override
+    public int get(long hash) {
+        // Read our state once, and never probe more than every slot, so that a lookup which
+        // races with a writer (see ConcurrentStringSet) still terminates.
+        long[] keys = _keys;
+        int[] values = _values;
+        int mask = _mask;
+        int pos = slot(hash, mask);
+        for (int i = 0; i <= mask; i++) {
+            int value = values[pos];
+            if (value == MISSING_OFFSET) {
+                break;
+            } else if (keys[pos] == hash) {
+                return value;
+            }
+            
+            pos = (pos + 1) & mask;
+        }
+        
+        return MISSING_OFFSET;
+    }
+
+    @Override
+    public int put(long hash, int offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset can't be negative: " + offset);
+        }
+        
+        int pos = slot(hash);
+        while (_values[pos] != MISSING_OFFSET) {
+            if (_keys[pos] == hash) {
+                int result = _values[pos];
+                _values[pos] = offset;
+                return result;
+            }
+            
+            pos = (pos + 1) & _mask;
+        }
+        
+        _keys[pos] = hash;
+        _values[pos] = offset;
+        if (++_size > _maxFill) {
+            rehash(_keys.length * 2);
+        }
+        
+        return MISSING_OFFSET;
+    }
+
+    @Override
+    public int remove(long hash) {
+        int pos = slot(hash);
+        while (_values[pos] != MISSING_OFFSET) {
+            if (_keys[pos] == hash) {
+                int result = _values[pos];
+                shiftEntries(pos);
+                _size -= 1;
+                return result;
+            }
+            
+            pos = (pos + 1) & _mask;
+        }
+        
+        return MISSING_OFFSET;
+    }
+    
+    /**
+     * Fill the hole at <pos> by moving back any following entries that would
+     * otherwise no longer be reachable from their home slot.
+     */
+    private void shiftEntries(int pos) {
+        while (true) {
+            int last = pos;
+            pos = (pos + 1) & _mask;
+            
+            while (true) {
+                if (_values[pos] == MISSING_OFFSET) {
+                    _values[last] = MISSING_OFFSET;
+                    return;
+                }
+                
+                // We can move the entry at pos back to last if its home slot isn't
+                // in the (circular) range (last, pos].
+                int home = slot(_keys[pos]);
+                if (last <= pos ? (last >= home || home > pos) : (last >= home && home > pos)) {
+                    break;
+                }
+                
+                pos = (pos + 1) & _mask;
+            }
+            
+            _keys[last] = _keys[pos];
+            _values[last] = _values[pos];
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = _keys;
+        int[] oldValues = _values;
+        allocate(newCapacity);
+        
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != MISSING_OFFSET) {
+                int pos = slot(oldKeys[i]);
+                while (_values[pos] != MISSING_OFFSET) {
+                    pos = (pos + 1) & _mask;
+                }
+                
+                _keys[pos] = oldKeys[i];
+                _values[pos] = oldValues[i];
+            }
+        }
+    }
+    
+    @Override
+    public boolean containsKey(long hash) {
+        return get(hash) != MISSING_OFFSET;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(_values, MISSING_OFFSET);
+        _size = 0;
+    }
+
+    @Override
+    public void shiftOffsets(OffsetShifts shifts) {
+        for (int i = 0; i < _values.length; i++) {
+            if (_values[i] != MISSING_OFFSET) {
+                _values[i] = shifts.apply(_values[i]);
+            }
+        }
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new Cursor() {
+            private int _pos = -1;
+            
+            @Override
+            public boolean next() {
+                while (++_pos < _values.length) {
+                    if (_values[_pos] != MISSING_OFFSET) {
+                        return true;
+                    }
+                }
+                
+                return false;
+            }
+
+            @Override
+            public long getHash() {
+                return _keys[_pos];
+            }
+
+            @Override
+            public int getOffset() {
+                return _values[_pos];
+            }
+        };
+    }
+
+    @Override
+    public void ensureCapacity(int numEntries) {
+        int capacity = getCapacity(numEntries);
+        if (capacity > _keys.length) {
+            rehash(capacity);
+        }
+    }
+}
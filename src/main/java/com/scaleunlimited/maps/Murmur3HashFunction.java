@@ -0,0 +1,62 @@
+package com.scaleunlimited.maps;
+
+/**
+ * Murmur3 hash, which processes multiple bytes at a time and has much better distribution
+ * than JOAAT. The 64-bit version is what you want for maps with tens of millions of entries,
+ * since then very few keys wind up in the collision map.
+ *
+ */
+public class Murmur3HashFunction implements IHashFunction {
+
+    private static final int DEFAULT_SEED = 0;
+    
+    private final int _numBits;
+    private final int _seed;
+    
+    public Murmur3HashFunction() {
+        this(64);
+    }
+    
+    /**
+     * @param numBits 32 or 64
+     */
+    public Murmur3HashFunction(int numBits) {
+        this(numBits, DEFAULT_SEED);
+    }
+    
+    /**
+     * @param numBits 32 or 64
+     * @param seed initial hash value
+     */
+    public Murmur3HashFunction(int numBits, int seed) {
+        if ((numBits != 32) && (numBits != 64)) {
+            throw new IllegalArgumentException("Number of bits must be 32 or 64: " + numBits);
+        }
+        
+        _numBits = numBits;
+        _seed = seed;
+    }
+    
+    @Override
+    public int getNumBits() {
+        return _numBits;
+    }
+
+    @Override
+    public long hash(byte[] b, int offset, int length) {
+        if (_numBits == 32) {
+            return HashUtils.getMurmur3IntHash(b, offset, length, _seed);
+        } else {
+            return HashUtils.getMurmur3LongHash(b, offset, length, _seed & 0x0FFFFFFFFL);
+        }
+    }
+
+    @Override
+    public long hash(CharSequence s) {
+        if (_numBits == 32) {
+            return HashUtils.getMurmur3IntHash(s, _seed);
+        } else {
+            return HashUtils.getMurmur3LongHash(s, _seed & 0x0FFFFFFFFL);
+        }
+    }
+}
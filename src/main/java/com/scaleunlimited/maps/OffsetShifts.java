@@ -0,0 +1,54 @@
+package com.scaleunlimited.maps;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Record of how far data was moved down during a compaction. Each run starts at some
+ * (pre-compaction) offset, and everything from there up to the start of the next run
+ * was shifted down by the same amount. The shift amount only increases, since each
+ * gap of dead bytes adds to it.
+ *
+ */
+class OffsetShifts {
+
+    private IntArrayList _runStarts;
+    private IntArrayList _runShifts;
+    
+    public OffsetShifts() {
+        _runStarts = new IntArrayList();
+        _runShifts = new IntArrayList();
+    }
+    
+    /**
+     * Data at <runStart> (and up to the next run) is being shifted down by <shift> bytes.
+     */
+    public void add(int runStart, int shift) {
+        _runStarts.add(runStart);
+        _runShifts.add(shift);
+    }
+    
+    public boolean isEmpty() {
+        return _runStarts.isEmpty();
+    }
+    
+    /**
+     * @return the new location for data that was at <offset>.
+     */
+    public int apply(int offset) {
+        // Binary search for the last run that starts at or before offset.
+        int low = 0;
+        int high = _runStarts.size() - 1;
+        int shift = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (_runStarts.getInt(mid) <= offset) {
+                shift = _runShifts.getInt(mid);
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        
+        return offset - shift;
+    }
+}
@@ -0,0 +1,274 @@
+package com.scaleunlimited.maps;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * An {@link IOffsetIndex} that works directly from its serialized form, which is an open-addressing
+ * (linear probing) table in a ByteBuffer - typically a read-only slice of a memory-mapped file. This
+ * lets a {@link StringMap} or {@link StringSet} that was written along with its index be loaded
+ * without hashing every string, and without building a private copy of the index on the heap.
+ *
+ * The first change (put, remove, etc) copies the entries into a regular index, and from then on
+ * everything goes to that index, the same as the first write to a mapped block of a
+ * {@link DirectByteArena}. Lookups only use absolute gets, so several threads can safely read
+ * from the same buffer.
+ *
+ * The serialized form is the number of hash bits (32 or 64), the capacity (a power of two), the
+ * number of entries, and then the capacity keys (ints or longs) followed by the capacity offsets,
+ * where an empty slot has an offset of MISSING_OFFSET.
+ *
+ */
+class SerializedOffsetIndex implements IOffsetIndex {
+
+    private final int _numBits;
+    private final int _size;
+    private final int _mask;
+    private final int _offsetsStart;
+
+    private ByteBuffer _table;
+    private IOffsetIndex _index;
+
+    private SerializedOffsetIndex(int numBits, int capacity, int size, ByteBuffer table) {
+        _numBits = numBits;
+        _size = size;
+        _mask = capacity - 1;
+        _offsetsStart = capacity * getKeySize(numBits);
+        _table = table;
+    }
+
+    /**
+     * Write the entries in <index> in our serialized form, which can then be loaded via
+     * {@link #read(DataInput, int)} or {@link #map(RandomAccessFile, int)}.
+     *
+     * @param numBits number of bits in the hashes (32 or 64)
+     */
+    public static void write(DataOutput out, IOffsetIndex index, int numBits) throws IOException {
+        int size = index.size();
+        int capacity = LongIntHashTable.getCapacity(size);
+        ByteBuffer table = ByteBuffer.allocate(getTableSize(numBits, capacity));
+        SerializedOffsetIndex result = new SerializedOffsetIndex(numBits, capacity, size, table);
+        for (int pos = 0; pos < capacity; pos++) {
+            table.putInt(result.getOffsetIndex(pos), MISSING_OFFSET);
+        }
+
+        IOffsetIndex.Cursor cursor = index.cursor();
+        while (cursor.next()) {
+            long hash = result.normalize(cursor.getHash());
+            int pos = LongIntHashTable.slot(hash, result._mask);
+            while (table.getInt(result.getOffsetIndex(pos)) != MISSING_OFFSET) {
+                pos = (pos + 1) & result._mask;
+            }
+
+            if (numBits == 32) {
+                table.putInt(pos * 4, (int)hash);
+            } else {
+                table.putLong(pos * 8, hash);
+            }
+
+            table.putInt(result.getOffsetIndex(pos), cursor.getOffset());
+        }
+
+        out.writeInt(numBits);
+        out.writeInt(capacity);
+        out.writeInt(size);
+        out.write(table.array());
+    }
+
+    /**
+     * Read an index that was written by {@link #write(DataOutput, IOffsetIndex, int)}, as one
+     * block of bytes.
+     *
+     * @param numBits number of bits in the hashes that we expect, which has to match what was written.
+     */
+    public static SerializedOffsetIndex read(DataInput in, int numBits) throws IOException {
+        int capacity = readHeader(in, numBits);
+        int size = in.readInt();
+        byte[] table = new byte[getTableSize(numBits, capacity)];
+        in.readFully(table);
+        return new SerializedOffsetIndex(numBits, capacity, size, ByteBuffer.wrap(table));
+    }
+
+    /**
+     * Map an index that was written by {@link #write(DataOutput, IOffsetIndex, int)}, starting at
+     * the current position of <file>. When this returns, the file is positioned after the index, and
+     * it can be closed without affecting the mapping.
+     *
+     * @param numBits number of bits in the hashes that we expect, which has to match what was written.
+     */
+    public static SerializedOffsetIndex map(RandomAccessFile file, int numBits) throws IOException {
+        int capacity = readHeader(file, numBits);
+        int size = file.readInt();
+        int tableSize = getTableSize(numBits, capacity);
+        long tableStart = file.getFilePointer();
+        ByteBuffer table = file.getChannel().map(MapMode.READ_ONLY, tableStart, tableSize);
+        file.seek(tableStart + tableSize);
+        return new SerializedOffsetIndex(numBits, capacity, size, table);
+    }
+
+    private static int readHeader(DataInput in, int numBits) throws IOException {
+        int serializedNumBits = in.readInt();
+        if (serializedNumBits != numBits) {
+            throw new IOException(String.format("Index has %d-bit hashes, but hash function generates %d bits", serializedNumBits, numBits));
+        }
+
+        int capacity = in.readInt();
+        if ((capacity <= 0) || (Integer.bitCount(capacity) != 1)) {
+            throw new IOException("Data corruption - invalid index capacity: " + capacity);
+        }
+
+        return capacity;
+    }
+
+    private static int getKeySize(int numBits) {
+        return numBits / 8;
+    }
+
+    private static int getTableSize(int numBits, int capacity) throws IOException {
+        long result = (long)capacity * (getKeySize(numBits) + 4);
+        if (result > Integer.MAX_VALUE) {
+            throw new IOException("Index is too big to serialize: " + capacity);
+        }
+
+        return (int)result;
+    }
+
+    private int getOffsetIndex(int pos) {
+        return _offsetsStart + (pos * 4);
+    }
+
+    /**
+     * 32-bit hashes are stored as ints, the same as {@link IntOffsetIndex}.
+     */
+    private long normalize(long hash) {
+        return _numBits == 32 ? (int)hash : hash;
+    }
+
+    private long getKey(int pos) {
+        return _numBits == 32 ? _table.getInt(pos * 4) : _table.getLong(pos * 8);
+    }
+
+    /**
+     * @return the regular index that we use once anything changes, after copying our entries to it.
+     */
+    private IOffsetIndex getIndex() {
+        if (_index == null) {
+            IOffsetIndex index = (_numBits == 32) ? new IntOffsetIndex(_size) : new LongIntHashTable(_size);
+            for (int pos = 0; pos <= _mask; pos++) {
+                int offset = _table.getInt(getOffsetIndex(pos));
+                if (offset != MISSING_OFFSET) {
+                    index.put(getKey(pos), offset);
+                }
+            }
+
+            _index = index;
+            _table = null;
+        }
+
+        return _index;
+    }
+
+    @Override
+    public int get(long hash) {
+        if (_index != null) {
+            return _index.get(hash);
+        }
+
+        hash = normalize(hash);
+        int pos = LongIntHashTable.slot(hash, _mask);
+        while (true) {
+            int offset = _table.getInt(getOffsetIndex(pos));
+            if (offset == MISSING_OFFSET) {
+                return MISSING_OFFSET;
+            } else if (getKey(pos) == hash) {
+                return offset;
+            }
+
+            pos = (pos + 1) & _mask;
+        }
+    }
+
+    @Override
+    public int put(long hash, int offset) {
+        return getIndex().put(hash, offset);
+    }
+
+    @Override
+    public int remove(long hash) {
+        return getIndex().remove(hash);
+    }
+
+    @Override
+    public boolean containsKey(long hash) {
+        return get(hash) != MISSING_OFFSET;
+    }
+
+    @Override
+    public int size() {
+        return _index != null ? _index.size() : _size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        // No point in copying everything, just to remove it.
+        if (_index == null) {
+            _index = (_numBits == 32) ? new IntOffsetIndex(0) : new LongIntHashTable(0);
+            _table = null;
+        } else {
+            _index.clear();
+        }
+    }
+
+    @Override
+    public void ensureCapacity(int numEntries) {
+        getIndex().ensureCapacity(numEntries);
+    }
+
+    @Override
+    public void shiftOffsets(OffsetShifts shifts) {
+        getIndex().shiftOffsets(shifts);
+    }
+
+    @Override
+    public Cursor cursor() {
+        if (_index != null) {
+            return _index.cursor();
+        }
+
+        return new Cursor() {
+            private int _pos = -1;
+            private int _offset;
+
+            @Override
+            public boolean next() {
+                while (++_pos <= _mask) {
+                    _offset = _table.getInt(getOffsetIndex(_pos));
+                    if (_offset != MISSING_OFFSET) {
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+
+            @Override
+            public long getHash() {
+                return getKey(_pos);
+            }
+
+            @Override
+            public int getOffset() {
+                return _offset;
+            }
+        };
+    }
+}
@@ -0,0 +1,197 @@
+package com.scaleunlimited.maps;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A map from a string to a long value, which (unlike a Map&lt;String, Long&gt;) never boxes
+ * the values, and doesn't create a String for each key. Keys are stored as UTF-8 bytes in an
+ * {@link IByteArena}, the same as a {@link StringMap}, and the values are in a parallel long[].
+ *
+ * This is mostly for counting, e.g. the terms in a document:
+ *
+ * <pre>
+ * StringLongMap counts = new StringLongMap();
+ * for (String term : parser) {
+ *     counts.addTo(term, 1);
+ * }
+ * </pre>
+ *
+ * Entries can't be removed, other than via {@link #clear()}, which keeps the allocated
+ * storage so the map can be cheaply reused.
+ */
+public class StringLongMap extends BaseStringPrimitiveMap {
+
+    private long[] _values;
+
+    public StringLongMap() {
+        this(false);
+    }
+
+    /**
+     * @param smallHash only generate 256 unique hash values, for testing.
+     */
+    public StringLongMap(boolean smallHash) {
+        this(smallHash, new ByteArena(), new JoaatHashFunction());
+    }
+
+    /**
+     * @param hashFunction how to hash keys.
+     */
+    public StringLongMap(IHashFunction hashFunction) {
+        this(false, new ByteArena(), hashFunction);
+    }
+
+    /**
+     * @param smallHash only generate 256 unique hash values, for testing.
+     * @param keyData where to store the key bytes, e.g. a {@link DirectByteArena} to keep them off-heap.
+     * @param hashFunction how to hash keys.
+     */
+    public StringLongMap(boolean smallHash, IByteArena keyData, IHashFunction hashFunction) {
+        super(smallHash, keyData, hashFunction);
+    }
+
+    public boolean containsKey(CharSequence key) {
+        return findEntry(key) != MISSING_ENTRY;
+    }
+
+    public boolean containsKey(byte[] b, int offset, int length) {
+        return findEntry(b, offset, length) != MISSING_ENTRY;
+    }
+
+    /**
+     * @return value for <key>, or zero if it doesn't exist.
+     */
+    public long get(CharSequence key) {
+        return get(key, 0);
+    }
+
+    /**
+     * @return value for <key>, or <defaultValue> if it doesn't exist.
+     */
+    public long get(CharSequence key, long defaultValue) {
+        int entry = findEntry(key);
+        return entry == MISSING_ENTRY ? defaultValue : _values[entry];
+    }
+
+    /**
+     * @return value for the key with UTF-8 bytes b[offset...offset + length), or zero if it doesn't exist.
+     */
+    public long get(byte[] b, int offset, int length) {
+        int entry = findEntry(b, offset, length);
+        return entry == MISSING_ENTRY ? 0 : _values[entry];
+    }
+
+    /**
+     * @return previous value for <key>, or zero if it didn't exist.
+     */
+    public long put(CharSequence key, long value) {
+        int entry = findOrAddEntry(key);
+        long result = _values[entry];
+        _values[entry] = value;
+        return result;
+    }
+
+    /**
+     * Add <delta> to the value for <key>, where a new key starts with a value of zero.
+     *
+     * @return the new value.
+     */
+    public long addTo(CharSequence key, long delta) {
+        int entry = findOrAddEntry(key);
+        _values[entry] += delta;
+        return _values[entry];
+    }
+
+    /**
+     * Same as {@link #addTo(CharSequence, long)}, for the key with UTF-8 bytes b[offset...offset + length).
+     */
+    public long addTo(byte[] b, int offset, int length, long delta) {
+        int entry = findOrAddEntry(b, offset, length);
+        _values[entry] += delta;
+        return _values[entry];
+    }
+
+    /**
+     * Cursor over the entries, in the order they were added, which doesn't create a String
+     * for the key (or copy any bytes, if the key is in one block of the arena).
+     *
+     * The map must not be modified while the cursor is in use, other than via {@link Cursor#setValue(long)}.
+     */
+    public class Cursor {
+        private int _entry = -1;
+        private ByteSlice _key = new ByteSlice();
+
+        /**
+         * Advance to the next entry.
+         *
+         * @return false if there are no more entries.
+         */
+        public boolean next() {
+            if (_entry + 1 < size()) {
+                _entry += 1;
+                StringLongMap.this.getKey(_entry, _key);
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        /**
+         * @return UTF-8 bytes of the current key, which are only valid until the next
+         * call to next().
+         */
+        public ByteSlice getKey() {
+            return _key;
+        }
+
+        /**
+         * @return the current key, as a String.
+         */
+        public String getKeyAsString() {
+            return StringLongMap.this.getKey(_entry);
+        }
+
+        public long getValue() {
+            return _values[_entry];
+        }
+
+        public void setValue(long value) {
+            _values[_entry] = value;
+        }
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    @Override
+    protected void ensureValueCapacity(int numEntries) {
+        if (_values == null) {
+            _values = new long[numEntries];
+        } else if (_values.length < numEntries) {
+            _values = Arrays.copyOf(_values, numEntries);
+        }
+    }
+
+    @Override
+    protected void initValue(int entry) {
+        _values[entry] = 0;
+    }
+
+    @Override
+    protected void writeValues(DataOutput out, int numEntries) throws IOException {
+        for (int i = 0; i < numEntries; i++) {
+            out.writeLong(_values[i]);
+        }
+    }
+
+    @Override
+    protected void readValues(DataInput in, int numEntries) throws IOException {
+        for (int i = 0; i < numEntries; i++) {
+            _values[i] = in.readLong();
+        }
+    }
+}
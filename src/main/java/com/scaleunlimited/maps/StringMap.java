@@ -1,108 +1,239 @@
 package com.scaleunlimited.maps;
 
-import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
-
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.util.Arrays;
+import java.io.RandomAccessFile;
+import java.util.AbstractCollection;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.hadoop.io.Writable;
 
 /**
- * A Map<String, String> that uses fastutil for native type->native type mapping, and a byte array for
- * storing the UTF-8 bytes for key/value pairs. This makes it much more efficient for storing lots of
- * small strings, and it's very fast to serialize/deserialize.
+ * A Map<String, String> that uses a native type->native type hash table (fastutil for 32-bit hashes, or
+ * our own long->int table for 64-bit hashes), and a {@link ByteArena} for storing the UTF-8 bytes for
+ * key/value pairs. This makes it much more efficient for storing lots of small strings, and it's very
+ * fast to serialize/deserialize.
  *
  */
 public class StringMap implements Map<String, String>, Writable {
 
-    // Value returned by fastutil when we request an int that doesn't exist.
-    private static final int MISSING_HASH_VALUE = -1;
+    // Value returned by the offset index when we request a hash that doesn't exist.
+    private static final int MISSING_HASH_VALUE = IOffsetIndex.MISSING_OFFSET;
 
     private static final int DEFAULT_ENTRY_COUNT = 1000;
-    private static final int STRING_DATA_BLOCKSIZE = 64 * 1024;
-    
-    // FUTURE have multiple stringData arrays, each up to a max size, and determine which one via offset % block size.
-    //        That would avoid having one gigantic block of memory that we're expanding (and copying to).
-    // FUTURE do in-place put if new key/value fit where old key/value was located.
-    // FUTURE make it more efficient by skipping conversion of string to byte array, unless the key contains a
-    //        character > 0x7F (which means it's not something that fits in one byte in UTF-8)
-    // FUTURE track empty space in data array due to removal/put that has to move. If it gets too big relative to
-    //        total file size, do a compaction. Walk data, generate up to say 10K offset/shift values (where shift
-    //        keeps increasing) - move the data as we do this. Then walk the map, and do binary search into offsets,
-    //        adjusting value by shift amount.
-    
-    private Int2IntOpenHashMap _hashToOffsets;
+    
+    // Flags in the first byte of our serialized data. This used to be just a boolean
+    // for smallHash, so older data is still readable.
+    private static final int SMALL_HASH_FLAG = 0x01;
+    private static final int INDEX_FLAG = 0x02;
+    
+    public static final float DEFAULT_COMPACTION_THRESHOLD = 0.5f;
+    
+    // Don't bother compacting until we'd reclaim at least this many bytes.
+    private static final int MIN_DEAD_BYTES_FOR_COMPACTION = 64 * 1024;
+    
+    private IHashFunction _hashFunction;
+    private IOffsetIndex _hashToOffsets;
     private Map<String, String> _collisionMap;
-    private byte[] _stringData;
-    private int _curStringOffset;
+    private IByteArena _stringData;
+    private byte[] _scratch;
     private boolean _smallHash; // for testing
     
+    // Bytes in _stringData that are no longer used, due to removals and updates.
+    private int _deadBytes;
+    private float _compactionThreshold;
+    private int _compactionCount;
+    
     public StringMap() {
         this(false);
     }
 
     public StringMap(boolean smallHash) {
-        reset(smallHash, DEFAULT_ENTRY_COUNT, 0, STRING_DATA_BLOCKSIZE);
+        this(smallHash, ByteArena.DEFAULT_BLOCK_SIZE);
+    }
+    
+    /**
+     * @param smallHash only generate 256 unique hash values, for testing.
+     * @param blockSize size of each block in the string data arena (must be a power of two).
+     */
+    public StringMap(boolean smallHash, int blockSize) {
+        this(smallHash, new ByteArena(blockSize));
+    }
+    
+    /**
+     * @param smallHash only generate 256 unique hash values, for testing.
+     * @param stringData where to store the key/value bytes, e.g. a {@link DirectByteArena} to keep them off-heap.
+     */
+    public StringMap(boolean smallHash, IByteArena stringData) {
+        this(smallHash, stringData, new JoaatHashFunction());
+    }
+    
+    /**
+     * @param hashFunction how to hash strings, e.g. a 64-bit {@link Murmur3HashFunction} for
+     * very large maps, where a 32-bit hash would put lots of entries into the collision map.
+     */
+    public StringMap(IHashFunction hashFunction) {
+        this(false, new ByteArena(), hashFunction);
+    }
+    
+    /**
+     * @param smallHash only generate 256 unique hash values, for testing.
+     * @param stringData where to store the key/value bytes, e.g. a {@link DirectByteArena} to keep them off-heap.
+     * @param hashFunction how to hash strings. If it generates 64-bit values, then we use a long->offset
+     * hash table.
+     */
+    public StringMap(boolean smallHash, IByteArena stringData, IHashFunction hashFunction) {
+        _hashFunction = hashFunction;
+        _compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+        // The key and value strings are stored as null-terminated UTF-8 bytes
+        _stringData = stringData;
+        _scratch = new byte[256];
+        reset(smallHash, DEFAULT_ENTRY_COUNT, 0);
+    }
+    
+    /**
+     * Create a map from a file that was written by {@link #write(DataOutput, boolean)}, where the
+     * key/value data is memory-mapped versus being read onto the heap, and the file can be shared
+     * (via the page cache) by multiple processes. If the file includes the hash table, then it's
+     * mapped as well, so nothing gets rehashed. Otherwise the hash table is rebuilt from the data.
+     * 
+     * @param file previously serialized StringMap
+     * @return map that uses a mapped {@link DirectByteArena} for its key/value data.
+     * @throws IOException
+     */
+    public static StringMap map(File file) throws IOException {
+        return map(file, new JoaatHashFunction());
+    }
+    
+    /**
+     * Same as {@link #map(File)}, for data that was written using <hashFunction>.
+     */
+    public static StringMap map(File file, IHashFunction hashFunction) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        
+        try {
+            int flags = raf.readByte();
+            boolean smallHash = (flags & SMALL_HASH_FLAG) != 0;
+            boolean hasIndex = (flags & INDEX_FLAG) != 0;
+            int numHashEntries = raf.readInt();
+            int numCollisionEntries = raf.readInt();
+            int stringDataSize = raf.readInt();
+            
+            long dataStart = raf.getFilePointer();
+            IByteArena stringData = DirectByteArena.map(raf.getChannel(), dataStart, stringDataSize, ByteArena.DEFAULT_BLOCK_SIZE);
+            StringMap result = new StringMap(smallHash, stringData, hashFunction);
+            result.reset(smallHash, hasIndex ? 0 : numHashEntries, numCollisionEntries);
+            
+            raf.seek(dataStart + stringDataSize);
+            if (hasIndex) {
+                int deadBytes = raf.readInt();
+                result.setIndex(SerializedOffsetIndex.map(raf, hashFunction.getNumBits()), numHashEntries, deadBytes);
+            } else {
+                result.rebuildHash();
+            }
+            
+            result.readCollisions(raf, numCollisionEntries);
+            return result;
+        } finally {
+            raf.close();
+        }
     }
     
-    private void reset(boolean smallHash, int numHashEntries, int numCollisionEntries, int stringDataSize) {
+    private void reset(boolean smallHash, int numHashEntries, int numCollisionEntries) {
         _smallHash = smallHash;
         
-        _hashToOffsets = new Int2IntOpenHashMap(numHashEntries);
-        _hashToOffsets.defaultReturnValue(MISSING_HASH_VALUE);
-        _collisionMap = new HashMap<String, String>(numCollisionEntries);
+        if (_hashFunction.getNumBits() == 32) {
+            _hashToOffsets = new IntOffsetIndex(numHashEntries);
+        } else {
+            _hashToOffsets = new LongIntHashTable(numHashEntries);
+        }
         
-        // The key and value strings are stored as null-termianted UTF-8 bytes
-        _stringData = new byte[stringDataSize];
-        _curStringOffset = 0;
+        _collisionMap = new HashMap<String, String>(numCollisionEntries);
+        _deadBytes = 0;
     }
     
     @Override
     public void readFields(DataInput in) throws IOException {
-        boolean smallHash = in.readBoolean();
+        int flags = in.readByte();
+        boolean smallHash = (flags & SMALL_HASH_FLAG) != 0;
+        boolean hasIndex = (flags & INDEX_FLAG) != 0;
         int numHashEntries = in.readInt();
         int numCollisionEntries = in.readInt();
         int stringDataSize = in.readInt();
         
-        reset(smallHash, numHashEntries, numCollisionEntries, stringDataSize);
+        reset(smallHash, hasIndex ? 0 : numHashEntries, numCollisionEntries);
+        
+        _stringData.readFields(in, stringDataSize);
+        if (hasIndex) {
+            int deadBytes = in.readInt();
+            setIndex(SerializedOffsetIndex.read(in, _hashFunction.getNumBits()), numHashEntries, deadBytes);
+        } else {
+            rebuildHash();
+        }
         
-        in.readFully(_stringData, 0, stringDataSize);
+        readCollisions(in, numCollisionEntries);
+    }
+    
+    /**
+     * Use the hash table that was serialized with the data, versus rebuilding it.
+     */
+    private void setIndex(IOffsetIndex index, int numHashEntries, int deadBytes) throws IOException {
+        if (index.size() != numHashEntries) {
+            throw new IOException("Data corruption - index has the wrong number of entries!");
+        }
+        
+        if ((deadBytes < 0) || (deadBytes > _stringData.size())) {
+            throw new IOException("Data corruption - invalid number of dead bytes: " + deadBytes);
+        }
         
-        // Now we have to rebuild the hash table from the data in _stringData.
-        for (; _curStringOffset < stringDataSize; ) {
-            int keyLen = calcStringLength(_curStringOffset);
+        _hashToOffsets = index;
+        _deadBytes = deadBytes;
+    }
+    
+    private void rebuildHash() throws IOException {
+        // We have to rebuild the hash table from the data in _stringData.
+        int stringDataSize = _stringData.size();
+        int liveBytes = 0;
+        for (int curOffset = 0; curOffset < stringDataSize; ) {
+            int keyLen = _stringData.stringLength(curOffset);
             if (keyLen > 0) {
                 // only process strings we haven't deleted
-                int hash = hash(_stringData, _curStringOffset, keyLen);
-                int oldOffset = _hashToOffsets.put(hash, _curStringOffset);
+                long hash = hash(curOffset, keyLen);
+                int oldOffset = _hashToOffsets.put(hash, curOffset);
                 if (oldOffset != MISSING_HASH_VALUE) {
                     throw new IOException("Data corruption - hash already exists!");
                 }
                 
-                _curStringOffset += (keyLen + 1);
+                curOffset += (keyLen + 1);
 
                 // Skip over the value
-                int valueLen = calcStringLength(_curStringOffset);
-                _curStringOffset += (valueLen + 1);
+                int valueLen = _stringData.stringLength(curOffset);
+                curOffset += (valueLen + 1);
+                liveBytes += keyLen + 1 + valueLen + 1;
             } else {
-                _curStringOffset += 1;
+                curOffset += 1;
             }
         }
         
-        // Now read in the collision values. For each, make sure we already have a
+        _deadBytes = stringDataSize - liveBytes;
+    }
+    
+    private void readCollisions(DataInput in, int numCollisionEntries) throws IOException {
+        // Read in the collision values. For each, make sure we already have a
         // hash entry, otherwise it's an error.
         for (int i = 0; i < numCollisionEntries; i++) {
             String key = in.readUTF();
             String value = in.readUTF();
             
-            int hash = hash(key);
+            long hash = hash(key);
             if (!_hashToOffsets.containsKey(hash)) {
                 throw new IOException("Data corruption - collision entry doesn't exist in hash!");
             }
@@ -115,14 +246,35 @@ public class StringMap implements Map<String, String>, Writable {
 
     @Override
     public void write(DataOutput out) throws IOException {
-        out.writeBoolean(_smallHash);
+        write(out, false);
+    }
+    
+    /**
+     * Serialize the map, optionally including the hash table. This makes the data bigger (by
+     * about 11 bytes per entry for a 32-bit hash function, or 16 bytes for 64 bits), but
+     * {@link #map(File)} and {@link #readFields(DataInput)} can then use it directly, versus
+     * having to hash every key. So it's a good idea for maps that get saved to a file and
+     * loaded by lots of tasks, and a bad idea for maps that get shuffled.
+     * 
+     * @param out where to write the map
+     * @param includeIndex true to also write the hash table.
+     */
+    public void write(DataOutput out, boolean includeIndex) throws IOException {
+        out.writeByte((_smallHash ? SMALL_HASH_FLAG : 0) | (includeIndex ? INDEX_FLAG : 0));
         out.writeInt(_hashToOffsets.size());
         out.writeInt(_collisionMap.size());
         
-        // Write out the key & value data info. We can e-build the hash table from
-        // this array.
-        out.writeInt(_curStringOffset);
-        out.write(_stringData, 0, _curStringOffset);
+        // Write out the key & value data info. Unless we're including the hash table,
+        // it gets re-built from this array.
+        out.writeInt(_stringData.size());
+        _stringData.write(out);
+        
+        if (includeIndex) {
+            // We also need the number of dead bytes, which would otherwise be calculated
+            // while rebuilding the hash table.
+            out.writeInt(_deadBytes);
+            SerializedOffsetIndex.write(out, _hashToOffsets, _hashFunction.getNumBits());
+        }
 
         // Write out the entries we've saved in the collision set.
         for (Entry<String, String> entry : _collisionMap.entrySet()) {
@@ -131,31 +283,14 @@ public class StringMap implements Map<String, String>, Writable {
         }
     }
 
-    private int calcStringLength(int startingOffset) {
-        int curOffset = startingOffset;
-        while (_stringData[curOffset] != 0) {
-            curOffset += 1;
-        }
-        
-        return curOffset - startingOffset;
-    }
-    
-    private String getValueString(int valueOffset, int valueLen) {
-        try {
-            return new String(_stringData, valueOffset, valueLen, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException("Impossible missing charset exception", e);
-        }
-    }
-    
     /**
-     * Generate a 32-bit JOAAT hash from the bytes of <phrase>
+     * Generate a hash from the UTF-8 bytes of <phrase>, using our hash function
      * 
-     * @param phrase String to hash
-     * @return 32-bit hash
+     * @param phrase chars to hash
+     * @return 32 or 64-bit hash
      */
-    public int hash(String phrase) {
-        int result = HashUtils.getIntHash(phrase);
+    public long hash(CharSequence phrase) {
+        long result = _hashFunction.hash(phrase);
         
         if (_smallHash) {
             // only generate 256 unique hash values, for testing.
@@ -165,8 +300,17 @@ public class StringMap implements Map<String, String>, Writable {
         return result;
     }
     
-    private int hash(byte[] b, int offset, int length) {
-        int result = HashUtils.getIntHash(b, offset, length);
+    private long hash(int stringOffset, int length) {
+        if (length > _scratch.length) {
+            _scratch = new byte[Math.max(length, _scratch.length * 2)];
+        }
+        
+        _stringData.copy(stringOffset, _scratch, 0, length);
+        return hash(_scratch, 0, length);
+    }
+    
+    private long hash(byte[] b, int offset, int length) {
+        long result = _hashFunction.hash(b, offset, length);
         
         if (_smallHash) {
             // only generate 256 unique hash values, for testing.
@@ -192,169 +336,219 @@ public class StringMap implements Map<String, String>, Writable {
             String collisionValue = _collisionMap.remove(key);
             if (collisionValue != null) {
                 return collisionValue;
-            } else {
-                // FUTURE set up to reclaim space in string data block.
-                // We'd want to save the offset somewhere
-                int hash = hash((String)key);
-                int keyOffset = _hashToOffsets.remove(hash);
-                if (keyOffset != MISSING_HASH_VALUE) {
-                    // We need to clear out the entry so we don't re-add it as a string
-                    // when we de-serialize things.
-                    int keyLen = calcStringLength(keyOffset);
-                    
-                    int valueOffset = keyOffset + keyLen + 1;
-                    int valueLen = calcStringLength(valueOffset);
-                    String result = getValueString(valueOffset, valueLen);
-                    Arrays.fill(_stringData, keyOffset, keyOffset + keyLen + 1 + valueLen + 1, (byte)0);
-                    return result;
-                } else {
-                    return null;
-                }
             }
+            
+            long hash = hash((String)key);
+            int keyOffset = _hashToOffsets.get(hash);
+            if ((keyOffset == MISSING_HASH_VALUE) || !_stringData.matches(keyOffset, (String)key)) {
+                // The hash entry (if any) is for some other key.
+                return null;
+            }
+            
+            _hashToOffsets.remove(hash);
+            String result = getValue(keyOffset);
+            clearEntry(keyOffset);
+            
+            // Any collision entry with the same hash needs to take over the hash entry, otherwise
+            // we could never find it (and we'd fail the integrity check when de-serializing).
+            promoteCollisionEntry(hash);
+            
+            compactIfNeeded();
+            return result;
         } else {
             return null;
         }
     }
     
+    /**
+     * Zero out the key/value entry at <keyOffset>, so that we don't re-add it when we
+     * de-serialize things, and track the bytes as dead space.
+     */
+    private void clearEntry(int keyOffset) {
+        int keyLen = _stringData.stringLength(keyOffset);
+        int valueOffset = keyOffset + keyLen + 1;
+        int valueLen = _stringData.stringLength(valueOffset);
+        _stringData.clear(keyOffset, valueOffset + valueLen);
+        _deadBytes += keyLen + 1 + valueLen + 1;
+    }
+    
+    private void promoteCollisionEntry(long hash) {
+        if (_collisionMap.isEmpty()) {
+            return;
+        }
+        
+        Iterator<Entry<String, String>> iter = _collisionMap.entrySet().iterator();
+        while (iter.hasNext()) {
+            Entry<String, String> entry = iter.next();
+            if (hash(entry.getKey()) == hash) {
+                iter.remove();
+                appendEntry(hash, entry.getKey(), entry.getValue());
+                return;
+            }
+        }
+    }
+    
+    private void appendEntry(long hash, String key, String value) {
+        byte[] keyBytes = HashUtils.getUTF8Bytes(key);
+        byte[] valueBytes = HashUtils.getUTF8Bytes(value);
+        
+        // The arena adds new blocks as needed, so we never copy existing data.
+        int keyOffset = _stringData.appendString(keyBytes, 0, keyBytes.length);
+        _stringData.appendString(valueBytes, 0, valueBytes.length);
+        _hashToOffsets.put(hash, keyOffset);
+    }
+    
     @Override
     public void clear() {
         _hashToOffsets.clear();
         _collisionMap.clear();
+        _deadBytes = 0;
         
-        // Decrease size of byte arrays
-        if (_stringData.length > STRING_DATA_BLOCKSIZE) {
-            _stringData = new byte[STRING_DATA_BLOCKSIZE];
-        }
-        
-        _curStringOffset = 0;
+        // Release (most of) the memory used for string data.
+        _stringData.clear();
     }
 
     @Override
     public boolean containsKey(Object key) {
         if (key instanceof String) {
-            int hash = hash((String)key);
-            int keyOffset = _hashToOffsets.get(hash);
-            if (keyOffset == MISSING_HASH_VALUE) {
-                return false;
-            }
-            
-            // We might have a match...need to see if the actual string matches our stored bytes.
-            // If not, then we check the collision set.
-            byte[] stringBytes = HashUtils.getUTF8Bytes((String)key);
-            boolean matches = true;
-            for (int i = 0; (i < stringBytes.length) && matches; i++) {
-                if (stringBytes[i] != _stringData[keyOffset + i]) {
-                    matches = false;
-                }
-            }
-            
-            // If it matched all of the string bytes, make sure we've got our terminating null byte.
-            matches = matches && _stringData[keyOffset + stringBytes.length] == 0;
-            
-            // If it didn't match, see if it's in the collision set.
-            return(matches || _collisionMap.containsKey((String)key));
+            return containsKey((CharSequence)key);
         } else {
             return false;
         }
     }
 
+    /**
+     * Check if the map contains <key>, without allocating any memory (unless the
+     * key's hash has a collision).
+     * 
+     * @param key chars to check, e.g. a String or a tokenizer's reusable StringBuilder
+     * @return true if the map contains key.toString()
+     */
+    public boolean containsKey(CharSequence key) {
+        if (findKeyOffset(key) != MISSING_HASH_VALUE) {
+            return true;
+        }
+        
+        // If it didn't match, see if it's in the collision map.
+        return !_collisionMap.isEmpty() && _collisionMap.containsKey(key.toString());
+    }
+    
+    /**
+     * Check if the map contains the key with UTF-8 bytes b[offset...offset + length),
+     * without building a String.
+     */
+    public boolean containsKey(byte[] b, int offset, int length) {
+        if (findKeyOffset(b, offset, length) != MISSING_HASH_VALUE) {
+            return true;
+        }
+        
+        return !_collisionMap.isEmpty() && _collisionMap.containsKey(HashUtils.getUTF8String(b, offset, length));
+    }
+
+    /**
+     * This has to scan every entry, so it's slow for big maps.
+     */
     @Override
     public boolean containsValue(Object value) {
-        throw new UnsupportedOperationException("Not yet implemented");
+        return values().contains(value);
     }
 
     @Override
     public String get(Object key) {
-        // See if we have it in the collision map.
-        String result = _collisionMap.get(key);
-        if (result != null) {
-            return result;
-        }
-        
-        // TODO use common code to return either MISSING_HASH_VALUE,
-        // or the long offsets value if we have the key.
-        int hash = hash((String)key);
-        int keyOffset = _hashToOffsets.get(hash);
-        if (keyOffset == MISSING_HASH_VALUE) {
+        if (key instanceof String) {
+            return get((CharSequence)key);
+        } else {
             return null;
         }
+    }
 
-        byte[] stringBytes = HashUtils.getUTF8Bytes((String)key);
-        boolean matches = true;
-        for (int i = 0; (i < stringBytes.length) && matches; i++) {
-            if (stringBytes[i] != _stringData[keyOffset + i]) {
-                matches = false;
-            }
+    /**
+     * Get the value for <key>, without converting the key to a byte array. The only
+     * allocation is for the returned value String.
+     * 
+     * @param key chars to look up, e.g. a String or a tokenizer's reusable StringBuilder
+     * @return value for key.toString(), or null if it doesn't exist.
+     */
+    public String get(CharSequence key) {
+        int keyOffset = findKeyOffset(key);
+        if (keyOffset != MISSING_HASH_VALUE) {
+            return getValue(keyOffset);
         }
         
-        // If it matched all of the string bytes, make sure we've got our terminating null byte.a
-        matches = matches && _stringData[keyOffset + stringBytes.length] == 0;
-        
-        if (matches) {
-            int keyLen = stringBytes.length;
-            int valueOffset = keyOffset + keyLen + 1;
-            int valueLen = calcStringLength(valueOffset);
-            return getValueString(valueOffset, valueLen);
-        } else {
-            return _collisionMap.get(key);
-        }
+        // See if we have it in the collision map.
+        return _collisionMap.isEmpty() ? null : _collisionMap.get(key.toString());
     }
 
-    private boolean keyInHash(String key) {
-        int hash = hash(key);
-        int keyOffset = _hashToOffsets.get(hash);
-        if (keyOffset == MISSING_HASH_VALUE) {
-            return false;
+    /**
+     * Get the value for the key with UTF-8 bytes b[offset...offset + length), without
+     * building a String for the key.
+     */
+    public String get(byte[] b, int offset, int length) {
+        int keyOffset = findKeyOffset(b, offset, length);
+        if (keyOffset != MISSING_HASH_VALUE) {
+            return getValue(keyOffset);
         }
+        
+        return _collisionMap.isEmpty() ? null : _collisionMap.get(HashUtils.getUTF8String(b, offset, length));
+    }
 
-        byte[] stringBytes = HashUtils.getUTF8Bytes(key);
-        boolean matches = true;
-        for (int i = 0; (i < stringBytes.length) && matches; i++) {
-            if (stringBytes[i] != _stringData[keyOffset + i]) {
-                matches = false;
-            }
+    /**
+     * Return the offset of <key> in the string data, or MISSING_HASH_VALUE if it's
+     * not in the hash (though it might still be in the collision map).
+     */
+    private int findKeyOffset(CharSequence key) {
+        int keyOffset = _hashToOffsets.get(hash(key));
+        if ((keyOffset == MISSING_HASH_VALUE) || !_stringData.matches(keyOffset, key)) {
+            return MISSING_HASH_VALUE;
         }
         
-        // If it matched all of the string bytes, make sure we've got our terminating null byte.a
-        matches = matches && _stringData[keyOffset + stringBytes.length] == 0;
-        return matches;
+        return keyOffset;
+    }
+    
+    private int findKeyOffset(byte[] b, int offset, int length) {
+        int keyOffset = _hashToOffsets.get(hash(b, offset, length));
+        if ((keyOffset == MISSING_HASH_VALUE) || !_stringData.matches(keyOffset, b, offset, length)) {
+            return MISSING_HASH_VALUE;
+        }
+        
+        return keyOffset;
+    }
+    
+    private String getValue(int keyOffset) {
+        int valueOffset = keyOffset + _stringData.stringLength(keyOffset) + 1;
+        int valueLen = _stringData.stringLength(valueOffset);
+        return _stringData.getString(valueOffset, valueLen);
     }
     
     @Override
     public String put(String key, String value) {
-        int hash = hash(key);
+        long hash = hash(key);
         int keyOffset = _hashToOffsets.get(hash);
         if (keyOffset == MISSING_HASH_VALUE) {
             // We need to add it to the array and the hash set
-            byte[] keyBytes = HashUtils.getUTF8Bytes(key);
-            byte[] valueBytes = HashUtils.getUTF8Bytes(value);
-            
-            // Make sure we have enough space in the array.
-            int endOffset = _curStringOffset + keyBytes.length + 1 + valueBytes.length + 1;
-            if (endOffset > _stringData.length) {
-                byte[] newData = new byte[endOffset + STRING_DATA_BLOCKSIZE];
-                System.arraycopy(_stringData, 0, newData, 0, _curStringOffset);
-                _stringData = newData;
-            }
-            
-            _hashToOffsets.put(hash, _curStringOffset);
-
-            System.arraycopy(keyBytes, 0, _stringData, _curStringOffset, keyBytes.length);
-            _curStringOffset += keyBytes.length;
-            _stringData[_curStringOffset++] = 0;
-            
-            System.arraycopy(valueBytes, 0, _stringData, _curStringOffset, valueBytes.length);
-            _curStringOffset += valueBytes.length;
-            _stringData[_curStringOffset++] = 0;
+            appendEntry(hash, key, value);
 
             // There was no previous value.
             return null;
-        } else if (keyInHash(key)) {
-            // We're updating something that's in our hash. For now, just remove it and re-add it.
-            // FUTURE if new value length <= old value length, insert in-place and zero out the
-            // remaining data.
-            String result = remove(key);
-            put(key, value);
+        } else if (_stringData.matches(keyOffset, key)) {
+            // We're updating something that's in our hash.
+            int valueOffset = keyOffset + _stringData.stringLength(keyOffset) + 1;
+            int oldValueLen = _stringData.stringLength(valueOffset);
+            String result = _stringData.getString(valueOffset, oldValueLen);
+            
+            byte[] valueBytes = HashUtils.getUTF8Bytes(value);
+            if (valueBytes.length <= oldValueLen) {
+                // The new value fits where the old one was, so overwrite it, and zero out
+                // whatever is left over (which also null-terminates the new value).
+                _stringData.set(valueOffset, valueBytes, 0, valueBytes.length);
+                _stringData.clear(valueOffset + valueBytes.length, valueOffset + oldValueLen);
+                _deadBytes += oldValueLen - valueBytes.length;
+            } else {
+                clearEntry(keyOffset);
+                appendEntry(hash, key, value);
+                compactIfNeeded();
+            }
+            
             return result;
         } else {
             // We're adding a collision entry, or updating one that already exists.
@@ -362,24 +556,356 @@ public class StringMap implements Map<String, String>, Writable {
         }
     }
 
+    /**
+     * @return number of bytes used by the key/value data of entries in the hash (versus
+     * the collision map).
+     */
+    public int getLiveBytes() {
+        return _stringData.size() - _deadBytes;
+    }
+    
+    /**
+     * @return number of bytes in the key/value data that are no longer used, due to
+     * entries being removed or updated.
+     */
+    public int getDeadBytes() {
+        return _deadBytes;
+    }
+    
+    /**
+     * @return number of times we've compacted the key/value data, whether automatically
+     * or via a call to {@link #compact()}.
+     */
+    public int getCompactionCount() {
+        return _compactionCount;
+    }
+    
+    public float getCompactionThreshold() {
+        return _compactionThreshold;
+    }
+    
+    /**
+     * Set the ratio of dead bytes to total key/value data bytes that triggers an automatic
+     * compaction. A threshold of 1.0 disables automatic compaction.
+     * 
+     * @param compactionThreshold ratio between 0.0 and 1.0
+     */
+    public void setCompactionThreshold(float compactionThreshold) {
+        if ((compactionThreshold < 0.0f) || (compactionThreshold > 1.0f)) {
+            throw new IllegalArgumentException("Compaction threshold must be between 0.0 and 1.0: " + compactionThreshold);
+        }
+        
+        _compactionThreshold = compactionThreshold;
+    }
+    
+    private void compactIfNeeded() {
+        if ((_deadBytes >= MIN_DEAD_BYTES_FOR_COMPACTION)
+         && (_deadBytes > _compactionThreshold * _stringData.size())) {
+            compact();
+        }
+    }
+    
+    /**
+     * Reclaim the space used by removed/updated entries. We walk the key/value data, moving
+     * each live entry down over any dead bytes, and record where the amount we're shifting
+     * by changes. Then we walk the hash table, and adjust each offset by the shift amount
+     * for the run that contains it.
+     */
+    public void compact() {
+        OffsetShifts shifts = new OffsetShifts();
+        int stringDataSize = _stringData.size();
+        int readOffset = 0;
+        int writeOffset = 0;
+        int curShift = 0;
+        
+        while (readOffset < stringDataSize) {
+            int keyLen = _stringData.stringLength(readOffset);
+            if (keyLen == 0) {
+                readOffset += 1;
+                continue;
+            }
+            
+            int valueLen = _stringData.stringLength(readOffset + keyLen + 1);
+            int entryLen = keyLen + 1 + valueLen + 1;
+            if (readOffset - writeOffset != curShift) {
+                curShift = readOffset - writeOffset;
+                shifts.add(readOffset, curShift);
+            }
+            
+            if (curShift > 0) {
+                _stringData.move(readOffset, writeOffset, entryLen);
+            }
+            
+            readOffset += entryLen;
+            writeOffset += entryLen;
+        }
+        
+        _stringData.truncate(writeOffset);
+        if (!shifts.isEmpty()) {
+            _hashToOffsets.shiftOffsets(shifts);
+        }
+        
+        _deadBytes = 0;
+        _compactionCount += 1;
+    }
+    
+    /**
+     * Put all of the entries in <m>. We first make sure the hash table and the key/value
+     * data have room for all of them, so that neither has to grow more than once.
+     */
     @Override
     public void putAll(Map<? extends String, ? extends String> m) {
-        throw new UnsupportedOperationException("Not yet implemented");
+        long numBytes = _stringData.size();
+        for (Entry<? extends String, ? extends String> entry : m.entrySet()) {
+            numBytes += UTF8Utils.encodedLength(entry.getKey()) + 1 + UTF8Utils.encodedLength(entry.getValue()) + 1;
+        }
+        
+        _hashToOffsets.ensureCapacity(_hashToOffsets.size() + m.size());
+        _stringData.ensureCapacity((int)Math.min(Integer.MAX_VALUE, numBytes));
+        
+        for (Entry<? extends String, ? extends String> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return offset of the first key that hasn't been removed, at or after <offset>,
+     * or MISSING_HASH_VALUE if there are no more entries.
+     */
+    private int findNextEntry(int offset) {
+        // Removed entries (and the unused end of values updated in place) are zero-filled,
+        // so skip over any zero bytes.
+        int stringDataSize = _stringData.size();
+        while ((offset < stringDataSize) && (_stringData.get(offset) == 0)) {
+            offset += 1;
+        }
+        
+        return offset < stringDataSize ? offset : MISSING_HASH_VALUE;
+    }
+    
+    /**
+     * @return offset just past the value for the key at <keyOffset>
+     */
+    private int skipEntry(int keyOffset) {
+        int valueOffset = keyOffset + _stringData.stringLength(keyOffset) + 1;
+        return valueOffset + _stringData.stringLength(valueOffset) + 1;
     }
+    
+    /**
+     * Iterator over entries, first from the key/value data (in the order they were added)
+     * and then from the collision map. Iterators don't support remove(), and the map must
+     * not be modified while one is in use.
+     */
+    private abstract class EntryIterator<T> implements Iterator<T> {
+        private int _nextOffset = findNextEntry(0);
+        private Iterator<Entry<String, String>> _collisionIter = _collisionMap.entrySet().iterator();
+        
+        protected abstract T makeResult(int keyOffset);
+        
+        protected abstract T makeResult(Entry<String, String> collisionEntry);
+        
+        @Override
+        public boolean hasNext() {
+            return (_nextOffset != MISSING_HASH_VALUE) || _collisionIter.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if (_nextOffset == MISSING_HASH_VALUE) {
+                return makeResult(_collisionIter.next());
+            }
+            
+            int keyOffset = _nextOffset;
+            _nextOffset = findNextEntry(skipEntry(keyOffset));
+            return makeResult(keyOffset);
+        }
 
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Can't remove via iterator");
+        }
+    }
+    
+    /**
+     * Cursor over the UTF-8 bytes of each key and value, which doesn't create any Strings
+     * (or copy any bytes, if the key/value data is in one block) for entries in the key/value
+     * data. This makes it cheap to emit millions of entries.
+     * 
+     * <pre>
+     * StringMap.Cursor cursor = map.cursor();
+     * while (cursor.next()) {
+     *     ByteSlice key = cursor.getKey();
+     *     ByteSlice value = cursor.getValue();
+     *     ...
+     * }
+     * </pre>
+     * 
+     * The map must not be modified while the cursor is in use.
+     */
+    public class Cursor {
+        private int _nextOffset = 0;
+        private Iterator<Entry<String, String>> _collisionIter = null;
+        private ByteSlice _key = new ByteSlice();
+        private ByteSlice _value = new ByteSlice();
+        
+        /**
+         * Advance to the next entry.
+         * 
+         * @return false if there are no more entries.
+         */
+        public boolean next() {
+            if (_collisionIter == null) {
+                int keyOffset = findNextEntry(_nextOffset);
+                if (keyOffset != MISSING_HASH_VALUE) {
+                    int keyLen = _stringData.stringLength(keyOffset);
+                    int valueOffset = keyOffset + keyLen + 1;
+                    int valueLen = _stringData.stringLength(valueOffset);
+                    _stringData.getSlice(keyOffset, keyLen, _key);
+                    _stringData.getSlice(valueOffset, valueLen, _value);
+                    _nextOffset = valueOffset + valueLen + 1;
+                    return true;
+                }
+                
+                _collisionIter = _collisionMap.entrySet().iterator();
+            }
+            
+            if (_collisionIter.hasNext()) {
+                Entry<String, String> entry = _collisionIter.next();
+                byte[] keyBytes = HashUtils.getUTF8Bytes(entry.getKey());
+                byte[] valueBytes = HashUtils.getUTF8Bytes(entry.getValue());
+                _key.set(keyBytes, 0, keyBytes.length);
+                _value.set(valueBytes, 0, valueBytes.length);
+                return true;
+            } else {
+                return false;
+            }
+        }
+        
+        /**
+         * @return UTF-8 bytes of the current key, which are only valid until the next
+         * call to next().
+         */
+        public ByteSlice getKey() {
+            return _key;
+        }
+        
+        /**
+         * @return UTF-8 bytes of the current value, which are only valid until the next
+         * call to next().
+         */
+        public ByteSlice getValue() {
+            return _value;
+        }
+    }
+    
+    public Cursor cursor() {
+        return new Cursor();
+    }
+    
+    /**
+     * Create an immutable copy of this map, sorted by key, which is typically much smaller, and
+     * supports prefix and range queries. See {@link FrozenStringMap}.
+     */
+    public FrozenStringMap freeze() {
+        byte[][] keys = new byte[size()][];
+        byte[][] values = new byte[size()][];
+        int index = 0;
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            keys[index] = cursor.getKey().copyBytes();
+            values[index] = cursor.getValue().copyBytes();
+            index += 1;
+        }
+        
+        return new FrozenStringMap(FrontCodedStrings.build(keys, values));
+    }
+    
     @Override
     public Set<String> keySet() {
-        throw new UnsupportedOperationException("Not yet implemented");
+        return new AbstractSet<String>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                return new EntryIterator<String>() {
+
+                    @Override
+                    protected String makeResult(int keyOffset) {
+                        return _stringData.getString(keyOffset, _stringData.stringLength(keyOffset));
+                    }
+
+                    @Override
+                    protected String makeResult(Entry<String, String> collisionEntry) {
+                        return collisionEntry.getKey();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return StringMap.this.size();
+            }
+            
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
     }
 
     @Override
     public Collection<String> values() {
-        throw new UnsupportedOperationException("Not yet implemented");
+        return new AbstractCollection<String>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                return new EntryIterator<String>() {
+
+                    @Override
+                    protected String makeResult(int keyOffset) {
+                        return getValue(keyOffset);
+                    }
+
+                    @Override
+                    protected String makeResult(Entry<String, String> collisionEntry) {
+                        return collisionEntry.getValue();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return StringMap.this.size();
+            }
+        };
     }
 
     @Override
     public Set<java.util.Map.Entry<String, String>> entrySet() {
-        throw new UnsupportedOperationException("Not yet implemented");
+        return new AbstractSet<Entry<String, String>>() {
+
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new EntryIterator<Entry<String, String>>() {
+
+                    @Override
+                    protected Entry<String, String> makeResult(int keyOffset) {
+                        int keyLen = _stringData.stringLength(keyOffset);
+                        String key = _stringData.getString(keyOffset, keyLen);
+                        return new SimpleImmutableEntry<String, String>(key, getValue(keyOffset));
+                    }
+
+                    @Override
+                    protected Entry<String, String> makeResult(Entry<String, String> collisionEntry) {
+                        return new SimpleImmutableEntry<String, String>(collisionEntry);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return StringMap.this.size();
+            }
+        };
     }
 
 }
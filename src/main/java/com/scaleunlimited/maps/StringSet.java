@@ -1,83 +1,257 @@
 package com.scaleunlimited.maps;
 
-import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
-
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.util.Arrays;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.hadoop.io.Writable;
 
 public class StringSet implements Set<String>, Writable {
 
-    // Value returned by fastutil when we request an int that doesn't exist.
-    private static final int MISSING_HASH_VALUE = -1;
+    // Value returned by the offset index when we request a hash that doesn't exist.
+    private static final int MISSING_HASH_VALUE = IOffsetIndex.MISSING_OFFSET;
 
     private static final int DEFAULT_ENTRY_COUNT = 1000;
-    private static final int STRING_DATA_BLOCKSIZE = 64 * 1024;
     
-    private Int2IntOpenHashMap _hashToOffset;
+    // Flags in the first byte of our serialized data. This used to be just a boolean
+    // for smallHash, so older data is still readable.
+    private static final int SMALL_HASH_FLAG = 0x01;
+    private static final int BLOOM_FILTER_FLAG = 0x02;
+    private static final int INDEX_FLAG = 0x04;
+    
+    private IHashFunction _hashFunction;
+    private IOffsetIndex _hashToOffset;
     private Set<String> _collisionSet;
-    private byte[] _stringData;
-    private int _curOffset;
+    private IByteArena _stringData;
+    private byte[] _scratch;
     private boolean _smallHash; // for testing
+    private BloomFilter _bloomFilter;
     
     public StringSet() {
         this(false);
     }
 
     public StringSet(boolean smallHash) {
-        reset(smallHash, DEFAULT_ENTRY_COUNT, 0, STRING_DATA_BLOCKSIZE);
+        this(smallHash, ByteArena.DEFAULT_BLOCK_SIZE);
+    }
+    
+    /**
+     * @param smallHash only generate 256 unique hash values, for testing.
+     * @param blockSize size of each block in the string data arena (must be a power of two).
+     */
+    public StringSet(boolean smallHash, int blockSize) {
+        this(smallHash, blockSize, DEFAULT_ENTRY_COUNT);
+    }
+    
+    /**
+     * @param smallHash only generate 256 unique hash values, for testing.
+     * @param blockSize size of each block in the string data arena (must be a power of two).
+     * @param expectedSize number of strings to size the hash table for, which grows as needed.
+     * Use a small value when there will be lots of sets with only a few strings each.
+     */
+    public StringSet(boolean smallHash, int blockSize, int expectedSize) {
+        this(smallHash, new ByteArena(blockSize), new JoaatHashFunction(), expectedSize);
+    }
+    
+    /**
+     * @param smallHash only generate 256 unique hash values, for testing.
+     * @param stringData where to store the string bytes, e.g. a {@link DirectByteArena} to keep them off-heap.
+     */
+    public StringSet(boolean smallHash, IByteArena stringData) {
+        this(smallHash, stringData, new JoaatHashFunction());
+    }
+    
+    /**
+     * @param hashFunction how to hash strings, e.g. a 64-bit {@link Murmur3HashFunction} for
+     * very large sets, where a 32-bit hash would put lots of entries into the collision set.
+     */
+    public StringSet(IHashFunction hashFunction) {
+        this(false, new ByteArena(), hashFunction);
+    }
+    
+    /**
+     * @param smallHash only generate 256 unique hash values, for testing.
+     * @param stringData where to store the string bytes, e.g. a {@link DirectByteArena} to keep them off-heap.
+     * @param hashFunction how to hash strings. If it generates 64-bit values, then we use a long->offset
+     * hash table.
+     */
+    public StringSet(boolean smallHash, IByteArena stringData, IHashFunction hashFunction) {
+        this(smallHash, stringData, hashFunction, DEFAULT_ENTRY_COUNT);
+    }
+    
+    /**
+     * @param smallHash only generate 256 unique hash values, for testing.
+     * @param stringData where to store the string bytes, e.g. a {@link DirectByteArena} to keep them off-heap.
+     * @param hashFunction how to hash strings.
+     * @param expectedSize number of strings to size the hash table for, which grows as needed.
+     */
+    public StringSet(boolean smallHash, IByteArena stringData, IHashFunction hashFunction, int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size can't be negative: " + expectedSize);
+        }
+        
+        _hashFunction = hashFunction;
+        _stringData = stringData;
+        
+        // We only need this when hashing strings that are already in the string data, which a
+        // set that's just being added to never does, so it's allocated on first use.
+        _scratch = new byte[0];
+        reset(smallHash, expectedSize, 0);
+    }
+    
+    /**
+     * Create a set from a file that was written by {@link #write(DataOutput, boolean)}, where the
+     * string data is memory-mapped versus being read onto the heap, and the file can be shared
+     * (via the page cache) by multiple processes. If the file includes the hash table, then it's
+     * mapped as well, so nothing gets rehashed. Otherwise the hash table is rebuilt from the data.
+     * 
+     * @param file previously serialized StringSet
+     * @return set that uses a mapped {@link DirectByteArena} for its string data.
+     * @throws IOException
+     */
+    public static StringSet map(File file) throws IOException {
+        return map(file, new JoaatHashFunction());
+    }
+    
+    /**
+     * Same as {@link #map(File)}, for data that was written using <hashFunction>.
+     */
+    public static StringSet map(File file, IHashFunction hashFunction) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        
+        try {
+            int flags = raf.readByte();
+            boolean smallHash = (flags & SMALL_HASH_FLAG) != 0;
+            boolean hasIndex = (flags & INDEX_FLAG) != 0;
+            int numHashEntries = raf.readInt();
+            int numCollisionEntries = raf.readInt();
+            int stringDataSize = raf.readInt();
+            BloomFilter bloomFilter = readBloomFilter(raf, flags);
+
+            long dataStart = raf.getFilePointer();
+            IByteArena stringData = DirectByteArena.map(raf.getChannel(), dataStart, stringDataSize, ByteArena.DEFAULT_BLOCK_SIZE);
+            StringSet result = new StringSet(smallHash, stringData, hashFunction, 0);
+            result.reset(smallHash, hasIndex ? 0 : numHashEntries, numCollisionEntries);
+            result._bloomFilter = bloomFilter;
+            
+            raf.seek(dataStart + stringDataSize);
+            if (hasIndex) {
+                result.setIndex(SerializedOffsetIndex.map(raf, hashFunction.getNumBits()), numHashEntries);
+            } else {
+                result.rebuildHash();
+            }
+            
+            result.readCollisions(raf, numCollisionEntries);
+            return result;
+        } finally {
+            raf.close();
+        }
     }
     
-    private void reset(boolean smallHash, int numHashEntries, int numCollisionEntries, int stringDataSize) {
+    private void reset(boolean smallHash, int numHashEntries, int numCollisionEntries) {
         _smallHash = smallHash;
-        _hashToOffset = new Int2IntOpenHashMap(numHashEntries);
-        _hashToOffset.defaultReturnValue(MISSING_HASH_VALUE);
+        if (_hashFunction.getNumBits() == 32) {
+            _hashToOffset = new IntOffsetIndex(numHashEntries);
+        } else {
+            _hashToOffset = new LongIntHashTable(numHashEntries);
+        }
+        
         _collisionSet = new HashSet<String>(numCollisionEntries);
-        _stringData = new byte[stringDataSize];
-        _curOffset = 0;
     }
     
     @Override
     public void readFields(DataInput in) throws IOException {
-        boolean smallHash = in.readBoolean();
+        int flags = in.readByte();
+        boolean smallHash = (flags & SMALL_HASH_FLAG) != 0;
+        boolean hasIndex = (flags & INDEX_FLAG) != 0;
         int numHashEntries = in.readInt();
         int numCollisionEntries = in.readInt();
         int stringDataSize = in.readInt();
         
-        reset(smallHash, numHashEntries, numCollisionEntries, stringDataSize);
+        reset(smallHash, hasIndex ? 0 : numHashEntries, numCollisionEntries);
+        _bloomFilter = readBloomFilter(in, flags);
+        
+        _stringData.readFields(in, stringDataSize);
+        if (hasIndex) {
+            setIndex(SerializedOffsetIndex.read(in, _hashFunction.getNumBits()), numHashEntries);
+        } else {
+            rebuildHash();
+        }
+        
+        readCollisions(in, numCollisionEntries);
+    }
+    
+    /**
+     * Use the hash table that was serialized with the data, versus rebuilding it. Any Bloom
+     * filter gets built from the hashes in the table, so we still don't have to rehash strings.
+     */
+    private void setIndex(IOffsetIndex index, int numHashEntries) throws IOException {
+        if (index.size() != numHashEntries) {
+            throw new IOException("Data corruption - index has the wrong number of entries!");
+        }
         
-        in.readFully(_stringData, 0, stringDataSize);
+        _hashToOffset = index;
+        if (_bloomFilter != null) {
+            IOffsetIndex.Cursor cursor = index.cursor();
+            while (cursor.next()) {
+                _bloomFilter.add(cursor.getHash());
+            }
+        }
+    }
+    
+    /**
+     * We only serialize the Bloom filter's settings, since we rebuild it from the data at the
+     * same time as the hash table (which also drops bits for strings that have been removed).
+     */
+    private static BloomFilter readBloomFilter(DataInput in, int flags) throws IOException {
+        if ((flags & BLOOM_FILTER_FLAG) == 0) {
+            return null;
+        }
         
-        // Now we have to rebuild the hash table from the data in _stringData.
-        for (; _curOffset < stringDataSize; ) {
-            int len = calcStringLength(_curOffset);
+        int capacity = in.readInt();
+        double falsePositiveRate = in.readDouble();
+        return new BloomFilter(capacity, falsePositiveRate);
+    }
+    
+    private void rebuildHash() throws IOException {
+        // We have to rebuild the hash table from the data in _stringData.
+        int stringDataSize = _stringData.size();
+        for (int curOffset = 0; curOffset < stringDataSize; ) {
+            int len = _stringData.stringLength(curOffset);
             if (len > 0) {
                 // only process strings we haven't deleted
-                int hash = hash(_stringData, _curOffset, len);
-                int oldOffset = _hashToOffset.put(hash, _curOffset);
+                long hash = hash(curOffset, len);
+                int oldOffset = _hashToOffset.put(hash, curOffset);
                 if (oldOffset != MISSING_HASH_VALUE) {
                     throw new IOException("Data corruption - hash already exists!");
                 }
+                
+                if (_bloomFilter != null) {
+                    _bloomFilter.add(hash);
+                }
             }
             
             // Skip over the null value.
-            _curOffset += (len + 1);
+            curOffset += (len + 1);
         }
-        
-        // Now read in the collision values. For each, make sure we already have a
+    }
+    
+    private void readCollisions(DataInput in, int numCollisionEntries) throws IOException {
+        // Read in the collision values. For each, make sure we already have a
         // hash entry, otherwise it's an error.
         for (int i = 0; i < numCollisionEntries; i++) {
             String s = in.readUTF();
             
-            int hash = hash(s);
+            long hash = hash(s);
             if (!_hashToOffset.containsKey(hash)) {
                 throw new IOException("Data corruption - collision entry doesn't exist in hash!");
             }
@@ -90,14 +264,37 @@ public class StringSet implements Set<String>, Writable {
 
     @Override
     public void write(DataOutput out) throws IOException {
-        out.writeBoolean(_smallHash);
+        write(out, false);
+    }
+    
+    /**
+     * Serialize the set, optionally including the hash table. This makes the data bigger (by
+     * about 11 bytes per string for a 32-bit hash function, or 16 bytes for 64 bits), but
+     * {@link #map(File)} and {@link #readFields(DataInput)} can then use it directly, versus
+     * having to hash every string. So it's a good idea for sets that get saved to a file and
+     * loaded by lots of tasks, and a bad idea for sets that get shuffled.
+     * 
+     * @param out where to write the set
+     * @param includeIndex true to also write the hash table.
+     */
+    public void write(DataOutput out, boolean includeIndex) throws IOException {
+        int flags = (_smallHash ? SMALL_HASH_FLAG : 0) | (_bloomFilter != null ? BLOOM_FILTER_FLAG : 0) | (includeIndex ? INDEX_FLAG : 0);
+        out.writeByte(flags);
         out.writeInt(_hashToOffset.size());
         out.writeInt(_collisionSet.size());
-        out.writeInt(_curOffset);
+        out.writeInt(_stringData.size());
         
-        // Now just write out the string array. We can re-build the hash table from
-        // this array.
-        out.write(_stringData, 0, _curOffset);
+        if (_bloomFilter != null) {
+            out.writeInt(_bloomFilter.getCapacity());
+            out.writeDouble(_bloomFilter.getTargetFalsePositiveRate());
+        }
+        
+        // Now just write out the string array. Unless we're including the hash table,
+        // it gets re-built from this array.
+        _stringData.write(out);
+        if (includeIndex) {
+            SerializedOffsetIndex.write(out, _hashToOffset, _hashFunction.getNumBits());
+        }
         
         // Write out the strings we've saved in the collision set.
         Iterator<String> iter = _collisionSet.iterator();
@@ -106,23 +303,14 @@ public class StringSet implements Set<String>, Writable {
         }
     }
 
-    private int calcStringLength(int startingOffset) {
-        int curOffset = startingOffset;
-        while (_stringData[curOffset] != 0) {
-            curOffset += 1;
-        }
-        
-        return curOffset - startingOffset;
-    }
-    
     /**
-     * Generate a 32-bit JOAAT hash from the bytes of <phrase>
+     * Generate a hash from the UTF-8 bytes of <phrase>, using our hash function
      * 
-     * @param phrase String to hash
-     * @return 32-bit hash
+     * @param phrase chars to hash
+     * @return 32 or 64-bit hash
      */
-    public int hash(String phrase) {
-        int result = HashUtils.getIntHash(phrase);
+    public long hash(CharSequence phrase) {
+        long result = _hashFunction.hash(phrase);
         
         if (_smallHash) {
             // only generate 256 unique hash values.
@@ -132,8 +320,17 @@ public class StringSet implements Set<String>, Writable {
         return result;
     }
     
-    private int hash(byte[] b, int offset, int length) {
-        int result = HashUtils.getIntHash(b, offset, length);
+    private long hash(int stringOffset, int length) {
+        if (length > _scratch.length) {
+            _scratch = new byte[Math.max(length, Math.max(256, _scratch.length * 2))];
+        }
+        
+        _stringData.copy(stringOffset, _scratch, 0, length);
+        return hash(_scratch, 0, length);
+    }
+    
+    long hash(byte[] b, int offset, int length) {
+        long result = _hashFunction.hash(b, offset, length);
         
         if (_smallHash) {
             // only generate 256 unique hash values.
@@ -156,134 +353,431 @@ public class StringSet implements Set<String>, Writable {
     @Override
     public boolean contains(Object o) {
         if (o instanceof String) {
-            int hash = hash((String)o);
-            int offset = _hashToOffset.get(hash);
-            if (offset == MISSING_HASH_VALUE) {
-                return false;
-            }
-            
-            // We might have a match...need to see if the actual string matches our stored bytes.
-            // If not, then we check the collision set.
-            byte[] stringBytes = getUTF8Bytes((String)o);
-            boolean matches = true;
-            for (int i = 0; (i < stringBytes.length) && matches; i++) {
-                if (stringBytes[i] != _stringData[offset + i]) {
-                    matches = false;
-                }
-            }
-            
-            // If it matched all of the string bytes, make sure we've got our terminating null byte.a
-            matches = matches && _stringData[offset + stringBytes.length] == 0;
-            
-            // If it didn't match, see if it's in the collision set.
-            return(matches || _collisionSet.contains((String)o));
+            return contains((CharSequence)o);
         } else {
             return false;
         }
     }
 
-    private byte[] getUTF8Bytes(String str) {
-        try {
-            return str.getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException("Impossible missing charset exception", e);
+    /**
+     * Check if the set contains <s>, without allocating any memory (unless the
+     * string's hash has a collision).
+     * 
+     * @param s chars to check, e.g. a String or a tokenizer's reusable StringBuilder
+     * @return true if the set contains s.toString()
+     */
+    public boolean contains(CharSequence s) {
+        return contains(s, hash(s));
+    }
+    
+    /**
+     * Same as {@link #contains(CharSequence)}, where the caller has already calculated
+     * the hash (via {@link #hash(CharSequence)}).
+     */
+    boolean contains(CharSequence s, long hash) {
+        if ((_bloomFilter != null) && !_bloomFilter.mightContain(hash)) {
+            return false;
+        }
+        
+        int offset = _hashToOffset.get(hash);
+        if (offset == MISSING_HASH_VALUE) {
+            return recordMiss();
+        }
+        
+        // We might have a match...need to see if the actual string matches our stored bytes.
+        // If not, then we check the collision set.
+        if (_stringData.matches(offset, s)) {
+            return true;
+        }
+        
+        if (!_collisionSet.isEmpty() && _collisionSet.contains(s.toString())) {
+            return true;
+        }
+        
+        return recordMiss();
+    }
+    
+    /**
+     * Something that passed the Bloom filter (if we have one) isn't in the set.
+     * 
+     * @return false
+     */
+    private boolean recordMiss() {
+        if (_bloomFilter != null) {
+            _bloomFilter.recordFalsePositive();
         }
+        
+        return false;
+    }
+
+    /**
+     * Check if the set contains the string with UTF-8 bytes b[offset...offset + length),
+     * without building a String.
+     * 
+     * @param b UTF-8 bytes
+     * @param offset offset of first byte
+     * @param length number of bytes
+     * @return true if the set contains the string.
+     */
+    public boolean contains(byte[] b, int offset, int length) {
+        return contains(b, offset, length, hash(b, offset, length));
     }
     
+    boolean contains(byte[] b, int offset, int length, long hash) {
+        if ((_bloomFilter != null) && !_bloomFilter.mightContain(hash)) {
+            return false;
+        }
+        
+        int stringDataOffset = _hashToOffset.get(hash);
+        if (stringDataOffset == MISSING_HASH_VALUE) {
+            return recordMiss();
+        }
+        
+        if (_stringData.matches(stringDataOffset, b, offset, length)) {
+            return true;
+        }
+        
+        if (!_collisionSet.isEmpty() && _collisionSet.contains(HashUtils.getUTF8String(b, offset, length))) {
+            return true;
+        }
+        
+        return recordMiss();
+    }
+
+    /**
+     * Return an iterator over all of the strings, first from the string data (in the order
+     * they were added) and then from the collision set. The iterator doesn't support remove(),
+     * and the set must not be modified while it's in use.
+     */
     @Override
     public Iterator<String> iterator() {
-        throw new UnsupportedOperationException("Not yet implemented");
-        // We'd need to create an iterator that iterates over all of the values, and
-        // also returns everything from the collision set.
+        return new Iterator<String>() {
+            private int _nextOffset = findNextString(0);
+            private Iterator<String> _collisionIter = _collisionSet.iterator();
+            
+            @Override
+            public boolean hasNext() {
+                return (_nextOffset != MISSING_HASH_VALUE) || _collisionIter.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (_nextOffset == MISSING_HASH_VALUE) {
+                    return _collisionIter.next();
+                }
+                
+                int len = _stringData.stringLength(_nextOffset);
+                String result = _stringData.getString(_nextOffset, len);
+                _nextOffset = findNextString(_nextOffset + len + 1);
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Can't remove via iterator");
+            }
+        };
     }
 
+    /**
+     * @return offset of the first string that hasn't been removed, at or after <offset>,
+     * or MISSING_HASH_VALUE if there are no more strings.
+     */
+    private int findNextString(int offset) {
+        // Removed strings are zero-filled, so skip over any zero bytes.
+        int stringDataSize = _stringData.size();
+        while ((offset < stringDataSize) && (_stringData.get(offset) == 0)) {
+            offset += 1;
+        }
+        
+        return offset < stringDataSize ? offset : MISSING_HASH_VALUE;
+    }
+    
+    /**
+     * Cursor over the UTF-8 bytes of each string, which doesn't create a String (or
+     * copy any bytes, if the string data is in one block) for strings in the string
+     * data. This makes it cheap to emit millions of entries.
+     * 
+     * <pre>
+     * StringSet.Cursor cursor = set.cursor();
+     * while (cursor.next()) {
+     *     ByteSlice slice = cursor.getString();
+     *     text.set(slice.getBytes(), slice.getOffset(), slice.getLength());
+     * }
+     * </pre>
+     * 
+     * The set must not be modified while the cursor is in use.
+     */
+    public class Cursor {
+        private int _nextOffset = 0;
+        private Iterator<String> _collisionIter = null;
+        private ByteSlice _slice = new ByteSlice();
+        
+        /**
+         * Advance to the next string.
+         * 
+         * @return false if there are no more strings.
+         */
+        public boolean next() {
+            if (_collisionIter == null) {
+                int offset = findNextString(_nextOffset);
+                if (offset != MISSING_HASH_VALUE) {
+                    int len = _stringData.stringLength(offset);
+                    _stringData.getSlice(offset, len, _slice);
+                    _nextOffset = offset + len + 1;
+                    return true;
+                }
+                
+                _collisionIter = _collisionSet.iterator();
+            }
+            
+            if (_collisionIter.hasNext()) {
+                byte[] bytes = HashUtils.getUTF8Bytes(_collisionIter.next());
+                _slice.set(bytes, 0, bytes.length);
+                return true;
+            } else {
+                return false;
+            }
+        }
+        
+        /**
+         * @return UTF-8 bytes of the current string, which are only valid until the next
+         * call to next().
+         */
+        public ByteSlice getString() {
+            return _slice;
+        }
+    }
+    
+    public Cursor cursor() {
+        return new Cursor();
+    }
+    
+    /**
+     * Create an immutable, sorted copy of this set, which is typically much smaller, and
+     * supports prefix and range queries. See {@link FrozenStringSet}.
+     */
+    public FrozenStringSet freeze() {
+        byte[][] strings = new byte[size()][];
+        int index = 0;
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            strings[index++] = cursor.getString().copyBytes();
+        }
+        
+        return new FrozenStringSet(FrontCodedStrings.build(strings, null));
+    }
+    
     @Override
     public Object[] toArray() {
-        throw new UnsupportedOperationException("Not yet implemented");
+        return toArray(new Object[size()]);
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public <T> T[] toArray(T[] a) {
-        throw new UnsupportedOperationException("Not yet implemented");
+        int size = size();
+        T[] result = a;
+        if (result.length < size) {
+            result = (T[])Array.newInstance(a.getClass().getComponentType(), size);
+        }
+        
+        int index = 0;
+        for (String s : this) {
+            result[index++] = (T)s;
+        }
+        
+        if (result.length > size) {
+            result[size] = null;
+        }
+        
+        return result;
     }
 
     @Override
     public boolean add(String e) {
-        if (contains(e)) {
-            return false;
-        }
-        
-        int hash = hash(e);
+        return add(e, hash(e));
+    }
+    
+    /**
+     * Same as {@link #add(String)}, where the caller has already calculated the hash.
+     */
+    boolean add(String e, long hash) {
         int offset = _hashToOffset.get(hash);
         if (offset == MISSING_HASH_VALUE) {
             // We need to add it to the array and the hash set
-            byte[] stringBytes = getUTF8Bytes(e);
-            
-            // Make sure we have enough space in the array.
-            int endOffset = _curOffset + stringBytes.length + 1;
-            if (endOffset > _stringData.length) {
-                byte[] newData = new byte[endOffset + STRING_DATA_BLOCKSIZE];
-                System.arraycopy(_stringData, 0, newData, 0, _curOffset);
-                _stringData = newData;
-            }
+            byte[] stringBytes = HashUtils.getUTF8Bytes(e);
             
-            System.arraycopy(stringBytes, 0, _stringData, _curOffset, stringBytes.length);
+            // Append the null-terminated string. The arena adds new blocks as needed,
+            // so we never copy existing data.
+            offset = _stringData.appendString(stringBytes, 0, stringBytes.length);
+            _hashToOffset.put(hash, offset);
             
-            _hashToOffset.put(hash, _curOffset);
-            _curOffset += stringBytes.length;
-            
-            // And null-terminate it.
-            _stringData[_curOffset++] = 0;
+            // Collision entries have the same hash as an entry in the hash table, so
+            // this is the only case where we need to update the Bloom filter.
+            if (_bloomFilter != null) {
+                _bloomFilter.add(hash);
+                if (_hashToOffset.size() > _bloomFilter.getCapacity()) {
+                    rebuildBloomFilter(_bloomFilter.getCapacity() * 2, _bloomFilter.getTargetFalsePositiveRate());
+                }
+            }
+        } else if (_stringData.matches(offset, e)) {
+            return false;
         } else {
-            _collisionSet.add(e);
+            return _collisionSet.add(e);
         }
 
         return true;
     }
+    
+    /**
+     * Use a Bloom filter to quickly reject strings that aren't in the set. This is a win when most
+     * calls to contains() are for missing strings, e.g. checking terms against a stop list. The
+     * filter is built from any existing strings, and then updated as strings are added. If the
+     * set grows past <expectedSize>, the filter is rebuilt with twice the capacity.
+     * 
+     * @param expectedSize number of strings the filter should be sized for
+     * @param falsePositiveRate target rate at which the filter fails to reject a missing string
+     */
+    public void enableBloomFilter(int expectedSize, double falsePositiveRate) {
+        rebuildBloomFilter(Math.max(expectedSize, _hashToOffset.size()), falsePositiveRate);
+    }
+    
+    public void disableBloomFilter() {
+        _bloomFilter = null;
+    }
+    
+    /**
+     * @return the Bloom filter (which has stats on false positives), or null if it's not enabled.
+     */
+    public BloomFilter getBloomFilter() {
+        return _bloomFilter;
+    }
+    
+    private void rebuildBloomFilter(int capacity, double falsePositiveRate) {
+        BloomFilter oldFilter = _bloomFilter;
+        _bloomFilter = new BloomFilter(capacity, falsePositiveRate);
+        if (oldFilter != null) {
+            _bloomFilter.addStats(oldFilter);
+        }
+        
+        // Only strings in the hash table need to be added, since collision strings have
+        // the same hash as one of them.
+        for (int offset = findNextString(0); offset != MISSING_HASH_VALUE; ) {
+            int len = _stringData.stringLength(offset);
+            _bloomFilter.add(hash(offset, len));
+            offset = findNextString(offset + len + 1);
+        }
+    }
 
     @Override
     public boolean remove(Object o) {
         if (o instanceof String) {
-            if (_collisionSet.remove(o)) {
-                return true;
-            } else {
-                // FUTURE set up to reclaim space in string data block.
-                // We'd want to save the offset somewhere
-                int hash = hash((String)o);
-                int stringDataOffset = _hashToOffset.remove(hash);
-                if (stringDataOffset != MISSING_HASH_VALUE) {
-                    // We need to clear out the entry so we don't re-add it as a string
-                    // when we de-serialize things.
-                    int len = calcStringLength(stringDataOffset);
-                    Arrays.fill(_stringData, stringDataOffset, stringDataOffset + len, (byte)0);
-                    return true;
-                } else {
-                    return false;
-                }
-            }
+            return remove((String)o, hash((String)o));
         } else {
             return false;
         }
     }
+    
+    /**
+     * Same as {@link #remove(Object)}, where the caller has already calculated the hash.
+     */
+    boolean remove(String s, long hash) {
+        if (_collisionSet.remove(s)) {
+            return true;
+        }
+        
+        // FUTURE set up to reclaim space in string data block.
+        // We'd want to save the offset somewhere
+        int stringDataOffset = _hashToOffset.get(hash);
+        if ((stringDataOffset == MISSING_HASH_VALUE) || !_stringData.matches(stringDataOffset, s)) {
+            // The hash entry (if any) is for some other string.
+            return false;
+        }
+        
+        // We need to clear out the entry so we don't re-add it as a string
+        // when we de-serialize things.
+        _hashToOffset.remove(hash);
+        int len = _stringData.stringLength(stringDataOffset);
+        _stringData.clear(stringDataOffset, stringDataOffset + len);
+        
+        // Any collision entry with the same hash needs to take over the hash entry, otherwise
+        // we could never find it (and we'd fail the integrity check when de-serializing).
+        promoteCollisionEntry(hash);
+        return true;
+    }
+    
+    private void promoteCollisionEntry(long hash) {
+        if (_collisionSet.isEmpty()) {
+            return;
+        }
+        
+        Iterator<String> iter = _collisionSet.iterator();
+        while (iter.hasNext()) {
+            String s = iter.next();
+            if (hash(s) == hash) {
+                iter.remove();
+                byte[] stringBytes = HashUtils.getUTF8Bytes(s);
+                _hashToOffset.put(hash, _stringData.appendString(stringBytes, 0, stringBytes.length));
+                return;
+            }
+        }
+    }
 
     @Override
     public boolean containsAll(Collection<?> c) {
-        throw new UnsupportedOperationException("Not yet implemented");
+        for (Object o : c) {
+            if (!contains(o)) {
+                return false;
+            }
+        }
+        
+        return true;
     }
 
+    /**
+     * Add all of the strings in <c>. We first make sure the hash table and the string
+     * data have room for all of them, so that neither has to grow more than once.
+     */
     @Override
     public boolean addAll(Collection<? extends String> c) {
-        throw new UnsupportedOperationException("Not yet implemented");
+        long numBytes = _stringData.size();
+        for (String s : c) {
+            numBytes += UTF8Utils.encodedLength(s) + 1;
+        }
+        
+        _hashToOffset.ensureCapacity(_hashToOffset.size() + c.size());
+        _stringData.ensureCapacity((int)Math.min(Integer.MAX_VALUE, numBytes));
+        
+        boolean result = false;
+        for (String s : c) {
+            result |= add(s);
+        }
+        
+        return result;
     }
 
     @Override
     public boolean retainAll(Collection<?> c) {
-        throw new UnsupportedOperationException("Not yet implemented");
+        // Find everything to remove first, since our iterators don't support removal.
+        List<String> toRemove = new ArrayList<String>();
+        for (String s : this) {
+            if (!c.contains(s)) {
+                toRemove.add(s);
+            }
+        }
+        
+        return removeAll(toRemove);
     }
 
     @Override
     public boolean removeAll(Collection<?> c) {
-        throw new UnsupportedOperationException("Not yet implemented");
+        boolean result = false;
+        for (Object o : c) {
+            result |= remove(o);
+        }
+        
+        return result;
     }
 
     @Override
@@ -291,12 +785,12 @@ public class StringSet implements Set<String>, Writable {
         _hashToOffset.clear();
         _collisionSet.clear();
         
-        // Decrease size of byte array
-        if (_stringData.length > STRING_DATA_BLOCKSIZE) {
-            _stringData = new byte[STRING_DATA_BLOCKSIZE];
+        if (_bloomFilter != null) {
+            _bloomFilter.clear();
         }
         
-        _curOffset = 0;
+        // Release (most of) the memory used for string data.
+        _stringData.clear();
     }
 
 }
@@ -0,0 +1,128 @@
+package com.scaleunlimited.maps;
+
+/**
+ * Helpers for hashing chars, and comparing them against UTF-8 bytes stored in an
+ * {@link IByteArena}, without first converting the chars to a byte array.
+ *
+ */
+class UTF8Utils {
+
+    private UTF8Utils() {
+        // Only static methods
+    }
+
+    /**
+     * Return true if the chars in <s>, starting at <charIndex>, match the UTF-8
+     * bytes in <arena> starting at <offset>, and the stored string is null-terminated
+     * right after that.
+     */
+    static boolean matches(IByteArena arena, int offset, CharSequence s, int charIndex) {
+        int len = s.length();
+        int pos = offset;
+
+        for (int i = charIndex; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                // A null char can never match, since that's our string terminator.
+                if ((c == 0) || (arena.get(pos++) != c)) {
+                    return false;
+                }
+            } else if (c < 0x800) {
+                if ((arena.get(pos++) != (byte)(0xC0 | (c >> 6)))
+                 || (arena.get(pos++) != (byte)(0x80 | (c & 0x3F)))) {
+                    return false;
+                }
+            } else if (!HashUtils.isSurrogate(c)) {
+                if ((arena.get(pos++) != (byte)(0xE0 | (c >> 12)))
+                 || (arena.get(pos++) != (byte)(0x80 | ((c >> 6) & 0x3F)))
+                 || (arena.get(pos++) != (byte)(0x80 | (c & 0x3F)))) {
+                    return false;
+                }
+            } else if (Character.isHighSurrogate(c) && (i + 1 < len) && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                if ((arena.get(pos++) != (byte)(0xF0 | (cp >> 18)))
+                 || (arena.get(pos++) != (byte)(0x80 | ((cp >> 12) & 0x3F)))
+                 || (arena.get(pos++) != (byte)(0x80 | ((cp >> 6) & 0x3F)))
+                 || (arena.get(pos++) != (byte)(0x80 | (cp & 0x3F)))) {
+                    return false;
+                }
+            } else if (arena.get(pos++) != '?') {
+                // Unpaired surrogate, which the UTF-8 encoder replaces with '?'
+                return false;
+            }
+        }
+
+        return arena.get(pos) == 0;
+    }
+
+    /**
+     * Return the UTF-8 bytes for the char at s[i] (or the surrogate pair starting at i),
+     * packed into an int with the first byte in the low 8 bits. This uses the same rules
+     * as String.getBytes("UTF-8"), so an unpaired surrogate becomes '?'.
+     */
+    static int encode(CharSequence s, int i) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+            return c;
+        } else if (c < 0x800) {
+            return (0xC0 | (c >> 6)) | ((0x80 | (c & 0x3F)) << 8);
+        } else if (!HashUtils.isSurrogate(c)) {
+            return (0xE0 | (c >> 12)) | ((0x80 | ((c >> 6) & 0x3F)) << 8) | ((0x80 | (c & 0x3F)) << 16);
+        } else if (Character.isHighSurrogate(c) && (i + 1 < s.length()) && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            return (0xF0 | (cp >> 18))
+                | ((0x80 | ((cp >> 12) & 0x3F)) << 8)
+                | ((0x80 | ((cp >> 6) & 0x3F)) << 16)
+                | ((0x80 | (cp & 0x3F)) << 24);
+        } else {
+            return '?';
+        }
+    }
+    
+    /**
+     * Write the UTF-8 bytes of <s> to <dest>, which must have room for at least
+     * 3 * s.length() bytes.
+     * 
+     * @return number of bytes written
+     */
+    static int encode(CharSequence s, byte[] dest) {
+        int result = 0;
+        int len = s.length();
+        for (int i = 0; i < len; ) {
+            int utf8 = encode(s, i);
+            int numBytes = numBytes(utf8);
+            for (int j = 0; j < numBytes; j++) {
+                dest[result++] = (byte)(utf8 >>> (j * 8));
+            }
+
+            i += (numBytes == 4 ? 2 : 1);
+        }
+
+        return result;
+    }
+    
+    /**
+     * @return number of bytes (1...4) in a value returned by {@link #encode(CharSequence, int)}.
+     * A result of 4 means that two chars (a surrogate pair) were encoded.
+     */
+    static int numBytes(int utf8) {
+        // Every byte after the first one has its high bit set, so the position of the
+        // highest set bit tells us the length.
+        return (utf8 == 0) ? 1 : (39 - Integer.numberOfLeadingZeros(utf8)) >> 3;
+    }
+
+    /**
+     * @return number of bytes in the UTF-8 encoding of <s>
+     */
+    static int encodedLength(CharSequence s) {
+        int result = 0;
+        int len = s.length();
+        for (int i = 0; i < len; ) {
+            int n = numBytes(encode(s, i));
+            i += (n == 4 ? 2 : 1);
+            result += n;
+        }
+        
+        return result;
+    }
+}
@@ -0,0 +1,119 @@
+package com.scaleunlimited.cascading;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class CountMinSketchTest {
+
+    @Test
+    public void testDimensions() throws Exception {
+        CountMinSketch sketch = CountMinSketch.create(0.001, 0.01);
+        assertEquals(2719, sketch.getWidth());
+        assertEquals(5, sketch.getDepth());
+        
+        try {
+            CountMinSketch.create(0.0, 0.01);
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+    
+    @Test
+    public void testErrorBounds() throws Exception {
+        final double epsilon = 0.001;
+        CountMinSketch sketch = CountMinSketch.create(epsilon, 0.001);
+        
+        // Zipf-ish counts, like terms in a corpus.
+        final int numItems = 20000;
+        long[] counts = new long[numItems];
+        Random rand = new Random(1L);
+        for (int i = 0; i < 500000; i++) {
+            int item = (int)Math.min(numItems - 1, Math.abs(rand.nextGaussian() * rand.nextGaussian() * 1000));
+            counts[item] += 1;
+            sketch.add("item-" + item);
+        }
+        
+        assertEquals(500000, sketch.getTotalCount());
+        
+        long maxError = (long)(epsilon * sketch.getTotalCount());
+        for (int i = 0; i < numItems; i++) {
+            long estimate = sketch.getCount("item-" + i);
+            assertTrue(estimate >= counts[i]);
+            assertTrue("Error too big for item " + i, estimate - counts[i] <= maxError);
+        }
+    }
+    
+    @Test
+    public void testMerge() throws Exception {
+        CountMinSketch all = new CountMinSketch(4, 1000);
+        CountMinSketch merged = new CountMinSketch(4, 1000);
+        CountMinSketch partial = new CountMinSketch(4, 1000);
+        for (int i = 0; i < 10000; i++) {
+            String item = "item-" + (i % 3000);
+            all.add(item, 2);
+            partial.add(item, 2);
+            
+            if ((i % 1000) == 999) {
+                merged.merge(partial);
+                partial.clear();
+            }
+        }
+        
+        assertEquals(all.getTotalCount(), merged.getTotalCount());
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(all.getCount("item-" + i), merged.getCount("item-" + i));
+        }
+        
+        try {
+            merged.merge(new CountMinSketch(4, 999));
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+    
+    @Test
+    public void testSerialization() throws Exception {
+        CountMinSketch sketch = new CountMinSketch(3, 100);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("item-" + (i % 50));
+        }
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        sketch.write(new DataOutputStream(baos));
+        
+        CountMinSketch sketch2 = new CountMinSketch();
+        sketch2.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        
+        assertEquals(3, sketch2.getDepth());
+        assertEquals(100, sketch2.getWidth());
+        assertEquals(1000, sketch2.getTotalCount());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(sketch.getCount("item-" + i), sketch2.getCount("item-" + i));
+        }
+    }
+    
+    @Test
+    public void testWriteToDir() throws Exception {
+        File dir = new File("build/test/CountMinSketchTest/testWriteToDir");
+        FileUtils.deleteDirectory(dir);
+        
+        CountMinSketch sketch = new CountMinSketch(3, 100);
+        sketch.add("term", 10);
+        sketch.writeToDir(dir);
+        
+        CountMinSketch sketch2 = CountMinSketch.readFromDir(dir);
+        assertEquals(10, sketch2.getCount("term"));
+        assertEquals(10, sketch2.getTotalCount());
+    }
+}
@@ -0,0 +1,116 @@
+package com.scaleunlimited.cascading;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import cascading.tuple.Tuple;
+
+import com.scaleunlimited.cascading.UniqueCount.FilterPartialDuplicateFingerprints;
+
+public class FingerprintCacheTest {
+
+    @Test
+    public void testAddAndContains() throws Exception {
+        FingerprintCache cache = new FingerprintCache(100);
+        assertTrue(cache.add(1));
+        assertTrue(cache.add(0));
+        assertTrue(cache.add(-1));
+        assertFalse(cache.add(1));
+        assertFalse(cache.add(0));
+        assertFalse(cache.add(-1));
+        assertEquals(3, cache.size());
+
+        assertTrue(cache.contains(0));
+        assertFalse(cache.contains(2));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertFalse(cache.contains(1));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final int maxEntries = 1000;
+        FingerprintCache cache = new FingerprintCache(maxEntries);
+        Random rand = new Random(1L);
+
+        // Keep hitting one value, so it should never get evicted, while lots of
+        // other values cycle through the cache.
+        final long hotValue = rand.nextLong();
+        cache.add(hotValue);
+        for (int i = 0; i < maxEntries * 10; i++) {
+            assertTrue(cache.add(rand.nextLong()));
+            assertFalse(cache.add(hotValue));
+            assertTrue(cache.size() <= maxEntries);
+        }
+
+        assertEquals(maxEntries, cache.size());
+    }
+
+    @Test
+    public void testCollidingSlots() throws Exception {
+        // All of these values land in the same slot, so we exercise the code that
+        // shifts entries back when one is evicted.
+        final int maxEntries = 16;
+        FingerprintCache cache = new FingerprintCache(maxEntries);
+        for (long i = 1; i <= maxEntries * 4; i++) {
+            assertTrue(cache.add(i << 32 | i));
+            assertTrue(cache.contains(i << 32 | i));
+
+            // Every entry that hasn't been evicted should still be findable.
+            int numFound = 0;
+            for (long j = 1; j <= i; j++) {
+                if (cache.contains(j << 32 | j)) {
+                    numFound += 1;
+                }
+            }
+
+            assertEquals(cache.size(), numFound);
+        }
+
+        assertEquals(maxEntries, cache.size());
+    }
+
+    @Test
+    public void testTupleFingerprints() throws Exception {
+        long fp = FilterPartialDuplicateFingerprints.fingerprint(new Tuple("a", 1));
+        assertEquals(fp, FilterPartialDuplicateFingerprints.fingerprint(new Tuple("a", 1)));
+
+        assertFalse(fp == FilterPartialDuplicateFingerprints.fingerprint(new Tuple("a", "1")));
+        assertFalse(fp == FilterPartialDuplicateFingerprints.fingerprint(new Tuple("a", 1L)));
+        assertFalse(fp == FilterPartialDuplicateFingerprints.fingerprint(new Tuple(1, "a")));
+        assertFalse(FilterPartialDuplicateFingerprints.fingerprint(new Tuple("")) == FilterPartialDuplicateFingerprints.fingerprint(new Tuple((Object)null)));
+    }
+
+    @Test
+    public void testPrimitiveFingerprints() throws Exception {
+        // Values are hashed from their primitive bits, so check that we still get the same
+        // equality as Tuple.equals().
+        Object[] values = new Object[] {1, 1L, (short)1, (byte)1, 1.0, 1.0f, true, 0, 0L, 0.0, -0.0, 0.0f, false, "1", new StringBuilder("1")};
+        for (int i = 0; i < values.length; i++) {
+            long fp = FilterPartialDuplicateFingerprints.fingerprint(new Tuple(values[i]));
+            for (int j = 0; j < values.length; j++) {
+                if (i != j) {
+                    assertFalse(values[i] + " vs " + values[j], fp == FilterPartialDuplicateFingerprints.fingerprint(new Tuple(values[j])));
+                }
+            }
+        }
+
+        assertEquals(FilterPartialDuplicateFingerprints.fingerprint(new Tuple(1234567890123L, 2.5, true)),
+                        FilterPartialDuplicateFingerprints.fingerprint(new Tuple(1234567890123L, 2.5, true)));
+        assertFalse(FilterPartialDuplicateFingerprints.fingerprint(new Tuple(1L, 2L)) == FilterPartialDuplicateFingerprints.fingerprint(new Tuple(2L, 1L)));
+    }
+
+    @Test
+    public void testInvalidMaxEntries() throws Exception {
+        try {
+            new FingerprintCache(0);
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
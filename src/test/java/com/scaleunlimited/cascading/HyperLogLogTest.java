@@ -0,0 +1,123 @@
+package com.scaleunlimited.cascading;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+import cascading.tuple.Tuple;
+
+import com.scaleunlimited.cascading.UniqueCount.HyperLogLogPartials;
+import com.scaleunlimited.maps.HashUtils;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testSmallCounts() throws Exception {
+        HyperLogLog hll = new HyperLogLog();
+        assertEquals(0, hll.getEstimate());
+        
+        for (int i = 0; i < 100; i++) {
+            hll.add(hash(i % 10));
+        }
+        
+        assertEquals(10, hll.getEstimate());
+    }
+    
+    @Test
+    public void testPartialsHashByType() throws Exception {
+        // Values of different types are different unique values, the same as for an exact count.
+        HyperLogLog hll = new HyperLogLog();
+        Object[] values = new Object[] {1, 1L, "1", 1.0, null, "", 1, "1"};
+        for (Object value : values) {
+            hll.add(HyperLogLogPartials.hash(new Tuple(value)));
+        }
+        
+        assertEquals(6, hll.getEstimate());
+    }
+    
+    @Test
+    public void testAccuracy() throws Exception {
+        for (int precision : new int[] {10, 14}) {
+            HyperLogLog hll = new HyperLogLog(precision);
+            int numValues = 1000000;
+            for (int i = 0; i < numValues; i++) {
+                hll.add(hash(i));
+            }
+            
+            // Allow for 4 standard errors.
+            double maxError = 4 * 1.04 / Math.sqrt(1 << precision);
+            double error = Math.abs(hll.getEstimate() - numValues) / (double)numValues;
+            assertTrue(String.format("Error of %f with precision %d", error, precision), error < maxError);
+        }
+    }
+    
+    @Test
+    public void testMerge() throws Exception {
+        HyperLogLog sparse = new HyperLogLog(12);
+        HyperLogLog dense = new HyperLogLog(12);
+        HyperLogLog all = new HyperLogLog(12);
+        
+        for (int i = 0; i < 100; i++) {
+            sparse.add(hash(i));
+            all.add(hash(i));
+        }
+        
+        // Overlaps with the sparse sketch's values.
+        for (int i = 50; i < 50000; i++) {
+            dense.add(hash(i));
+            all.add(hash(i));
+        }
+        
+        HyperLogLog merged = new HyperLogLog(12);
+        merged.merge(sparse);
+        assertEquals(sparse.getEstimate(), merged.getEstimate());
+        merged.merge(dense);
+        assertEquals(all.getEstimate(), merged.getEstimate());
+        
+        // Merging in the other order should give the same result.
+        sparse.merge(dense);
+        assertEquals(all.getEstimate(), sparse.getEstimate());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentPrecisions() throws Exception {
+        new HyperLogLog(10).merge(new HyperLogLog(11));
+    }
+    
+    @Test
+    public void testSerialization() throws Exception {
+        HyperLogLog sparse = new HyperLogLog(10);
+        HyperLogLog dense = new HyperLogLog(10);
+        for (int i = 0; i < 10000; i++) {
+            dense.add(hash(i));
+            if (i < 10) {
+                sparse.add(hash(i));
+            }
+        }
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        sparse.write(out);
+        int sparseSize = bytes.size();
+        dense.write(out);
+        assertTrue(sparseSize < 100);
+        
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        HyperLogLog hll = new HyperLogLog();
+        hll.readFields(in);
+        assertEquals(10, hll.getPrecision());
+        assertEquals(sparse.getEstimate(), hll.getEstimate());
+        
+        hll.readFields(in);
+        assertEquals(dense.getEstimate(), hll.getEstimate());
+    }
+    
+    private static long hash(int value) {
+        return HashUtils.getMurmur3LongHash("value-" + value, 0L);
+    }
+}
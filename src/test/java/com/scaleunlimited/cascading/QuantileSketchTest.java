@@ -0,0 +1,124 @@
+package com.scaleunlimited.cascading;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class QuantileSketchTest {
+
+    @Test
+    public void testSmallCounts() throws Exception {
+        QuantileSketch sketch = new QuantileSketch();
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+
+        // With fewer values than the bottom compactor holds, results are exact.
+        for (int i = 1; i <= 9; i++) {
+            sketch.add(i);
+        }
+
+        assertEquals(9, sketch.getCount());
+        assertEquals(1.0, sketch.getQuantile(0.0), 0.0);
+        assertEquals(5.0, sketch.getQuantile(0.5), 0.0);
+        assertEquals(9.0, sketch.getQuantile(1.0), 0.0);
+
+        sketch.add(Double.NaN);
+        assertEquals(9, sketch.getCount());
+    }
+
+    @Test
+    public void testSkewedValues() throws Exception {
+        // Something like latencies, with a long tail.
+        Random rand = new Random(1L);
+        final int numValues = 1000000;
+        double[] values = new double[numValues];
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < numValues; i++) {
+            values[i] = Math.exp(rand.nextGaussian() * 2.0);
+            sketch.add(values[i]);
+        }
+
+        Arrays.sort(values);
+        checkQuantiles(values, sketch, 0.02);
+        assertEquals(values[0], sketch.getMin(), 0.0);
+        assertEquals(values[numValues - 1], sketch.getMax(), 0.0);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        Random rand = new Random(1L);
+        final int numValues = 500000;
+        double[] values = new double[numValues];
+
+        // Different ranges for each sketch, as if each mapper got different data.
+        QuantileSketch merged = new QuantileSketch();
+        for (int i = 0; i < 10; i++) {
+            QuantileSketch sketch = new QuantileSketch();
+            for (int j = 0; j < numValues / 10; j++) {
+                int index = (i * numValues / 10) + j;
+                values[index] = (i * 100) + rand.nextDouble() * 200;
+                sketch.add(values[index]);
+            }
+
+            merged.merge(sketch);
+        }
+
+        assertEquals(numValues, merged.getCount());
+        Arrays.sort(values);
+        checkQuantiles(values, merged, 0.02);
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        QuantileSketch sketch = new QuantileSketch(50);
+        Random rand = new Random(1L);
+        for (int i = 0; i < 100000; i++) {
+            sketch.add(rand.nextGaussian());
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        sketch.write(new DataOutputStream(baos));
+
+        QuantileSketch sketch2 = new QuantileSketch();
+        sketch2.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+
+        assertEquals(50, sketch2.getK());
+        assertEquals(sketch.getCount(), sketch2.getCount());
+        double[] fractions = new double[] {0.0, 0.5, 0.95, 0.99, 1.0};
+        assertTrue(Arrays.equals(sketch.getQuantiles(fractions), sketch2.getQuantiles(fractions)));
+    }
+
+    @Test
+    public void testInvalidQuantile() throws Exception {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(1.0);
+
+        try {
+            sketch.getQuantile(1.5);
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Check that the rank of each estimated quantile is within <maxRankError> of the target.
+     */
+    private void checkQuantiles(double[] sortedValues, QuantileSketch sketch, double maxRankError) {
+        double[] fractions = new double[] {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99};
+        double[] estimates = sketch.getQuantiles(fractions);
+        for (int i = 0; i < fractions.length; i++) {
+            int index = Arrays.binarySearch(sortedValues, estimates[i]);
+            assertTrue(index >= 0);
+
+            double rank = (double)index / sortedValues.length;
+            assertEquals("Rank for quantile " + fractions[i], fractions[i], rank, maxRankError);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.scaleunlimited.cascading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import cascading.flow.Flow;
+import cascading.flow.hadoop.HadoopFlowConnector;
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.scheme.hadoop.SequenceFile;
+import cascading.tap.SinkMode;
+import cascading.tap.hadoop.Lfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+
+public class QuantilesTest {
+
+    private static final Fields GROUP_FIELD = new Fields("user");
+    private static final Fields QUANTILE_FIELDS = new Fields("p50", "p95", "p99");
+    private static final double[] QUANTILES = new double[] {0.5, 0.95, 0.99};
+
+    @Test
+    public void testQuantiles() throws Exception {
+        Lfs sourceTap = makeSourceTap("build/test/QuantilesTest/testQuantiles/in");
+
+        Pipe pipe = new Pipe("test");
+        pipe = new GroupBy(pipe, GROUP_FIELD);
+        pipe = new Every(pipe, new Fields("value"), new Quantiles(QUANTILE_FIELDS, QUANTILES), Fields.ALL);
+
+        checkResults(sourceTap, pipe, "build/test/QuantilesTest/testQuantiles/out");
+    }
+
+    @Test
+    public void testQuantilesBy() throws Exception {
+        Lfs sourceTap = makeSourceTap("build/test/QuantilesTest/testQuantilesBy/in");
+
+        // Use a threshold of 1, so that we get lots of sketches to merge.
+        Pipe pipe = new Pipe("test");
+        pipe = new QuantilesBy(null, Pipe.pipes(pipe), GROUP_FIELD, new Fields("value"), QUANTILE_FIELDS, QUANTILES, QuantileSketch.DEFAULT_K, 1);
+
+        checkResults(sourceTap, pipe, "build/test/QuantilesTest/testQuantilesBy/out");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedFields() throws Exception {
+        new Quantiles(new Fields("p50"), QUANTILES);
+    }
+
+    private Lfs makeSourceTap(String in) throws Exception {
+        Lfs sourceTap = new Lfs(new SequenceFile(new Fields("user", "value")), in, SinkMode.REPLACE);
+        TupleEntryCollector write = sourceTap.openForWrite(new HadoopFlowProcess());
+
+        // user1 gets the values 1...10000, interleaved with a constant value for user2.
+        Random rand = new Random(1L);
+        for (int i = 1; i <= 10000; i++) {
+            write.add(new Tuple("user1", (double)i));
+
+            if (rand.nextInt(10) == 0) {
+                write.add(new Tuple("user2", 5.0));
+            }
+        }
+
+        write.close();
+        return sourceTap;
+    }
+
+    private void checkResults(Lfs sourceTap, Pipe pipe, String out) throws Exception {
+        Lfs sinkTap = new Lfs(new SequenceFile(GROUP_FIELD.append(QUANTILE_FIELDS)), out, SinkMode.REPLACE);
+
+        Flow flow = new HadoopFlowConnector().connect(sourceTap, sinkTap, pipe);
+        flow.complete();
+
+        TupleEntryIterator iter = sinkTap.openForRead(new HadoopFlowProcess());
+
+        // The rank error with the default k is about 1%, or +/- 100 for user1.
+        TupleEntry te = iter.next();
+        assertEquals("user1", te.getString("user"));
+        assertEquals(5000.0, te.getDouble("p50"), 200.0);
+        assertEquals(9500.0, te.getDouble("p95"), 200.0);
+        assertEquals(9900.0, te.getDouble("p99"), 200.0);
+
+        te = iter.next();
+        assertEquals("user2", te.getString("user"));
+        assertEquals(5.0, te.getDouble("p50"), 0.0);
+        assertEquals(5.0, te.getDouble("p99"), 0.0);
+
+        assertFalse(iter.hasNext());
+    }
+}
@@ -0,0 +1,151 @@
+package com.scaleunlimited.cascading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import cascading.flow.Flow;
+import cascading.flow.hadoop.HadoopFlowConnector;
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.pipe.Pipe;
+import cascading.scheme.hadoop.SequenceFile;
+import cascading.tap.SinkMode;
+import cascading.tap.hadoop.Lfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+
+public class SampleTest {
+
+    private static final Fields GROUP_FIELD = new Fields("user");
+    private static final Fields VALUE_FIELD = new Fields("value");
+    
+    @Test
+    public void testGroupSample() throws Exception {
+        Lfs sourceTap = makeSourceTap("build/test/SampleTest/testGroupSample/in");
+        
+        // Use a cache of one group, so that we get lots of reservoirs to merge.
+        Pipe pipe = new Pipe("test");
+        pipe = new Sample(null, Pipe.pipes(pipe), GROUP_FIELD, VALUE_FIELD, 10, 1, 1L);
+        
+        Lfs sinkTap = new Lfs(new SequenceFile(GROUP_FIELD.append(VALUE_FIELD)), "build/test/SampleTest/testGroupSample/out", SinkMode.REPLACE);
+        
+        Flow flow = new HadoopFlowConnector().connect(sourceTap, sinkTap, pipe);
+        flow.complete();
+        
+        TupleEntryIterator iter = sinkTap.openForRead(new HadoopFlowProcess());
+        
+        // We should get 10 different values for user1, and all 3 values for user2.
+        Set<Integer> values = new HashSet<Integer>();
+        for (int i = 0; i < 10; i++) {
+            TupleEntry te = iter.next();
+            assertEquals("user1", te.getString("user"));
+            int value = te.getInteger("value");
+            assertTrue((value >= 0) && (value < 1000));
+            assertTrue(values.add(value));
+        }
+        
+        values.clear();
+        for (int i = 0; i < 3; i++) {
+            TupleEntry te = iter.next();
+            assertEquals("user2", te.getString("user"));
+            values.add(te.getInteger("value"));
+        }
+        
+        assertEquals(3, values.size());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testGlobalSample() throws Exception {
+        Lfs sourceTap = makeSourceTap("build/test/SampleTest/testGlobalSample/in");
+        
+        Pipe pipe = new Pipe("test");
+        pipe = new Sample(pipe, GROUP_FIELD.append(VALUE_FIELD), 20);
+        
+        Lfs sinkTap = new Lfs(new SequenceFile(GROUP_FIELD.append(VALUE_FIELD)), "build/test/SampleTest/testGlobalSample/out", SinkMode.REPLACE);
+        
+        Flow flow = new HadoopFlowConnector().connect(sourceTap, sinkTap, pipe);
+        flow.complete();
+        
+        TupleEntryIterator iter = sinkTap.openForRead(new HadoopFlowProcess());
+        
+        Set<Tuple> samples = new HashSet<Tuple>();
+        while (iter.hasNext()) {
+            assertTrue(samples.add(iter.next().getTupleCopy()));
+        }
+        
+        assertEquals(20, samples.size());
+    }
+
+    @Test
+    public void testMultiplePipes() throws Exception {
+        Lfs sourceTap = makeSourceTap("build/test/SampleTest/testMultiplePipes/in");
+        
+        // Two branches off the same source run in the same task, so their reservoirs must
+        // still get different ids, or the merge would drop tuples.
+        Pipe pipe = new Pipe("test");
+        Pipe pipe1 = new Pipe("test1", pipe);
+        Pipe pipe2 = new Pipe("test2", pipe);
+        pipe = new Sample(null, Pipe.pipes(pipe1, pipe2), GROUP_FIELD, VALUE_FIELD, 10, 1, 1L);
+        
+        Lfs sinkTap = new Lfs(new SequenceFile(GROUP_FIELD.append(VALUE_FIELD)), "build/test/SampleTest/testMultiplePipes/out", SinkMode.REPLACE);
+        
+        Flow flow = new HadoopFlowConnector().connect(sourceTap, sinkTap, pipe);
+        flow.complete();
+        
+        TupleEntryIterator iter = sinkTap.openForRead(new HadoopFlowProcess());
+        
+        for (int i = 0; i < 10; i++) {
+            TupleEntry te = iter.next();
+            assertEquals("user1", te.getString("user"));
+        }
+        
+        // We should get all 3 values for user2 from each of the two pipes.
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 6; i++) {
+            TupleEntry te = iter.next();
+            assertEquals("user2", te.getString("user"));
+            int value = te.getInteger("value");
+            Integer count = counts.get(value);
+            counts.put(value, count == null ? 1 : count + 1);
+        }
+        
+        assertFalse(iter.hasNext());
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertEquals(2, count);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSampleSize() throws Exception {
+        new Sample(new Pipe("test"), GROUP_FIELD, VALUE_FIELD, 0);
+    }
+    
+    private Lfs makeSourceTap(String in) throws Exception {
+        Lfs sourceTap = new Lfs(new SequenceFile(GROUP_FIELD.append(VALUE_FIELD)), in, SinkMode.REPLACE);
+        TupleEntryCollector write = sourceTap.openForWrite(new HadoopFlowProcess());
+        
+        // user1 gets 1000 values, and user2 gets three values, interleaved.
+        for (int i = 0; i < 1000; i++) {
+            write.add(new Tuple("user1", i));
+            
+            if ((i % 400) == 0) {
+                write.add(new Tuple("user2", i));
+            }
+        }
+        
+        write.close();
+        return sourceTap;
+    }
+}
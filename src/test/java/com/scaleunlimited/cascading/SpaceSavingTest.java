@@ -0,0 +1,138 @@
+package com.scaleunlimited.cascading;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SpaceSavingTest {
+
+    @Test
+    public void testExactCounts() throws Exception {
+        // With fewer items than counters, all counts are exact.
+        SpaceSaving sketch = new SpaceSaving(10);
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j <= i; j++) {
+                sketch.add("item-" + i);
+            }
+        }
+
+        assertEquals(5, sketch.size());
+        assertEquals(0, sketch.getMinCount());
+        assertEquals(5, sketch.getCount("item-4"));
+        assertEquals(0, sketch.getError("item-4"));
+        assertEquals(0, sketch.getCount("item-5"));
+        assertTrue(Arrays.equals(new String[] {"item-4", "item-3"}, sketch.getTopItems(2)));
+    }
+
+    @Test
+    public void testHeavyHitters() throws Exception {
+        SpaceSaving sketch = new SpaceSaving(100);
+        Random rand = new Random(1L);
+
+        // Ten heavy hitters, each with 1% of the values, mixed in with lots of rare items.
+        final int numValues = 100000;
+        for (int i = 0; i < numValues; i++) {
+            if (rand.nextInt(10) == 0) {
+                sketch.add("heavy-" + rand.nextInt(10));
+            } else {
+                sketch.add("rare-" + rand.nextInt(100000));
+            }
+        }
+
+        String[] topItems = sketch.getTopItems(10);
+        for (String item : topItems) {
+            assertTrue(item.startsWith("heavy-"));
+
+            // The count is an upper bound, and (count - error) is a lower bound.
+            long count = sketch.getCount(item);
+            assertTrue(count >= 900);
+            assertTrue(count - sketch.getError(item) <= 1100);
+        }
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        Random rand = new Random(1L);
+        SpaceSaving merged = new SpaceSaving(50);
+        for (int i = 0; i < 10; i++) {
+            // Each partial sketch has a different set of rare items, and the same heavy hitters.
+            SpaceSaving sketch = new SpaceSaving(50);
+            for (int j = 0; j < 10000; j++) {
+                if (rand.nextInt(5) == 0) {
+                    sketch.add("heavy-" + rand.nextInt(5));
+                } else {
+                    sketch.add("rare-" + i + "-" + rand.nextInt(10000));
+                }
+            }
+
+            merged.merge(roundTrip(sketch));
+        }
+
+        String[] topItems = merged.getTopItems(5);
+        assertEquals(5, topItems.length);
+        for (String item : topItems) {
+            assertTrue(item.startsWith("heavy-"));
+            assertTrue(merged.getCount(item) >= 3600);
+        }
+    }
+
+    @Test
+    public void testGrowth() throws Exception {
+        // The arrays start small, so adding more items than that has to grow them, without
+        // losing any of the existing counts.
+        SpaceSaving sketch = new SpaceSaving(100);
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j <= i; j++) {
+                sketch.add("item-" + i);
+            }
+        }
+
+        assertEquals(100, sketch.size());
+        assertEquals(1, sketch.getMinCount());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i + 1, sketch.getCount("item-" + i));
+            assertEquals(0, sketch.getError("item-" + i));
+        }
+
+        // Now we're full, so a new item replaces the one with the smallest count.
+        sketch.add("new-item");
+        assertEquals(100, sketch.size());
+        assertEquals(0, sketch.getCount("item-0"));
+        assertEquals(2, sketch.getCount("new-item"));
+        assertEquals(1, sketch.getError("new-item"));
+        assertEquals("item-99", sketch.getTopItems(1)[0]);
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        SpaceSaving sketch = new SpaceSaving(3);
+        sketch.add("a", 10);
+        sketch.add("b", 5);
+        sketch.add("c", 1);
+        sketch.add("d", 1);
+
+        SpaceSaving sketch2 = roundTrip(sketch);
+        assertEquals(3, sketch2.getCapacity());
+        assertEquals(3, sketch2.size());
+        assertEquals(10, sketch2.getCount("a"));
+        assertEquals(2, sketch2.getCount("d"));
+        assertEquals(1, sketch2.getError("d"));
+        assertEquals(2, sketch2.getMinCount());
+    }
+
+    private SpaceSaving roundTrip(SpaceSaving sketch) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        sketch.write(new DataOutputStream(baos));
+
+        SpaceSaving result = new SpaceSaving();
+        result.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        return result;
+    }
+}
@@ -0,0 +1,99 @@
+package com.scaleunlimited.cascading;
+
+import java.util.Random;
+
+import cascading.tuple.Tuple;
+
+/**
+ * Compare the per-tuple cost of calculating the standard deviation of N fields using
+ * N {@link StdDeviation} contexts (what you get with N chained Every pipes) versus one
+ * {@link MultiFieldStdDeviation} context.
+ *
+ * This isn't run as part of the unit tests. Run it with something like:
+ *
+ *   java -cp <classpath> com.scaleunlimited.cascading.StdDeviationBenchmark 20
+ *
+ * Each measurement is repeated a few times, so that the JIT has compiled everything
+ * before we report the last (warmed up) result.
+ */
+public class StdDeviationBenchmark {
+
+    private static final int NUM_ROUNDS = 5;
+    private static final int NUM_TUPLES = 100000;
+    private static final int NUM_GROUPS = 100;
+
+    // So the JIT can't skip the calculations.
+    private static double _sink = 0;
+
+    public static void main(String[] args) {
+        int numFields = 20;
+        if (args.length > 0) {
+            numFields = Integer.parseInt(args[0]);
+        }
+
+        Random rand = new Random(1L);
+        Tuple[] tuples = new Tuple[NUM_TUPLES];
+        for (int i = 0; i < NUM_TUPLES; i++) {
+            Tuple tuple = Tuple.size(numFields);
+            for (int j = 0; j < numFields; j++) {
+                tuple.set(j, rand.nextGaussian() * (j + 1));
+            }
+
+            tuples[i] = tuple;
+        }
+
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            long startTime = System.nanoTime();
+            runChained(tuples, numFields);
+            long chainedNanos = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            runMultiField(tuples, numFields);
+            long multiFieldNanos = System.nanoTime() - startTime;
+
+            System.out.println(String.format("Round %d: %d x StdDeviation %.1f ns/tuple, MultiFieldStdDeviation %.1f ns/tuple",
+                            round, numFields, (double)chainedNanos / NUM_TUPLES, (double)multiFieldNanos / NUM_TUPLES));
+        }
+
+        System.out.println("(ignore) " + _sink);
+    }
+
+    /**
+     * Split the tuples into groups, and for each group use one StdDeviation context
+     * per field, each of which reads its field from every tuple.
+     */
+    private static void runChained(Tuple[] tuples, int numFields) {
+        StdDeviation.Context[] contexts = new StdDeviation.Context[numFields];
+        for (int i = 0; i < numFields; i++) {
+            contexts[i] = new StdDeviation.Context();
+        }
+
+        int groupSize = tuples.length / NUM_GROUPS;
+        for (int group = 0; group < NUM_GROUPS; group++) {
+            for (int field = 0; field < numFields; field++) {
+                StdDeviation.Context context = contexts[field].reset();
+                for (int i = group * groupSize; i < (group + 1) * groupSize; i++) {
+                    context.add(tuples[i].getDouble(field));
+                }
+
+                _sink += context.getSD();
+            }
+        }
+    }
+
+    private static void runMultiField(Tuple[] tuples, int numFields) {
+        MultiFieldStdDeviation.Context context = new MultiFieldStdDeviation.Context(numFields);
+
+        int groupSize = tuples.length / NUM_GROUPS;
+        for (int group = 0; group < NUM_GROUPS; group++) {
+            context.reset();
+            for (int i = group * groupSize; i < (group + 1) * groupSize; i++) {
+                context.add(tuples[i]);
+            }
+
+            for (int field = 0; field < numFields; field++) {
+                _sink += context.getSD(field);
+            }
+        }
+    }
+}
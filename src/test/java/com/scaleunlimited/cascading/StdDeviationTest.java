@@ -79,4 +79,103 @@ public class StdDeviationTest {
     
     }
 
+    @Test
+    public void testStdDeviationBy() throws Exception {
+        final Fields groupField = new Fields("user");
+        final Fields testFields = new Fields("user", "value");
+        
+        String in = "build/test/StdDeviationTest/testStdDeviationBy/in";
+        String out = "build/test/StdDeviationTest/testStdDeviationBy/out";
+
+        Lfs sourceTap = new Lfs(new SequenceFile(testFields), in, SinkMode.REPLACE);
+        TupleEntryCollector write = sourceTap.openForWrite(new HadoopFlowProcess());
+        
+        // Use a large offset, which is where the naive sum of squares approach fails.
+        final double offset = 1e9;
+        Random gen = new Random(1L);
+        double sum = 0.0;
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = offset + gen.nextGaussian();
+            sum += values[i];
+            write.add(new Tuple("user1", values[i]));
+            
+            // Switch groups every so often, so that with a threshold of 1 we get
+            // lots of partial results for user1 that need to be merged.
+            if ((i % 1000) == 0) {
+                write.add(new Tuple("user2", 5.0));
+            }
+        }
+        
+        write.close();
+
+        double mean = sum / values.length;
+        double sumSquares = 0.0;
+        for (double value : values) {
+            sumSquares += (value - mean) * (value - mean);
+        }
+        
+        double expected = Math.sqrt(sumSquares / values.length);
+        
+        Pipe pipe = new Pipe("test");
+        pipe = new StdDeviationBy(pipe, groupField, new Fields("value"), new Fields(StdDeviation.FIELD_NAME), 1);
+        
+        Lfs sinkTap = new Lfs(new SequenceFile(new Fields("user", StdDeviation.FIELD_NAME)), out, SinkMode.REPLACE);
+        
+        Flow flow = new HadoopFlowConnector().connect(sourceTap, sinkTap, pipe);
+        flow.complete();
+        
+        TupleEntryIterator iter = sinkTap.openForRead(new HadoopFlowProcess());
+
+        TupleEntry te = iter.next();
+        assertEquals("user1", te.getString("user"));
+        assertEquals(expected, te.getDouble(StdDeviation.FIELD_NAME), 0.0001);
+        
+        te = iter.next();
+        assertEquals("user2", te.getString("user"));
+        assertEquals(0.0, te.getDouble(StdDeviation.FIELD_NAME), 0.0);
+        
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testMultiFieldStdDeviation() throws Exception {
+        final Fields groupField = new Fields("user");
+        final Fields testFields = new Fields("user", "a", "b", "c");
+        final Fields resultFields = new Fields("a_sd", "b_sd", "c_sd");
+        
+        String in = "build/test/StdDeviationTest/testMultiFieldStdDeviation/in";
+        String out = "build/test/StdDeviationTest/testMultiFieldStdDeviation/out";
+
+        Lfs sourceTap = new Lfs(new SequenceFile(testFields), in, SinkMode.REPLACE);
+        TupleEntryCollector write = sourceTap.openForWrite(new HadoopFlowProcess());
+        
+        // Field c is always null, and b is null for every other tuple.
+        Random gen = new Random(1L);
+        for (int i = 0; i < 10000; i++) {
+            Double b = ((i % 2) == 0) ? null : gen.nextGaussian() * 10.0;
+            write.add(new Tuple("user1", gen.nextGaussian(), b, null));
+        }
+        
+        write.close();
+
+        Pipe pipe = new Pipe("test");
+        pipe = new GroupBy(pipe, groupField);
+        pipe = new Every(pipe, new Fields("a", "b", "c"), new MultiFieldStdDeviation(resultFields), Fields.ALL);
+        
+        Lfs sinkTap = new Lfs(new SequenceFile(groupField.append(resultFields)), out, SinkMode.REPLACE);
+        
+        Flow flow = new HadoopFlowConnector().connect(sourceTap, sinkTap, pipe);
+        flow.complete();
+        
+        TupleEntryIterator iter = sinkTap.openForRead(new HadoopFlowProcess());
+
+        TupleEntry te = iter.next();
+        assertEquals("user1", te.getString("user"));
+        assertEquals(1.0, te.getDouble("a_sd"), 0.05);
+        assertEquals(10.0, te.getDouble("b_sd"), 0.5);
+        assertEquals(0.0, te.getDouble("c_sd"), 0.0);
+        
+        assertFalse(iter.hasNext());
+    }
 }
@@ -0,0 +1,154 @@
+package com.scaleunlimited.cascading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+import cascading.flow.Flow;
+import cascading.flow.hadoop.HadoopFlowConnector;
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.scheme.hadoop.SequenceFile;
+import cascading.tap.SinkMode;
+import cascading.tap.hadoop.Lfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+
+import com.scaleunlimited.cascading.SummaryStats.Context;
+import com.scaleunlimited.cascading.SummaryStats.Statistic;
+
+public class SummaryStatsTest {
+
+    private static final Fields GROUP_FIELD = new Fields("user");
+    private static final Fields STATS_FIELDS = new Fields("count", "sum", "min", "max", "mean", "variance", "p50");
+    private static final Statistic[] STATISTICS = new Statistic[] {
+        Statistic.COUNT, Statistic.SUM, Statistic.MIN, Statistic.MAX, Statistic.MEAN, Statistic.VARIANCE
+    };
+    private static final double[] QUANTILES = new double[] {0.5};
+
+    @Test
+    public void testContextMerge() throws Exception {
+        Context all = new Context(QuantileSketch.DEFAULT_K);
+        Context merged = new Context(QuantileSketch.DEFAULT_K);
+        Context partial = new Context(QuantileSketch.DEFAULT_K);
+        for (int i = 1; i <= 1000; i++) {
+            all.add(i);
+            partial.add(i);
+
+            if ((i % 100) == 0) {
+                merged.merge(roundTrip(partial));
+                partial.reset();
+            }
+        }
+
+        for (Statistic statistic : Statistic.values()) {
+            assertEquals(statistic.name(), ((Number)all.getStatistic(statistic)).doubleValue(), ((Number)merged.getStatistic(statistic)).doubleValue(), 0.0001);
+        }
+
+        assertEquals(1000L, merged.getStatistic(Statistic.COUNT));
+        assertEquals(500.5, (Double)merged.getStatistic(Statistic.MEAN), 0.0);
+        
+        // The quantile is an estimate, with a rank error of about 1%.
+        assertEquals(500.0, merged.getQuantiles(QUANTILES)[0], 10.0);
+    }
+
+    @Test
+    public void testEmptyContext() throws Exception {
+        Context context = new Context();
+        assertEquals(0L, context.getStatistic(Statistic.COUNT));
+        assertEquals(0.0, (Double)context.getStatistic(Statistic.SUM), 0.0);
+        assertTrue(Double.isNaN((Double)context.getStatistic(Statistic.MIN)));
+        assertTrue(Double.isNaN((Double)context.getStatistic(Statistic.MEAN)));
+    }
+
+    @Test
+    public void testSummaryStats() throws Exception {
+        Lfs sourceTap = makeSourceTap("build/test/SummaryStatsTest/testSummaryStats/in");
+
+        Pipe pipe = new Pipe("test");
+        pipe = new GroupBy(pipe, GROUP_FIELD);
+        pipe = new Every(pipe, new Fields("value"), new SummaryStats(STATS_FIELDS, STATISTICS, QUANTILES), Fields.ALL);
+
+        checkResults(sourceTap, pipe, "build/test/SummaryStatsTest/testSummaryStats/out");
+    }
+
+    @Test
+    public void testSummaryStatsBy() throws Exception {
+        Lfs sourceTap = makeSourceTap("build/test/SummaryStatsTest/testSummaryStatsBy/in");
+
+        // Use a threshold of 1, so that we get lots of partial results to merge.
+        Pipe pipe = new Pipe("test");
+        pipe = new SummaryStatsBy(null, Pipe.pipes(pipe), GROUP_FIELD, new Fields("value"), STATS_FIELDS, STATISTICS, QUANTILES, 1);
+
+        checkResults(sourceTap, pipe, "build/test/SummaryStatsTest/testSummaryStatsBy/out");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedFields() throws Exception {
+        new SummaryStats(new Fields("count"), Statistic.COUNT, Statistic.SUM);
+    }
+
+    private Context roundTrip(Context context) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        context.write(new DataOutputStream(baos));
+
+        Context result = new Context();
+        result.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        return result;
+    }
+
+    private Lfs makeSourceTap(String in) throws Exception {
+        Lfs sourceTap = new Lfs(new SequenceFile(new Fields("user", "value")), in, SinkMode.REPLACE);
+        TupleEntryCollector write = sourceTap.openForWrite(new HadoopFlowProcess());
+
+        // user1 gets the values 1...100, interleaved with a constant value for user2.
+        for (int i = 1; i <= 100; i++) {
+            write.add(new Tuple("user1", (double)i));
+
+            if ((i % 10) == 0) {
+                write.add(new Tuple("user2", 5.0));
+            }
+        }
+
+        write.close();
+        return sourceTap;
+    }
+
+    private void checkResults(Lfs sourceTap, Pipe pipe, String out) throws Exception {
+        Lfs sinkTap = new Lfs(new SequenceFile(GROUP_FIELD.append(STATS_FIELDS)), out, SinkMode.REPLACE);
+
+        Flow flow = new HadoopFlowConnector().connect(sourceTap, sinkTap, pipe);
+        flow.complete();
+
+        TupleEntryIterator iter = sinkTap.openForRead(new HadoopFlowProcess());
+
+        TupleEntry te = iter.next();
+        assertEquals("user1", te.getString("user"));
+        assertEquals(100, te.getLong("count"));
+        assertEquals(5050.0, te.getDouble("sum"), 0.0);
+        assertEquals(1.0, te.getDouble("min"), 0.0);
+        assertEquals(100.0, te.getDouble("max"), 0.0);
+        assertEquals(50.5, te.getDouble("mean"), 0.0001);
+        assertEquals(833.25, te.getDouble("variance"), 0.0001);
+        assertEquals(50.0, te.getDouble("p50"), 0.0);
+
+        te = iter.next();
+        assertEquals("user2", te.getString("user"));
+        assertEquals(10, te.getLong("count"));
+        assertEquals(0.0, te.getDouble("variance"), 0.0);
+
+        assertFalse(iter.hasNext());
+    }
+}
@@ -0,0 +1,131 @@
+package com.scaleunlimited.cascading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cascading.flow.Flow;
+import cascading.flow.hadoop.HadoopFlowConnector;
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.pipe.Pipe;
+import cascading.scheme.hadoop.SequenceFile;
+import cascading.tap.SinkMode;
+import cascading.tap.hadoop.Lfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+
+public class TopKTest {
+
+    @Test
+    public void test() throws Exception {
+        final Fields groupField = new Fields("user");
+        final Fields itemField = new Fields("domain");
+        final Fields countField = new Fields("count");
+        final Fields testFields = new Fields("user", "domain");
+        
+        String in = "build/test/TopKTest/test/in";
+        String out = "build/test/TopKTest/test/out";
+
+        Lfs sourceTap = new Lfs(new SequenceFile(testFields), in, SinkMode.REPLACE);
+        TupleEntryCollector write = sourceTap.openForWrite(new HadoopFlowProcess());
+        
+        // user1 has domain-0 x 1, domain-1 x 2, ... domain-9 x 10, interleaved with user2,
+        // which only has one domain.
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j <= i; j++) {
+                write.add(new Tuple("user1", "domain-" + i));
+                write.add(new Tuple("user2", "domain-x"));
+            }
+        }
+        
+        write.add(new Tuple("user2", null));
+        write.close();
+
+        // Use a threshold of 1, so that we get lots of sketches to merge.
+        Pipe pipe = new Pipe("test");
+        pipe = new TopK(null, Pipe.pipes(pipe), groupField, itemField, countField, 2, 20, 1);
+        
+        Lfs sinkTap = new Lfs(new SequenceFile(groupField.append(itemField).append(countField)), out, SinkMode.REPLACE);
+        
+        Flow flow = new HadoopFlowConnector().connect(sourceTap, sinkTap, pipe);
+        flow.complete();
+        
+        TupleEntryIterator iter = sinkTap.openForRead(new HadoopFlowProcess());
+
+        TupleEntry te = iter.next();
+        assertEquals("user1", te.getString("user"));
+        assertEquals("domain-9", te.getString("domain"));
+        assertEquals(10, te.getLong("count"));
+        
+        te = iter.next();
+        assertEquals("user1", te.getString("user"));
+        assertEquals("domain-8", te.getString("domain"));
+        assertEquals(9, te.getLong("count"));
+        
+        te = iter.next();
+        assertEquals("user2", te.getString("user"));
+        assertEquals("domain-x", te.getString("domain"));
+        assertEquals(55, te.getLong("count"));
+        
+        assertFalse(iter.hasNext());
+    }
+    
+    @Test
+    public void testFullSketch() throws Exception {
+        final Fields groupField = new Fields("user");
+        final Fields itemField = new Fields("domain");
+        final Fields countField = new Fields("count");
+        final Fields testFields = new Fields("user", "domain");
+        
+        String in = "build/test/TopKTest/testFullSketch/in";
+        String out = "build/test/TopKTest/testFullSketch/out";
+
+        Lfs sourceTap = new Lfs(new SequenceFile(testFields), in, SinkMode.REPLACE);
+        TupleEntryCollector write = sourceTap.openForWrite(new HadoopFlowProcess());
+        
+        // Two heavy hitters, mixed in with lots of domains that only occur once, so a sketch
+        // with a capacity of 5 has to evict items, and the merges have to deal with full sketches.
+        final int numValues = 70;
+        for (int i = 0; i < 20; i++) {
+            write.add(new Tuple("user1", "domain-a"));
+            write.add(new Tuple("user1", "domain-b"));
+            write.add(new Tuple("user1", "domain-light-" + i));
+        }
+        
+        for (int i = 0; i < 10; i++) {
+            write.add(new Tuple("user1", "domain-a"));
+        }
+        
+        write.close();
+
+        // Use a threshold of 1, so that we get lots of sketches to merge.
+        Pipe pipe = new Pipe("test");
+        pipe = new TopK(null, Pipe.pipes(pipe), groupField, itemField, countField, 2, 5, 1);
+        
+        Lfs sinkTap = new Lfs(new SequenceFile(groupField.append(itemField).append(countField)), out, SinkMode.REPLACE);
+        
+        Flow flow = new HadoopFlowConnector().connect(sourceTap, sinkTap, pipe);
+        flow.complete();
+        
+        // Counts are upper bounds, and can be too high by at most N/capacity.
+        final long maxError = numValues / 5;
+        TupleEntryIterator iter = sinkTap.openForRead(new HadoopFlowProcess());
+
+        TupleEntry te = iter.next();
+        assertEquals("domain-a", te.getString("domain"));
+        assertTrue(te.getLong("count") >= 30);
+        assertTrue(te.getLong("count") <= 30 + maxError);
+        
+        te = iter.next();
+        assertEquals("domain-b", te.getString("domain"));
+        assertTrue(te.getLong("count") >= 20);
+        assertTrue(te.getLong("count") <= 20 + maxError);
+        
+        assertFalse(iter.hasNext());
+    }
+}
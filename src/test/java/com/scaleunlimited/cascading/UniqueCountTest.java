@@ -105,6 +105,69 @@ public class UniqueCountTest extends Assert {
     }
 
     
+    @Test
+    public void testExactFilter() throws Exception {
+        final Fields groupFields = new Fields("user");
+        LocalPlatform platform = new LocalPlatform(UniqueCountTest.class);
+        Flow flow = makeFlow("testExactFilter", 10, groupFields, new Fields("id"), false, platform, null, null, true);
+        flow.complete();
+        
+        int[] counts = getUniqueCounts(platform, "testExactFilter", groupFields, "user-0", 4);
+        assertEquals(1, counts.length);
+        assertEquals(2, counts[0]);
+        
+        flow = makeFlow("testExactFilterMultipleUniqueFields", 10, groupFields, new Fields("id", "value"), false, platform, null, null, true);
+        flow.complete();
+        counts = getUniqueCounts(platform, "testExactFilterMultipleUniqueFields", groupFields, "user-6", 4);
+        assertEquals(1, counts.length);
+        assertEquals(3, counts[0]);
+    }
+    
+    @Test
+    public void testApproximate() throws Exception {
+        final Fields groupFields = new Fields("user");
+        LocalPlatform platform = new LocalPlatform(UniqueCountTest.class);
+        Flow flow = makeFlow("testApproximate", 10, groupFields, new Fields("id"), false, platform, HyperLogLog.DEFAULT_PRECISION);
+        flow.complete();
+        
+        // Counts this small are exact, since HyperLogLog uses linear counting.
+        int[] counts = getUniqueCounts(platform, "testApproximate", groupFields, "user-0", 4);
+        assertEquals(1, counts.length);
+        assertEquals(2, counts[0]);
+        
+        flow = makeFlow("testApproximateMultipleUniqueFields", 10, groupFields, new Fields("id", "value"), false, platform, 10);
+        flow.complete();
+        counts = getUniqueCounts(platform, "testApproximateMultipleUniqueFields", groupFields, "user-6", 4);
+        assertEquals(1, counts.length);
+        assertEquals(3, counts[0]);
+    }
+    
+    @Test
+    public void testDistinctSets() throws Exception {
+        final Fields groupFields = new Fields("user");
+        LocalPlatform platform = new LocalPlatform(UniqueCountTest.class);
+        Flow flow = makeFlow("testDistinctSets", 10, groupFields, new Fields("id"), false, platform, null, 10);
+        flow.complete();
+        
+        int[] counts = getUniqueCounts(platform, "testDistinctSets", groupFields, "user-0", 4);
+        assertEquals(1, counts.length);
+        assertEquals(2, counts[0]);
+        
+        // With a max set size of 1, the sets for groups with more than one unique value
+        // will overflow, so we exercise the fallback path.
+        flow = makeFlow("testDistinctSetsOverflow", 10, groupFields, new Fields("id", "value"), false, platform, null, 1);
+        flow.complete();
+        counts = getUniqueCounts(platform, "testDistinctSetsOverflow", groupFields, "user-6", 4);
+        assertEquals(1, counts.length);
+        assertEquals(3, counts[0]);
+        
+        flow = makeFlow("testDistinctSetsNull", 10, groupFields, new Fields("id"), true, platform, null, 1);
+        flow.complete();
+        counts = getUniqueCounts(platform, "testDistinctSetsNull", groupFields, "user-6", 4);
+        assertEquals(1, counts.length);
+        assertEquals(1, counts[0]);
+    }
+    
     @Test
     public void testHadoopCluster() throws Exception {
         final Fields groupFields = new Fields("user");
@@ -120,11 +183,37 @@ public class UniqueCountTest extends Assert {
         assertEquals(2, counts[0]);
     }
 
-    @SuppressWarnings({"unchecked" })
     private Flow makeFlow(String testName, int numDatums,  
                     Fields groupFields, Fields uniqueFields,
                     boolean insertNullIdField,
                     BasePlatform platform) throws Exception {
+        return makeFlow(testName, numDatums, groupFields, uniqueFields, insertNullIdField, platform, null);
+    }
+    
+    private Flow makeFlow(String testName, int numDatums,  
+                    Fields groupFields, Fields uniqueFields,
+                    boolean insertNullIdField,
+                    BasePlatform platform, Integer precision) throws Exception {
+        return makeFlow(testName, numDatums, groupFields, uniqueFields, insertNullIdField, platform, precision, null);
+    }
+    
+    private Flow makeFlow(String testName, int numDatums,  
+                    Fields groupFields, Fields uniqueFields,
+                    boolean insertNullIdField,
+                    BasePlatform platform, Integer precision, Integer maxSetSize) throws Exception {
+        return makeFlow(testName, numDatums, groupFields, uniqueFields, insertNullIdField, platform, precision, maxSetSize, false);
+    }
+    
+    /**
+     * @param precision HyperLogLog precision for an approximate count, or null for an exact count.
+     * @param maxSetSize max distinct set size for an exact count using map-side sets, or null.
+     * @param exactFilter true to remove map-side duplicates by caching values, versus fingerprints.
+     */
+    @SuppressWarnings({"unchecked" })
+    private Flow makeFlow(String testName, int numDatums,  
+                    Fields groupFields, Fields uniqueFields,
+                    boolean insertNullIdField,
+                    BasePlatform platform, Integer precision, Integer maxSetSize, boolean exactFilter) throws Exception {
         
         BasePath outputDir = platform.makePath(OUTPUT_DIR);
         BasePath testDir = platform.makePath(outputDir, testName);
@@ -156,7 +245,16 @@ public class UniqueCountTest extends Assert {
         write.close();
 
         Pipe pipe = new Pipe("test");
-        UniqueCount assembly = new UniqueCount(pipe, groupFields, uniqueFields, COUNT_FIELD, 2);
+        UniqueCount assembly;
+        if (maxSetSize != null) {
+            assembly = UniqueCount.withDistinctSets(null, Pipe.pipes(pipe), groupFields, uniqueFields, COUNT_FIELD, 2, maxSetSize);
+        } else if (exactFilter) {
+            assembly = new UniqueCount(null, Pipe.pipes(pipe), groupFields, uniqueFields, COUNT_FIELD, 2, true);
+        } else if (precision == null) {
+            assembly = new UniqueCount(pipe, groupFields, uniqueFields, COUNT_FIELD, 2);
+        } else {
+            assembly = UniqueCount.approximate(null, Pipe.pipes(pipe), groupFields, uniqueFields, COUNT_FIELD, 2, precision);
+        }
 
         Pipe uniqueCountsPipe = assembly.getTailPipe();
         
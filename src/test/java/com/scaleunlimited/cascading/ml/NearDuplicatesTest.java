@@ -0,0 +1,148 @@
+package com.scaleunlimited.cascading.ml;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import cascading.flow.FlowDef;
+import cascading.flow.local.LocalFlowConnector;
+import cascading.flow.local.LocalFlowProcess;
+import cascading.operation.DebugLevel;
+import cascading.pipe.Each;
+import cascading.pipe.Pipe;
+import cascading.tap.SinkMode;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+
+import com.scaleunlimited.cascading.local.InMemoryTap;
+import com.scaleunlimited.maps.StringIntMap;
+
+public class NearDuplicatesTest {
+
+    @Test
+    public void testFingerprints() throws Exception {
+        Random rand = new Random(1L);
+        StringIntMap terms1 = new StringIntMap();
+        StringIntMap terms2 = new StringIntMap();
+        StringIntMap terms3 = new StringIntMap();
+        for (int i = 0; i < 300; i++) {
+            String word = "word-" + rand.nextInt(200);
+            terms1.addTo(word, 1);
+            terms2.addTo(i == 0 ? "changed" : word, 1);
+            terms3.addTo("otherword-" + i, 1);
+        }
+
+        long fingerprint1 = SimHashFingerprint.getFingerprint(terms1);
+
+        // Same terms (in a different map) give the same fingerprint.
+        StringIntMap copy = new StringIntMap();
+        StringIntMap.Cursor cursor = terms1.cursor();
+        while (cursor.next()) {
+            copy.put(cursor.getKeyAsString(), cursor.getValue());
+        }
+
+        assertEquals(fingerprint1, SimHashFingerprint.getFingerprint(copy));
+
+        // One changed term should only flip a few bits, but an unrelated doc should be
+        // different in about half of them.
+        assertTrue(SimHashFingerprint.getHammingDistance(fingerprint1, SimHashFingerprint.getFingerprint(terms2)) <= 3);
+        assertTrue(SimHashFingerprint.getHammingDistance(fingerprint1, SimHashFingerprint.getFingerprint(terms3)) > 16);
+    }
+
+    @Test
+    public void testWeights() throws Exception {
+        // A term with a big enough weight determines the entire fingerprint.
+        StringIntMap terms1 = new StringIntMap();
+        terms1.put("a", 10);
+        terms1.put("b", 1);
+        terms1.put("c", 1);
+
+        StringIntMap terms2 = new StringIntMap();
+        terms2.put("a", 1);
+
+        assertEquals(SimHashFingerprint.getFingerprint(terms2), SimHashFingerprint.getFingerprint(terms1));
+    }
+
+    @Test
+    public void testHammingDistance() throws Exception {
+        assertEquals(0, SimHashFingerprint.getHammingDistance(0x1234L, 0x1234L));
+        assertEquals(1, SimHashFingerprint.getHammingDistance(0L, Long.MIN_VALUE));
+        assertEquals(64, SimHashFingerprint.getHammingDistance(0L, -1L));
+    }
+
+    @Test
+    public void testNumTables() throws Exception {
+        assertEquals(20, NearDuplicates.getNumTables(6, 3));
+        assertEquals(1, NearDuplicates.getNumTables(4, 0));
+        assertEquals(4, NearDuplicates.getNumTables(4, 1));
+    }
+
+    @Test
+    public void testNearDuplicates() throws Exception {
+        Random rand = new Random(1L);
+        StringBuilder text1 = new StringBuilder();
+        StringBuilder text2 = new StringBuilder();
+        StringBuilder text3 = new StringBuilder();
+        StringIntMap terms1 = new StringIntMap();
+        StringIntMap terms2 = new StringIntMap();
+        for (int i = 0; i < 300; i++) {
+            String word = "word-" + rand.nextInt(200);
+            String otherWord = (i == 0 ? "changed" : word);
+            terms1.addTo(word, 1);
+            terms2.addTo(otherWord, 1);
+
+            text1.append(word);
+            text1.append(' ');
+            text2.append(otherWord);
+            text2.append(' ');
+            text3.append("otherword-" + i);
+            text3.append(' ');
+        }
+
+        int distance = SimHashFingerprint.getHammingDistance(SimHashFingerprint.getFingerprint(terms1), SimHashFingerprint.getFingerprint(terms2));
+
+        InMemoryTap sourceTap = new InMemoryTap(new Fields("docId", "text"));
+        TupleEntryCollector writer = sourceTap.openForWrite(new LocalFlowProcess());
+        writer.add(new Tuple("1", text1.toString()));
+        writer.add(new Tuple("2", text2.toString()));
+        writer.add(new Tuple("3", text3.toString()));
+        writer.add(new Tuple("4", text1.toString()));
+        writer.close();
+
+        Pipe p = new Pipe("source");
+        p = new Each(p, new Fields("text"), new SimHashFingerprint(new SplitterParser()), Fields.ALL);
+        p = new NearDuplicates(p, "docId", SimHashFingerprint.FINGERPRINT_FN, 3);
+
+        Fields resultFields = new Fields("docId", SimHash.SIMILAR_DOC_ID_FN, NearDuplicates.DISTANCE_FN);
+        InMemoryTap sinkTap = new InMemoryTap(Fields.ALL, resultFields, SinkMode.REPLACE);
+
+        FlowDef flowDef = new FlowDef()
+            .setName("NearDuplicatesTest")
+            .addSource(p, sourceTap)
+            .addTailSink(p, sinkTap)
+            .setDebugLevel(DebugLevel.VERBOSE);
+
+        new LocalFlowConnector().connect(flowDef).complete();
+
+        // Each pair should only show up once, even though it's in the same bucket for
+        // lots of tables.
+        Set<Tuple> results = new HashSet<Tuple>();
+        TupleEntryIterator iter = sinkTap.openForRead(new LocalFlowProcess());
+        while (iter.hasNext()) {
+            assertTrue(results.add(iter.next().getTupleCopy()));
+        }
+        
+        Set<Tuple> expected = new HashSet<Tuple>();
+        expected.add(new Tuple("1", "2", distance));
+        expected.add(new Tuple("1", "4", 0));
+        expected.add(new Tuple("2", "4", distance));
+        assertEquals(expected, results);
+        iter.close();
+    }
+}
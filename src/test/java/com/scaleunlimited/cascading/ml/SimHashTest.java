@@ -152,12 +152,112 @@ public class SimHashTest {
         runTest(inputData, results2, 3, 1);
     }
 
+    @Test
+    public void testBanded() throws Exception {
+        // Two documents that are 95% the same, and one that's different.
+        final int numWordsPerDoc = 1000;
+        List<Tuple> inputData = new ArrayList<Tuple>();
+        Random rand = new Random(1L);
+        int numSimilarWords = 0;
+        for (int i = 0; i < numWordsPerDoc; i++) {
+            inputData.add(new Tuple("1", "word-" + i));
+            
+            if (rand.nextFloat() < 0.95f) {
+                numSimilarWords += 1;
+                inputData.add(new Tuple("2", "word-" + i));
+            } else {
+                inputData.add(new Tuple("2", "otherword-" + i));
+            }
+            
+            inputData.add(new Tuple("3", "differentword-" + i));
+        }
+        
+        float trueSimilarity = (float)numSimilarWords/(float)numWordsPerDoc;
+        
+        Tuple[] results = new Tuple[] {
+                        new Tuple("1", "2", trueSimilarity)
+        };
+        
+        Pipe p = new Pipe("source");
+        p = new SimHash(p, "docId", "term", 20, 5, SimHash.DEFAULT_MAX_BUCKET_SIZE, 1);
+        runTest(inputData.toArray(new Tuple[inputData.size()]), results, p);
+    }
+    
+    @Test
+    public void testBandedIdenticalDocs() throws Exception {
+        Tuple[] inputData = new Tuple[] {
+                        new Tuple("1", "a"),
+                        new Tuple("1", "b"),
+                        new Tuple("1", "c"),
+                        new Tuple("2", "a"),
+                        new Tuple("2", "b"),
+                        new Tuple("2", "c"),
+                        new Tuple("3", "d"),
+                        new Tuple("3", "e")
+        };
+        
+        // Each doc has at most 3 of the 4 hashes, so the similarity is 3/4.
+        Tuple[] results = new Tuple[] {
+                        new Tuple("1", "2", 0.75f)
+        };
+        
+        Pipe p = new Pipe("source");
+        p = new SimHash(p, "docId", "term", 2, 2, 2, 1);
+        runTest(inputData, results, p);
+    }
+
+    @Test
+    public void testText() throws Exception {
+        // Same as testComplex, but with one tuple per doc, and some repeated terms.
+        Tuple[] inputData = new Tuple[] {
+                        new Tuple("1", "a b c a"),
+                        new Tuple("2", "a b d b"),
+                        new Tuple("3", "a e f")
+        };
+        
+        Tuple[] results = new Tuple[] {
+                        new Tuple("1", "2", 0.667f),
+                        new Tuple("1", "3", 0.333f),
+                        new Tuple("2", "3", 0.333f)
+        };
+        
+        Pipe p = new Pipe("source");
+        p = new SimHash(p, "docId", "text", new SplitterParser(), 3, 2);
+        runTest(new Fields("docId", "text"), inputData, results, p);
+    }
+    
+    @Test
+    public void testBandedText() throws Exception {
+        Tuple[] inputData = new Tuple[] {
+                        new Tuple("1", "a b c"),
+                        new Tuple("2", "c b a b"),
+                        new Tuple("3", "d e")
+        };
+        
+        Tuple[] results = new Tuple[] {
+                        new Tuple("1", "2", 0.75f)
+        };
+        
+        Pipe p = new Pipe("source");
+        p = new SimHash(p, "docId", "text", new SplitterParser(), 2, 2, 2, 1);
+        runTest(new Fields("docId", "text"), inputData, results, p);
+    }
+    
     protected void runTest(Tuple[] inputTuples, Tuple[] results) throws Exception {
         runTest(inputTuples, results, 1, 1);
     }
     
     protected void runTest(Tuple[] inputTuples, Tuple[] results, int numHashes, int numSimilarDocs) throws Exception {
-        final Fields sourceFields = new Fields("docId", "term");
+        Pipe p = new Pipe("source");
+        p = new SimHash(p, "docId", "term", numHashes, numSimilarDocs);
+        runTest(inputTuples, results, p);
+    }
+    
+    protected void runTest(Tuple[] inputTuples, Tuple[] results, Pipe p) throws Exception {
+        runTest(new Fields("docId", "term"), inputTuples, results, p);
+    }
+    
+    protected void runTest(Fields sourceFields, Tuple[] inputTuples, Tuple[] results, Pipe p) throws Exception {
         InMemoryTap sourceTap = new InMemoryTap(sourceFields);
         TupleEntryCollector writer = sourceTap.openForWrite(new LocalFlowProcess());
         for (Tuple inputTuple : inputTuples) {
@@ -165,9 +265,6 @@ public class SimHashTest {
         }
         writer.close();
         
-        Pipe p = new Pipe("source");
-        p = new SimHash(p, "docId", "term", numHashes, numSimilarDocs);
-        
         InMemoryTap sinkTap = new InMemoryTap(  Fields.ALL,
                                                 new Fields("docId", SimHash.SIMILAR_DOC_ID_FN, SimHash.SIMILARITY_FN),
                                                 SinkMode.REPLACE);
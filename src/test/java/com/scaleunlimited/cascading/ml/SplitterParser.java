@@ -0,0 +1,47 @@
+package com.scaleunlimited.cascading.ml;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Simple parser for tests, which splits the text on spaces. If <shingle> is true, then
+ * every pair of adjacent words is also returned as a term.
+ */
+class SplitterParser implements ITermsParser {
+
+    private String _text;
+    private boolean _shingle;
+
+    public SplitterParser() {
+        this(false);
+    }
+
+    public SplitterParser(boolean shingle) {
+        _shingle = shingle;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        String[] words = _text.split(" ");
+        ArrayList<String> terms = new ArrayList<String>(words.length * 2);
+
+        for (int i = 0; i < words.length; i++) {
+            terms.add(words[i]);
+            if (_shingle && (i + 1 < words.length)) {
+                terms.add(words[i] + " " + words[i + 1]);
+            }
+        }
+
+        return terms.iterator();
+    }
+
+    @Override
+    public void reset(String text) {
+        _text = text;
+    }
+
+    @Override
+    public int getNumWords(String term) {
+        return 1;
+    }
+}
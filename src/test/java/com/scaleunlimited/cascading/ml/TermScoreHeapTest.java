@@ -0,0 +1,84 @@
+package com.scaleunlimited.cascading.ml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TermScoreHeapTest {
+
+    @Test
+    public void testTopTerms() throws Exception {
+        TermScoreHeap heap = new TermScoreHeap(3);
+        heap.add("b", 2.0);
+        heap.add("a", 1.0);
+        heap.add("d", 4.0);
+        assertTrue(heap.add("c", 3.0));
+        assertFalse(heap.add("e", 0.5));
+        assertEquals(3, heap.size());
+        
+        heap.sort();
+        assertEquals("d", heap.getTerm(0));
+        assertEquals(4.0, heap.getScore(0), 0.0);
+        assertEquals("c", heap.getTerm(1));
+        assertEquals("b", heap.getTerm(2));
+        
+        // Should be reusable after clearing.
+        heap.clear();
+        assertEquals(0, heap.size());
+        heap.add("x", 1.0);
+        heap.sort();
+        assertEquals(1, heap.size());
+        assertEquals("x", heap.getTerm(0));
+    }
+    
+    @Test
+    public void testTies() throws Exception {
+        // Terms that sort first win ties, regardless of the order they're added.
+        TermScoreHeap heap = new TermScoreHeap(2);
+        heap.add("c", 1.0);
+        heap.add("b", 1.0);
+        heap.add("a", 1.0);
+        heap.sort();
+        assertEquals("a", heap.getTerm(0));
+        assertEquals("b", heap.getTerm(1));
+    }
+    
+    @Test
+    public void testEmpty() throws Exception {
+        TermScoreHeap heap = new TermScoreHeap(0);
+        assertFalse(heap.add("a", 1.0));
+        heap.sort();
+        assertEquals(0, heap.size());
+    }
+    
+    @Test
+    public void testRandomScores() throws Exception {
+        Random rand = new Random(1L);
+        TermScoreHeap heap = new TermScoreHeap(20);
+        
+        for (int doc = 0; doc < 10; doc++) {
+            heap.clear();
+            List<Double> scores = new ArrayList<Double>();
+            int numTerms = rand.nextInt(100);
+            for (int i = 0; i < numTerms; i++) {
+                double score = rand.nextDouble();
+                scores.add(score);
+                heap.add("term-" + i, score);
+            }
+            
+            Collections.sort(scores, Collections.reverseOrder());
+            heap.sort();
+            assertEquals(Math.min(20, numTerms), heap.size());
+            for (int i = 0; i < heap.size(); i++) {
+                assertEquals(scores.get(i), heap.getScore(i), 0.0);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.scaleunlimited.cascading.ml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compare the per-document cost of keeping the top N scoring terms the way that TopTermsByLLR
+ * used to (a list of TermAndScore objects that gets re-sorted every time a term makes the cut)
+ * versus a {@link TermScoreHeap}, for N = 20, 100 and 1000.
+ *
+ * This isn't run as part of the unit tests. Run it with something like:
+ *
+ *   java -cp <classpath> com.scaleunlimited.cascading.ml.TopTermsBenchmark 5000
+ *
+ * where the argument is the number of terms per document. Each measurement is repeated a few
+ * times, so that the JIT has compiled everything before we report the last (warmed up) result.
+ */
+public class TopTermsBenchmark {
+
+    private static final int NUM_ROUNDS = 5;
+    private static final int NUM_DOCS = 200;
+    private static final int[] MAX_RESULTS = {20, 100, 1000};
+
+    // So the JIT can't skip the calculations.
+    private static double _sink = 0;
+
+    private static class TermAndScore implements Comparable<TermAndScore> {
+        String _term;
+        double _score;
+
+        public TermAndScore(String term, double score) {
+            _term = term;
+            _score = score;
+        }
+
+        @Override
+        public int compareTo(TermAndScore o) {
+            if (_score > o._score) {
+                return -1;
+            } else if (_score < o._score) {
+                return 1;
+            } else {
+                return 0;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int numTerms = 5000;
+        if (args.length > 0) {
+            numTerms = Integer.parseInt(args[0]);
+        }
+
+        // Terms are sorted (as they are in CalcLLR), but scores are random.
+        Random rand = new Random(1L);
+        String[] terms = new String[numTerms];
+        double[][] scores = new double[NUM_DOCS][numTerms];
+        for (int i = 0; i < numTerms; i++) {
+            terms[i] = String.format("term-%06d", i);
+        }
+
+        for (int doc = 0; doc < NUM_DOCS; doc++) {
+            for (int i = 0; i < numTerms; i++) {
+                scores[doc][i] = rand.nextDouble() * 100.0;
+            }
+        }
+
+        for (int maxResults : MAX_RESULTS) {
+            for (int round = 0; round < NUM_ROUNDS; round++) {
+                long startTime = System.nanoTime();
+                runSortedList(terms, scores, maxResults);
+                long listNanos = System.nanoTime() - startTime;
+
+                startTime = System.nanoTime();
+                runHeap(terms, scores, maxResults);
+                long heapNanos = System.nanoTime() - startTime;
+
+                System.out.println(String.format("Round %d: top %d of %d terms, sorted list %.1f us/doc, heap %.1f us/doc",
+                                round, maxResults, numTerms, listNanos / 1000.0 / NUM_DOCS, heapNanos / 1000.0 / NUM_DOCS));
+            }
+        }
+
+        System.out.println("(ignore) " + _sink);
+    }
+
+    private static void runSortedList(String[] terms, double[][] scores, int maxResults) {
+        for (double[] docScores : scores) {
+            List<TermAndScore> queue = new ArrayList<TermAndScore>(maxResults);
+            for (int i = 0; i < terms.length; i++) {
+                double score = docScores[i];
+                if (queue.size() < maxResults) {
+                    queue.add(new TermAndScore(terms[i], score));
+                    if (queue.size() == maxResults) {
+                        Collections.sort(queue);
+                    }
+                } else if (queue.get(maxResults - 1)._score < score) {
+                    queue.set(maxResults - 1, new TermAndScore(terms[i], score));
+                    Collections.sort(queue);
+                }
+            }
+
+            _sink += queue.get(0)._score;
+        }
+    }
+
+    private static void runHeap(String[] terms, double[][] scores, int maxResults) {
+        TermScoreHeap heap = new TermScoreHeap(maxResults);
+        for (double[] docScores : scores) {
+            heap.clear();
+            for (int i = 0; i < terms.length; i++) {
+                heap.add(terms[i], docScores[i]);
+            }
+
+            heap.sort();
+            _sink += heap.getScore(0);
+        }
+    }
+}
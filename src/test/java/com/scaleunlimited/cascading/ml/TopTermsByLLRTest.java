@@ -1,7 +1,6 @@
 package com.scaleunlimited.cascading.ml;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.io.File;
 
 import junit.framework.Assert;
 
@@ -22,45 +21,12 @@ import cascading.tuple.TupleEntry;
 import cascading.tuple.TupleEntryCollector;
 import cascading.tuple.TupleEntryIterator;
 
+import com.scaleunlimited.cascading.CountMinSketch;
 import com.scaleunlimited.cascading.local.InMemoryTap;
+import com.scaleunlimited.cascading.local.LocalPlatform;
 
 public class TopTermsByLLRTest extends Assert {
 
-    private static class SplitterParser implements ITermsParser {
-
-        private String _text;
-        private boolean _shingle;
-        
-        public SplitterParser(boolean shingle) {
-            _shingle = shingle;
-        }
-        
-        @Override
-        public Iterator<String> iterator() {
-            String[] words = _text.split(" ");
-            ArrayList<String> terms = new ArrayList<String>(words.length * 2);
-            
-            for (int i = 0; i < words.length; i++) {
-                terms.add(words[i]);
-                if (_shingle && (i + 1 < words.length)) {
-                    terms.add(words[i] + " " + words[i + 1]);
-                }
-            }
-            
-            return terms.iterator();
-        }
-
-        @Override
-        public void reset(String text) {
-            _text = text;
-        }
-
-        @Override
-        public int getNumWords(String term) {
-            return 1;
-        }
-    }
-    
     private static class TestFilter implements ITermsFilter {
 
         @Override
@@ -140,6 +106,77 @@ public class TopTermsByLLRTest extends Assert {
         iter.close();
     }
 
+    @Test
+    public void testSketchCounts() throws Exception {
+        InMemoryTap sourceTap = new InMemoryTap(new Fields("docId", "text"));
+        TupleEntryCollector writer = sourceTap.openForWrite(new LocalFlowProcess());
+        writer.add(new Tuple("1", "aaa xxx"));
+        writer.add(new Tuple("1", "xxx"));
+        writer.add(new Tuple("2", "xxx bbb"));
+        writer.close();
+        
+        // First build the sketch of term counts.
+        LocalPlatform platform = new LocalPlatform(TopTermsByLLRTest.class);
+        Pipe p = new Pipe("docs");
+        SubAssembly sketchAssembly = new TermCountsSketch(p, new SplitterParser(false), new Fields("text"));
+        InMemoryTap sketchTap = new InMemoryTap(TermCountsSketch.SKETCH_FIELD, TermCountsSketch.SKETCH_FIELD, SinkMode.REPLACE);
+        Flow f = new LocalFlowConnector().connect(sourceTap, sketchTap, sketchAssembly);
+        f.complete();
+        
+        CountMinSketch sketch = TermCountsSketch.readSketch(platform, sketchTap);
+        assertEquals(5, sketch.getTotalCount());
+        assertEquals(3, sketch.getCount("xxx"));
+        
+        String sharedDir = TermCountsSketch.shareSketch(platform, sketch, new File("build/test/TopTermsByLLRTest/testSketchCounts/sketch"));
+        
+        // Now use it to score terms, which should give the same results as the CoGroup version,
+        // since the sketch is big enough for exact counts.
+        p = new Pipe("docs");
+        SubAssembly ttbllr = new TopTermsByLLR(p, new SplitterParser(false), new ITermsFilter() {
+            
+            @Override
+            public int getMaxResults() {
+                return 1;
+            }
+            
+            @Override
+            public boolean filter(double llrScore, String term, ITermsParser parser) {
+                return false;
+            }
+        }, new Fields("docId"), new Fields("text"), platform, sharedDir);
+        Pipe results = new Pipe("scores", ttbllr.getTails()[0]);
+        results = new GroupBy(results, new Fields("docId"));
+        
+        Fields resultFields = new Fields("docId", "terms", "scores");
+        InMemoryTap sinkTap = new InMemoryTap(resultFields, resultFields, SinkMode.REPLACE);
+        
+        f = new LocalFlowConnector().connect(sourceTap, sinkTap, results);
+        f.complete();
+        
+        TupleEntryIterator iter = sinkTap.openForRead(new LocalFlowProcess());
+        
+        assertTrue(iter.hasNext());
+        TupleEntry te = iter.next();
+        assertEquals("1", te.getString("docId"));
+        Tuple terms = (Tuple)te.getObject("terms");
+        assertEquals(1, terms.size());
+        assertEquals("aaa", terms.getString(0));
+        Tuple scores = (Tuple)te.getObject("scores");
+        assertEquals(LogLikelihood.rootLogLikelihoodRatio(1, 2, 0, 2), scores.getDouble(0), .0001);
+        
+        assertTrue(iter.hasNext());
+        te = iter.next();
+        assertEquals("2", te.getString("docId"));
+        terms = (Tuple)te.getObject("terms");
+        assertEquals(1, terms.size());
+        assertEquals("bbb", terms.getString(0));
+        scores = (Tuple)te.getObject("scores");
+        assertEquals(LogLikelihood.rootLogLikelihoodRatio(1, 1, 0, 3), scores.getDouble(0), .0001);
+        
+        assertFalse(iter.hasNext());
+        iter.close();
+    }
+
     @Test
     public void testFiltering() throws Exception {
         Fields groupFields = new Fields("docnum1", "docnum2");
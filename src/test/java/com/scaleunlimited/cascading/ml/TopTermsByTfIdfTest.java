@@ -0,0 +1,65 @@
+package com.scaleunlimited.cascading.ml;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import cascading.flow.Flow;
+import cascading.flow.local.LocalFlowConnector;
+import cascading.flow.local.LocalFlowProcess;
+import cascading.pipe.Pipe;
+import cascading.pipe.SubAssembly;
+import cascading.tap.SinkMode;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+
+import com.scaleunlimited.cascading.local.InMemoryTap;
+
+public class TopTermsByTfIdfTest extends Assert {
+
+    @Test
+    public void testTfIdfScores() throws Exception {
+        InMemoryTap sourceTap = new InMemoryTap(new Fields("docid", "text"));
+        TupleEntryCollector writer = sourceTap.openForWrite(new LocalFlowProcess());
+        writer.add(new Tuple("1", "aaa xxx xxx"));
+        writer.add(new Tuple("2", "xxx bbb"));
+        writer.add(new Tuple("3", "ccc ccc xxx ccc ddd"));
+        writer.close();
+        
+        Pipe p = new Pipe("docs");
+        SubAssembly ttbtfidf = new TopTermsByTfIdf(p, new SplitterParser(), 1);
+        
+        Fields resultFields = new Fields("docid", "terms", "scores");
+        InMemoryTap sinkTap = new InMemoryTap(resultFields, resultFields, SinkMode.REPLACE);
+        
+        Flow f = new LocalFlowConnector().connect(sourceTap, sinkTap, ttbtfidf);
+        f.complete();
+        
+        TupleEntryIterator iter = sinkTap.openForRead(new LocalFlowProcess());
+        
+        // "xxx" is in every document, so it should never be a top term, even when it's
+        // the most frequent term in the document. We only want one term, and we should
+        // only get one term, even for doc "3" which has three of them.
+        assertTopTerm(iter, "1", "aaa", (1.0f/3.0f) * Math.log(3.0));
+        assertTopTerm(iter, "2", "bbb", (1.0f/2.0f) * Math.log(3.0));
+        assertTopTerm(iter, "3", "ccc", (3.0f/5.0f) * Math.log(3.0));
+        assertFalse(iter.hasNext());
+    }
+    
+    private static void assertTopTerm(TupleEntryIterator iter, String docid, String term, double score) {
+        assertTrue(iter.hasNext());
+        TupleEntry te = iter.next();
+        assertEquals(docid, te.getString("docid"));
+        
+        Tuple terms = (Tuple)te.getObject("terms");
+        assertEquals(1, terms.size());
+        assertEquals(term, terms.getString(0));
+        
+        Tuple scores = (Tuple)te.getObject("scores");
+        assertEquals(1, scores.size());
+        assertEquals(score, scores.getDouble(0), .0001);
+    }
+}
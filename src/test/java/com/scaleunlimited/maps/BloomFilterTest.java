@@ -0,0 +1,39 @@
+package com.scaleunlimited.maps;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() throws Exception {
+        // Use 32-bit hashes, to make sure we spread them out across blocks.
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(HashUtils.getIntHash("value-" + i));
+        }
+        
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(HashUtils.getIntHash("value-" + i)));
+        }
+        
+        int numFalsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain(HashUtils.getIntHash("missing-" + i))) {
+                numFalsePositives += 1;
+            }
+        }
+        
+        assertTrue("False positives: " + numFalsePositives, numFalsePositives < 3000);
+        assertEquals(100000 - numFalsePositives, filter.getNumRejected());
+        
+        filter.clear();
+        assertFalse(filter.mightContain(HashUtils.getIntHash("value-0")));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFalsePositiveRate() throws Exception {
+        new BloomFilter(100, 1.0);
+    }
+}
@@ -0,0 +1,121 @@
+package com.scaleunlimited.maps;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+public class ByteArenaTest {
+
+    @Test
+    public void testSpanningBlocks() throws Exception {
+        // Use a tiny block size so that most strings span a block boundary.
+        ByteArena arena = new ByteArena(8);
+
+        final int numStrings = 1000;
+        int[] offsets = new int[numStrings];
+        for (int i = 0; i < numStrings; i++) {
+            byte[] b = HashUtils.getUTF8Bytes("string-" + i);
+            offsets[i] = arena.appendString(b, 0, b.length);
+        }
+
+        assertTrue(arena.getAllocatedSize() >= arena.size());
+
+        for (int i = 0; i < numStrings; i++) {
+            String s = "string-" + i;
+            byte[] b = HashUtils.getUTF8Bytes(s);
+            assertEquals(b.length, arena.stringLength(offsets[i]));
+            assertTrue(arena.matches(offsets[i], b, 0, b.length));
+            assertFalse(arena.matches(offsets[i], b, 0, b.length - 1));
+            assertEquals(s, arena.getString(offsets[i], b.length));
+        }
+    }
+
+    @Test
+    public void testClearRange() throws Exception {
+        ByteArena arena = new ByteArena(4);
+        byte[] b = HashUtils.getUTF8Bytes("abcdefghij");
+        int offset = arena.appendString(b, 0, b.length);
+        arena.clear(offset + 2, offset + 7);
+
+        assertEquals(2, arena.stringLength(offset));
+        assertEquals('h', arena.get(offset + 7));
+    }
+
+    @Test
+    public void testMoveAndTruncate() throws Exception {
+        ByteArena arena = new ByteArena(4);
+        byte[] b = HashUtils.getUTF8Bytes("abcdefghijklmnop");
+        arena.append(b, 0, b.length);
+        
+        // Overlapping move that crosses block boundaries for both ranges.
+        arena.move(5, 2, 10);
+        assertEquals("abfghijklmno", arena.getString(0, 12));
+        
+        arena.truncate(6);
+        assertEquals(6, arena.size());
+        assertEquals(8, arena.getAllocatedSize());
+        
+        b = HashUtils.getUTF8Bytes("xyz");
+        assertEquals(6, arena.appendString(b, 0, b.length));
+        arena.set(0, b, 0, 2);
+        assertEquals("xyfghixyz", arena.getString(0, 9));
+    }
+    
+    @Test
+    public void testReset() throws Exception {
+        ByteArena arena = new ByteArena(4);
+        byte[] b = HashUtils.getUTF8Bytes("abcdefghij");
+        arena.appendString(b, 0, b.length);
+        long allocated = arena.getAllocatedSize();
+        
+        arena.reset();
+        assertEquals(0, arena.size());
+        assertEquals(allocated, arena.getAllocatedSize());
+        
+        b = HashUtils.getUTF8Bytes("xyz");
+        int offset = arena.appendString(b, 0, b.length);
+        assertEquals(0, offset);
+        assertEquals("xyz", arena.getString(offset, arena.stringLength(offset)));
+        assertEquals(allocated, arena.getAllocatedSize());
+    }
+    
+    @Test
+    public void testSerialization() throws Exception {
+        ByteArena arena = new ByteArena(16);
+        for (int i = 0; i < 100; i++) {
+            byte[] b = HashUtils.getUTF8Bytes("value-" + i);
+            arena.appendString(b, 0, b.length);
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        arena.write(out);
+        out.close();
+
+        assertEquals(arena.size(), bos.size());
+
+        // Read it back into an arena with a different block size, which should be fine
+        // since the serialized format is just the raw bytes.
+        ByteArena arena2 = new ByteArena(1024);
+        arena2.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())), bos.size());
+        assertEquals(arena.size(), arena2.size());
+        for (int i = 0; i < arena.size(); i++) {
+            assertEquals(arena.get(i), arena2.get(i));
+        }
+    }
+
+    @Test
+    public void testInvalidBlockSize() throws Exception {
+        try {
+            new ByteArena(1000);
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
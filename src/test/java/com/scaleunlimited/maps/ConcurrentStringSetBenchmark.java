@@ -0,0 +1,101 @@
+package com.scaleunlimited.maps;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compare throughput of a {@link ConcurrentStringSet} against a StringSet wrapped in a
+ * single lock, and a ConcurrentHashMap-backed set, for 1 to 32 threads doing a mix of
+ * lookups (90%) and adds (10%).
+ *
+ * This isn't run as part of the unit tests. Run it with something like:
+ *
+ *   java -Xmx4g -cp <classpath> com.scaleunlimited.maps.ConcurrentStringSetBenchmark 1000000
+ */
+public class ConcurrentStringSetBenchmark {
+
+    private static final int[] NUM_THREADS = { 1, 2, 4, 8, 16, 32 };
+    private static final int NUM_OPS_PER_THREAD = 2000000;
+
+    private interface SetFactory {
+        public Set<String> makeSet();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numEntries = 1000000;
+        if (args.length > 0) {
+            numEntries = Integer.parseInt(args[0]);
+        }
+
+        for (int numThreads : NUM_THREADS) {
+            run("ConcurrentStringSet", new SetFactory() {
+                public Set<String> makeSet() {
+                    return new ConcurrentStringSet(32);
+                }
+            }, numEntries, numThreads);
+
+            run("Synchronized StringSet", new SetFactory() {
+                public Set<String> makeSet() {
+                    return Collections.synchronizedSet(new StringSet());
+                }
+            }, numEntries, numThreads);
+
+            // Java 6 doesn't have ConcurrentHashMap.newKeySet(), but this is the same thing.
+            run("ConcurrentHashMap set", new SetFactory() {
+                public Set<String> makeSet() {
+                    return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                }
+            }, numEntries, numThreads);
+        }
+    }
+
+    private static void run(String label, SetFactory factory, final int numEntries, int numThreads) throws Exception {
+        final Set<String> set = factory.makeSet();
+        for (int i = 0; i < numEntries; i++) {
+            set.add("term-" + i);
+        }
+
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(numThreads);
+        for (int t = 0; t < numThreads; t++) {
+            final int threadIndex = t;
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        startGate.await();
+                        
+                        // Simple LCG, so we don't contend on a shared Random.
+                        long seed = threadIndex + 1;
+                        for (int i = 0; i < NUM_OPS_PER_THREAD; i++) {
+                            seed = seed * 6364136223846793005L + 1442695040888963407L;
+                            int id = (int)((seed >>> 33) % (numEntries * 2));
+                            if ((i % 10) == 0) {
+                                set.add("term-" + id);
+                            } else {
+                                set.contains("term-" + id);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        endGate.countDown();
+                    }
+                }
+            });
+
+            thread.start();
+        }
+
+        long startTime = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        double seconds = (System.nanoTime() - startTime) / 1000000000.0;
+
+        long numOps = (long)NUM_OPS_PER_THREAD * numThreads;
+        System.out.println(String.format("%s: %d threads, %.0f ops/sec", label, numThreads, numOps / seconds));
+    }
+}
@@ -0,0 +1,177 @@
+package com.scaleunlimited.maps;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ConcurrentStringSetTest {
+
+    @Test
+    public void testSingleThreaded() throws Exception {
+        ConcurrentStringSet css = new ConcurrentStringSet(4);
+        assertTrue(css.add("a"));
+        assertFalse(css.add("a"));
+        assertTrue(css.contains("a"));
+        assertTrue(css.contains(new StringBuilder("a")));
+        byte[] bytes = HashUtils.getUTF8Bytes("a");
+        assertTrue(css.contains(bytes, 0, bytes.length));
+        assertFalse(css.contains("b"));
+        assertEquals(1, css.size());
+        assertTrue(css.remove("a"));
+        assertFalse(css.remove("a"));
+        assertTrue(css.isEmpty());
+    }
+    
+    @Test
+    public void testOneShard() throws Exception {
+        ConcurrentStringSet css = new ConcurrentStringSet(1, new Murmur3HashFunction(64));
+        for (int i = 0; i < 1000; i++) {
+            css.add("test-" + i);
+        }
+        
+        assertEquals(1000, css.size());
+        assertTrue(css.contains("test-999"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNumShards() throws Exception {
+        new ConcurrentStringSet(3);
+    }
+    
+    @Test
+    public void testMultiThreaded() throws Exception {
+        final ConcurrentStringSet css = new ConcurrentStringSet(8);
+        final int numThreads = 8;
+        final int numPerThread = 20000;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < numThreads; t++) {
+            final int threadIndex = t;
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        StringBuilder sb = new StringBuilder();
+                        for (int i = 0; i < numPerThread; i++) {
+                            String s = "test-" + threadIndex + "-" + i;
+                            assertTrue(css.add(s));
+                            
+                            // Check something we added earlier, and something another thread might be adding.
+                            int j = i / 2;
+                            sb.setLength(0);
+                            sb.append("test-").append(threadIndex).append('-').append(j);
+                            assertEquals((j % 10 != 0) || (j == i), css.contains(sb));
+                            css.contains("test-" + ((threadIndex + 1) % numThreads) + "-" + i);
+                            
+                            if ((i % 10) == 0) {
+                                assertTrue(css.remove(s));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            
+            threads.add(thread);
+            thread.start();
+        }
+        
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        
+        int expectedSize = numThreads * (numPerThread - (numPerThread / 10));
+        assertEquals(expectedSize, css.size());
+        
+        Set<String> found = new HashSet<String>();
+        Iterator<String> iter = css.iterator();
+        while (iter.hasNext()) {
+            String s = iter.next();
+            assertTrue(found.add(s));
+            if (s.endsWith("-1")) {
+                iter.remove();
+            }
+        }
+        
+        assertEquals(expectedSize, found.size());
+        assertEquals(expectedSize - numThreads, css.size());
+        assertFalse(css.contains("test-0-1"));
+    }
+    
+    @Test
+    public void testReadsDuringWrites() throws Exception {
+        // One shard, so every lookup races with the writer, which keeps growing (and so
+        // rehashing) the shard's hash table and arena.
+        final ConcurrentStringSet css = new ConcurrentStringSet(1);
+        final int numFixed = 1000;
+        for (int i = 0; i < numFixed; i++) {
+            css.add("fixed-" + i);
+        }
+        
+        final int numReaders = 4;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < numReaders; t++) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        StringBuilder sb = new StringBuilder();
+                        while (!done.get()) {
+                            for (int i = 0; i < numFixed; i++) {
+                                sb.setLength(0);
+                                sb.append("fixed-").append(i);
+                                assertTrue(css.contains(sb));
+                                
+                                byte[] b = HashUtils.getUTF8Bytes("missing-" + i);
+                                assertFalse(css.contains(b, 0, b.length));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            
+            threads.add(thread);
+            thread.start();
+        }
+        
+        for (int i = 0; i < 200000; i++) {
+            String s = "temp-" + i;
+            assertTrue(css.add(s));
+            if ((i % 2) == 0) {
+                assertTrue(css.remove(s));
+            }
+        }
+        
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        
+        assertEquals(numFixed + 100000, css.size());
+    }
+}
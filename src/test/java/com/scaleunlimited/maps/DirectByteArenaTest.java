@@ -0,0 +1,191 @@
+package com.scaleunlimited.maps;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class DirectByteArenaTest {
+
+    @Test
+    public void testSpanningBlocks() throws Exception {
+        DirectByteArena arena = new DirectByteArena(8);
+
+        final int numStrings = 1000;
+        int[] offsets = new int[numStrings];
+        for (int i = 0; i < numStrings; i++) {
+            byte[] b = HashUtils.getUTF8Bytes("string-" + i);
+            offsets[i] = arena.appendString(b, 0, b.length);
+        }
+
+        for (int i = 0; i < numStrings; i++) {
+            String s = "string-" + i;
+            byte[] b = HashUtils.getUTF8Bytes(s);
+            assertEquals(b.length, arena.stringLength(offsets[i]));
+            assertTrue(arena.matches(offsets[i], b, 0, b.length));
+            assertEquals(s, arena.getString(offsets[i], b.length));
+        }
+    }
+
+    @Test
+    public void testMoveAndTruncate() throws Exception {
+        DirectByteArena arena = new DirectByteArena(4);
+        byte[] b = HashUtils.getUTF8Bytes("abcdefghijklmnop");
+        arena.append(b, 0, b.length);
+        
+        arena.move(5, 2, 10);
+        assertEquals("abfghijklmno", arena.getString(0, 12));
+        
+        arena.truncate(6);
+        assertEquals(6, arena.size());
+        assertEquals(8, arena.getAllocatedSize());
+        
+        b = HashUtils.getUTF8Bytes("xyz");
+        assertEquals(6, arena.appendString(b, 0, b.length));
+        arena.set(0, b, 0, 2);
+        assertEquals("xyfghixyz", arena.getString(0, 9));
+    }
+    
+    @Test
+    public void testReset() throws Exception {
+        DirectByteArena arena = new DirectByteArena(4);
+        byte[] b = HashUtils.getUTF8Bytes("abcdefghij");
+        arena.appendString(b, 0, b.length);
+        long allocated = arena.getAllocatedSize();
+        
+        arena.reset();
+        assertEquals(0, arena.size());
+        assertEquals(allocated, arena.getAllocatedSize());
+        
+        b = HashUtils.getUTF8Bytes("xyz");
+        int offset = arena.appendString(b, 0, b.length);
+        assertEquals(0, offset);
+        assertEquals("xyz", arena.getString(offset, arena.stringLength(offset)));
+        assertEquals(allocated, arena.getAllocatedSize());
+    }
+    
+    @Test
+    public void testMapping() throws Exception {
+        File dir = new File("build/test/DirectByteArenaTest/testMapping/");
+        dir.mkdirs();
+        File file = new File(dir, "arena.bin");
+        file.delete();
+
+        // Write out some header bytes, followed by the arena data.
+        ByteArena arena = new ByteArena(16);
+        for (int i = 0; i < 100; i++) {
+            byte[] b = HashUtils.getUTF8Bytes("value-" + i);
+            arena.appendString(b, 0, b.length);
+        }
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(arena.size());
+        arena.write(out);
+        out.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        int size = raf.readInt();
+        DirectByteArena mapped = DirectByteArena.map(raf.getChannel(), raf.getFilePointer(), size, 16);
+        raf.close();
+
+        assertEquals(arena.size(), mapped.size());
+        for (int i = 0; i < arena.size(); i++) {
+            assertEquals(arena.get(i), mapped.get(i));
+        }
+
+        // The last mapped block is partial, so appending has to replace it.
+        byte[] b = HashUtils.getUTF8Bytes("new-value");
+        int offset = mapped.appendString(b, 0, b.length);
+        assertEquals(size, offset);
+        assertEquals("new-value", mapped.getString(offset, b.length));
+
+        // Clearing mapped data shouldn't touch the file.
+        mapped.clear(0, 8);
+        assertEquals(0, mapped.stringLength(0));
+        assertEquals(size + 4, file.length());
+
+        raf = new RandomAccessFile(file, "r");
+        raf.readInt();
+        assertEquals('v', raf.readByte());
+        raf.close();
+
+        // Resetting keeps the blocks we copied, but releases the rest of the mapping.
+        mapped.reset();
+        assertEquals(0, mapped.size());
+        assertEquals(mapped.getBlockSize(), mapped.getAllocatedSize());
+        offset = mapped.appendString(b, 0, b.length);
+        assertEquals(0, offset);
+        assertEquals("new-value", mapped.getString(offset, b.length));
+    }
+    
+    @Test
+    public void testConcurrentMappedReads() throws Exception {
+        File dir = new File("build/test/DirectByteArenaTest/testConcurrentMappedReads/");
+        dir.mkdirs();
+        File file = new File(dir, "arena.bin");
+        file.delete();
+
+        // Small blocks, so most strings span two of them.
+        final int numStrings = 1000;
+        final int[] offsets = new int[numStrings];
+        ByteArena arena = new ByteArena(16);
+        for (int i = 0; i < numStrings; i++) {
+            byte[] b = HashUtils.getUTF8Bytes("value-" + i);
+            offsets[i] = arena.appendString(b, 0, b.length);
+        }
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        arena.write(out);
+        out.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final DirectByteArena mapped = DirectByteArena.map(raf.getChannel(), 0, arena.size(), 16);
+        raf.close();
+
+        final int numThreads = 8;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < numThreads; t++) {
+            final int threadIndex = t;
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        ByteSlice slice = new ByteSlice();
+                        for (int pass = 0; pass < 20; pass++) {
+                            for (int i = 0; i < numStrings; i++) {
+                                int index = (i + threadIndex) % numStrings;
+                                String expected = "value-" + index;
+                                assertEquals(expected, mapped.getString(offsets[index], expected.length()));
+                                
+                                mapped.getSlice(offsets[index], expected.length(), slice);
+                                assertEquals(expected, slice.toString());
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            
+            threads.add(thread);
+            thread.start();
+        }
+        
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.scaleunlimited.maps;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class FrozenStringMapTest {
+
+    @Test
+    public void testLookups() throws Exception {
+        StringMap sm = new StringMap(true);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        for (int i = 0; i < 3000; i++) {
+            String key = "key-" + i;
+            String value = (i % 7 == 0) ? "" : "value-" + (i * 31);
+            sm.put(key, value);
+            expected.put(key, value);
+        }
+        
+        FrozenStringMap frozen = sm.freeze();
+        assertEquals(expected.size(), frozen.size());
+        assertEquals(expected, frozen);
+        
+        for (Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), frozen.get(entry.getKey()));
+            
+            byte[] key = HashUtils.getUTF8Bytes(entry.getKey());
+            assertEquals(entry.getValue(), frozen.get(key, 0, key.length));
+            
+            ByteSlice value = new ByteSlice();
+            assertTrue(frozen.get(key, 0, key.length, value));
+            assertEquals(entry.getValue(), value.toString());
+        }
+        
+        assertNull(frozen.get("key-"));
+        assertNull(frozen.get("key-3000"));
+        assertFalse(frozen.containsKey("zzz"));
+        
+        // Entries are in key order.
+        Iterator<Entry<String, String>> iter = frozen.entrySet().iterator();
+        for (Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry, iter.next());
+        }
+        
+        assertFalse(iter.hasNext());
+    }
+    
+    @Test
+    public void testPrefixAndRange() throws Exception {
+        StringMap sm = new StringMap();
+        for (int i = 0; i < 1000; i++) {
+            sm.put(String.format("%04d", i), "" + i);
+        }
+        
+        FrozenStringMap frozen = sm.freeze();
+        
+        FrozenStringMap.Cursor cursor = frozen.prefixCursor("042");
+        int count = 0;
+        while (cursor.next()) {
+            assertEquals(String.format("%04d", 420 + count), cursor.getKey().toString());
+            assertEquals("" + (420 + count), cursor.getValue().toString());
+            count += 1;
+        }
+        
+        assertEquals(10, count);
+        
+        Iterator<Entry<String, String>> iter = frozen.rangeIterator("0998", null);
+        assertEquals("998", iter.next().getValue());
+        assertEquals("999", iter.next().getValue());
+        assertFalse(iter.hasNext());
+    }
+    
+    @Test
+    public void testSerialization() throws Exception {
+        StringMap sm = new StringMap();
+        for (int i = 0; i < 1000; i++) {
+            sm.put("key-" + i, "value-" + i);
+        }
+        
+        FrozenStringMap frozen = sm.freeze();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        frozen.write(new DataOutputStream(bytes));
+        
+        FrozenStringMap frozen2 = new FrozenStringMap();
+        frozen2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(new HashMap<String, String>(sm), frozen2);
+        assertEquals(frozen, frozen2);
+    }
+}
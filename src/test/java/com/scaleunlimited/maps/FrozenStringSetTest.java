@@ -0,0 +1,166 @@
+package com.scaleunlimited.maps;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FrozenStringSetTest {
+
+    @Test
+    public void testLookups() throws Exception {
+        StringSet ss = new StringSet(true);
+        Random rand = new Random(1L);
+        List<String> strings = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            String s = "term-" + rand.nextInt(100000);
+            if (ss.add(s)) {
+                strings.add(s);
+            }
+        }
+        
+        // Add some strings that are prefixes of each other, and non-ASCII strings.
+        for (String s : new String[] {"a", "ab", "abc", "abcd", "abd", "b", "été", "中文", "𝄞"}) {
+            ss.add(s);
+            strings.add(s);
+        }
+        
+        FrozenStringSet frozen = ss.freeze();
+        assertEquals(ss.size(), frozen.size());
+        
+        for (String s : strings) {
+            assertTrue(s, frozen.contains(s));
+            assertTrue(s, frozen.contains(new StringBuilder(s)));
+            
+            byte[] bytes = HashUtils.getUTF8Bytes(s);
+            assertTrue(s, frozen.contains(bytes, 0, bytes.length));
+        }
+        
+        for (String s : new String[] {"", "aa", "abcde", "abca", "ac", "c", "term-", "term-x", "ét", "￿"}) {
+            assertEquals(s, ss.contains(s), frozen.contains(s));
+        }
+        
+        for (int i = 0; i < 1000; i++) {
+            String s = "term-" + rand.nextInt(100000);
+            assertEquals(s, ss.contains(s), frozen.contains(s));
+        }
+        
+        // Iteration is in sorted order, which is the same as String order for our strings.
+        List<String> sorted = new ArrayList<String>(strings);
+        Collections.sort(sorted);
+        
+        List<String> iterated = new ArrayList<String>(frozen);
+        assertEquals(sorted, iterated);
+    }
+    
+    @Test
+    public void testPrefixAndRange() throws Exception {
+        StringSet ss = new StringSet();
+        for (int i = 0; i < 1000; i++) {
+            ss.add(String.format("%04d", i));
+        }
+        
+        FrozenStringSet frozen = ss.freeze();
+        
+        List<String> result = toList(frozen.prefixIterator("012"));
+        assertEquals(10, result.size());
+        assertEquals("0120", result.get(0));
+        assertEquals("0129", result.get(9));
+        
+        assertEquals(100, toList(frozen.prefixIterator("05")).size());
+        assertEquals(1000, toList(frozen.prefixIterator("")).size());
+        assertEquals(0, toList(frozen.prefixIterator("1")).size());
+        assertEquals(0, toList(frozen.prefixIterator("00000")).size());
+        
+        result = toList(frozen.rangeIterator("0100", "0200"));
+        assertEquals(100, result.size());
+        assertEquals("0100", result.get(0));
+        assertEquals("0199", result.get(99));
+        
+        // Range ends that aren't in the set.
+        result = toList(frozen.rangeIterator("0100a", "02"));
+        assertEquals(99, result.size());
+        assertEquals("0101", result.get(0));
+        
+        assertEquals(10, toList(frozen.rangeIterator(null, "0010")).size());
+        assertEquals(10, toList(frozen.rangeIterator("0990", null)).size());
+        assertEquals(0, toList(frozen.rangeIterator("1", null)).size());
+        assertEquals(0, toList(frozen.rangeIterator("0500", "0500")).size());
+        
+        FrozenStringSet.Cursor cursor = frozen.prefixCursor("099");
+        int count = 0;
+        while (cursor.next()) {
+            assertEquals(String.format("%04d", 990 + count), cursor.getString().toString());
+            count += 1;
+        }
+        
+        assertEquals(10, count);
+    }
+    
+    @Test
+    public void testSerialization() throws Exception {
+        StringSet ss = new StringSet();
+        for (int i = 0; i < 10000; i++) {
+            ss.add("http://www.domain.com/path/page-" + i);
+        }
+        
+        FrozenStringSet frozen = ss.freeze();
+        
+        // Front-coding should make this much smaller than the raw string data.
+        ByteArrayOutputStream setBytes = new ByteArrayOutputStream();
+        ss.write(new DataOutputStream(setBytes));
+        assertTrue(frozen.getDataSize() < setBytes.size() / 2);
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        frozen.write(new DataOutputStream(bytes));
+        
+        FrozenStringSet frozen2 = new FrozenStringSet();
+        frozen2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(frozen.size(), frozen2.size());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(frozen2.contains("http://www.domain.com/path/page-" + i));
+        }
+        
+        assertFalse(frozen2.contains("http://www.domain.com/path/page-"));
+    }
+    
+    @Test
+    public void testEmptySet() throws Exception {
+        FrozenStringSet frozen = new StringSet().freeze();
+        assertEquals(0, frozen.size());
+        assertFalse(frozen.contains("a"));
+        assertFalse(frozen.iterator().hasNext());
+        assertFalse(frozen.prefixIterator("a").hasNext());
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        frozen.write(new DataOutputStream(bytes));
+        FrozenStringSet frozen2 = new FrozenStringSet();
+        frozen2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertTrue(frozen2.isEmpty());
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() throws Exception {
+        StringSet ss = new StringSet();
+        ss.add("a");
+        ss.freeze().add("b");
+    }
+    
+    private static List<String> toList(Iterator<String> iter) {
+        List<String> result = new ArrayList<String>();
+        while (iter.hasNext()) {
+            result.add(iter.next());
+        }
+        
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+package com.scaleunlimited.maps;
+
+import java.util.Random;
+
+/**
+ * Compare the JOAAT and Murmur3 hash functions, both for raw hashing speed (ns/byte
+ * at several string lengths) and for end-to-end StringSet lookup throughput.
+ *
+ * This isn't run as part of the unit tests. Run it with something like:
+ *
+ *   java -Xmx8g -cp <classpath> com.scaleunlimited.maps.HashBenchmark 10000000
+ *
+ * Each measurement is repeated a few times, so that the JIT has compiled everything
+ * before we report the last (warmed up) result.
+ */
+public class HashBenchmark {
+
+    private static final int NUM_ROUNDS = 5;
+    private static final int[] STRING_LENGTHS = { 8, 16, 32, 64, 256 };
+    private static final int BYTES_PER_LENGTH = 64 * 1024 * 1024;
+
+    private static final IHashFunction[] HASH_FUNCTIONS = {
+        new JoaatHashFunction(),
+        new Murmur3HashFunction(32),
+        new Murmur3HashFunction(64)
+    };
+
+    private static final String[] HASH_NAMES = {
+        "JOAAT-32",
+        "Murmur3-32",
+        "Murmur3-64"
+    };
+
+    // So the JIT can't skip the hashing.
+    private static long _sink = 0;
+
+    public static void main(String[] args) {
+        int numEntries = 10000000;
+        if (args.length > 0) {
+            numEntries = Integer.parseInt(args[0]);
+        }
+
+        for (int length : STRING_LENGTHS) {
+            runHashing(length);
+        }
+
+        for (int i = 0; i < HASH_FUNCTIONS.length; i++) {
+            runLookups(HASH_NAMES[i], HASH_FUNCTIONS[i], numEntries);
+        }
+
+        System.out.println("(ignore) " + _sink);
+    }
+
+    private static void runHashing(int length) {
+        byte[] data = new byte[BYTES_PER_LENGTH];
+        new Random(1L).nextBytes(data);
+        int numStrings = data.length / length;
+
+        for (int i = 0; i < HASH_FUNCTIONS.length; i++) {
+            IHashFunction hashFunction = HASH_FUNCTIONS[i];
+            long deltaNanos = 0;
+            for (int round = 0; round < NUM_ROUNDS; round++) {
+                long startTime = System.nanoTime();
+                for (int j = 0; j < numStrings; j++) {
+                    _sink += hashFunction.hash(data, j * length, length);
+                }
+
+                deltaNanos = System.nanoTime() - startTime;
+            }
+
+            System.out.println(String.format("%s: %.3f ns/byte for %d byte strings",
+                            HASH_NAMES[i], (double)deltaNanos / (numStrings * length), length));
+        }
+    }
+
+    private static void runLookups(String label, IHashFunction hashFunction, int numEntries) {
+        StringSet ss = new StringSet(hashFunction);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < numEntries; i++) {
+            ss.add("http://www.domain-" + (i % 1000) + ".com/page-" + i);
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1000000000.0;
+        System.out.println(String.format("%s: %d adds in %.1fs (%.0f adds/sec)", label, numEntries, seconds, numEntries / seconds));
+
+        // Look up a mix of present and missing strings, using a reusable StringBuilder.
+        StringBuilder sb = new StringBuilder();
+        Random rand = new Random(1L);
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            startTime = System.nanoTime();
+            int numFound = 0;
+            for (int i = 0; i < numEntries; i++) {
+                int id = rand.nextInt(numEntries * 2);
+                sb.setLength(0);
+                sb.append("http://www.domain-").append(id % 1000).append(".com/page-").append(id);
+                if (ss.contains(sb)) {
+                    numFound += 1;
+                }
+            }
+
+            seconds = (System.nanoTime() - startTime) / 1000000000.0;
+            if (round == NUM_ROUNDS - 1) {
+                System.out.println(String.format("%s: %d lookups in %.1fs (%.0f lookups/sec, %d found)",
+                                label, numEntries, seconds, numEntries / seconds, numFound));
+            }
+        }
+
+        ss.clear();
+    }
+}
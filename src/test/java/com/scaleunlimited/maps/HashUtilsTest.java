@@ -0,0 +1,85 @@
+package com.scaleunlimited.maps;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HashUtilsTest {
+
+    @Test
+    public void testCharHashMatchesByteHash() throws Exception {
+        String[] strings = {
+            "",
+            "ascii",
+            "café",
+            "日本語",
+            "emoji 😀 pair",
+            "unpaired \ud83d surrogate",
+            "trailing \ude00"
+        };
+        
+        for (String s : strings) {
+            byte[] bytes = HashUtils.getUTF8Bytes(s);
+            assertEquals(s, HashUtils.getIntHash(bytes, 0, bytes.length), HashUtils.getIntHash(s));
+            assertEquals(s, HashUtils.getIntHash(bytes, 0, bytes.length), HashUtils.getIntHash(new StringBuilder(s)));
+        }
+    }
+    
+    @Test
+    public void testRandomChars() throws Exception {
+        Random rand = new Random(1L);
+        for (int i = 0; i < 10000; i++) {
+            char[] chars = new char[rand.nextInt(20)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char)rand.nextInt(0x10000);
+            }
+            
+            String s = new String(chars);
+            byte[] bytes = HashUtils.getUTF8Bytes(s);
+            assertEquals(HashUtils.getIntHash(bytes, 0, bytes.length), HashUtils.getIntHash(s));
+        }
+    }
+
+    @Test
+    public void testMurmur3() throws Exception {
+        // Reference values from the original C++ implementation.
+        byte[] bytes = HashUtils.getUTF8Bytes("The quick brown fox jumps over the lazy dog");
+        assertEquals(0x2e4ff723, HashUtils.getMurmur3IntHash(bytes, 0, bytes.length, 0));
+        assertEquals(0xe34bbc7bbc071b6cL, HashUtils.getMurmur3LongHash(bytes, 0, bytes.length, 0));
+        assertEquals(0, HashUtils.getMurmur3IntHash(new byte[0], 0, 0, 0));
+        assertEquals(0, HashUtils.getMurmur3LongHash(new byte[0], 0, 0, 0));
+    }
+    
+    @Test
+    public void testMurmur3CharHashMatchesByteHash() throws Exception {
+        Random rand = new Random(1L);
+        for (int i = 0; i < 10000; i++) {
+            char[] chars = new char[rand.nextInt(40)];
+            for (int j = 0; j < chars.length; j++) {
+                // Mostly ASCII, with some multi-byte chars and surrogates mixed in.
+                chars[j] = (char)(rand.nextBoolean() ? rand.nextInt(0x80) : rand.nextInt(0x10000));
+            }
+            
+            String s = new String(chars);
+            byte[] bytes = HashUtils.getUTF8Bytes("x" + s);
+            assertEquals(HashUtils.getMurmur3IntHash(bytes, 1, bytes.length - 1, 17), HashUtils.getMurmur3IntHash(s, 17));
+            assertEquals(HashUtils.getMurmur3LongHash(bytes, 1, bytes.length - 1, 17), HashUtils.getMurmur3LongHash(s, 17));
+        }
+    }
+    
+    @Test
+    public void testMurmur3LongHashMatchesByteHash() throws Exception {
+        Random rand = new Random(1L);
+        byte[] bytes = new byte[8];
+        for (int i = 0; i < 10000; i++) {
+            long value = rand.nextLong();
+            for (int j = 0; j < 8; j++) {
+                bytes[j] = (byte)(value >>> (j * 8));
+            }
+            
+            assertEquals(HashUtils.getMurmur3LongHash(bytes, 0, 8, 17), HashUtils.getMurmur3LongHash(value, 17));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.scaleunlimited.maps;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIntHashTableTest {
+
+    @Test
+    public void testAgainstHashMap() throws Exception {
+        LongIntHashTable table = new LongIntHashTable(10);
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        
+        // Use a small range of keys, with poor low bits, so we get lots of probing and removals.
+        Random rand = new Random(1L);
+        for (int i = 0; i < 100000; i++) {
+            long key = (long)rand.nextInt(1000) << 40;
+            if (rand.nextInt(3) == 0) {
+                Integer oldValue = expected.remove(key);
+                assertEquals(oldValue == null ? IOffsetIndex.MISSING_OFFSET : oldValue.intValue(), table.remove(key));
+            } else {
+                int value = rand.nextInt(Integer.MAX_VALUE);
+                Integer oldValue = expected.put(key, value);
+                assertEquals(oldValue == null ? IOffsetIndex.MISSING_OFFSET : oldValue.intValue(), table.put(key, value));
+            }
+            
+            assertEquals(expected.size(), table.size());
+        }
+        
+        for (long key = 0; key < 1000; key++) {
+            Integer value = expected.get(key << 40);
+            assertEquals(value == null ? IOffsetIndex.MISSING_OFFSET : value.intValue(), table.get(key << 40));
+        }
+        
+        table.clear();
+        assertTrue(table.isEmpty());
+        assertFalse(table.containsKey(0));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeOffset() throws Exception {
+        new LongIntHashTable(10).put(1L, -1);
+    }
+}
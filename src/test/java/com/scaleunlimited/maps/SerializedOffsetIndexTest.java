@@ -0,0 +1,110 @@
+package com.scaleunlimited.maps;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SerializedOffsetIndexTest {
+
+    @Test
+    public void testLongHashes() throws Exception {
+        LongIntHashTable table = new LongIntHashTable(10);
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        
+        // Keys with poor low bits, so we get lots of probing.
+        Random rand = new Random(1L);
+        for (int i = 0; i < 10000; i++) {
+            long key = (long)rand.nextInt(100000) << 40;
+            int value = rand.nextInt(Integer.MAX_VALUE);
+            expected.put(key, value);
+            table.put(key, value);
+        }
+        
+        SerializedOffsetIndex index = roundTrip(table, 64);
+        checkIndex(expected, index, 64);
+        
+        // Changes get made to a copy, which should still have everything.
+        assertEquals(expected.get(0L) == null ? IOffsetIndex.MISSING_OFFSET : expected.get(0L).intValue(), index.put(0L, 10));
+        expected.put(0L, 10);
+        long removed = expected.keySet().iterator().next();
+        assertEquals(expected.remove(removed).intValue(), index.remove(removed));
+        checkIndex(expected, index, 64);
+    }
+    
+    @Test
+    public void testIntHashes() throws Exception {
+        IntOffsetIndex table = new IntOffsetIndex(10);
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        
+        // 32-bit hashes are in the int range, so they can be negative.
+        Random rand = new Random(1L);
+        for (int i = 0; i < 10000; i++) {
+            long key = rand.nextInt();
+            int value = rand.nextInt(Integer.MAX_VALUE);
+            expected.put(key, value);
+            table.put(key, value);
+        }
+        
+        SerializedOffsetIndex index = roundTrip(table, 32);
+        checkIndex(expected, index, 32);
+        
+        index.clear();
+        assertTrue(index.isEmpty());
+        assertEquals(IOffsetIndex.MISSING_OFFSET, index.get(expected.keySet().iterator().next()));
+    }
+    
+    @Test
+    public void testEmpty() throws Exception {
+        SerializedOffsetIndex index = roundTrip(new LongIntHashTable(0), 64);
+        assertTrue(index.isEmpty());
+        assertFalse(index.containsKey(0L));
+        assertFalse(index.cursor().next());
+    }
+    
+    @Test(expected = IOException.class)
+    public void testWrongNumBits() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SerializedOffsetIndex.write(new DataOutputStream(bytes), new IntOffsetIndex(10), 32);
+        SerializedOffsetIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 64);
+    }
+    
+    private SerializedOffsetIndex roundTrip(IOffsetIndex index, int numBits) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SerializedOffsetIndex.write(new DataOutputStream(bytes), index, numBits);
+        return SerializedOffsetIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), numBits);
+    }
+    
+    private void checkIndex(Map<Long, Integer> expected, IOffsetIndex index, int numBits) {
+        assertEquals(expected.size(), index.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().intValue(), index.get(entry.getKey()));
+        }
+        
+        // Check some missing keys.
+        Random rand = new Random(2L);
+        for (int i = 0; i < 1000; i++) {
+            long key = numBits == 32 ? rand.nextInt() : rand.nextLong();
+            if (!expected.containsKey(key)) {
+                assertFalse(index.containsKey(key));
+            }
+        }
+        
+        int numEntries = 0;
+        IOffsetIndex.Cursor cursor = index.cursor();
+        while (cursor.next()) {
+            assertEquals(expected.get(cursor.getHash()).intValue(), cursor.getOffset());
+            numEntries += 1;
+        }
+        
+        assertEquals(expected.size(), numEntries);
+    }
+}
@@ -0,0 +1,134 @@
+package com.scaleunlimited.maps;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class StringIntMapTest {
+
+    @Test
+    public void testCounting() throws Exception {
+        StringIntMap map = new StringIntMap();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey("a"));
+        assertEquals(0, map.get("a"));
+        assertEquals(-1, map.get("a", -1));
+        
+        assertEquals(1, map.addTo("a", 1));
+        assertEquals(2, map.addTo("a", 1));
+        assertEquals(5, map.addTo(new StringBuilder("b"), 5));
+        
+        byte[] bytes = HashUtils.getUTF8Bytes("été");
+        assertEquals(3, map.addTo(bytes, 0, bytes.length, 3));
+        assertEquals(3, map.get("été"));
+        assertEquals(2, map.get(HashUtils.getUTF8Bytes("a"), 0, 1));
+        
+        assertEquals(2, map.put("a", 10));
+        assertEquals(10, map.get("a"));
+        assertEquals(0, map.put("c", 7));
+        assertEquals(4, map.size());
+        
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey("a"));
+        
+        // Values from before the clear() shouldn't leak into new entries.
+        assertEquals(1, map.addTo("x", 1));
+        assertEquals(1, map.addTo("y", 1));
+    }
+    
+    @Test
+    public void testCollisions() throws Exception {
+        StringIntMap map = new StringIntMap(true);
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        Random rand = new Random(1L);
+        
+        for (int i = 0; i < 20000; i++) {
+            String key = "term-" + rand.nextInt(2000);
+            map.addTo(key, 1);
+            
+            Integer count = expected.get(key);
+            expected.put(key, count == null ? 1 : count + 1);
+        }
+        
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertEquals((int)entry.getValue(), map.get(entry.getKey()));
+        }
+        
+        StringIntMap.Cursor cursor = map.cursor();
+        int numEntries = 0;
+        while (cursor.next()) {
+            assertEquals((int)expected.get(cursor.getKey().toString()), cursor.getValue());
+            assertEquals(cursor.getKey().toString(), cursor.getKeyAsString());
+            cursor.setValue(cursor.getValue() * 2);
+            numEntries += 1;
+        }
+        
+        assertEquals(expected.size(), numEntries);
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue() * 2, map.get(entry.getKey()));
+        }
+        
+        assertFalse(map.containsKey("term-2000"));
+    }
+    
+    @Test
+    public void testSerialization() throws Exception {
+        StringIntMap map = new StringIntMap(true);
+        for (int i = 0; i < 1000; i++) {
+            map.put("key-" + i, i);
+        }
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        map.write(new DataOutputStream(bytes));
+        
+        StringIntMap map2 = new StringIntMap();
+        map2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(1000, map2.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, map2.get("key-" + i));
+        }
+        
+        // Make sure the rebuilt map can still be updated.
+        assertEquals(1000, map2.addTo("key-999", 1));
+        assertEquals(1, map2.addTo("key-1000", 1));
+        assertEquals(1001, map2.size());
+    }
+    
+    @Test
+    public void testLongAndDoubleMaps() throws Exception {
+        StringLongMap longMap = new StringLongMap(new Murmur3HashFunction(64));
+        assertEquals(Integer.MAX_VALUE + 1L, longMap.addTo("a", Integer.MAX_VALUE + 1L));
+        assertEquals(2L * Integer.MAX_VALUE + 1L, longMap.addTo("a", Integer.MAX_VALUE));
+        
+        StringDoubleMap doubleMap = new StringDoubleMap();
+        doubleMap.addTo("a", 0.5);
+        doubleMap.addTo("a", 0.25);
+        doubleMap.put("b", -1.0);
+        assertEquals(0.75, doubleMap.get("a"), 0.0);
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        longMap.write(new DataOutputStream(bytes));
+        doubleMap.write(new DataOutputStream(bytes));
+        
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        StringLongMap longMap2 = new StringLongMap(new Murmur3HashFunction(64));
+        longMap2.readFields(in);
+        StringDoubleMap doubleMap2 = new StringDoubleMap();
+        doubleMap2.readFields(in);
+        
+        assertEquals(2L * Integer.MAX_VALUE + 1L, longMap2.get("a"));
+        assertEquals(0.75, doubleMap2.get("a"), 0.0);
+        assertEquals(-1.0, doubleMap2.get("b"), 0.0);
+        assertEquals(2, doubleMap2.size());
+    }
+}
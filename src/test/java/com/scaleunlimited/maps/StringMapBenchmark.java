@@ -0,0 +1,119 @@
+package com.scaleunlimited.maps;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Compare insert throughput and peak heap usage for a StringMap (which uses a
+ * {@link ByteArena} for string data) against the original layout of one byte
+ * array that gets expanded by 64K (and copied) whenever it fills up.
+ *
+ * This isn't run as part of the unit tests. Run it with something like:
+ *
+ *   java -Xmx8g -cp <classpath> com.scaleunlimited.maps.StringMapBenchmark 10000000 50000000
+ *
+ * Note that the single array layout does O(n^2) copying, so at 50M entries it
+ * can take a very long time to complete.
+ */
+public class StringMapBenchmark {
+
+    private static final int LEGACY_BLOCKSIZE = 64 * 1024;
+
+    /**
+     * Minimal copy of the original StringMap storage: one big byte array, expanded
+     * by LEGACY_BLOCKSIZE bytes whenever the next entry doesn't fit.
+     */
+    private static class SingleArrayStore {
+        private Int2IntOpenHashMap _hashToOffsets = new Int2IntOpenHashMap(1000);
+        private byte[] _stringData = new byte[LEGACY_BLOCKSIZE];
+        private int _curStringOffset = 0;
+
+        public void put(String key, String value) {
+            byte[] keyBytes = HashUtils.getUTF8Bytes(key);
+            byte[] valueBytes = HashUtils.getUTF8Bytes(value);
+
+            int endOffset = _curStringOffset + keyBytes.length + 1 + valueBytes.length + 1;
+            if (endOffset > _stringData.length) {
+                byte[] newData = new byte[endOffset + LEGACY_BLOCKSIZE];
+                System.arraycopy(_stringData, 0, newData, 0, _curStringOffset);
+                _stringData = newData;
+            }
+
+            _hashToOffsets.put(HashUtils.getIntHash(keyBytes, 0, keyBytes.length), _curStringOffset);
+            System.arraycopy(keyBytes, 0, _stringData, _curStringOffset, keyBytes.length);
+            _curStringOffset += keyBytes.length;
+            _stringData[_curStringOffset++] = 0;
+            System.arraycopy(valueBytes, 0, _stringData, _curStringOffset, valueBytes.length);
+            _curStringOffset += valueBytes.length;
+            _stringData[_curStringOffset++] = 0;
+        }
+    }
+
+    public static void main(String[] args) {
+        int[] numEntries = { 10000000, 50000000 };
+        if (args.length > 0) {
+            numEntries = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                numEntries[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (int n : numEntries) {
+            runArena(n);
+            runSingleArray(n);
+        }
+    }
+
+    private static void runArena(int numEntries) {
+        resetPeakHeap();
+        long startTime = System.nanoTime();
+        StringMap sm = new StringMap();
+        for (int i = 0; i < numEntries; i++) {
+            sm.put("key-" + i, "value-" + i);
+        }
+
+        report("ByteArena", numEntries, System.nanoTime() - startTime);
+        sm.clear();
+    }
+
+    private static void runSingleArray(int numEntries) {
+        resetPeakHeap();
+        long startTime = System.nanoTime();
+        SingleArrayStore store = new SingleArrayStore();
+        for (int i = 0; i < numEntries; i++) {
+            store.put("key-" + i, "value-" + i);
+        }
+
+        report("Single array", numEntries, System.nanoTime() - startTime);
+        store._stringData = null;
+    }
+
+    private static void report(String label, int numEntries, long deltaNanos) {
+        double seconds = deltaNanos / 1000000000.0;
+        System.out.println(String.format("%s: %d entries in %.1fs (%.0f puts/sec), peak heap %dMB",
+                        label, numEntries, seconds, numEntries / seconds, getPeakHeap() / (1024 * 1024)));
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakHeap() {
+        long result = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                result += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        return result;
+    }
+}
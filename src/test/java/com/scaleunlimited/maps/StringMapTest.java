@@ -3,6 +3,8 @@ package com.scaleunlimited.maps;
 import static junit.framework.Assert.assertEquals;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -11,6 +13,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
@@ -299,6 +305,334 @@ public class StringMapTest {
         }
     }
     
+    @Test
+    public void testMapped() throws Exception {
+        StringMap sm = new StringMap(true);
+        
+        final int numKeys = 1000;
+        for (int i = 0; i < numKeys; i++) {
+            assertNull(sm.put("test-" + i, "value-" + i));
+        }
+        
+        File dir = new File("build/test/StringMapTest/testMapped/");
+        dir.mkdirs();
+        File file = new File(dir, "string.map");
+        file.delete();
+        
+        OutputStream os = new FileOutputStream(file);
+        DataOutputStream out = new DataOutputStream(os);
+        sm.write(out);
+        out.close();
+        
+        StringMap sm2 = StringMap.map(file);
+        assertEquals(numKeys, sm2.size());
+        for (int i = 0; i < numKeys; i++) {
+            assertEquals("value-" + i, sm2.get("test-" + i));
+        }
+        
+        // Updates go to off-heap memory, not the file.
+        assertEquals("value-0", sm2.put("test-0", "new-value"));
+        assertEquals("new-value", sm2.get("test-0"));
+        
+        StringMap sm3 = StringMap.map(file);
+        assertEquals("value-0", sm3.get("test-0"));
+    }
+    
+    @Test
+    public void testMappedWithIndex() throws Exception {
+        StringMap sm = new StringMap(true);
+        
+        final int numKeys = 1000;
+        for (int i = 0; i < numKeys; i++) {
+            assertNull(sm.put("test-" + i, "value-" + i));
+        }
+        
+        // Leave some dead space, which should still be tracked after we load the map.
+        assertEquals("value-1", sm.remove("test-1"));
+        
+        File dir = new File("build/test/StringMapTest/testMappedWithIndex/");
+        dir.mkdirs();
+        File file = new File(dir, "string.map");
+        file.delete();
+        
+        OutputStream os = new FileOutputStream(file);
+        DataOutputStream out = new DataOutputStream(os);
+        sm.write(out, true);
+        out.close();
+        
+        StringMap sm2 = StringMap.map(file);
+        assertEquals(numKeys - 1, sm2.size());
+        assertNull(sm2.get("test-1"));
+        for (int i = 2; i < numKeys; i++) {
+            assertEquals("value-" + i, sm2.get("test-" + i));
+        }
+        
+        // Updates go to off-heap memory, not the file.
+        assertEquals("value-0", sm2.put("test-0", "new-value"));
+        assertEquals("new-value", sm2.get("test-0"));
+        assertNull(sm2.put("test-1", "value-1"));
+        assertEquals(numKeys, sm2.size());
+        
+        StringMap sm3 = StringMap.map(file);
+        assertEquals("value-0", sm3.get("test-0"));
+        assertNull(sm3.get("test-1"));
+        
+        // The data can also be read the regular way.
+        InputStream is = new FileInputStream(file);
+        StringMap sm4 = new StringMap();
+        sm4.readFields(new DataInputStream(is));
+        is.close();
+        assertEquals(numKeys - 1, sm4.size());
+        assertEquals("value-999", sm4.get("test-999"));
+    }
+    
+    @Test
+    public void testCharSequenceAndBytes() throws Exception {
+        StringMap sm = new StringMap(true, 16);
+        String[] keys = { "ascii", "caf\u00e9", "\u65e5\u672c\u8a9e", "emoji \ud83d\ude00" };
+        for (String key : keys) {
+            assertNull(sm.put(key, "value-" + key));
+        }
+        
+        for (int i = 0; i < 1000; i++) {
+            sm.put("test-" + i, "value-" + i);
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        for (String key : keys) {
+            sb.setLength(0);
+            sb.append(key);
+            assertTrue(sm.containsKey(sb));
+            assertEquals("value-" + key, sm.get(sb));
+            
+            sb.append('x');
+            assertFalse(sm.containsKey(sb));
+            assertNull(sm.get(sb));
+            
+            byte[] bytes = HashUtils.getUTF8Bytes(key);
+            assertTrue(sm.containsKey(bytes, 0, bytes.length));
+            assertEquals("value-" + key, sm.get(bytes, 0, bytes.length));
+        }
+        
+        for (int i = 0; i < 1000; i++) {
+            sb.setLength(0);
+            sb.append("test-" + i);
+            assertEquals("value-" + i, sm.get(sb));
+        }
+    }
+    
+    @Test
+    public void testLongHash() throws Exception {
+        StringMap sm = new StringMap(new Murmur3HashFunction(64));
+        final int numEntries = 100000;
+        for (int i = 0; i < numEntries; i++) {
+            assertNull(sm.put("key-" + i, "value-" + i));
+        }
+        
+        assertEquals("value-0", sm.put("key-0", "new-value"));
+        assertEquals(numEntries, sm.size());
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sm.write(new DataOutputStream(bytes));
+        
+        StringMap sm2 = new StringMap(new Murmur3HashFunction(64));
+        sm2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(numEntries, sm2.size());
+        assertEquals("new-value", sm2.get("key-0"));
+        for (int i = 1; i < numEntries; i++) {
+            assertEquals("value-" + i, sm2.get(new StringBuilder("key-" + i)));
+        }
+    }
+    
+    @Test
+    public void testInPlaceUpdate() throws Exception {
+        StringMap sm = new StringMap();
+        sm.put("key1", "long value");
+        sm.put("key2", "value2");
+        int dataSize = sm.getLiveBytes();
+        assertEquals(0, sm.getDeadBytes());
+        
+        assertEquals("long value", sm.put("key1", "short"));
+        assertEquals("short", sm.get("key1"));
+        assertEquals(dataSize - 5, sm.getLiveBytes());
+        assertEquals(5, sm.getDeadBytes());
+        
+        // Doesn't fit, so we have to re-append it.
+        assertEquals("short", sm.put("key1", "much longer value"));
+        assertEquals("much longer value", sm.get("key1"));
+        assertEquals(dataSize + 7, sm.getLiveBytes());
+        assertEquals(16, sm.getDeadBytes());
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sm.write(new DataOutputStream(bytes));
+        StringMap sm2 = new StringMap();
+        sm2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(2, sm2.size());
+        assertEquals("much longer value", sm2.get("key1"));
+        assertEquals("value2", sm2.get("key2"));
+        assertEquals(sm.getLiveBytes(), sm2.getLiveBytes());
+        assertEquals(sm.getDeadBytes(), sm2.getDeadBytes());
+    }
+    
+    @Test
+    public void testCompaction() throws Exception {
+        // Use small hash so some entries are in the collision map, and small blocks so entries
+        // are moved across block boundaries.
+        StringMap sm = new StringMap(true, 64);
+        Map<String, String> expected = new HashMap<String, String>();
+        final int numEntries = 1000;
+        for (int i = 0; i < numEntries; i++) {
+            sm.put("key-" + i, "v");
+            expected.put("key-" + i, "v");
+        }
+        
+        // Each round makes the values longer, so they all have to be re-appended.
+        StringBuilder value = new StringBuilder("v");
+        for (int round = 0; round < 20; round++) {
+            value.append("-" + round);
+            for (int i = 0; i < numEntries; i += 1 + (round % 3)) {
+                sm.put("key-" + i, value + "-" + i);
+                expected.put("key-" + i, value + "-" + i);
+            }
+            
+            // Drop some entries, and add them back again with a shorter value.
+            for (int i = round; i < numEntries; i += 50) {
+                sm.remove("key-" + i);
+            }
+            
+            for (int i = round; i < numEntries; i += 50) {
+                sm.put("key-" + i, "v-" + i);
+                expected.put("key-" + i, "v-" + i);
+            }
+        }
+        
+        assertTrue(sm.getCompactionCount() > 0);
+        assertEquals(numEntries, sm.size());
+        
+        int compactionCount = sm.getCompactionCount();
+        sm.compact();
+        assertEquals(compactionCount + 1, sm.getCompactionCount());
+        assertEquals(0, sm.getDeadBytes());
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sm.write(new DataOutputStream(bytes));
+        StringMap sm2 = new StringMap(true);
+        sm2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        
+        for (StringMap map : new StringMap[] { sm, sm2 }) {
+            assertEquals(numEntries, map.size());
+            for (Map.Entry<String, String> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), map.get(entry.getKey()));
+            }
+        }
+    }
+    
+    @Test
+    public void testCompactionThreshold() throws Exception {
+        StringMap sm = new StringMap();
+        sm.setCompactionThreshold(1.0f);
+        
+        String value = "0123456789";
+        for (int i = 0; i < 10000; i++) {
+            sm.put("key-" + i, value);
+            sm.remove("key-" + i);
+        }
+        
+        assertEquals(0, sm.getCompactionCount());
+        assertEquals(0, sm.getLiveBytes());
+        
+        sm.setCompactionThreshold(0.5f);
+        sm.put("key", value);
+        sm.remove("key");
+        assertEquals(1, sm.getCompactionCount());
+        assertEquals(0, sm.getDeadBytes());
+        assertEquals(0, sm.getLiveBytes());
+    }
+    
+    @Test
+    public void testRemovingCollisions() throws Exception {
+        StringMap sm = new StringMap(true);
+        for (int i = 0; i < 1000; i++) {
+            sm.put("key-" + i, "value-" + i);
+        }
+        
+        // Removing keys that aren't in the map shouldn't remove other keys with the same hash.
+        for (int i = 1000; i < 2000; i++) {
+            assertNull(sm.remove("key-" + i));
+        }
+        
+        assertEquals(1000, sm.size());
+        
+        // Removing keys in the hash should leave their collision entries reachable.
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals("value-" + i, sm.remove("key-" + i));
+        }
+        
+        assertEquals(500, sm.size());
+        for (int i = 1; i < 1000; i += 2) {
+            assertEquals("value-" + i, sm.get("key-" + i));
+        }
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sm.write(new DataOutputStream(bytes));
+        StringMap sm2 = new StringMap(true);
+        sm2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(500, sm2.size());
+        for (int i = 1; i < 1000; i += 2) {
+            assertEquals("value-" + i, sm2.get("key-" + i));
+        }
+    }
+    
+    @Test
+    public void testIteration() throws Exception {
+        StringMap sm = new StringMap(true, 16);
+        Map<String, String> expected = new HashMap<String, String>();
+        for (int i = 0; i < 1000; i++) {
+            sm.put("key-" + i, "value-" + i);
+            expected.put("key-" + i, "value-" + i);
+        }
+        
+        // Create some gaps, via removals and in-place updates.
+        for (int i = 0; i < 1000; i += 3) {
+            sm.remove("key-" + i);
+            expected.remove("key-" + i);
+        }
+        
+        for (int i = 1; i < 1000; i += 3) {
+            sm.put("key-" + i, "v" + i);
+            expected.put("key-" + i, "v" + i);
+        }
+        
+        Map<String, String> found = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : sm.entrySet()) {
+            assertNull(found.put(entry.getKey(), entry.getValue()));
+        }
+        
+        assertEquals(expected, found);
+        assertEquals(expected.keySet(), new HashSet<String>(sm.keySet()));
+        assertEquals(expected.size(), sm.values().size());
+        assertTrue(new ArrayList<String>(sm.values()).containsAll(expected.values()));
+        assertTrue(sm.containsValue("v1"));
+        assertFalse(sm.containsValue("value-0"));
+        
+        found.clear();
+        StringMap.Cursor cursor = sm.cursor();
+        while (cursor.next()) {
+            ByteSlice key = cursor.getKey();
+            ByteSlice value = cursor.getValue();
+            assertNull(found.put(key.toString(), value.toString()));
+        }
+        
+        assertEquals(expected, found);
+        
+        StringMap sm2 = new StringMap();
+        sm2.putAll(sm);
+        assertEquals(expected.size(), sm2.size());
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), sm2.get(entry.getKey()));
+        }
+    }
+    
     @Test
     public void testRemovingEntry() throws Exception {
         StringMap sm = new StringMap();
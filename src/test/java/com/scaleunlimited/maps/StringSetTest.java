@@ -2,15 +2,26 @@ package com.scaleunlimited.maps;
 
 import static junit.framework.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.junit.Test;
 
@@ -166,6 +177,388 @@ public class StringSetTest {
         }
     }
     
+    @Test
+    public void testOffHeap() throws Exception {
+        StringSet ss = new StringSet(true, new DirectByteArena(1024));
+        
+        final int numKeys = 10000;
+        for (int i = 0; i < numKeys; i++) {
+            String s = "test-" + i;
+            assertFalse(ss.contains(s));
+            assertTrue(ss.add(s));
+            assertTrue(ss.contains(s));
+        }
+        
+        assertTrue(ss.remove("test-0"));
+        assertFalse(ss.contains("test-0"));
+        assertEquals(numKeys - 1, ss.size());
+    }
+    
+    @Test
+    public void testMapped() throws Exception {
+        StringSet ss = new StringSet(true);
+        
+        final int numKeys = 1000;
+        for (int i = 0; i < numKeys; i++) {
+            assertTrue(ss.add("test-" + i));
+        }
+        
+        File dir = new File("build/test/StringSetTest/testMapped/");
+        dir.mkdirs();
+        File file = new File(dir, "string.set");
+        file.delete();
+        
+        OutputStream os = new FileOutputStream(file);
+        DataOutputStream out = new DataOutputStream(os);
+        ss.write(out);
+        out.close();
+        
+        StringSet ss2 = StringSet.map(file);
+        assertEquals(numKeys, ss2.size());
+        for (int i = 0; i < numKeys; i++) {
+            assertTrue(ss2.contains("test-" + i));
+        }
+        
+        // We should be able to modify the set, without changing the file.
+        assertTrue(ss2.remove("test-0"));
+        assertTrue(ss2.add("new-value"));
+        assertTrue(ss2.contains("new-value"));
+        assertFalse(ss2.contains("test-0"));
+        
+        StringSet ss3 = StringSet.map(file);
+        assertEquals(numKeys, ss3.size());
+        assertTrue(ss3.contains("test-0"));
+        assertFalse(ss3.contains("new-value"));
+    }
+    
+    @Test
+    public void testMappedWithIndex() throws Exception {
+        StringSet ss = new StringSet(true);
+        
+        final int numKeys = 1000;
+        for (int i = 0; i < numKeys; i++) {
+            assertTrue(ss.add("test-" + i));
+        }
+        
+        ss.enableBloomFilter(numKeys, 0.01);
+        
+        File dir = new File("build/test/StringSetTest/testMappedWithIndex/");
+        dir.mkdirs();
+        File file = new File(dir, "string.set");
+        file.delete();
+        
+        OutputStream os = new FileOutputStream(file);
+        DataOutputStream out = new DataOutputStream(os);
+        ss.write(out, true);
+        out.close();
+        
+        // Most of the strings are in the collision set (since we use a small hash), so this
+        // also checks that those still work with the mapped hash table.
+        StringSet ss2 = StringSet.map(file);
+        assertEquals(numKeys, ss2.size());
+        assertNotNull(ss2.getBloomFilter());
+        for (int i = 0; i < numKeys; i++) {
+            assertTrue(ss2.contains("test-" + i));
+        }
+        
+        assertFalse(ss2.contains("missing"));
+        
+        // We should be able to modify the set, without changing the file.
+        assertTrue(ss2.remove("test-0"));
+        assertTrue(ss2.add("new-value"));
+        assertTrue(ss2.contains("new-value"));
+        assertFalse(ss2.contains("test-0"));
+        
+        StringSet ss3 = StringSet.map(file);
+        assertEquals(numKeys, ss3.size());
+        assertTrue(ss3.contains("test-0"));
+        assertFalse(ss3.contains("new-value"));
+        
+        // The data can also be read the regular way.
+        InputStream is = new FileInputStream(file);
+        StringSet ss4 = new StringSet();
+        ss4.readFields(new DataInputStream(is));
+        is.close();
+        assertEquals(numKeys, ss4.size());
+        for (int i = 0; i < numKeys; i++) {
+            assertTrue(ss4.contains("test-" + i));
+        }
+    }
+    
+    @Test
+    public void testLongHashWithIndex() throws Exception {
+        StringSet ss = new StringSet(new Murmur3HashFunction(64));
+        for (int i = 0; i < 1000; i++) {
+            ss.add("test-" + i);
+        }
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ss.write(new DataOutputStream(bytes), true);
+        
+        StringSet ss2 = new StringSet(new Murmur3HashFunction(64));
+        ss2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(1000, ss2.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(ss2.contains("test-" + i));
+        }
+        
+        // Reading it with a different size of hash should fail.
+        try {
+            new StringSet().readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            fail("Should have thrown exception");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+    
+    @Test
+    public void testCharSequenceAndBytes() throws Exception {
+        StringSet ss = new StringSet(true, 16);
+        String[] strings = { "ascii", "caf\u00e9", "\u65e5\u672c\u8a9e", "emoji \ud83d\ude00", "bad \ud83d" };
+        for (String s : strings) {
+            assertTrue(ss.add(s));
+        }
+        
+        for (int i = 0; i < 1000; i++) {
+            ss.add("test-" + i);
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        for (String s : strings) {
+            sb.setLength(0);
+            sb.append(s);
+            assertTrue(s, ss.contains(sb));
+            
+            sb.append('x');
+            assertFalse(s, ss.contains(sb));
+            
+            byte[] bytes = HashUtils.getUTF8Bytes("xx" + s);
+            assertTrue(s, ss.contains(bytes, 2, bytes.length - 2));
+            assertFalse(s, ss.contains(bytes, 0, bytes.length));
+        }
+        
+        // And we should still find entries that are in the collision set.
+        for (int i = 0; i < 1000; i++) {
+            sb.setLength(0);
+            sb.append("test-" + i);
+            assertTrue(ss.contains(sb));
+            byte[] bytes = HashUtils.getUTF8Bytes(sb.toString());
+            assertTrue(ss.contains(bytes, 0, bytes.length));
+        }
+    }
+    
+    @Test
+    public void testSmallExpectedSize() throws Exception {
+        // Start with room for just a few strings, and make sure that everything grows.
+        StringSet ss = new StringSet(false, 16, 2);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(ss.add("test-" + i));
+        }
+        
+        assertEquals(1000, ss.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(ss.contains("test-" + i));
+        }
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ss.write(new DataOutputStream(baos));
+        
+        StringSet ss2 = new StringSet(false, 16, 0);
+        ss2.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals(1000, ss2.size());
+        assertTrue(ss2.contains("test-999"));
+    }
+    
+    @Test
+    public void testLongHash() throws Exception {
+        StringSet ss = new StringSet(new Murmur3HashFunction(64));
+        final int numEntries = 100000;
+        for (int i = 0; i < numEntries; i++) {
+            assertTrue(ss.add("test-" + i));
+        }
+        
+        assertFalse(ss.add("test-0"));
+        assertEquals(numEntries, ss.size());
+        assertTrue(ss.remove("test-0"));
+        assertFalse(ss.contains("test-0"));
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ss.write(new DataOutputStream(bytes));
+        
+        StringSet ss2 = new StringSet(new Murmur3HashFunction(64));
+        ss2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(numEntries - 1, ss2.size());
+        assertFalse(ss2.contains("test-0"));
+        for (int i = 1; i < numEntries; i++) {
+            assertTrue(ss2.contains(new StringBuilder("test-" + i)));
+        }
+    }
+    
+    @Test
+    public void testLongHashCollisions() throws Exception {
+        StringSet ss = new StringSet(true, new ByteArena(), new Murmur3HashFunction(64));
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(ss.add("test-" + i));
+        }
+        
+        assertEquals(1000, ss.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(ss.contains("test-" + i));
+        }
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ss.write(new DataOutputStream(bytes));
+        
+        StringSet ss2 = new StringSet(true, new ByteArena(), new Murmur3HashFunction(64));
+        ss2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(1000, ss2.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(ss2.contains("test-" + i));
+        }
+    }
+    
+    @Test
+    public void testRemovingCollisions() throws Exception {
+        StringSet ss = new StringSet(true);
+        for (int i = 0; i < 1000; i++) {
+            ss.add("test-" + i);
+        }
+        
+        for (int i = 1000; i < 2000; i++) {
+            assertFalse(ss.remove("test-" + i));
+        }
+        
+        assertEquals(1000, ss.size());
+        
+        for (int i = 0; i < 1000; i += 2) {
+            assertTrue(ss.remove("test-" + i));
+        }
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ss.write(new DataOutputStream(bytes));
+        StringSet ss2 = new StringSet(true);
+        ss2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        
+        for (StringSet set : new StringSet[] { ss, ss2 }) {
+            assertEquals(500, set.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals((i % 2) == 1, set.contains("test-" + i));
+            }
+        }
+    }
+    
+    @Test
+    public void testIteration() throws Exception {
+        // Small hash and small blocks, so we have collision entries and strings that span blocks.
+        StringSet ss = new StringSet(true, 16);
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            ss.add("test-" + i);
+            expected.add("test-" + i);
+        }
+        
+        for (int i = 0; i < 1000; i += 3) {
+            ss.remove("test-" + i);
+            expected.remove("test-" + i);
+        }
+        
+        Set<String> found = new HashSet<String>();
+        for (String s : ss) {
+            assertTrue(found.add(s));
+        }
+        
+        assertEquals(expected, found);
+        
+        found.clear();
+        StringSet.Cursor cursor = ss.cursor();
+        while (cursor.next()) {
+            ByteSlice slice = cursor.getString();
+            assertTrue(found.add(HashUtils.getUTF8String(slice.getBytes(), slice.getOffset(), slice.getLength())));
+        }
+        
+        assertEquals(expected, found);
+        
+        String[] strings = ss.toArray(new String[0]);
+        assertEquals(expected.size(), strings.length);
+        assertEquals(expected, new HashSet<String>(Arrays.asList(strings)));
+        assertEquals(expected.size(), ss.toArray().length);
+        assertTrue(ss.containsAll(expected));
+    }
+    
+    @Test
+    public void testBulkOperations() throws Exception {
+        StringSet ss = new StringSet(true);
+        List<String> strings = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            strings.add("test-" + i);
+        }
+        
+        assertTrue(ss.addAll(strings));
+        assertFalse(ss.addAll(strings));
+        assertEquals(1000, ss.size());
+        
+        StringSet other = new StringSet();
+        for (int i = 500; i < 1500; i++) {
+            other.add("test-" + i);
+        }
+        
+        assertTrue(ss.retainAll(other));
+        assertEquals(500, ss.size());
+        for (int i = 0; i < 1500; i++) {
+            assertEquals((i >= 500) && (i < 1000), ss.contains("test-" + i));
+        }
+        
+        assertTrue(other.removeAll(ss));
+        assertEquals(500, other.size());
+        assertFalse(other.contains("test-500"));
+        assertTrue(other.contains("test-1000"));
+    }
+    
+    @Test
+    public void testBloomFilter() throws Exception {
+        StringSet ss = new StringSet(new Murmur3HashFunction(64));
+        for (int i = 0; i < 5000; i++) {
+            ss.add("test-" + i);
+        }
+        
+        // Enabling should add the existing strings, and adding more should grow the filter.
+        ss.enableBloomFilter(5000, 0.01);
+        for (int i = 5000; i < 20000; i++) {
+            ss.add("test-" + i);
+        }
+        
+        BloomFilter filter = ss.getBloomFilter();
+        assertTrue(filter.getCapacity() >= 20000);
+        
+        for (int i = 0; i < 20000; i++) {
+            assertTrue(ss.contains("test-" + i));
+        }
+        
+        assertEquals(0, filter.getNumRejected());
+        
+        for (int i = 0; i < 100000; i++) {
+            assertFalse(ss.contains("missing-" + i));
+        }
+        
+        assertEquals(100000, filter.getNumRejected() + filter.getNumFalsePositives());
+        assertTrue("False positive rate is " + filter.getFalsePositiveRate(), filter.getFalsePositiveRate() < 0.03);
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ss.write(new DataOutputStream(bytes));
+        StringSet ss2 = new StringSet(new Murmur3HashFunction(64));
+        ss2.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        
+        assertNotNull(ss2.getBloomFilter());
+        assertEquals(filter.getCapacity(), ss2.getBloomFilter().getCapacity());
+        for (int i = 0; i < 20000; i++) {
+            assertTrue(ss2.contains("test-" + i));
+        }
+        
+        ss2.disableBloomFilter();
+        assertNull(ss2.getBloomFilter());
+        assertTrue(ss2.contains("test-0"));
+    }
+    
     @Test
     public void testRemovingEntry() throws Exception {
         StringSet ss = new StringSet();
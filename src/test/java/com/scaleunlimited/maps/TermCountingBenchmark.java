@@ -0,0 +1,101 @@
+package com.scaleunlimited.maps;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compare per-document term counting using a HashMap<String, Integer> (what the ml code
+ * did originally) versus a reused {@link StringIntMap}.
+ *
+ * This isn't run as part of the unit tests. Run it with something like:
+ *
+ *   java -Xmx2g -cp <classpath> com.scaleunlimited.maps.TermCountingBenchmark 10000
+ *
+ * Each measurement is repeated a few times, so that the JIT has compiled everything
+ * before we report the last (warmed up) result.
+ */
+public class TermCountingBenchmark {
+
+    private static final int NUM_ROUNDS = 5;
+    private static final int TERMS_PER_DOC = 500;
+    private static final int VOCABULARY_SIZE = 50000;
+
+    // So the JIT can't skip the counting.
+    private static long _sink = 0;
+
+    public static void main(String[] args) {
+        int numDocs = 10000;
+        if (args.length > 0) {
+            numDocs = Integer.parseInt(args[0]);
+        }
+
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            vocabulary[i] = "term" + i;
+        }
+
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            String[][] docs = makeDocs(vocabulary, numDocs);
+            long startTime = System.nanoTime();
+            countWithHashMap(docs, numDocs);
+            long hashMapNanos = System.nanoTime() - startTime;
+
+            docs = makeDocs(vocabulary, numDocs);
+            startTime = System.nanoTime();
+            countWithStringIntMap(docs, numDocs);
+            long stringIntMapNanos = System.nanoTime() - startTime;
+
+            System.out.println(String.format("Round %d: HashMap<String, Integer> %.1f ns/term, StringIntMap %.1f ns/term",
+                            round, (double)hashMapNanos / (numDocs * TERMS_PER_DOC),
+                            (double)stringIntMapNanos / (numDocs * TERMS_PER_DOC)));
+        }
+
+        System.out.println("(ignore) " + _sink);
+    }
+
+    /**
+     * Zipf-ish term distribution, so that some terms repeat a lot within a document. Each
+     * term is a new String, the same as we'd get from a parser, so its hash code isn't cached.
+     */
+    private static String[][] makeDocs(String[] vocabulary, int numDocs) {
+        Random rand = new Random(1L);
+        String[][] result = new String[numDocs][TERMS_PER_DOC];
+        for (String[] doc : result) {
+            for (int i = 0; i < TERMS_PER_DOC; i++) {
+                doc[i] = new String(vocabulary[(int)Math.pow(VOCABULARY_SIZE, rand.nextDouble()) - 1]);
+            }
+        }
+
+        return result;
+    }
+
+    private static void countWithHashMap(String[][] docs, int numDocs) {
+        for (int i = 0; i < numDocs; i++) {
+            Map<String, Integer> terms = new HashMap<String, Integer>();
+            for (String term : docs[i]) {
+                Integer termCount = terms.get(term);
+                terms.put(term, termCount == null ? 1 : termCount + 1);
+            }
+
+            for (Map.Entry<String, Integer> entry : terms.entrySet()) {
+                _sink += entry.getValue();
+            }
+        }
+    }
+
+    private static void countWithStringIntMap(String[][] docs, int numDocs) {
+        StringIntMap terms = new StringIntMap();
+        for (int i = 0; i < numDocs; i++) {
+            terms.clear();
+            for (String term : docs[i]) {
+                terms.addTo(term, 1);
+            }
+
+            StringIntMap.Cursor cursor = terms.cursor();
+            while (cursor.next()) {
+                _sink += cursor.getValue();
+            }
+        }
+    }
+}